@@ -15,7 +15,6 @@
  */
 package com.turn.ttorrent.bcodec;
 
-import java.io.ByteArrayInputStream;
 import java.io.EOFException;
 import java.io.IOException;
 import java.io.InputStream;
@@ -90,14 +89,14 @@ public class BDecoder {
    * Decode a B-encoded byte buffer.
    *
    * <p>
-   * Automatically instantiates a new BDecoder for the provided buffer and
-   * decodes its root member.
+   * Decodes the root member from the position of the buffer with {@link BufferDecoder},
+   * so byte strings are not copied.
    * </p>
    *
    * @param data The {@link ByteBuffer} to read from.
    */
   public static BEValue bdecode(ByteBuffer data) throws IOException {
-    return BDecoder.bdecode(new ByteArrayInputStream(data.array()));
+    return BufferDecoder.bdecode(data);
   }
 
   /**
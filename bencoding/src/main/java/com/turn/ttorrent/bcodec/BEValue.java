@@ -16,6 +16,7 @@
 package com.turn.ttorrent.bcodec;
 
 import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
@@ -30,15 +31,47 @@ import java.util.Map;
 public class BEValue {
 
   /**
-   * The B-encoded value can be a byte array, a Number, a List or a Map.
+   * The B-encoded value can be a byte array, a byte buffer, a Number, a List or a Map.
    * Lists and Maps contains BEValues too.
    */
   private final Object value;
 
+  /**
+   * Array which backs the read-only buffer value created by decoders, it allows to read the value
+   * without copying and isn't exposed to users of the value
+   */
+  private byte[] array;
+  private int arrayOffset;
+
   public BEValue(byte[] value) {
     this.value = value;
   }
 
+  /**
+   * creates byte string value backed by remaining bytes of the buffer, the buffer must not be changed
+   */
+  public BEValue(ByteBuffer value) {
+    this.value = value;
+  }
+
+  /**
+   * Creates byte string value backed by read-only slice of the buffer without copying of data
+   *
+   * @param data   buffer with the byte string
+   * @param start  position of the byte string in the buffer
+   * @param length length of the byte string
+   */
+  static BEValue slice(ByteBuffer data, int start, int length) {
+    final ByteBuffer slice = data.duplicate();
+    slice.limit(start + length).position(start);
+    final BEValue result = new BEValue(slice.slice().asReadOnlyBuffer());
+    if (data.hasArray()) {
+      result.array = data.array();
+      result.arrayOffset = data.arrayOffset() + start;
+    }
+    return result;
+  }
+
   public BEValue(String value) throws UnsupportedEncodingException {
     this.value = value.getBytes("UTF-8");
   }
@@ -91,25 +124,68 @@ public class BEValue {
    */
   public String getString(String encoding) throws InvalidBEncodingException {
     try {
+      if (this.array != null) {
+        return new String(this.array, this.arrayOffset, ((ByteBuffer) this.value).remaining(), encoding);
+      }
+      if (this.value instanceof ByteBuffer) {
+        final ByteBuffer buffer = (ByteBuffer) this.value;
+        if (buffer.hasArray()) {
+          return new String(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining(), encoding);
+        }
+      }
       return new String(this.getBytes(), encoding);
-    } catch (ClassCastException cce) {
-      throw new InvalidBEncodingException(cce.toString());
     } catch (UnsupportedEncodingException uee) {
       throw new InternalError(uee.toString());
     }
   }
 
   /**
-   * Returns this BEValue as a byte[].
+   * Returns this BEValue as a byte[]. Value which is backed by a buffer is copied into new array
+   * on each invocation.
    *
-   * @throws InvalidBEncodingException If the value is not a byte[].
+   * @throws InvalidBEncodingException If the value is not a byte string.
    */
   public byte[] getBytes() throws InvalidBEncodingException {
-    try {
+    if (this.value instanceof byte[]) {
       return (byte[]) this.value;
-    } catch (ClassCastException cce) {
-      throw new InvalidBEncodingException(cce.toString());
     }
+    if (this.value instanceof ByteBuffer) {
+      final ByteBuffer buffer = ((ByteBuffer) this.value).duplicate();
+      final byte[] result = new byte[buffer.remaining()];
+      buffer.get(result);
+      return result;
+    }
+    throw new InvalidBEncodingException("Expected byte string, not " + describeValue());
+  }
+
+  /**
+   * Returns this BEValue as a read-only buffer without copying of data.
+   *
+   * @throws InvalidBEncodingException If the value is not a byte string.
+   */
+  public ByteBuffer getBuffer() throws InvalidBEncodingException {
+    if (this.value instanceof ByteBuffer) {
+      return ((ByteBuffer) this.value).asReadOnlyBuffer();
+    }
+    if (this.value instanceof byte[]) {
+      return ByteBuffer.wrap((byte[]) this.value).asReadOnlyBuffer();
+    }
+    throw new InvalidBEncodingException("Expected byte string, not " + describeValue());
+  }
+
+  /**
+   * @return array which backs read-only buffer value or null, data of the value starts at {@link #getArrayOffset()}
+   */
+  byte[] getArray() {
+    return this.array;
+  }
+
+  int getArrayOffset() {
+    return this.arrayOffset;
+  }
+
+  private String describeValue() {
+    return this.value == null ? "null" : this.value.getClass().getName();
   }
 
   /**
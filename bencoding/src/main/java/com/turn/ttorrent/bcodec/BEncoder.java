@@ -15,7 +15,6 @@
  */
 package com.turn.ttorrent.bcodec;
 
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.nio.ByteBuffer;
@@ -42,13 +41,20 @@ public class BEncoder {
   public static void bencode(Object o, OutputStream out)
           throws IOException, IllegalArgumentException {
     if (o instanceof BEValue) {
-      o = ((BEValue) o).getValue();
+      final BEValue value = (BEValue) o;
+      if (value.getArray() != null) {
+        bencode(value.getArray(), value.getArrayOffset(), ((ByteBuffer) value.getValue()).remaining(), out);
+        return;
+      }
+      o = value.getValue();
     }
 
     if (o instanceof String) {
       bencode((String) o, out);
     } else if (o instanceof byte[]) {
       bencode((byte[]) o, out);
+    } else if (o instanceof ByteBuffer) {
+      bencode((ByteBuffer) o, out);
     } else if (o instanceof Number) {
       bencode((Number) o, out);
     } else if (o instanceof List) {
@@ -83,10 +89,34 @@ public class BEncoder {
   }
 
   public static void bencode(byte[] bs, OutputStream out) throws IOException {
-    String l = Integer.toString(bs.length);
+    bencode(bs, 0, bs.length, out);
+  }
+
+  private static void bencode(byte[] bs, int offset, int length, OutputStream out) throws IOException {
+    String l = Integer.toString(length);
+    out.write(l.getBytes("UTF-8"));
+    out.write(':');
+    out.write(bs, offset, length);
+  }
+
+  /**
+   * encodes remaining bytes of the buffer as byte string, position of the buffer isn't changed
+   */
+  public static void bencode(ByteBuffer bs, OutputStream out) throws IOException {
+    String l = Integer.toString(bs.remaining());
     out.write(l.getBytes("UTF-8"));
     out.write(':');
-    out.write(bs);
+    if (bs.hasArray()) {
+      out.write(bs.array(), bs.arrayOffset() + bs.position(), bs.remaining());
+      return;
+    }
+    final ByteBuffer data = bs.duplicate();
+    final byte[] chunk = new byte[Math.min(data.remaining(), 8192)];
+    while (data.hasRemaining()) {
+      final int length = Math.min(data.remaining(), chunk.length);
+      data.get(chunk, 0, length);
+      out.write(chunk, 0, length);
+    }
   }
 
   public static void bencode(Map<String, BEValue> m, OutputStream out)
@@ -109,9 +139,6 @@ public class BEncoder {
 
   public static ByteBuffer bencode(Map<String, BEValue> m)
           throws IOException {
-    ByteArrayOutputStream baos = new ByteArrayOutputStream();
-    BEncoder.bencode(m, baos);
-    baos.close();
-    return ByteBuffer.wrap(baos.toByteArray());
+    return BufferEncoder.bencode(m);
   }
 }
@@ -0,0 +1,370 @@
+package com.turn.ttorrent.bcodec;
+
+import java.io.EOFException;
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+
+/**
+ * Pull reader of b-encoded data in a {@link ByteBuffer}.
+ *
+ * <p>
+ * The reader reports structure of the data as tokens (start and end of dictionaries and lists,
+ * dictionary keys, byte strings and integers) without building of {@link BEValue} trees, so a caller
+ * can extract few fields of a large document and stop reading at any moment. Reading of tokens and
+ * skipping of subtrees don't allocate memory, data of byte strings is accessed only on request.
+ * </p>
+ *
+ * <pre>
+ *   BReader reader = new BReader(buffer);
+ *   reader.next(); // DICT_START
+ *   while (reader.next() == BReader.Token.KEY) {
+ *     if (reader.isKey("interval")) {
+ *       reader.next();
+ *       interval = reader.getInt();
+ *     } else {
+ *       reader.next();
+ *       reader.skip();
+ *     }
+ *   }
+ * </pre>
+ *
+ * <p>
+ * Position of the buffer isn't changed. Only the first value from the position of the buffer is read.
+ * </p>
+ */
+public class BReader {
+
+  public enum Token {
+    DICT_START, DICT_END, LIST_START, LIST_END, KEY, BYTES, INTEGER,
+    /**
+     * the root value is read or the buffer doesn't contain data
+     */
+    END
+  }
+
+  private static final byte IN_LIST = 0;
+  private static final byte IN_DICT_KEY = 1;
+  private static final byte IN_DICT_VALUE = 2;
+
+  private final ByteBuffer data;
+  private final int limit;
+  private int position;
+  private byte[] stack = new byte[16];
+  private int[] starts = new int[16];
+  private int depth = 0;
+  private boolean rootRead = false;
+
+  private Token token;
+  private int tokenStart;
+  private int bytesStart;
+  private int bytesLength;
+  private long number;
+  private boolean numberOverflow;
+
+  public BReader(ByteBuffer data) {
+    this.data = data.duplicate();
+    this.position = data.position();
+    this.limit = data.limit();
+  }
+
+  /**
+   * Reads next token.
+   *
+   * @throws InvalidBEncodingException if data isn't correct b-encoded value
+   * @throws EOFException              if data ends before the end of the root value
+   */
+  public Token next() throws InvalidBEncodingException, EOFException {
+    tokenStart = position;
+    if (depth == 0 && (rootRead || position >= limit)) {
+      return token = Token.END;
+    }
+    final int c = peek();
+    if (c == 'e') {
+      if (depth == 0) throw new InvalidBEncodingException("Unexpected 'e'");
+      final byte state = stack[depth - 1];
+      if (state == IN_DICT_VALUE) throw new InvalidBEncodingException("Value of dictionary key expected, not 'e'");
+      position++;
+      depth--;
+      tokenStart = starts[depth];
+      token = state == IN_LIST ? Token.LIST_END : Token.DICT_END;
+      valueRead();
+      return token;
+    }
+    if (depth > 0 && stack[depth - 1] == IN_DICT_KEY) {
+      if (c < '0' || c > '9') {
+        throw new InvalidBEncodingException("Dictionary key expected, not '" + (char) c + "'");
+      }
+      readBytes();
+      stack[depth - 1] = IN_DICT_VALUE;
+      return token = Token.KEY;
+    }
+    if (c >= '0' && c <= '9') {
+      readBytes();
+      token = Token.BYTES;
+      valueRead();
+    } else if (c == 'i') {
+      readNumber();
+      token = Token.INTEGER;
+      valueRead();
+    } else if (c == 'l') {
+      position++;
+      push(IN_LIST);
+      token = Token.LIST_START;
+    } else if (c == 'd') {
+      position++;
+      push(IN_DICT_KEY);
+      token = Token.DICT_START;
+    } else {
+      throw new InvalidBEncodingException("Unknown indicator '" + c + "'");
+    }
+    return token;
+  }
+
+  /**
+   * Skips the subtree if the current token is the start of a dictionary or a list,
+   * then the current token is the end of the dictionary or the list. Does nothing for other tokens
+   */
+  public void skip() throws InvalidBEncodingException, EOFException {
+    if (token != Token.DICT_START && token != Token.LIST_START) return;
+    final int targetDepth = depth - 1;
+    while (depth > targetDepth) {
+      next();
+    }
+  }
+
+  /**
+   * Decodes the current value into {@link BEValue}. If the current token is the start of a dictionary
+   * or a list, the whole subtree is decoded and the current token becomes the end of the subtree
+   */
+  public BEValue readValue() throws InvalidBEncodingException, EOFException {
+    switch (token) {
+      case BYTES:
+        return BEValue.slice(data, bytesStart, bytesLength);
+      case INTEGER:
+        return new BEValue(getLong());
+      case DICT_START:
+      case LIST_START:
+        final ByteBuffer value = data.duplicate();
+        value.position(tokenStart);
+        final BufferDecoder decoder = new BufferDecoder(value);
+        final BEValue result = decoder.bdecode();
+        position = decoder.getPosition();
+        token = token == Token.DICT_START ? Token.DICT_END : Token.LIST_END;
+        depth--;
+        valueRead();
+        return result;
+      default:
+        throw new IllegalStateException("Current token " + token + " isn't a value");
+    }
+  }
+
+  public Token getToken() {
+    return token;
+  }
+
+  /**
+   * @return count of dictionaries and lists which contain the current position
+   */
+  public int getDepth() {
+    return depth;
+  }
+
+  /**
+   * @return position in the buffer of the first byte of the current token. For the end of a dictionary
+   * or a list it's position of the start of the dictionary or the list
+   */
+  public int getTokenStart() {
+    return tokenStart;
+  }
+
+  /**
+   * @return position in the buffer after the current token
+   */
+  public int getPosition() {
+    return position;
+  }
+
+  /**
+   * @return read-only slice of the buffer with b-encoded bytes of the current token. For the end
+   * of a dictionary or a list (e.g. after {@link #skip()}) it contains the whole dictionary or list
+   */
+  public ByteBuffer getRaw() {
+    final ByteBuffer result = data.duplicate();
+    result.limit(position).position(tokenStart);
+    return result.slice().asReadOnlyBuffer();
+  }
+
+  /**
+   * @return true if the current token is dictionary key equal to specified key in UTF-8.
+   * ASCII keys are compared without allocation
+   */
+  public boolean isKey(String key) {
+    if (token != Token.KEY) return false;
+    for (int i = 0; i < key.length(); i++) {
+      if (key.charAt(i) >= 0x80) return isKey(encodeUtf8(key));
+    }
+    if (bytesLength != key.length()) return false;
+    for (int i = 0; i < bytesLength; i++) {
+      if ((data.get(bytesStart + i) & 0xFF) != key.charAt(i)) return false;
+    }
+    return true;
+  }
+
+  private boolean isKey(byte[] key) {
+    if (bytesLength != key.length) return false;
+    for (int i = 0; i < bytesLength; i++) {
+      if (data.get(bytesStart + i) != key[i]) return false;
+    }
+    return true;
+  }
+
+  private static byte[] encodeUtf8(String value) {
+    try {
+      return value.getBytes("UTF-8");
+    } catch (UnsupportedEncodingException e) {
+      throw new InternalError(e.toString());
+    }
+  }
+
+  /**
+   * @return length of the current key or byte string
+   */
+  public int getBytesLength() {
+    checkBytes();
+    return bytesLength;
+  }
+
+  /**
+   * @return read-only slice of the buffer with data of the current key or byte string
+   */
+  public ByteBuffer getBuffer() {
+    checkBytes();
+    final ByteBuffer result = data.duplicate();
+    result.limit(bytesStart + bytesLength).position(bytesStart);
+    return result.slice().asReadOnlyBuffer();
+  }
+
+  public String getString() throws InvalidBEncodingException {
+    return getString("UTF-8");
+  }
+
+  public String getString(String encoding) throws InvalidBEncodingException {
+    checkBytes();
+    try {
+      if (data.hasArray()) {
+        return new String(data.array(), data.arrayOffset() + bytesStart, bytesLength, encoding);
+      }
+      final byte[] bytes = new byte[bytesLength];
+      final ByteBuffer value = data.duplicate();
+      value.position(bytesStart);
+      value.get(bytes);
+      return new String(bytes, encoding);
+    } catch (UnsupportedEncodingException e) {
+      throw new InternalError(e.toString());
+    }
+  }
+
+  /**
+   * @throws InvalidBEncodingException if the current token isn't integer or the integer doesn't fit into long
+   */
+  public long getLong() throws InvalidBEncodingException {
+    if (token != Token.INTEGER) throw new InvalidBEncodingException("Integer expected, not " + token);
+    if (numberOverflow) throw new InvalidBEncodingException("Integer is too big");
+    return number;
+  }
+
+  public int getInt() throws InvalidBEncodingException {
+    return (int) getLong();
+  }
+
+  private void checkBytes() {
+    if (token != Token.KEY && token != Token.BYTES) {
+      throw new IllegalStateException("Current token " + token + " isn't a byte string");
+    }
+  }
+
+  private void valueRead() {
+    if (depth == 0) {
+      rootRead = true;
+    } else if (stack[depth - 1] == IN_DICT_VALUE) {
+      stack[depth - 1] = IN_DICT_KEY;
+    }
+  }
+
+  private void push(byte state) {
+    if (depth == stack.length) {
+      final byte[] newStack = new byte[stack.length * 2];
+      System.arraycopy(stack, 0, newStack, 0, stack.length);
+      stack = newStack;
+      final int[] newStarts = new int[starts.length * 2];
+      System.arraycopy(starts, 0, newStarts, 0, starts.length);
+      starts = newStarts;
+    }
+    starts[depth] = tokenStart;
+    stack[depth++] = state;
+  }
+
+  private void readBytes() throws InvalidBEncodingException, EOFException {
+    long length = read() - '0';
+    int c = read();
+    while (c >= '0' && c <= '9') {
+      length = length * 10 + c - '0';
+      if (length > limit) throw new EOFException();
+      c = read();
+    }
+    if (c != ':') {
+      throw new InvalidBEncodingException("Colon expected, not '" + (char) c + "'");
+    }
+    if (length > limit - position) throw new EOFException();
+    bytesStart = position;
+    bytesLength = (int) length;
+    position += bytesLength;
+  }
+
+  private void readNumber() throws InvalidBEncodingException, EOFException {
+    position++;
+    int c = read();
+    if (c == '0') {
+      c = read();
+      if (c != 'e') throw new InvalidBEncodingException("'e' expected after zero, not '" + (char) c + "'");
+      number = 0;
+      numberOverflow = false;
+      return;
+    }
+    final boolean negative = c == '-';
+    if (negative) {
+      c = read();
+      if (c == '0') throw new InvalidBEncodingException("Negative zero not allowed");
+    }
+    if (c < '1' || c > '9') {
+      throw new InvalidBEncodingException("Invalid Integer start '" + (char) c + "'");
+    }
+    // accumulated as negative value, so Long.MIN_VALUE can be read
+    long value = 0;
+    boolean overflow = false;
+    while (c >= '0' && c <= '9') {
+      final int digit = c - '0';
+      if (value < (Long.MIN_VALUE + digit) / 10) {
+        overflow = true;
+      } else {
+        value = value * 10 - digit;
+      }
+      c = read();
+    }
+    if (c != 'e') throw new InvalidBEncodingException("Integer should end with 'e'");
+    if (!negative && value == Long.MIN_VALUE) overflow = true;
+    number = negative ? value : -value;
+    numberOverflow = overflow;
+  }
+
+  private int peek() throws EOFException {
+    if (position >= limit) throw new EOFException();
+    return data.get(position) & 0xFF;
+  }
+
+  private int read() throws EOFException {
+    final int result = peek();
+    position++;
+    return result;
+  }
+}
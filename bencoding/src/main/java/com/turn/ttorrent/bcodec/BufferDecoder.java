@@ -0,0 +1,183 @@
+package com.turn.ttorrent.bcodec;
+
+import java.io.EOFException;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * B-encoding decoder of data in a {@link ByteBuffer}.
+ *
+ * <p>
+ * Unlike {@link BDecoder} this decoder doesn't copy byte strings: values of byte strings
+ * are read-only slices of the decoded buffer (see {@link BEValue#getBuffer()}), so large values
+ * like hashes of pieces are never copied unless {@link BEValue#getBytes()} is invoked.
+ * Numbers which fit into long are decoded as {@link Long}. The buffer can be a memory-mapped file,
+ * in this case the file must not be changed while decoded values are used.
+ * </p>
+ *
+ * <p>
+ * Position of the buffer isn't changed, data is decoded from the position of the buffer
+ * and {@link #getPosition()} returns position after the last decoded value.
+ * </p>
+ */
+public class BufferDecoder {
+
+  // numbers with more digits can overflow long
+  private static final int MAX_LONG_DIGITS = 18;
+
+  private final ByteBuffer data;
+  private final int limit;
+  private int position;
+
+  public BufferDecoder(ByteBuffer data) {
+    this.data = data.duplicate();
+    this.position = data.position();
+    this.limit = data.limit();
+  }
+
+  /**
+   * Decodes the first value from the position of the buffer.
+   *
+   * @return decoded value or null if the buffer doesn't have remaining bytes
+   */
+  public static BEValue bdecode(ByteBuffer data) throws InvalidBEncodingException, EOFException {
+    return new BufferDecoder(data).bdecode();
+  }
+
+  /**
+   * @return position in the buffer after the last decoded value
+   */
+  public int getPosition() {
+    return position;
+  }
+
+  /**
+   * Decodes next value.
+   *
+   * @return decoded value or null if the end of the buffer is reached
+   */
+  public BEValue bdecode() throws InvalidBEncodingException, EOFException {
+    if (position >= limit) return null;
+    return decodeValue();
+  }
+
+  private BEValue decodeValue() throws InvalidBEncodingException, EOFException {
+    final int indicator = peek();
+    if (indicator >= '0' && indicator <= '9') {
+      final int length = decodeLength();
+      final BEValue result = BEValue.slice(data, position, length);
+      position += length;
+      return result;
+    } else if (indicator == 'i') {
+      return new BEValue(decodeNumber());
+    } else if (indicator == 'l') {
+      return decodeList();
+    } else if (indicator == 'd') {
+      return decodeMap();
+    }
+    throw new InvalidBEncodingException("Unknown indicator '" + indicator + "'");
+  }
+
+  private int decodeLength() throws InvalidBEncodingException, EOFException {
+    int c = read();
+    if (c < '0' || c > '9') {
+      throw new InvalidBEncodingException("Number expected, not '" + (char) c + "'");
+    }
+    long length = c - '0';
+    c = read();
+    while (c >= '0' && c <= '9') {
+      length = length * 10 + c - '0';
+      if (length > limit) throw new EOFException();
+      c = read();
+    }
+    if (c != ':') {
+      throw new InvalidBEncodingException("Colon expected, not '" + (char) c + "'");
+    }
+    if (length > limit - position) throw new EOFException();
+    return (int) length;
+  }
+
+  private Number decodeNumber() throws InvalidBEncodingException, EOFException {
+    read();
+    final int start = position;
+    int c = read();
+    if (c == '0') {
+      c = read();
+      if (c == 'e') return 0L;
+      throw new InvalidBEncodingException("'e' expected after zero, not '" + (char) c + "'");
+    }
+    final boolean negative = c == '-';
+    if (negative) {
+      c = read();
+      if (c == '0') throw new InvalidBEncodingException("Negative zero not allowed");
+    }
+    if (c < '1' || c > '9') {
+      throw new InvalidBEncodingException("Invalid Integer start '" + (char) c + "'");
+    }
+    long value = 0;
+    int digits = 0;
+    while (c >= '0' && c <= '9') {
+      value = value * 10 + c - '0';
+      digits++;
+      c = read();
+    }
+    if (c != 'e') {
+      throw new InvalidBEncodingException("Integer should end with 'e'");
+    }
+    if (digits <= MAX_LONG_DIGITS) {
+      return negative ? -value : value;
+    }
+    final StringBuilder sb = new StringBuilder(position - start);
+    for (int i = start; i < position - 1; i++) {
+      sb.append((char) data.get(i));
+    }
+    return new BigInteger(sb.toString());
+  }
+
+  private BEValue decodeList() throws InvalidBEncodingException, EOFException {
+    read();
+    final List<BEValue> result = new ArrayList<BEValue>();
+    while (peek() != 'e') {
+      result.add(decodeValue());
+    }
+    position++;
+    return new BEValue(result);
+  }
+
+  private BEValue decodeMap() throws InvalidBEncodingException, EOFException {
+    read();
+    final Map<String, BEValue> result = new HashMap<String, BEValue>();
+    while (peek() != 'e') {
+      final String key = decodeKey();
+      result.put(key, decodeValue());
+    }
+    position++;
+    return new BEValue(result);
+  }
+
+  /**
+   * Dictionary keys are decoded in UTF-8 as {@link BEValue#getString()}. Keys of heap buffers
+   * are decoded without copying into byte array
+   */
+  private String decodeKey() throws InvalidBEncodingException, EOFException {
+    final int length = decodeLength();
+    final String result = BEValue.slice(data, position, length).getString();
+    position += length;
+    return result;
+  }
+
+  private int peek() throws EOFException {
+    if (position >= limit) throw new EOFException();
+    return data.get(position) & 0xFF;
+  }
+
+  private int read() throws EOFException {
+    final int result = peek();
+    position++;
+    return result;
+  }
+}
@@ -0,0 +1,386 @@
+package com.turn.ttorrent.bcodec;
+
+import java.io.UnsupportedEncodingException;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.util.*;
+
+/**
+ * B-encoding encoder which writes into a {@link ByteBuffer}.
+ *
+ * <p>
+ * Unlike {@link BEncoder} this encoder doesn't use streams and doesn't create intermediate byte arrays:
+ * size of encoded values can be calculated with {@link #encodedSize(Object)} before encoding, so data
+ * can be written into a buffer of exact size or into a reusable buffer provided by a caller.
+ * Strings and dictionary keys are encoded directly into the buffer.
+ * </p>
+ *
+ * <p>
+ * Messages with fixed set of keys can be written with {@link #startDictionary()}, {@link #writeKey(Key)},
+ * {@link #end()} and value methods. {@link Key}s are encoded once, keys must be written in sorted order,
+ * see {@link #sortedKeys(String...)}.
+ * </p>
+ *
+ * <pre>
+ *   private static final BufferEncoder.Key INTERVAL = new BufferEncoder.Key("interval");
+ *   ...
+ *   final ByteBuffer data = ByteBuffer.allocate(2 + INTERVAL.encodedSize() + BufferEncoder.integerSize(interval));
+ *   new BufferEncoder(data).startDictionary().writeKey(INTERVAL).writeInteger(interval).end();
+ *   data.flip();
+ * </pre>
+ */
+public class BufferEncoder {
+
+  private final ByteBuffer out;
+
+  /**
+   * @param out buffer for encoded data, data is written from the position of the buffer
+   */
+  public BufferEncoder(ByteBuffer out) {
+    this.out = out;
+  }
+
+  /**
+   * Encodes the value into new buffer of exact size.
+   *
+   * @return buffer with encoded value from its start to its limit
+   */
+  public static ByteBuffer bencode(Object value) throws IllegalArgumentException {
+    final ByteBuffer result = ByteBuffer.allocate(encodedSize(value));
+    new BufferEncoder(result).write(value);
+    result.flip();
+    return result;
+  }
+
+  /**
+   * @param value {@link BEValue} or the value of {@link BEValue}: String, byte[], ByteBuffer,
+   *              Number, List of BEValues or Map of BEValues
+   * @return count of bytes of b-encoded value
+   */
+  @SuppressWarnings("unchecked")
+  public static int encodedSize(Object value) throws IllegalArgumentException {
+    if (value instanceof BEValue) {
+      value = ((BEValue) value).getValue();
+    }
+
+    if (value instanceof byte[]) {
+      return bytesSize(((byte[]) value).length);
+    } else if (value instanceof ByteBuffer) {
+      return bytesSize(((ByteBuffer) value).remaining());
+    } else if (value instanceof String) {
+      return bytesSize(utf8Length((String) value));
+    } else if (value instanceof Number) {
+      if (isLong((Number) value)) {
+        return integerSize(((Number) value).longValue());
+      }
+      return 2 + value.toString().length();
+    } else if (value instanceof List) {
+      int result = 2;
+      for (BEValue item : (List<BEValue>) value) {
+        result += encodedSize(item);
+      }
+      return result;
+    } else if (value instanceof Map) {
+      int result = 2;
+      for (Map.Entry<String, BEValue> entry : ((Map<String, BEValue>) value).entrySet()) {
+        result += bytesSize(utf8Length(entry.getKey())) + encodedSize(entry.getValue());
+      }
+      return result;
+    }
+    throw new IllegalArgumentException("Cannot bencode: " + (value == null ? null : value.getClass()));
+  }
+
+  /**
+   * @return count of bytes of b-encoded integer
+   */
+  public static int integerSize(long value) {
+    return 2 + digitsCount(value);
+  }
+
+  /**
+   * @return count of bytes of b-encoded byte string with specified length
+   */
+  public static int bytesSize(int length) {
+    return digitsCount(length) + 1 + length;
+  }
+
+  /**
+   * @return encoded keys sorted in the order of b-encoded dictionaries
+   */
+  public static Key[] sortedKeys(String... names) {
+    final String[] sorted = names.clone();
+    Arrays.sort(sorted);
+    final Key[] result = new Key[sorted.length];
+    for (int i = 0; i < sorted.length; i++) {
+      result[i] = new Key(sorted[i]);
+    }
+    return result;
+  }
+
+  /**
+   * @return position of the buffer, i.e. position after the last written byte
+   */
+  public int getPosition() {
+    return out.position();
+  }
+
+  /**
+   * Encodes the value, maps are written with sorted keys.
+   *
+   * @throws BufferOverflowException if the buffer doesn't have enough space
+   * @see #encodedSize(Object)
+   */
+  @SuppressWarnings("unchecked")
+  public BufferEncoder write(Object value) throws IllegalArgumentException, BufferOverflowException {
+    if (value instanceof BEValue) {
+      final BEValue beValue = (BEValue) value;
+      if (beValue.getArray() != null) {
+        final int length = ((ByteBuffer) beValue.getValue()).remaining();
+        writeBytesLength(length);
+        out.put(beValue.getArray(), beValue.getArrayOffset(), length);
+        return this;
+      }
+      value = beValue.getValue();
+    }
+
+    if (value instanceof byte[]) {
+      return writeBytes((byte[]) value);
+    } else if (value instanceof ByteBuffer) {
+      return writeBytes((ByteBuffer) value);
+    } else if (value instanceof String) {
+      return writeString((String) value);
+    } else if (value instanceof Number) {
+      if (isLong((Number) value)) {
+        return writeInteger(((Number) value).longValue());
+      }
+      out.put((byte) 'i');
+      putChars(value.toString());
+      out.put((byte) 'e');
+      return this;
+    } else if (value instanceof List) {
+      startList();
+      for (BEValue item : (List<BEValue>) value) {
+        write(item);
+      }
+      return end();
+    } else if (value instanceof Map) {
+      return writeMap((Map<String, BEValue>) value);
+    }
+    throw new IllegalArgumentException("Cannot bencode: " + (value == null ? null : value.getClass()));
+  }
+
+  public BufferEncoder writeInteger(long value) {
+    out.put((byte) 'i');
+    putLong(value);
+    out.put((byte) 'e');
+    return this;
+  }
+
+  public BufferEncoder writeBytes(byte[] value) {
+    putLong(value.length);
+    out.put((byte) ':');
+    out.put(value);
+    return this;
+  }
+
+  /**
+   * encodes remaining bytes of the buffer as byte string, position of the buffer isn't changed
+   */
+  public BufferEncoder writeBytes(ByteBuffer value) {
+    putLong(value.remaining());
+    out.put((byte) ':');
+    out.put(value.duplicate());
+    return this;
+  }
+
+  /**
+   * Writes the length prefix of a byte string, then the caller must put exactly specified count of bytes
+   * into the buffer. It allows to write data of the byte string without intermediate arrays
+   */
+  public BufferEncoder writeBytesLength(int length) {
+    putLong(length);
+    out.put((byte) ':');
+    return this;
+  }
+
+  /**
+   * encodes the string in UTF-8 as {@link BEValue#BEValue(String)}
+   */
+  public BufferEncoder writeString(String value) {
+    putLong(utf8Length(value));
+    out.put((byte) ':');
+    putUtf8(value);
+    return this;
+  }
+
+  public BufferEncoder writeKey(Key key) {
+    out.put(key.encoded);
+    return this;
+  }
+
+  public BufferEncoder startList() {
+    out.put((byte) 'l');
+    return this;
+  }
+
+  public BufferEncoder startDictionary() {
+    out.put((byte) 'd');
+    return this;
+  }
+
+  /**
+   * ends the last started list or dictionary
+   */
+  public BufferEncoder end() {
+    out.put((byte) 'e');
+    return this;
+  }
+
+  private BufferEncoder writeMap(Map<String, BEValue> map) {
+    startDictionary();
+    // Keys must be sorted in the same way as BEncoder does.
+    if (map instanceof SortedMap && ((SortedMap) map).comparator() == null) {
+      for (Map.Entry<String, BEValue> entry : map.entrySet()) {
+        writeEntry(entry.getKey(), entry.getValue());
+      }
+    } else {
+      final String[] keys = map.keySet().toArray(new String[map.size()]);
+      Arrays.sort(keys);
+      for (String key : keys) {
+        writeEntry(key, map.get(key));
+      }
+    }
+    return end();
+  }
+
+  private void writeEntry(String key, BEValue value) {
+    writeString(key);
+    write(value);
+  }
+
+  private void putLong(long value) {
+    final int length = digitsCount(value);
+    final int start = out.position();
+    if (out.remaining() < length) throw new BufferOverflowException();
+    out.position(start + length);
+    if (value < 0) {
+      out.put(start, (byte) '-');
+    }
+    // digits are written from the end, the value is kept negative to support Long.MIN_VALUE
+    long negative = value < 0 ? value : -value;
+    int index = start + length - 1;
+    do {
+      out.put(index--, (byte) ('0' - negative % 10));
+      negative /= 10;
+    } while (negative != 0);
+  }
+
+  private void putChars(String ascii) {
+    for (int i = 0; i < ascii.length(); i++) {
+      out.put((byte) ascii.charAt(i));
+    }
+  }
+
+  private void putUtf8(String value) {
+    final int length = value.length();
+    for (int i = 0; i < length; i++) {
+      final char c = value.charAt(i);
+      if (c < 0x80) {
+        out.put((byte) c);
+      } else if (c < 0x800) {
+        out.put((byte) (0xC0 | c >> 6));
+        out.put((byte) (0x80 | c & 0x3F));
+      } else if (isSurrogatePair(value, i)) {
+        final int codePoint = Character.toCodePoint(c, value.charAt(++i));
+        out.put((byte) (0xF0 | codePoint >> 18));
+        out.put((byte) (0x80 | codePoint >> 12 & 0x3F));
+        out.put((byte) (0x80 | codePoint >> 6 & 0x3F));
+        out.put((byte) (0x80 | codePoint & 0x3F));
+      } else if (c >= Character.MIN_SURROGATE && c <= Character.MAX_SURROGATE) {
+        out.put((byte) '?');
+      } else {
+        out.put((byte) (0xE0 | c >> 12));
+        out.put((byte) (0x80 | c >> 6 & 0x3F));
+        out.put((byte) (0x80 | c & 0x3F));
+      }
+    }
+  }
+
+  /**
+   * @return length of the string in UTF-8, unpaired surrogates are counted as replacement '?'
+   * like {@link String#getBytes(String)} does
+   */
+  private static int utf8Length(String value) {
+    final int length = value.length();
+    int result = length;
+    for (int i = 0; i < length; i++) {
+      final char c = value.charAt(i);
+      if (c < 0x80) continue;
+      if (c < 0x800) {
+        result += 1;
+      } else if (isSurrogatePair(value, i)) {
+        result += 2;
+        i++;
+      } else if (c < Character.MIN_SURROGATE || c > Character.MAX_SURROGATE) {
+        result += 2;
+      }
+    }
+    return result;
+  }
+
+  private static boolean isSurrogatePair(String value, int index) {
+    return Character.isHighSurrogate(value.charAt(index)) &&
+            index + 1 < value.length() && Character.isLowSurrogate(value.charAt(index + 1));
+  }
+
+  private static boolean isLong(Number value) {
+    return value instanceof Long || value instanceof Integer || value instanceof Short || value instanceof Byte;
+  }
+
+  private static int digitsCount(long value) {
+    int result = value < 0 ? 2 : 1;
+    long negative = value < 0 ? value : -value;
+    while (negative <= -10) {
+      negative /= 10;
+      result++;
+    }
+    return result;
+  }
+
+  /**
+   * Dictionary key which is encoded once and can be written many times
+   */
+  public static final class Key {
+
+    private final String name;
+    private final byte[] encoded;
+
+    public Key(String name) {
+      this.name = name;
+      final byte[] bytes;
+      try {
+        bytes = name.getBytes("UTF-8");
+      } catch (UnsupportedEncodingException e) {
+        throw new InternalError(e.toString());
+      }
+      this.encoded = new byte[bytesSize(bytes.length)];
+      new BufferEncoder(ByteBuffer.wrap(this.encoded)).writeBytes(bytes);
+    }
+
+    public String getName() {
+      return this.name;
+    }
+
+    /**
+     * @return count of bytes of the encoded key
+     */
+    public int encodedSize() {
+      return this.encoded.length;
+    }
+
+    @Override
+    public String toString() {
+      return this.name;
+    }
+  }
+}
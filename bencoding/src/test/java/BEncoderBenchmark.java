@@ -0,0 +1,75 @@
+import com.turn.ttorrent.bcodec.BEValue;
+import com.turn.ttorrent.bcodec.BEncoder;
+import com.turn.ttorrent.bcodec.BufferEncoder;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Compares throughput of encoding of announce responses by {@link BEncoder} with output stream
+ * and by {@link BufferEncoder}: generic maps and writing with pre-encoded keys into a reused buffer.
+ * Arguments: count of peers, count of iterations
+ */
+public class BEncoderBenchmark {
+
+  private static final BufferEncoder.Key[] KEYS =
+          BufferEncoder.sortedKeys("interval", "complete", "incomplete", "peers", "torrentIdentifier");
+
+  private static volatile int ourSink;
+
+  public static void main(String[] args) throws Exception {
+    final int peersCount = args.length > 0 ? Integer.parseInt(args[0]) : 50;
+    final int iterations = args.length > 1 ? Integer.parseInt(args[1]) : 500000;
+    final byte[] peers = new byte[peersCount * 6];
+    final String infoHash = "0123456789abcdef0123456789abcdef01234567";
+    final ByteBuffer reused = ByteBuffer.allocate(1024 + peers.length);
+
+    for (int round = 0; round < 3; round++) {
+      long start = System.nanoTime();
+      for (int i = 0; i < iterations; i++) {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        BEncoder.bencode(response(i, peers, infoHash), out);
+        ourSink = ByteBuffer.wrap(out.toByteArray()).remaining();
+      }
+      print(round, "BEncoder (output stream)", start, iterations);
+
+      start = System.nanoTime();
+      for (int i = 0; i < iterations; i++) {
+        ourSink = BufferEncoder.bencode(response(i, peers, infoHash)).remaining();
+      }
+      print(round, "BufferEncoder (map)", start, iterations);
+
+      start = System.nanoTime();
+      for (int i = 0; i < iterations; i++) {
+        reused.clear();
+        new BufferEncoder(reused)
+                .startDictionary()
+                .writeKey(KEYS[0]).writeInteger(i)
+                .writeKey(KEYS[1]).writeInteger(i)
+                .writeKey(KEYS[2]).writeInteger(1800)
+                .writeKey(KEYS[3]).writeBytes(peers)
+                .writeKey(KEYS[4]).writeString(infoHash)
+                .end();
+        ourSink = reused.position();
+      }
+      print(round, "BufferEncoder (keys, reused)", start, iterations);
+    }
+  }
+
+  private static Map<String, BEValue> response(int i, byte[] peers, String infoHash) throws Exception {
+    final Map<String, BEValue> response = new HashMap<String, BEValue>();
+    response.put("interval", new BEValue(1800));
+    response.put("complete", new BEValue(i));
+    response.put("incomplete", new BEValue(i));
+    response.put("torrentIdentifier", new BEValue(infoHash));
+    response.put("peers", new BEValue(peers));
+    return response;
+  }
+
+  private static void print(int round, String name, long start, int iterations) {
+    final double seconds = (System.nanoTime() - start) / 1e9;
+    System.out.printf("round %d %-30s %8.3f us/op%n", round, name, seconds * 1e6 / iterations);
+  }
+}
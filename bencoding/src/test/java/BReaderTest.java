@@ -0,0 +1,129 @@
+import com.turn.ttorrent.bcodec.BReader;
+import com.turn.ttorrent.bcodec.InvalidBEncodingException;
+import org.testng.annotations.Test;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import static com.turn.ttorrent.bcodec.BReader.Token.*;
+import static org.testng.Assert.*;
+
+public class BReaderTest {
+
+  private static final String DOCUMENT = "d4:infod6:lengthi12345e6:pieces5:abcdee4:listl3:onei-7eledee5:other0:e";
+
+  @Test
+  public void testTokens() throws IOException {
+    final BReader reader = new BReader(buffer(DOCUMENT));
+    final List<BReader.Token> tokens = new ArrayList<BReader.Token>();
+    BReader.Token token;
+    while ((token = reader.next()) != END) {
+      tokens.add(token);
+    }
+    assertEquals(tokens.toArray(), new BReader.Token[]{
+            DICT_START,
+            KEY, DICT_START, KEY, INTEGER, KEY, BYTES, DICT_END,
+            KEY, LIST_START, BYTES, INTEGER, LIST_START, LIST_END, DICT_START, DICT_END, LIST_END,
+            KEY, BYTES,
+            DICT_END});
+    assertEquals(reader.getPosition(), DOCUMENT.length());
+    assertEquals(reader.getDepth(), 0);
+  }
+
+  @Test
+  public void testReadFieldsAndSkip() throws IOException {
+    final BReader reader = new BReader(buffer(DOCUMENT));
+    assertEquals(reader.next(), DICT_START);
+    assertEquals(reader.next(), KEY);
+    assertTrue(reader.isKey("info"));
+    assertFalse(reader.isKey("inf"));
+    assertEquals(reader.next(), DICT_START);
+    reader.skip();
+    assertEquals(reader.getToken(), DICT_END);
+    assertEquals(new String(bytes(reader.getRaw()), "ASCII"), "d6:lengthi12345e6:pieces5:abcdee");
+    assertEquals(reader.getDepth(), 1);
+
+    assertEquals(reader.next(), KEY);
+    assertTrue(reader.isKey("list"));
+    assertEquals(reader.next(), LIST_START);
+    assertEquals(reader.next(), BYTES);
+    assertEquals(reader.getString(), "one");
+    assertTrue(reader.getBuffer().isReadOnly());
+    assertEquals(reader.next(), INTEGER);
+    assertEquals(reader.getLong(), -7);
+    assertEquals(reader.next(), LIST_START);
+    reader.skip();
+    assertEquals(reader.getToken(), LIST_END);
+    assertEquals(reader.next(), DICT_START);
+    assertEquals(reader.readValue().getMap().size(), 0);
+    assertEquals(reader.next(), LIST_END);
+
+    assertEquals(reader.next(), KEY);
+    assertEquals(reader.next(), BYTES);
+    assertEquals(reader.getBytesLength(), 0);
+    assertEquals(reader.next(), DICT_END);
+    assertEquals(reader.getTokenStart(), 0);
+    assertEquals(reader.next(), END);
+  }
+
+  @Test
+  public void testIntegerLimits() throws IOException {
+    assertEquals(readInteger("i9223372036854775807e"), Long.MAX_VALUE);
+    assertEquals(readInteger("i-9223372036854775808e"), Long.MIN_VALUE);
+    try {
+      readInteger("i9223372036854775808e");
+      fail("Integer doesn't fit into long");
+    } catch (InvalidBEncodingException e) {
+      // expected
+    }
+    // too big integers can be skipped
+    final BReader reader = new BReader(buffer("li123456789012345678901234567890ei1ee"));
+    assertEquals(reader.next(), LIST_START);
+    reader.skip();
+    assertEquals(reader.getToken(), LIST_END);
+  }
+
+  @Test
+  public void testInvalidData() throws IOException {
+    assertInvalid("i01e", InvalidBEncodingException.class);
+    assertInvalid("i-0e", InvalidBEncodingException.class);
+    assertInvalid("5:abc", EOFException.class);
+    assertInvalid("d3:key", EOFException.class);
+    assertInvalid("di1e3:vale", InvalidBEncodingException.class);
+    assertInvalid("d3:keye", InvalidBEncodingException.class);
+    assertInvalid("le", null);
+    assertInvalid("x", InvalidBEncodingException.class);
+  }
+
+  private long readInteger(String data) throws IOException {
+    final BReader reader = new BReader(buffer(data));
+    assertEquals(reader.next(), INTEGER);
+    return reader.getLong();
+  }
+
+  private void assertInvalid(String data, Class<? extends IOException> expected) throws IOException {
+    final BReader reader = new BReader(buffer(data));
+    try {
+      while (reader.next() != END) {
+        // read all tokens
+      }
+    } catch (IOException e) {
+      assertEquals(e.getClass(), expected, "Unexpected exception for " + data);
+      return;
+    }
+    assertNull(expected, "Value " + data + " is incorrect but it was read");
+  }
+
+  private static ByteBuffer buffer(String data) throws IOException {
+    return ByteBuffer.wrap(data.getBytes("ASCII"));
+  }
+
+  private static byte[] bytes(ByteBuffer buffer) {
+    final byte[] result = new byte[buffer.remaining()];
+    buffer.get(result);
+    return result;
+  }
+}
@@ -0,0 +1,123 @@
+import com.turn.ttorrent.bcodec.BDecoder;
+import com.turn.ttorrent.bcodec.BEValue;
+import com.turn.ttorrent.bcodec.BEncoder;
+import com.turn.ttorrent.bcodec.BReader;
+import com.turn.ttorrent.bcodec.BufferDecoder;
+import com.turn.ttorrent.bcodec.BufferEncoder;
+import com.turn.ttorrent.bcodec.InvalidBEncodingException;
+import org.testng.annotations.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.testng.Assert.*;
+
+public class BufferDecoderTest {
+
+  private static final String DOCUMENT = "d4:infod6:lengthi12345e6:pieces5:abcde4:sizei123456789012345678901234567890ee4:listl3:onei-7eee";
+
+  @Test
+  public void testDecodeWithoutCopying() throws IOException {
+    final byte[] bytes = DOCUMENT.getBytes("ASCII");
+    final ByteBuffer buffer = ByteBuffer.allocateDirect(bytes.length + 3);
+    buffer.put(new byte[]{'x', 'y', 'z'}).put(bytes).flip().position(3);
+
+    final BufferDecoder decoder = new BufferDecoder(buffer);
+    final Map<String, BEValue> root = decoder.bdecode().getMap();
+    assertEquals(decoder.getPosition(), buffer.limit());
+    assertEquals(buffer.position(), 3);
+    assertNull(decoder.bdecode());
+
+    final Map<String, BEValue> info = root.get("info").getMap();
+    assertEquals(info.get("length").getValue(), 12345L);
+    assertEquals(info.get("size").getValue(), new BigInteger("123456789012345678901234567890"));
+    final ByteBuffer pieces = info.get("pieces").getBuffer();
+    assertTrue(pieces.isReadOnly());
+    assertTrue(pieces.isDirect());
+    assertEquals(pieces.remaining(), 5);
+    assertEquals(info.get("pieces").getString(), "abcde");
+    assertEquals(info.get("pieces").getBytes(), "abcde".getBytes("ASCII"));
+
+    final List<BEValue> list = root.get("list").getList();
+    assertEquals(list.get(0).getString(), "one");
+    assertEquals(list.get(1).getLong(), -7);
+
+    // values backed by buffers are encoded as byte strings
+    final ByteArrayOutputStream out = new ByteArrayOutputStream();
+    BEncoder.bencode(root, out);
+    assertEquals(new String(out.toByteArray(), "ASCII"), DOCUMENT);
+  }
+
+  @Test
+  public void testDecodeHeapBuffer() throws IOException {
+    final byte[] bytes = ("xyz" + DOCUMENT).getBytes("ASCII");
+    final ByteBuffer buffer = ByteBuffer.wrap(bytes, 3, bytes.length - 3);
+
+    final Map<String, BEValue> root = new BufferDecoder(buffer).bdecode().getMap();
+    final BEValue pieces = root.get("info").getMap().get("pieces");
+    assertTrue(((ByteBuffer) pieces.getValue()).isReadOnly());
+    assertTrue(pieces.getBuffer().isReadOnly());
+    assertEquals(pieces.getString(), "abcde");
+    assertEquals(pieces.getBytes(), "abcde".getBytes("ASCII"));
+
+    final ByteArrayOutputStream out = new ByteArrayOutputStream();
+    BEncoder.bencode(root, out);
+    assertEquals(new String(out.toByteArray(), "ASCII"), DOCUMENT);
+    assertEquals(BufferEncoder.bencode(root), ByteBuffer.wrap(out.toByteArray()));
+  }
+
+  @Test
+  public void testUtf8Keys() throws IOException {
+    final Map<String, BEValue> map = new HashMap<String, BEValue>();
+    map.put("\u0444\u0430\u0439\u043b", new BEValue(1));
+    map.put("name", new BEValue(2));
+    final ByteBuffer encoded = BEncoder.bencode(map);
+    assertEquals(new String(encoded.array(), 0, encoded.limit(), "UTF-8"), "d4:namei2e8:\u0444\u0430\u0439\u043bi1ee");
+    assertEquals(BufferEncoder.bencode(map), encoded);
+
+    final Map<String, BEValue> decoded = new BufferDecoder(encoded.duplicate()).bdecode().getMap();
+    assertEquals(decoded.keySet(), map.keySet());
+    assertEquals(decoded.get("\u0444\u0430\u0439\u043b").getInt(), 1);
+    final byte[] bytes = Arrays.copyOf(encoded.array(), encoded.limit());
+    assertEquals(BDecoder.bdecode(new ByteArrayInputStream(bytes)).getMap().keySet(), map.keySet());
+
+    final BReader reader = new BReader(encoded.duplicate());
+    reader.next();
+    reader.next();
+    assertTrue(reader.isKey("name"));
+    reader.next();
+    reader.next();
+    assertTrue(reader.isKey("\u0444\u0430\u0439\u043b"));
+    assertFalse(reader.isKey("\u0444\u0430\u0439"));
+  }
+
+  @Test
+  public void testInvalidData() throws IOException {
+    assertInvalid("i01e", InvalidBEncodingException.class);
+    assertInvalid("i-0e", InvalidBEncodingException.class);
+    assertInvalid("i12", EOFException.class);
+    assertInvalid("5:abc", EOFException.class);
+    assertInvalid("99999999999:abc", EOFException.class);
+    assertInvalid("d3:key", EOFException.class);
+    assertInvalid("di1e3:vale", InvalidBEncodingException.class);
+    assertInvalid("x", InvalidBEncodingException.class);
+  }
+
+  private void assertInvalid(String data, Class<? extends IOException> expected) throws IOException {
+    try {
+      BufferDecoder.bdecode(ByteBuffer.wrap(data.getBytes("ASCII")));
+    } catch (IOException e) {
+      assertEquals(e.getClass(), expected, "Unexpected exception for " + data);
+      return;
+    }
+    fail("Value " + data + " is incorrect but it was decoded");
+  }
+}
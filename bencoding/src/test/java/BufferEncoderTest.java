@@ -0,0 +1,82 @@
+import com.turn.ttorrent.bcodec.BEValue;
+import com.turn.ttorrent.bcodec.BEncoder;
+import com.turn.ttorrent.bcodec.BufferEncoder;
+import org.testng.annotations.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.math.BigInteger;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.util.*;
+
+import static org.testng.Assert.*;
+
+public class BufferEncoderTest {
+
+  @Test
+  public void testSameOutputAsStreamEncoder() throws IOException {
+    final Map<String, BEValue> map = new HashMap<String, BEValue>();
+    map.put("zero", new BEValue(0));
+    map.put("min", new BEValue(Long.MIN_VALUE));
+    map.put("max", new BEValue(Long.MAX_VALUE));
+    map.put("negative", new BEValue(-1234567));
+    map.put("big", new BEValue(new BigInteger("123456789012345678901234567890")));
+    map.put("bytes", new BEValue(new byte[]{0, (byte) 0xFF, 10}));
+    map.put("buffer", new BEValue(ByteBuffer.wrap("buffer".getBytes("ASCII"))));
+    map.put("empty", new BEValue(new byte[0]));
+    map.put("kéy", new BEValue("v"));
+    map.put("list", new BEValue(Arrays.asList(new BEValue(1), new BEValue(Collections.<BEValue>emptyList()))));
+    final Map<String, BEValue> sorted = new TreeMap<String, BEValue>();
+    sorted.put("b", new BEValue(2));
+    sorted.put("a", new BEValue(1));
+    map.put("sorted", new BEValue(sorted));
+
+    final ByteArrayOutputStream expected = new ByteArrayOutputStream();
+    BEncoder.bencode(map, expected);
+    final ByteBuffer actual = BufferEncoder.bencode(map);
+
+    assertEquals(actual.remaining(), expected.size());
+    assertEquals(BufferEncoder.encodedSize(map), expected.size());
+    assertEquals(bytes(actual), expected.toByteArray());
+  }
+
+  @Test
+  public void testStringsAreEncodedAsUtf8() throws IOException {
+    final String[] strings = {"", "ascii", "été", "中文", "😀 emoji", "lone \ud83d surrogate", "\udc00"};
+    for (String s : strings) {
+      final ByteArrayOutputStream expected = new ByteArrayOutputStream();
+      BEncoder.bencode(s, expected);
+      assertEquals(bytes(BufferEncoder.bencode(s)), expected.toByteArray(), "Wrong encoding of " + s);
+    }
+  }
+
+  @Test
+  public void testWriteWithKeys() throws IOException {
+    final BufferEncoder.Key[] keys = BufferEncoder.sortedKeys("peers", "interval");
+    assertEquals(keys[0].getName(), "interval");
+
+    final ByteBuffer out = ByteBuffer.allocate(64);
+    out.put((byte) 'x');
+    new BufferEncoder(out)
+            .startDictionary()
+            .writeKey(keys[0]).writeInteger(1800)
+            .writeKey(keys[1]).startList().writeString("a").writeBytes(new byte[]{'b'}).end()
+            .end();
+    out.flip().position(1);
+
+    assertEquals(new String(bytes(out), "ASCII"), "d8:intervali1800e5:peersl1:a1:bee");
+    assertEquals(keys[0].encodedSize(), "8:interval".length());
+  }
+
+  @Test(expectedExceptions = BufferOverflowException.class)
+  public void testOverflow() {
+    new BufferEncoder(ByteBuffer.allocate(3)).writeInteger(12345);
+  }
+
+  private static byte[] bytes(ByteBuffer buffer) {
+    final byte[] result = new byte[buffer.remaining()];
+    buffer.duplicate().get(result);
+    return result;
+  }
+}
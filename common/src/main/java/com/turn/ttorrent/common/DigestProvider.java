@@ -0,0 +1,24 @@
+package com.turn.ttorrent.common;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.security.MessageDigest;
+
+/**
+ * Creates message digests which are used for hashing of pieces and info dictionaries. Implementation can be
+ * registered via {@link java.util.ServiceLoader} in file
+ * {@code META-INF/services/com.turn.ttorrent.common.DigestProvider} or set by {@link Digests#setProvider(DigestProvider)}
+ * for using of faster implementations of SHA-1 and SHA-256
+ */
+public interface DigestProvider {
+
+  /**
+   * @param algorithm name of the algorithm, e.g. {@link Digests#SHA1} or {@link Digests#SHA256}
+   * @return new digest or null if the provider doesn't support the algorithm,
+   * in this case the digest from the JDK is used
+   */
+  @Nullable
+  MessageDigest createDigest(@NotNull String algorithm);
+
+}
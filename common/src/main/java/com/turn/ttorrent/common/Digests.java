@@ -0,0 +1,186 @@
+package com.turn.ttorrent.common;
+
+import org.jetbrains.annotations.NotNull;
+import org.slf4j.Logger;
+
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.ServiceLoader;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Calculates hashes with digests which are reused by each thread, so one-shot hashing of small data
+ * (blocks, info dictionaries) doesn't pay for lookup of the algorithm in security providers.
+ * Data can be hashed from arrays without copying of their parts and from heap or direct buffers.
+ * Callers which update a digest incrementally create own instance via {@link #createSha1()}
+ * or {@link #createSha256()}.
+ * <p>
+ * Digests are created by {@link DigestProvider}. The first provider registered via {@link ServiceLoader}
+ * is used by default, otherwise digests of the JDK are used.
+ */
+public final class Digests {
+
+  private static final Logger logger = TorrentLoggerFactory.getLogger(Digests.class);
+
+  public static final String SHA1 = "SHA-1";
+  public static final String SHA256 = "SHA-256";
+
+  private static final DigestProvider JDK_PROVIDER = new JdkDigestProvider();
+  private static volatile DigestProvider ourProvider = loadProvider();
+
+  private static final ThreadLocal<ThreadDigests> THREAD_DIGESTS = new ThreadLocal<ThreadDigests>() {
+    @Override
+    protected ThreadDigests initialValue() {
+      return new ThreadDigests();
+    }
+  };
+
+  private Digests() {
+  }
+
+  /**
+   * replaces the provider of digests. Digests which are already used by threads are replaced on next invocation
+   */
+  public static void setProvider(@NotNull DigestProvider provider) {
+    ourProvider = provider;
+  }
+
+  @NotNull
+  public static DigestProvider getProvider() {
+    return ourProvider;
+  }
+
+  @NotNull
+  public static MessageDigest createSha1() {
+    return create(SHA1);
+  }
+
+  @NotNull
+  public static MessageDigest createSha256() {
+    return create(SHA256);
+  }
+
+  /**
+   * @return new digest of specified algorithm created by the current provider
+   * @throws IllegalArgumentException if the algorithm is unknown
+   */
+  @NotNull
+  public static MessageDigest create(@NotNull String algorithm) {
+    final MessageDigest digest = ourProvider.createDigest(algorithm);
+    if (digest != null) return digest;
+    final MessageDigest jdkDigest = JDK_PROVIDER.createDigest(algorithm);
+    if (jdkDigest == null) throw new IllegalArgumentException("Unknown digest algorithm " + algorithm);
+    return jdkDigest;
+  }
+
+  public static byte[] sha1(byte[] data) {
+    return sha1(data, 0, data.length);
+  }
+
+  public static byte[] sha1(byte[] data, int offset, int length) {
+    final MessageDigest digest = threadDigest(SHA1);
+    digest.update(data, offset, length);
+    return digest.digest();
+  }
+
+  /**
+   * hashes remaining bytes of the buffer, position of the buffer is moved to its limit
+   */
+  public static byte[] sha1(ByteBuffer data) {
+    final MessageDigest digest = threadDigest(SHA1);
+    digest.update(data);
+    return digest.digest();
+  }
+
+  public static byte[] sha256(byte[] data) {
+    return sha256(data, 0, data.length);
+  }
+
+  public static byte[] sha256(byte[] data, int offset, int length) {
+    final MessageDigest digest = threadDigest(SHA256);
+    digest.update(data, offset, length);
+    return digest.digest();
+  }
+
+  /**
+   * hashes remaining bytes of the buffer, position of the buffer is moved to its limit
+   */
+  public static byte[] sha256(ByteBuffer data) {
+    final MessageDigest digest = threadDigest(SHA256);
+    digest.update(data);
+    return digest.digest();
+  }
+
+  private static MessageDigest threadDigest(String algorithm) {
+    final ThreadDigests digests = THREAD_DIGESTS.get();
+    final DigestProvider provider = ourProvider;
+    if (digests.provider != provider) {
+      digests.provider = provider;
+      digests.digests.clear();
+    }
+    MessageDigest digest = digests.digests.get(algorithm);
+    if (digest == null) {
+      digest = create(algorithm);
+      digests.digests.put(algorithm, digest);
+    } else {
+      // the previous hashing could be interrupted by exception
+      digest.reset();
+    }
+    return digest;
+  }
+
+  private static DigestProvider loadProvider() {
+    try {
+      final Iterator<DigestProvider> providers = ServiceLoader.load(DigestProvider.class).iterator();
+      if (providers.hasNext()) {
+        final DigestProvider provider = providers.next();
+        logger.debug("Digests are created by {}", provider);
+        return provider;
+      }
+    } catch (Throwable e) {
+      LoggerUtils.warnAndDebugDetails(logger, "unable to load provider of digests, digests of JDK are used", e);
+    }
+    return JDK_PROVIDER;
+  }
+
+  private static final class ThreadDigests {
+    private DigestProvider provider;
+    private final Map<String, MessageDigest> digests = new HashMap<String, MessageDigest>();
+  }
+
+  /**
+   * Creates digests of the JDK by cloning of prototypes, it's cheaper than lookup in security providers
+   */
+  private static final class JdkDigestProvider implements DigestProvider {
+
+    private final ConcurrentMap<String, MessageDigest> myPrototypes = new ConcurrentHashMap<String, MessageDigest>();
+
+    @Override
+    public MessageDigest createDigest(@NotNull String algorithm) {
+      try {
+        MessageDigest prototype = myPrototypes.get(algorithm);
+        if (prototype == null) {
+          prototype = MessageDigest.getInstance(algorithm);
+          myPrototypes.putIfAbsent(algorithm, prototype);
+        }
+        try {
+          return (MessageDigest) prototype.clone();
+        } catch (CloneNotSupportedException e) {
+          return MessageDigest.getInstance(algorithm);
+        }
+      } catch (NoSuchAlgorithmException e) {
+        return null;
+      }
+    }
+
+    @Override
+    public String toString() {
+      return "JDK digests";
+    }
+  }
+}
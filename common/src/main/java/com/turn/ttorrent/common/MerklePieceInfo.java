@@ -0,0 +1,160 @@
+package com.turn.ttorrent.common;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.Arrays;
+
+/**
+ * Information for verifying one piece of v2 torrent. In v2 torrents each piece belongs to one file and is
+ * verified using merkle tree of the file: hash of the piece is root of the subtree which contains
+ * hashes of the piece's blocks. The last piece of the file can contain less blocks than the subtree,
+ * remaining leaves are zero hashes
+ *
+ * @see <a href="http://bittorrent.org/beps/bep_0052.html">http://bittorrent.org/beps/bep_0052.html</a>
+ */
+public class MerklePieceInfo {
+
+  @NotNull
+  private final byte[] myPiecesRoot;
+  private final int myIndexInFile;
+  @NotNull
+  private final byte[] myExpectedHash;
+  private final int myBlocksCount;
+  private final int myDataLength;
+  @Nullable
+  private final byte[] myPieceLayer;
+  private final int myPieceLevel;
+
+  private MerklePieceInfo(@NotNull byte[] piecesRoot,
+                          int indexInFile,
+                          @NotNull byte[] expectedHash,
+                          int blocksCount,
+                          int dataLength,
+                          @Nullable byte[] pieceLayer,
+                          int pieceLevel) {
+    myPiecesRoot = piecesRoot;
+    myIndexInFile = indexInFile;
+    myExpectedHash = expectedHash;
+    myBlocksCount = blocksCount;
+    myDataLength = dataLength;
+    myPieceLayer = pieceLayer;
+    myPieceLevel = pieceLevel;
+  }
+
+  /**
+   * @return array with information for each piece of the torrent or null if the torrent doesn't contain v2 metadata
+   * @throws IllegalArgumentException if files of the torrent aren't aligned to piece boundary
+   */
+  @Nullable
+  public static MerklePieceInfo[] create(@NotNull TorrentMetadata metadata) {
+    if (metadata.getInfoHashV2() == null) return null;
+
+    final int pieceLength = metadata.getPieceLength();
+    final int blocksPerPiece = pieceLength / MerkleTree.BLOCK_SIZE;
+    final int pieceLevel = MerkleTree.log2(blocksPerPiece);
+    MerklePieceInfo[] result = new MerklePieceInfo[metadata.getPiecesCount()];
+    long offset = 0;
+    for (TorrentFile file : metadata.getFiles()) {
+      if (!file.padFile && file.piecesRoot.isPresent()) {
+        if (offset % pieceLength != 0) {
+          throw new IllegalArgumentException("File " + file.relativePath + " is not aligned to piece boundary");
+        }
+        final int firstPiece = (int) (offset / pieceLength);
+        final byte[] piecesRoot = file.piecesRoot.get();
+        final byte[] pieceLayer = metadata.getPieceLayer(piecesRoot);
+        final int piecesCount = (int) ((file.size + pieceLength - 1) / pieceLength);
+        for (int i = 0; i < piecesCount; i++) {
+          final int dataLength = (int) Math.min(pieceLength, file.size - (long) i * pieceLength);
+          if (pieceLayer == null) {
+            final int blocksCount = MerkleTree.nextPowerOfTwo(MerkleTree.blocksCount(file.size));
+            result[firstPiece + i] = new MerklePieceInfo(piecesRoot, i, piecesRoot, blocksCount, dataLength, null, pieceLevel);
+          } else {
+            result[firstPiece + i] = new MerklePieceInfo(piecesRoot, i, MerkleTree.getHash(pieceLayer, i),
+                    blocksPerPiece, dataLength, pieceLayer, pieceLevel);
+          }
+        }
+      }
+      offset += file.size;
+    }
+    return result;
+  }
+
+  /**
+   * @return pieces root of the file which contains the piece
+   */
+  @NotNull
+  public byte[] getPiecesRoot() {
+    return myPiecesRoot;
+  }
+
+  /**
+   * @return index of the first block of the piece in the file
+   */
+  public int getFirstBlockIndex() {
+    return myIndexInFile * myBlocksCount;
+  }
+
+  /**
+   * @return count of leaves of the piece's subtree, it's always power of two
+   */
+  public int getBlocksCount() {
+    return myBlocksCount;
+  }
+
+  /**
+   * @return count of bytes of the file in the piece. The piece can be followed by padding in hybrid torrents
+   */
+  public int getDataLength() {
+    return myDataLength;
+  }
+
+  /**
+   * @param pieceData buffer which starts with data of the piece, bytes after the end of the file are ignored
+   * @return concatenated hashes of blocks of the piece including zero hashes of blocks beyond the end of the file
+   */
+  public byte[] calculateBlockHashes(byte[] pieceData) {
+    final byte[] hashes = MerkleTree.blockHashes(pieceData, 0, myDataLength);
+    return Arrays.copyOf(hashes, myBlocksCount * MerkleTree.HASH_SIZE);
+  }
+
+  /**
+   * @param blockHashes concatenated hashes of all blocks of the piece
+   * @return true if specified hashes match the hash of the piece from metadata
+   */
+  public boolean verifyBlockHashes(byte[] blockHashes) {
+    if (blockHashes.length != myBlocksCount * MerkleTree.HASH_SIZE) return false;
+    return Arrays.equals(MerkleTree.root(blockHashes, 0, myBlocksCount, myBlocksCount, 0), myExpectedHash);
+  }
+
+  /**
+   * @param pieceData data of the piece
+   * @return true if data of the piece matches the hash of the piece from metadata
+   */
+  public boolean isValid(byte[] pieceData) {
+    return isValid(pieceData, pieceData.length);
+  }
+
+  /**
+   * @param buffer buffer which starts with data of the piece, e.g. a reused buffer of max piece size
+   * @param length length of data of the piece in the buffer
+   * @return true if data of the piece matches the hash of the piece from metadata
+   */
+  public boolean isValid(byte[] buffer, int length) {
+    if (length < myDataLength || length > buffer.length) return false;
+    for (int i = myDataLength; i < length; i++) {
+      // padding after the end of the file must contain only zeros
+      if (buffer[i] != 0) return false;
+    }
+    return verifyBlockHashes(calculateBlockHashes(buffer));
+  }
+
+  /**
+   * @param proofLayers max count of returned hashes
+   * @return uncle hashes which are required for verifying hash of the piece using pieces root of the file
+   */
+  public byte[] getUncleHashes(int proofLayers) {
+    if (myPieceLayer == null) return new byte[0];
+    return MerkleTree.uncles(myPieceLayer, myPieceLevel, myIndexInFile, proofLayers);
+  }
+}
@@ -0,0 +1,176 @@
+package com.turn.ttorrent.common;
+
+import java.security.MessageDigest;
+import java.util.Arrays;
+
+/**
+ * Helper methods for merkle hash trees of v2 torrents. Each file has own tree, leaves of the tree are
+ * SHA-256 hashes of 16KiB blocks of the file. Count of leaves is rounded up to power of two,
+ * missing leaves beyond the end of the file are filled with zero hashes.
+ *
+ * @see <a href="http://bittorrent.org/beps/bep_0052.html">http://bittorrent.org/beps/bep_0052.html</a>
+ */
+public final class MerkleTree {
+
+  public static final int BLOCK_SIZE = 16 * 1024;
+  public static final int HASH_SIZE = 32;
+
+  private static final int MAX_TREE_HEIGHT = 64;
+  private static final byte[][] PAD_HASHES = createPadHashes();
+
+  private MerkleTree() {
+  }
+
+  public static MessageDigest createDigest() {
+    return Digests.createSha256();
+  }
+
+  /**
+   * @param level level of the subtree root. Leaves have level 0
+   * @return hash of the subtree which contains only zero leaf hashes
+   */
+  public static byte[] padHash(int level) {
+    return PAD_HASHES[level].clone();
+  }
+
+  public static byte[] hashPair(MessageDigest digest, byte[] left, byte[] right) {
+    digest.update(left);
+    digest.update(right);
+    return digest.digest();
+  }
+
+  /**
+   * @return count of leaf hashes for data with specified length
+   */
+  public static int blocksCount(long dataLength) {
+    return (int) ((dataLength + BLOCK_SIZE - 1) / BLOCK_SIZE);
+  }
+
+  public static int nextPowerOfTwo(int value) {
+    int result = 1;
+    while (result < value) {
+      result <<= 1;
+    }
+    return result;
+  }
+
+  public static int log2(int powerOfTwo) {
+    return Integer.numberOfTrailingZeros(powerOfTwo);
+  }
+
+  /**
+   * @return concatenated leaf hashes of specified data. Last block can be shorter than {@link #BLOCK_SIZE}
+   */
+  public static byte[] blockHashes(byte[] data, int offset, int length) {
+    final MessageDigest digest = createDigest();
+    final int count = blocksCount(length);
+    byte[] result = new byte[count * HASH_SIZE];
+    for (int i = 0; i < count; i++) {
+      final int blockOffset = i * BLOCK_SIZE;
+      digest.update(data, offset + blockOffset, Math.min(BLOCK_SIZE, length - blockOffset));
+      System.arraycopy(digest.digest(), 0, result, i * HASH_SIZE, HASH_SIZE);
+    }
+    return result;
+  }
+
+  /**
+   * calculates root of the subtree
+   *
+   * @param hashes concatenated hashes of one layer of the tree
+   * @param from   index of the first hash of the subtree in the array
+   * @param count  count of hashes of the subtree which are present in the array. Remaining hashes
+   *               of the subtree are pad hashes
+   * @param width  count of hashes of the subtree in the layer, must be power of two
+   * @param level  level of the layer
+   * @return root hash of the subtree
+   */
+  public static byte[] root(byte[] hashes, int from, int count, int width, int level) {
+    byte[][] layer = new byte[width][];
+    for (int i = 0; i < width; i++) {
+      layer[i] = i < count ? getHash(hashes, from + i) : PAD_HASHES[level];
+    }
+    final MessageDigest digest = createDigest();
+    for (int size = width; size > 1; size /= 2) {
+      for (int i = 0; i < size / 2; i++) {
+        layer[i] = hashPair(digest, layer[2 * i], layer[2 * i + 1]);
+      }
+    }
+    return width == 1 ? layer[0].clone() : layer[0];
+  }
+
+  /**
+   * calculates root of the whole tree
+   *
+   * @param hashes concatenated hashes of one layer of the tree
+   * @param level  level of the layer
+   */
+  public static byte[] root(byte[] hashes, int level) {
+    final int count = hashes.length / HASH_SIZE;
+    return root(hashes, 0, count, nextPowerOfTwo(count), level);
+  }
+
+  /**
+   * calculates uncle hashes which are required for verifying the subtree using a hash from upper layer
+   *
+   * @param hashes      concatenated hashes of one layer of the tree
+   * @param level       level of the layer
+   * @param index       index of the subtree root in the layer
+   * @param proofLayers max count of uncle hashes
+   * @return concatenated uncle hashes ordered from the lowest layer to the highest
+   */
+  public static byte[] uncles(byte[] hashes, int level, int index, int proofLayers) {
+    final int count = hashes.length / HASH_SIZE;
+    final MessageDigest digest = createDigest();
+    byte[][] layer = new byte[nextPowerOfTwo(count)][];
+    for (int i = 0; i < layer.length; i++) {
+      layer[i] = i < count ? getHash(hashes, i) : PAD_HASHES[level];
+    }
+    byte[] result = new byte[0];
+    int size = layer.length;
+    while (size > 1 && result.length < proofLayers * HASH_SIZE) {
+      final int oldLength = result.length;
+      result = Arrays.copyOf(result, oldLength + HASH_SIZE);
+      System.arraycopy(layer[index ^ 1], 0, result, oldLength, HASH_SIZE);
+      for (int i = 0; i < size / 2; i++) {
+        layer[i] = hashPair(digest, layer[2 * i], layer[2 * i + 1]);
+      }
+      size /= 2;
+      index /= 2;
+    }
+    return result;
+  }
+
+  /**
+   * calculates hashes of the layer which contains roots of subtrees with specified width.
+   * It's used for calculating piece layer from leaf hashes
+   *
+   * @param hashes concatenated hashes of one layer of the tree
+   * @param width  count of hashes in one subtree
+   * @param level  level of the layer
+   */
+  public static byte[] upperLayer(byte[] hashes, int width, int level) {
+    final int count = hashes.length / HASH_SIZE;
+    final int resultCount = (count + width - 1) / width;
+    byte[] result = new byte[resultCount * HASH_SIZE];
+    for (int i = 0; i < resultCount; i++) {
+      final int from = i * width;
+      final byte[] root = root(hashes, from, Math.min(width, count - from), width, level);
+      System.arraycopy(root, 0, result, i * HASH_SIZE, HASH_SIZE);
+    }
+    return result;
+  }
+
+  public static byte[] getHash(byte[] hashes, int index) {
+    return Arrays.copyOfRange(hashes, index * HASH_SIZE, (index + 1) * HASH_SIZE);
+  }
+
+  private static byte[][] createPadHashes() {
+    final MessageDigest digest = createDigest();
+    byte[][] result = new byte[MAX_TREE_HEIGHT][];
+    result[0] = new byte[HASH_SIZE];
+    for (int i = 1; i < MAX_TREE_HEIGHT; i++) {
+      result[i] = hashPair(digest, result[i - 1], result[i - 1]);
+    }
+    return result;
+  }
+}
@@ -3,17 +3,17 @@ package com.turn.ttorrent.common;
 import com.turn.ttorrent.Constants;
 import com.turn.ttorrent.bcodec.BEValue;
 import com.turn.ttorrent.bcodec.BEncoder;
+import com.turn.ttorrent.common.creation.DataSourceHolder;
 import com.turn.ttorrent.common.creation.MetadataBuilder;
+import com.turn.ttorrent.common.creation.PiecesHashesCalculator;
+import com.turn.ttorrent.common.creation.PipelinedHashesCalculator;
 import org.jetbrains.annotations.NotNull;
 import org.slf4j.Logger;
 
 import java.io.*;
 import java.net.URI;
-import java.nio.ByteBuffer;
-import java.nio.channels.FileChannel;
 import java.util.*;
 import java.util.concurrent.*;
-import java.util.concurrent.atomic.AtomicInteger;
 
 import static com.turn.ttorrent.common.TorrentMetadataKeys.*;
 
@@ -30,7 +30,6 @@ public class TorrentCreator {
    * Torrent file piece length (in bytes), we use 512 kB.
    */
   public static final int DEFAULT_PIECE_LENGTH = 512 * 1024;
-  private static final int HASHING_TIMEOUT_SEC = 15;
   public static int HASHING_THREADS_COUNT = Runtime.getRuntime().availableProcessors();
 
   static {
@@ -48,15 +47,6 @@ public class TorrentCreator {
     }
   }
 
-  private static final ExecutorService HASHING_EXECUTOR = Executors.newFixedThreadPool(HASHING_THREADS_COUNT, new ThreadFactory() {
-    @Override
-    public Thread newThread(@NotNull final Runnable r) {
-      final Thread thread = new Thread(r);
-      thread.setDaemon(true);
-      return thread;
-    }
-  });
-
   /**
    * Create a {@link TorrentMetadata} object for a file.
    *
@@ -172,11 +162,45 @@ public class TorrentCreator {
     return create(parent, files, announce, announceList, createdBy, System.currentTimeMillis() / 1000, pieceSize);
   }
 
+  /**
+   * Helper method to create a {@link TorrentMetadata} object for a set of files
+   * calculating hashes of pieces in the specified executor.
+   *
+   * @param executor executor for calculation of hashes of pieces, it isn't shut down by the method
+   */
+  public static TorrentMetadata create(File parent, List<File> files, URI announce,
+                                       List<List<URI>> announceList, String createdBy, final int pieceSize,
+                                       ExecutorService executor)
+          throws InterruptedException, IOException {
+    return create(parent, files, announce, announceList, createdBy, System.currentTimeMillis() / 1000, pieceSize,
+            new PipelinedHashesCalculator(executor, HASHING_THREADS_COUNT * 2));
+  }
+
   //for tests
   /*package local*/
   static TorrentMetadata create(File parent, List<File> files, URI announce,
                                 List<List<URI>> announceList, String createdBy, long creationTimeSecs, final int pieceSize)
           throws InterruptedException, IOException {
+    final ExecutorService executor = Executors.newFixedThreadPool(HASHING_THREADS_COUNT, new ThreadFactory() {
+      @Override
+      public Thread newThread(@NotNull final Runnable r) {
+        final Thread thread = new Thread(r, "ttorrent hasher");
+        thread.setDaemon(true);
+        return thread;
+      }
+    });
+    try {
+      return create(parent, files, announce, announceList, createdBy, creationTimeSecs, pieceSize,
+              new PipelinedHashesCalculator(executor, HASHING_THREADS_COUNT * 2));
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  private static TorrentMetadata create(File parent, List<File> files, URI announce,
+                                        List<List<URI>> announceList, String createdBy, long creationTimeSecs,
+                                        final int pieceSize, PiecesHashesCalculator hashesCalculator)
+          throws IOException {
     Map<String, BEValue> torrent = new HashMap<String, BEValue>();
 
     if (announce != null) {
@@ -202,8 +226,7 @@ public class TorrentCreator {
 
     if (files == null || files.isEmpty()) {
       info.put(FILE_LENGTH, new BEValue(parent.length()));
-      info.put(PIECES, new BEValue(hashFile(parent, pieceSize),
-              Constants.BYTE_ENCODING));
+      info.put(PIECES, new BEValue(hashFiles(Collections.singletonList(parent), pieceSize, hashesCalculator)));
     } else {
       List<BEValue> fileInfo = new LinkedList<BEValue>();
       for (File file : files) {
@@ -224,8 +247,7 @@ public class TorrentCreator {
         fileInfo.add(new BEValue(fileMap));
       }
       info.put(FILES, new BEValue(fileInfo));
-      info.put(PIECES, new BEValue(hashFiles(files, pieceSize),
-              Constants.BYTE_ENCODING));
+      info.put(PIECES, new BEValue(hashFiles(files, pieceSize, hashesCalculator)));
     }
     torrent.put(INFO_TABLE, new BEValue(info));
 
@@ -235,142 +257,60 @@ public class TorrentCreator {
   }
 
   /**
-   * Return the concatenation of the SHA-1 hashes of a file's pieces.
-   *
-   * <p>
-   * Hashes the given file piece by piece using the default Torrent piece
-   * length (see {@link #DEFAULT_PIECE_LENGTH}) and returns the concatenation of
-   * these hashes, as a string.
-   * </p>
+   * Return the concatenation of the SHA-1 hashes of pieces of the files.
    *
    * <p>
-   * This is used for creating Torrent meta-info structures from a file.
+   * This is used for creating Torrent meta-info structures from files.
    * </p>
    *
-   * @param file The file to hash.
+   * @param files The files to hash.
    */
-  private static String hashFile(final File file, final int pieceSize)
-          throws InterruptedException, IOException {
-    return hashFiles(Collections.singletonList(file), pieceSize);
-  }
-
-  private static String hashFiles(final List<File> files, final int pieceSize)
-          throws InterruptedException, IOException {
+  private static byte[] hashFiles(final List<File> files, final int pieceSize, PiecesHashesCalculator hashesCalculator)
+          throws IOException {
     if (files.size() == 0) {
-      return "";
+      return new byte[0];
     }
-    List<Future<String>> results = new LinkedList<Future<String>>();
+    List<DataSourceHolder> sources = new ArrayList<DataSourceHolder>();
     long length = 0L;
-
-    final ByteBuffer buffer = ByteBuffer.allocate(pieceSize);
-
-
-    final AtomicInteger threadIdx = new AtomicInteger(0);
-    final String firstFileName = files.get(0).getName();
-
-    StringBuilder hashes = new StringBuilder();
-
-    long start = System.nanoTime();
-    for (File file : files) {
-      logger.debug("Analyzing local data for {} with {} threads...",
-              file.getName(), HASHING_THREADS_COUNT);
-
+    for (final File file : files) {
       length += file.length();
+      sources.add(new DataSourceHolder() {
 
-      FileInputStream fis = new FileInputStream(file);
-      FileChannel channel = fis.getChannel();
-
-      try {
-        while (channel.read(buffer) > 0) {
-          if (buffer.remaining() == 0) {
-            buffer.clear();
-            final ByteBuffer data = prepareDataFromBuffer(buffer);
+        private FileInputStream fis;
 
-            results.add(HASHING_EXECUTOR.submit(new Callable<String>() {
-              @Override
-              public String call() throws Exception {
-                Thread.currentThread().setName(String.format("%s hasher #%d", firstFileName, threadIdx.incrementAndGet()));
-                return new CallableChunkHasher(data).call();
-              }
-            }));
+        @Override
+        public InputStream getStream() throws IOException {
+          if (fis == null) {
+            fis = new FileInputStream(file);
           }
+          return fis;
+        }
 
-          if (results.size() >= HASHING_THREADS_COUNT) {
-            // process hashers, otherwise they will spend too much memory
-            waitForHashesToCalculate(results, hashes);
-            results.clear();
+        @Override
+        public void close() throws IOException {
+          if (fis != null) {
+            fis.close();
           }
         }
-      } finally {
-        channel.close();
-        fis.close();
-      }
+      });
     }
 
-    // Hash the last bit, if any
-    if (buffer.position() > 0) {
-      buffer.limit(buffer.position());
-      buffer.position(0);
-      final ByteBuffer data = prepareDataFromBuffer(buffer);
-      results.add(HASHING_EXECUTOR.submit(new CallableChunkHasher(data)));
-    }
-    // here we have only a few hashes to wait for calculation
-    waitForHashesToCalculate(results, hashes);
-
+    long start = System.nanoTime();
+    final List<byte[]> hashes = hashesCalculator.calculateHashes(sources, pieceSize).getHashes();
     long elapsed = System.nanoTime() - start;
 
-    int expectedPieces = (int) (Math.ceil(
-            (double) length / pieceSize));
-    logger.debug("Hashed {} file(s) ({} bytes) in {} pieces ({} expected) in {}ms.",
+    logger.debug("Hashed {} file(s) ({} bytes) in {} pieces in {}ms.",
             new Object[]{
                     files.size(),
                     length,
-                    results.size(),
-                    expectedPieces,
+                    hashes.size(),
                     String.format("%.1f", elapsed / 1e6),
             });
 
-    return hashes.toString();
-  }
-
-  private static ByteBuffer prepareDataFromBuffer(ByteBuffer buffer) {
-    final ByteBuffer data = ByteBuffer.allocate(buffer.remaining());
-    buffer.mark();
-    data.put(buffer);
-    data.clear();
-    buffer.reset();
-    return data;
-  }
-
-  private static void waitForHashesToCalculate(List<Future<String>> results, StringBuilder hashes) throws InterruptedException, IOException {
-    try {
-      for (Future<String> chunk : results) {
-        hashes.append(chunk.get(HASHING_TIMEOUT_SEC, TimeUnit.SECONDS));
-      }
-    } catch (ExecutionException ee) {
-      throw new IOException("Error while hashing the torrent data!", ee);
-    } catch (TimeoutException e) {
-      throw new RuntimeException(String.format("very slow hashing: took more than %d seconds to calculate several pieces. Cancelling", HASHING_TIMEOUT_SEC));
-    }
-  }
-
-  /**
-   * A {@link Callable} to hash a data chunk.
-   *
-   * @author mpetazzoni
-   */
-  private static class CallableChunkHasher implements Callable<String> {
-
-    private final ByteBuffer data;
-
-    CallableChunkHasher(final ByteBuffer data) {
-      this.data = data;
-    }
-
-    @Override
-    public String call() throws UnsupportedEncodingException {
-      byte[] sha1Hash = TorrentUtils.calculateSha1Hash(this.data.array());
-      return new String(sha1Hash, Constants.BYTE_ENCODING);
+    final byte[] result = new byte[hashes.size() * Constants.PIECE_HASH_SIZE];
+    for (int i = 0; i < hashes.size(); i++) {
+      System.arraycopy(hashes.get(i), 0, result, i * Constants.PIECE_HASH_SIZE, Constants.PIECE_HASH_SIZE);
     }
+    return result;
   }
 }
@@ -19,11 +19,34 @@ public class TorrentFile {
   public final long size;
   @NotNull
   public final Optional<String> md5Hash;
+  /**
+   * root hash of merkle tree of the file in v2 torrents. It isn't present for v1 torrents, for empty files and pad files
+   *
+   * @see <a href="http://bittorrent.org/beps/bep_0052.html">http://bittorrent.org/beps/bep_0052.html</a>
+   */
+  @NotNull
+  public final Optional<byte[]> piecesRoot;
+  /**
+   * true if this file is pad file which contains only zeros and is used for aligning next file to piece boundary
+   *
+   * @see <a href="http://bittorrent.org/beps/bep_0047.html">http://bittorrent.org/beps/bep_0047.html</a>
+   */
+  public final boolean padFile;
 
   public TorrentFile(@NotNull List<String> relativePath, long size, @Nullable String md5Hash) {
+    this(relativePath, size, md5Hash, null, false);
+  }
+
+  public TorrentFile(@NotNull List<String> relativePath,
+                     long size,
+                     @Nullable String md5Hash,
+                     @Nullable byte[] piecesRoot,
+                     boolean padFile) {
     this.relativePath = new ArrayList<String>(relativePath);
     this.size = size;
     this.md5Hash = Optional.of(md5Hash);
+    this.piecesRoot = Optional.of(piecesRoot);
+    this.padFile = padFile;
   }
 
   public String getRelativePathAsString() {
@@ -25,6 +25,13 @@ public interface TorrentMetadata extends TorrentHash {
   @Nullable
   String getAnnounce();
 
+  /**
+   * @return list of web seed urls. Returns empty list if torrent doesn't contain web seeds
+   * @see <a href="http://bittorrent.org/beps/bep_0019.html"></a>
+   */
+  @NotNull
+  List<String> getWebSeedUrlList();
+
   /**
    * @return creation date of the torrent in unix format
    */
@@ -47,10 +54,27 @@ public interface TorrentMetadata extends TorrentHash {
 
   /**
    * @return concatenation of all 20-byte SHA1 hash values, one per piece.
-   * So the length of this array must be a multiple of 20
+   * So the length of this array must be a multiple of 20. The array is empty for v2-only torrents
    */
   byte[] getPiecesHashes();
 
+  /**
+   * @return 32-byte SHA-256 hash of info dictionary if the torrent contains v2 metadata (v2-only or hybrid torrent),
+   * otherwise null. For v2-only torrents {@link #getInfoHash()} returns first 20 bytes of this hash
+   * @see <a href="http://bittorrent.org/beps/bep_0052.html"></a>
+   */
+  @Nullable
+  byte[] getInfoHashV2();
+
+  /**
+   * @param piecesRoot root hash of merkle tree of the file
+   * @return concatenation of 32-byte SHA-256 hashes of the file's pieces (piece layer of the merkle tree)
+   * or null if the file isn't larger than one piece
+   * @see <a href="http://bittorrent.org/beps/bep_0052.html"></a>
+   */
+  @Nullable
+  byte[] getPieceLayer(@NotNull byte[] piecesRoot);
+
   /**
    * @return true if it's private torrent. In this case client must get peers only from tracker and
    * must initiate connections to peers returned from the tracker.
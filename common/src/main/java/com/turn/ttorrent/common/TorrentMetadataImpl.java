@@ -4,13 +4,18 @@ import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
 import java.util.List;
+import java.util.Map;
 
 public class TorrentMetadataImpl implements TorrentMetadata {
 
   private final byte[] myInfoHash;
   @Nullable
+  private final byte[] myInfoHashV2;
+  @Nullable
   private final List<List<String>> myAnnounceList;
   private final String myMainAnnounce;
+  @NotNull
+  private final List<String> myWebSeedUrlList;
   private final long myCreationDate;
   private final String myComment;
   private final String myCreatedBy;
@@ -19,11 +24,15 @@ public class TorrentMetadataImpl implements TorrentMetadata {
   private final int myPieceCount;
   private final int myPieceLength;
   private final byte[] myPiecesHashes;
+  @NotNull
+  private final Map<String, byte[]> myPieceLayers;
   private final String myHexString;
 
   TorrentMetadataImpl(byte[] infoHash,
+                      @Nullable byte[] infoHashV2,
                       @Nullable List<List<String>> announceList,
                       String mainAnnounce,
+                      @NotNull List<String> webSeedUrlList,
                       long creationDate,
                       String comment,
                       String createdBy,
@@ -31,10 +40,13 @@ public class TorrentMetadataImpl implements TorrentMetadata {
                       List<TorrentFile> files,
                       int pieceCount,
                       int pieceLength,
-                      byte[] piecesHashes) {
+                      byte[] piecesHashes,
+                      @NotNull Map<String, byte[]> pieceLayers) {
     myInfoHash = infoHash;
+    myInfoHashV2 = infoHashV2;
     myAnnounceList = announceList;
     myMainAnnounce = mainAnnounce;
+    myWebSeedUrlList = webSeedUrlList;
     myCreationDate = creationDate;
     myComment = comment;
     myCreatedBy = createdBy;
@@ -43,6 +55,7 @@ public class TorrentMetadataImpl implements TorrentMetadata {
     myPieceCount = pieceCount;
     myPieceLength = pieceLength;
     myPiecesHashes = piecesHashes;
+    myPieceLayers = pieceLayers;
     myHexString = TorrentUtils.byteArrayToHexString(myInfoHash);
   }
 
@@ -68,6 +81,12 @@ public class TorrentMetadataImpl implements TorrentMetadata {
     return myMainAnnounce;
   }
 
+  @NotNull
+  @Override
+  public List<String> getWebSeedUrlList() {
+    return myWebSeedUrlList;
+  }
+
   @Override
   public Optional<Long> getCreationDate() {
     return Optional.of(myCreationDate == -1 ? null : myCreationDate);
@@ -93,6 +112,18 @@ public class TorrentMetadataImpl implements TorrentMetadata {
     return myPiecesHashes;
   }
 
+  @Nullable
+  @Override
+  public byte[] getInfoHashV2() {
+    return myInfoHashV2;
+  }
+
+  @Nullable
+  @Override
+  public byte[] getPieceLayer(@NotNull byte[] piecesRoot) {
+    return myPieceLayers.get(TorrentUtils.byteArrayToHexString(piecesRoot));
+  }
+
   @Override
   public boolean isPrivate() {
     return false;
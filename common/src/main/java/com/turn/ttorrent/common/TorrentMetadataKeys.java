@@ -18,5 +18,11 @@ public final class TorrentMetadataKeys {
   public final static String NAME = "name";
   public final static String INFO_TABLE = "info";
   public final static String ANNOUNCE_LIST = "announce-list";
+  public final static String URL_LIST = "url-list";
+  public final static String META_VERSION = "meta version";
+  public final static String FILE_TREE = "file tree";
+  public final static String PIECES_ROOT = "pieces root";
+  public final static String PIECE_LAYERS = "piece layers";
+  public final static String FILE_ATTRIBUTES = "attr";
 
 }
@@ -1,17 +1,17 @@
 package com.turn.ttorrent.common;
 
 import com.turn.ttorrent.Constants;
-import com.turn.ttorrent.bcodec.BDecoder;
 import com.turn.ttorrent.bcodec.BEValue;
-import com.turn.ttorrent.bcodec.BEncoder;
+import com.turn.ttorrent.bcodec.BReader;
 import com.turn.ttorrent.bcodec.InvalidBEncodingException;
 import org.apache.commons.io.FileUtils;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
-import java.io.ByteArrayInputStream;
+import java.io.EOFException;
 import java.io.File;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.*;
 
 import static com.turn.ttorrent.common.TorrentMetadataKeys.*;
@@ -32,9 +32,39 @@ public class TorrentParser {
    *                                   byte array input stream cannot throw the exception
    */
   public TorrentMetadata parse(byte[] metadata) throws InvalidBEncodingException, RuntimeException {
-    final Map<String, BEValue> dictionaryMetadata;
+    return parse(ByteBuffer.wrap(metadata));
+  }
+
+  /**
+   * Parses metadata without copying of byte strings, so the buffer can be a memory-mapped .torrent file.
+   * The buffer isn't referenced by the parsed metadata. Info hashes are calculated over the original bytes
+   * of the info dictionary, so they are correct even if the dictionary isn't encoded canonically
+   *
+   * @param metadata buffer with binary .torrent content from its position to its limit
+   * @see #parse(byte[])
+   */
+  public TorrentMetadata parse(ByteBuffer metadata) throws InvalidBEncodingException, RuntimeException {
+    final Map<String, BEValue> dictionaryMetadata = new HashMap<String, BEValue>();
+    Map<String, byte[]> pieceLayersByRoot = Collections.emptyMap();
+    ByteBuffer infoTableBytes = null;
     try {
-      dictionaryMetadata = BDecoder.bdecode(new ByteArrayInputStream(metadata)).getMap();
+      final BReader reader = new BReader(metadata);
+      final BReader.Token root = reader.next();
+      if (root == BReader.Token.END) throw new InvalidBEncodingException("Metadata is empty");
+      if (root != BReader.Token.DICT_START) throw new InvalidBEncodingException("Metadata must be a dictionary");
+      while (reader.next() == BReader.Token.KEY) {
+        final String key = reader.getString();
+        reader.next();
+        if (PIECE_LAYERS.equals(key)) {
+          pieceLayersByRoot = readPieceLayers(reader);
+          continue;
+        }
+        dictionaryMetadata.put(key, reader.readValue());
+        if (INFO_TABLE.equals(key)) {
+          // bytes of the info dictionary as is, it's hashed without re-encoding
+          infoTableBytes = reader.getRaw();
+        }
+      }
     } catch (InvalidBEncodingException e) {
       throw e;
     } catch (IOException e) {
@@ -50,31 +80,73 @@ public class TorrentParser {
     final String createdBy = getStringOrNull(dictionaryMetadata, CREATED_BY);
     final String announceUrl = getStringOrNull(dictionaryMetadata, ANNOUNCE);
     final List<List<String>> trackers = getTrackers(dictionaryMetadata);
+    final List<String> webSeeds = getWebSeeds(dictionaryMetadata);
     final int pieceLength = getRequiredValueOrThrowException(infoTable, PIECE_LENGTH).getInt();
-    final byte[] piecesHashes = getRequiredValueOrThrowException(infoTable, PIECES).getBytes();
+    final BEValue metaVersionValue = infoTable.get(META_VERSION);
+    final boolean containsV2Metadata = metaVersionValue != null && metaVersionValue.getInt() == 2;
+    final BEValue piecesValue = containsV2Metadata ? infoTable.get(PIECES) : getRequiredValueOrThrowException(infoTable, PIECES);
+    final byte[] piecesHashes = piecesValue == null ? new byte[0] : piecesValue.getBytes();
 
     final boolean torrentContainsManyFiles = infoTable.get(FILES) != null;
 
     final String dirName = getRequiredValueOrThrowException(infoTable, NAME).getString();
 
-    final List<TorrentFile> files = parseFiles(infoTable, torrentContainsManyFiles, dirName);
-
     if (piecesHashes.length % Constants.PIECE_HASH_SIZE != 0)
       throw new InvalidBEncodingException("Incorrect size of pieces hashes");
 
-    final int piecesCount = piecesHashes.length / Constants.PIECE_HASH_SIZE;
+    if (!containsV2Metadata) {
+      return new TorrentMetadataImpl(
+              Digests.sha1(infoTableBytes),
+              null,
+              trackers,
+              announceUrl,
+              webSeeds,
+              creationDate,
+              comment,
+              createdBy,
+              dirName,
+              parseFiles(infoTable, torrentContainsManyFiles, dirName),
+              piecesHashes.length / Constants.PIECE_HASH_SIZE,
+              pieceLength,
+              piecesHashes,
+              Collections.<String, byte[]>emptyMap()
+      );
+    }
 
-    byte[] infoTableBytes;
-    try {
-      infoTableBytes = BEncoder.bencode(infoTable).array();
-    } catch (IOException e) {
-      throw new RuntimeException(e);
+    if (pieceLength < MerkleTree.BLOCK_SIZE || Integer.bitCount(pieceLength) != 1) {
+      throw new InvalidBEncodingException("Piece length of v2 torrent must be a power of two and at least 16KiB");
+    }
+    final List<TorrentFile> v2Files = new ArrayList<TorrentFile>();
+    parseFileTree(getRequiredValueOrThrowException(infoTable, FILE_TREE).getMap(), new ArrayList<String>(), v2Files);
+    final Map<String, byte[]> pieceLayers = checkPieceLayers(pieceLayersByRoot, v2Files, pieceLength);
+
+    final boolean isHybrid = piecesHashes.length > 0;
+    final List<TorrentFile> files;
+    final int piecesCount;
+    final byte[] infoHashV2 = Digests.sha256(infoTableBytes.duplicate());
+    final byte[] infoHash;
+    if (isHybrid) {
+      files = attachPiecesRoots(parseFiles(infoTable, torrentContainsManyFiles, dirName), v2Files);
+      piecesCount = piecesHashes.length / Constants.PIECE_HASH_SIZE;
+      checkHybridLayout(files, pieceLength, piecesCount);
+      infoHash = Digests.sha1(infoTableBytes);
+    } else {
+      final boolean singleFile = v2Files.size() == 1 && v2Files.get(0).relativePath.equals(Collections.singletonList(dirName));
+      files = singleFile ? v2Files : alignFiles(v2Files, pieceLength);
+      long totalSize = 0;
+      for (TorrentFile file : files) {
+        totalSize += file.size;
+      }
+      piecesCount = (int) ((totalSize + pieceLength - 1) / pieceLength);
+      infoHash = Arrays.copyOf(infoHashV2, Constants.PIECE_HASH_SIZE);
     }
 
     return new TorrentMetadataImpl(
-            TorrentUtils.calculateSha1Hash(infoTableBytes),
+            infoHash,
+            infoHashV2,
             trackers,
             announceUrl,
+            webSeeds,
             creationDate,
             comment,
             createdBy,
@@ -82,10 +154,146 @@ public class TorrentParser {
             files,
             piecesCount,
             pieceLength,
-            piecesHashes
+            piecesHashes,
+            pieceLayers
     );
   }
 
+  /**
+   * file tree is a tree of dictionaries where keys are names of directories and files. Dictionary of a file
+   * contains one entry with empty key. Files are collected in order of keys, i.e. in the order of pieces
+   */
+  private void parseFileTree(Map<String, BEValue> tree, List<String> path, List<TorrentFile> result) throws InvalidBEncodingException {
+    List<String> names = new ArrayList<String>(tree.keySet());
+    Collections.sort(names);
+    for (String name : names) {
+      final Map<String, BEValue> node = tree.get(name).getMap();
+      if (name.isEmpty()) {
+        final BEValue rootValue = node.get(PIECES_ROOT);
+        final long length = getRequiredValueOrThrowException(node, FILE_LENGTH).getLong();
+        final byte[] piecesRoot = rootValue == null ? null : rootValue.getBytes();
+        if (length > 0 && (piecesRoot == null || piecesRoot.length != MerkleTree.HASH_SIZE)) {
+          throw new InvalidBEncodingException("Missing or incorrect pieces root of file " + path);
+        }
+        result.add(new TorrentFile(path, length, null, length > 0 ? piecesRoot : null, isPadFile(node)));
+        continue;
+      }
+      List<String> childPath = new ArrayList<String>(path);
+      childPath.add(name);
+      parseFileTree(node, childPath, result);
+    }
+  }
+
+  /**
+   * piece layers dictionary is keyed by binary pieces roots which aren't valid UTF-8 strings,
+   * so it's read here instead of decoding into {@link BEValue} dictionary with string keys
+   *
+   * @return piece layers by hex representation of pieces roots
+   */
+  private Map<String, byte[]> readPieceLayers(BReader reader) throws InvalidBEncodingException, EOFException {
+    if (reader.getToken() != BReader.Token.DICT_START) {
+      throw new InvalidBEncodingException("Piece layers must be a dictionary");
+    }
+    Map<String, byte[]> result = new HashMap<String, byte[]>();
+    while (reader.next() == BReader.Token.KEY) {
+      final ByteBuffer key = reader.getBuffer();
+      final byte[] piecesRoot = new byte[key.remaining()];
+      key.get(piecesRoot);
+      if (reader.next() != BReader.Token.BYTES) {
+        throw new InvalidBEncodingException("Piece layer must be a byte string");
+      }
+      result.put(TorrentUtils.byteArrayToHexString(piecesRoot), reader.readValue().getBytes());
+    }
+    return result;
+  }
+
+  /**
+   * piece layers contain hashes of pieces for files larger than one piece.
+   * Each layer is checked with the pieces root of the file
+   */
+  private Map<String, byte[]> checkPieceLayers(Map<String, byte[]> layers,
+                                               List<TorrentFile> files,
+                                               int pieceLength) throws InvalidBEncodingException {
+    final int pieceLevel = MerkleTree.log2(pieceLength / MerkleTree.BLOCK_SIZE);
+    Map<String, byte[]> result = new HashMap<String, byte[]>();
+    for (TorrentFile file : files) {
+      if (file.size <= pieceLength) continue;
+      final byte[] piecesRoot = file.piecesRoot.get();
+      final String key = TorrentUtils.byteArrayToHexString(piecesRoot);
+      final byte[] layer = layers.get(key);
+      if (layer == null) {
+        throw new InvalidBEncodingException("Piece layer of file " + file.relativePath + " is not found");
+      }
+      if (layer.length != (file.size + pieceLength - 1) / pieceLength * MerkleTree.HASH_SIZE ||
+              !Arrays.equals(MerkleTree.root(layer, pieceLevel), piecesRoot)) {
+        throw new InvalidBEncodingException("Piece layer of file " + file.relativePath + " doesn't match pieces root");
+      }
+      result.put(key, layer);
+    }
+    return result;
+  }
+
+  /**
+   * v1 files of hybrid torrent must describe the same data as the file tree: each file with data starts
+   * from the new piece (previous file is followed by a pad file) and all its pieces are in the torrent
+   */
+  private void checkHybridLayout(List<TorrentFile> files, int pieceLength, int piecesCount) throws InvalidBEncodingException {
+    long offset = 0;
+    for (TorrentFile file : files) {
+      if (!file.padFile && file.size > 0) {
+        if (!file.piecesRoot.isPresent()) {
+          throw new InvalidBEncodingException("File " + file.relativePath + " of hybrid torrent is not found in file tree");
+        }
+        if (offset % pieceLength != 0) {
+          throw new InvalidBEncodingException("File " + file.relativePath + " of hybrid torrent is not aligned to piece boundary");
+        }
+      }
+      offset += file.size;
+    }
+    if ((offset + pieceLength - 1) / pieceLength != piecesCount) {
+      throw new InvalidBEncodingException("Count of pieces hashes of hybrid torrent doesn't match size of files");
+    }
+  }
+
+  /**
+   * v2-only torrents don't contain pad files, but each file starts from the new piece.
+   * Pad files are added for representing torrent data as contiguous byte storage
+   */
+  private List<TorrentFile> alignFiles(List<TorrentFile> files, int pieceLength) {
+    List<TorrentFile> result = new ArrayList<TorrentFile>();
+    long offset = 0;
+    for (TorrentFile file : files) {
+      final long padLength = (pieceLength - offset % pieceLength) % pieceLength;
+      if (file.size > 0 && padLength > 0) {
+        result.add(new TorrentFile(Arrays.asList(".pad", String.valueOf(padLength)), padLength, null, null, true));
+        offset += padLength;
+      }
+      result.add(file);
+      offset += file.size;
+    }
+    return result;
+  }
+
+  private List<TorrentFile> attachPiecesRoots(List<TorrentFile> v1Files, List<TorrentFile> v2Files) {
+    Map<List<String>, byte[]> roots = new HashMap<List<String>, byte[]>();
+    for (TorrentFile file : v2Files) {
+      if (file.piecesRoot.isPresent()) {
+        roots.put(file.relativePath, file.piecesRoot.get());
+      }
+    }
+    List<TorrentFile> result = new ArrayList<TorrentFile>(v1Files.size());
+    for (TorrentFile file : v1Files) {
+      result.add(new TorrentFile(file.relativePath, file.size, file.md5Hash.isPresent() ? file.md5Hash.get() : null,
+              file.padFile ? null : roots.get(file.relativePath), file.padFile));
+    }
+    return result;
+  }
+
+  private boolean isPadFile(Map<String, BEValue> fileInfo) throws InvalidBEncodingException {
+    final BEValue attributes = fileInfo.get(FILE_ATTRIBUTES);
+    return attributes != null && attributes.getString().contains("p");
+  }
+
   private List<TorrentFile> parseFiles(Map<String, BEValue> infoTable, boolean torrentContainsManyFiles, String name) throws InvalidBEncodingException {
     if (!torrentContainsManyFiles) {
       final BEValue md5Sum = infoTable.get(MD5_SUM);
@@ -111,7 +319,9 @@ public class TorrentParser {
       result.add(new TorrentFile(
               path,
               fileInfo.get(FILE_LENGTH).getLong(),
-              md5Sum == null ? null : md5Sum.getString()));
+              md5Sum == null ? null : md5Sum.getString(),
+              null,
+              isPadFile(fileInfo)));
     }
     return result;
   }
@@ -152,6 +362,33 @@ public class TorrentParser {
     return result;
   }
 
+  /**
+   * url-list can be specified as single string or as list of strings
+   *
+   * @see <a href="http://bittorrent.org/beps/bep_0019.html"></a>
+   */
+  @NotNull
+  private List<String> getWebSeeds(Map<String, BEValue> dictionaryMetadata) throws InvalidBEncodingException {
+    final BEValue urlListValue = dictionaryMetadata.get(URL_LIST);
+    if (urlListValue == null) return Collections.emptyList();
+
+    List<String> result = new ArrayList<String>();
+    if (urlListValue.getValue() instanceof List) {
+      for (BEValue urlValue : urlListValue.getList()) {
+        final String url = urlValue.getString();
+        if (!url.isEmpty() && !result.contains(url)) {
+          result.add(url);
+        }
+      }
+    } else {
+      final String url = urlListValue.getString();
+      if (!url.isEmpty()) {
+        result.add(url);
+      }
+    }
+    return result;
+  }
+
   @NotNull
   private BEValue getRequiredValueOrThrowException(Map<String, BEValue> map, String key) throws InvalidBEncodingException {
     final BEValue value = map.get(key);
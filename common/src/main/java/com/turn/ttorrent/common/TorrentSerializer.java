@@ -1,12 +1,11 @@
 package com.turn.ttorrent.common;
 
 import com.turn.ttorrent.bcodec.BEValue;
-import com.turn.ttorrent.bcodec.BEncoder;
 import org.jetbrains.annotations.Nullable;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.UnsupportedEncodingException;
-import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
@@ -33,14 +32,23 @@ public class TorrentSerializer {
     if (announceList != null) {
       mapMetadata.put(ANNOUNCE_LIST, new BEValue(announceList));
     }
+    if (!metadata.getWebSeedUrlList().isEmpty()) {
+      mapMetadata.put(URL_LIST, new BEValue(mapStringListToBEValueList(metadata.getWebSeedUrlList())));
+    }
+    final byte[] infoHashV2 = metadata.getInfoHashV2();
+    final boolean isV2Only = infoHashV2 != null && metadata.getPiecesHashes().length == 0;
     infoTable.put(PIECE_LENGTH, new BEValue(metadata.getPieceLength()));
-    infoTable.put(PIECES, new BEValue(metadata.getPiecesHashes()));
+    if (!isV2Only) {
+      infoTable.put(PIECES, new BEValue(metadata.getPiecesHashes()));
+    }
     if (metadata.isPrivate()) {
       infoTable.put(PRIVATE, new BEValue(1));
     }
 
     infoTable.put(NAME, new BEValue(metadata.getDirectoryName()));
-    if (metadata.getFiles().size() == 1) {
+    if (isV2Only) {
+      // files of v2-only torrents are stored only in file tree
+    } else if (metadata.getFiles().size() == 1) {
       final TorrentFile torrentFile = metadata.getFiles().get(0);
       infoTable.put(FILE_LENGTH, new BEValue(torrentFile.size));
       putOptionalIfPresent(infoTable, MD5_SUM, torrentFile.md5Hash);
@@ -51,15 +59,40 @@ public class TorrentSerializer {
         entry.put(FILE_LENGTH, new BEValue(torrentFile.size));
         putOptionalIfPresent(entry, MD5_SUM, torrentFile.md5Hash);
         entry.put(FILE_PATH, new BEValue(mapStringListToBEValueList(torrentFile.relativePath)));
+        if (torrentFile.padFile) {
+          entry.put(FILE_ATTRIBUTES, new BEValue("p"));
+        }
         files.add(new BEValue(entry));
       }
       infoTable.put(FILES, new BEValue(files));
     }
 
+    if (infoHashV2 != null) {
+      infoTable.put(META_VERSION, new BEValue(2));
+      infoTable.put(FILE_TREE, new BEValue(TorrentUtils.createFileTree(metadata.getFiles())));
+    }
+
     mapMetadata.put(INFO_TABLE, new BEValue(infoTable));
 
-    final ByteBuffer buffer = BEncoder.bencode(mapMetadata);
-    return buffer.array();
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    TorrentUtils.bencodeMetadata(mapMetadata, getPieceLayers(metadata), out);
+    return out.toByteArray();
+  }
+
+  /**
+   * @return piece layers by hex representation of pieces roots
+   */
+  private Map<String, byte[]> getPieceLayers(TorrentMetadata metadata) {
+    Map<String, byte[]> result = new HashMap<String, byte[]>();
+    if (metadata.getInfoHashV2() == null) return result;
+    for (TorrentFile torrentFile : metadata.getFiles()) {
+      if (!torrentFile.piecesRoot.isPresent()) continue;
+      final byte[] piecesRoot = torrentFile.piecesRoot.get();
+      final byte[] pieceLayer = metadata.getPieceLayer(piecesRoot);
+      if (pieceLayer == null) continue;
+      result.put(TorrentUtils.byteArrayToHexString(piecesRoot), pieceLayer);
+    }
+    return result;
   }
 
   @Nullable
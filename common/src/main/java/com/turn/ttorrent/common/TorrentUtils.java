@@ -1,9 +1,11 @@
 package com.turn.ttorrent.common;
 
-import org.apache.commons.codec.digest.DigestUtils;
+import com.turn.ttorrent.bcodec.BEValue;
+import com.turn.ttorrent.bcodec.BEncoder;
 
-import java.util.ArrayList;
-import java.util.List;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.*;
 
 public final class TorrentUtils {
 
@@ -14,7 +16,23 @@ public final class TorrentUtils {
    * @return sha 1 hash of specified data
    */
   public static byte[] calculateSha1Hash(byte[] data) {
-    return DigestUtils.sha(data);
+    return Digests.sha1(data);
+  }
+
+  /**
+   * Compares the hash with a hash stored in an array of concatenated hashes without copying it.
+   *
+   * @param hash   calculated hash
+   * @param hashes concatenated hashes, e.g. hashes of all pieces of a torrent
+   * @param offset offset of the expected hash in the array
+   * @return true if the array contains the same hash at the offset
+   */
+  public static boolean hashMatches(byte[] hash, byte[] hashes, int offset) {
+    if (offset < 0 || offset + hash.length > hashes.length) return false;
+    for (int i = 0; i < hash.length; i++) {
+      if (hash[i] != hashes[offset + i]) return false;
+    }
+    return true;
   }
 
   /**
@@ -47,4 +65,73 @@ public final class TorrentUtils {
     return result;
   }
 
+  /**
+   * creates file tree dictionary of v2 torrent. Pad files are not included into the tree
+   *
+   * @param files files of the torrent. For single-file torrent path of the file must be equal to the name of the torrent
+   * @see <a href="http://bittorrent.org/beps/bep_0052.html">http://bittorrent.org/beps/bep_0052.html</a>
+   */
+  public static Map<String, BEValue> createFileTree(List<TorrentFile> files) throws IOException {
+    Map<String, BEValue> result = new HashMap<String, BEValue>();
+    for (TorrentFile file : files) {
+      if (file.padFile) continue;
+      Map<String, BEValue> node = result;
+      for (String name : file.relativePath) {
+        BEValue child = node.get(name);
+        if (child == null) {
+          child = new BEValue(new HashMap<String, BEValue>());
+          node.put(name, child);
+        }
+        node = child.getMap();
+      }
+      Map<String, BEValue> fileInfo = new HashMap<String, BEValue>();
+      fileInfo.put(TorrentMetadataKeys.FILE_LENGTH, new BEValue(file.size));
+      if (file.piecesRoot.isPresent()) {
+        fileInfo.put(TorrentMetadataKeys.PIECES_ROOT, new BEValue(file.piecesRoot.get()));
+      }
+      node.put("", new BEValue(fileInfo));
+    }
+    return result;
+  }
+
+  /**
+   * b-encodes metadata dictionary of the torrent adding piece layers of v2 torrent. Piece layers are keyed
+   * by binary pieces roots which aren't valid UTF-8 strings and can't be keys of {@link BEValue} dictionary,
+   * so the dictionary is encoded here
+   *
+   * @param metadata    metadata dictionary without piece layers
+   * @param pieceLayers piece layers by hex representation of pieces roots, see {@link #byteArrayToHexString(byte[])}
+   */
+  public static void bencodeMetadata(Map<String, BEValue> metadata,
+                                     Map<String, byte[]> pieceLayers,
+                                     OutputStream out) throws IOException {
+    final SortedSet<String> keys = new TreeSet<String>(metadata.keySet());
+    if (!pieceLayers.isEmpty()) {
+      keys.add(TorrentMetadataKeys.PIECE_LAYERS);
+    }
+    out.write('d');
+    for (String key : keys) {
+      BEncoder.bencode(key, out);
+      if (!TorrentMetadataKeys.PIECE_LAYERS.equals(key) || pieceLayers.isEmpty()) {
+        BEncoder.bencode(metadata.get(key), out);
+        continue;
+      }
+      out.write('d');
+      // hex strings are sorted in the same order as raw bytes of pieces roots
+      for (Map.Entry<String, byte[]> entry : new TreeMap<String, byte[]>(pieceLayers).entrySet()) {
+        BEncoder.bencode(hexStringToByteArray(entry.getKey()), out);
+        BEncoder.bencode(entry.getValue(), out);
+      }
+      out.write('e');
+    }
+    out.write('e');
+  }
+
+  private static byte[] hexStringToByteArray(String hex) {
+    byte[] result = new byte[hex.length() / 2];
+    for (int i = 0; i < result.length; i++) {
+      result[i] = (byte) Integer.parseInt(hex.substring(i * 2, i * 2 + 2), 16);
+    }
+    return result;
+  }
 }
@@ -0,0 +1,120 @@
+/*
+ * Copyright 2000-2018 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.turn.ttorrent.common.creation;
+
+import com.turn.ttorrent.common.Digests;
+import com.turn.ttorrent.common.MerkleTree;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Calculates v2 hashes of sources in one pass: each source is read by 16KiB blocks, hashes of blocks
+ * are leaves of the merkle tree of the source. Optionally v1 hashes are calculated at the same time,
+ * in this case each non-empty source is aligned to piece boundary with zero padding
+ */
+class MerkleHashesCalculator {
+
+  private static final byte[] ZEROS = new byte[MerkleTree.BLOCK_SIZE];
+
+  MerkleHashingResult calculateHashes(List<DataSourceHolder> sources, int pieceSize, boolean calculateV1Hashes) throws IOException {
+    final int blocksPerPiece = pieceSize / MerkleTree.BLOCK_SIZE;
+    final int pieceLevel = MerkleTree.log2(blocksPerPiece);
+    final MessageDigest blockDigest = MerkleTree.createDigest();
+    final MessageDigest pieceDigest = Digests.createSha1();
+    final byte[] buffer = new byte[MerkleTree.BLOCK_SIZE];
+
+    List<Long> sourceSizes = new ArrayList<Long>();
+    List<Long> padLengths = new ArrayList<Long>();
+    List<byte[]> piecesRoots = new ArrayList<byte[]>();
+    List<byte[]> pieceLayers = new ArrayList<byte[]>();
+    List<byte[]> v1Hashes = new ArrayList<byte[]>();
+    int pieceFilled = 0;
+    for (DataSourceHolder source : sources) {
+      ByteArrayOutputStream leaves = new ByteArrayOutputStream();
+      long size = 0;
+      long padLength = 0;
+      try {
+        InputStream stream = source.getStream();
+        while (true) {
+          final int read = readBlock(stream, buffer);
+          if (read == 0) break;
+          if (calculateV1Hashes && size == 0 && pieceFilled > 0) {
+            padLength = pieceSize - pieceFilled;
+            updateWithZeros(pieceDigest, padLength);
+            v1Hashes.add(pieceDigest.digest());
+            pieceFilled = 0;
+          }
+          blockDigest.update(buffer, 0, read);
+          leaves.write(blockDigest.digest());
+          if (calculateV1Hashes) {
+            pieceDigest.update(buffer, 0, read);
+            pieceFilled += read;
+            if (pieceFilled == pieceSize) {
+              v1Hashes.add(pieceDigest.digest());
+              pieceFilled = 0;
+            }
+          }
+          size += read;
+          if (read < buffer.length) break;
+        }
+      } finally {
+        source.close();
+      }
+      sourceSizes.add(size);
+      padLengths.add(padLength);
+      if (size == 0) {
+        piecesRoots.add(null);
+        pieceLayers.add(null);
+      } else if (size <= pieceSize) {
+        piecesRoots.add(MerkleTree.root(leaves.toByteArray(), 0));
+        pieceLayers.add(null);
+      } else {
+        final byte[] pieceLayer = MerkleTree.upperLayer(leaves.toByteArray(), blocksPerPiece, 0);
+        piecesRoots.add(MerkleTree.root(pieceLayer, pieceLevel));
+        pieceLayers.add(pieceLayer);
+      }
+    }
+    if (pieceFilled > 0) {
+      v1Hashes.add(pieceDigest.digest());
+    }
+    return new MerkleHashingResult(sourceSizes, padLengths, piecesRoots, pieceLayers, v1Hashes);
+  }
+
+  private int readBlock(InputStream stream, byte[] buffer) throws IOException {
+    int read = 0;
+    while (read < buffer.length) {
+      final int count = stream.read(buffer, read, buffer.length - read);
+      if (count <= 0) break;
+      read += count;
+    }
+    return read;
+  }
+
+  private void updateWithZeros(MessageDigest digest, long count) {
+    while (count > 0) {
+      final int length = (int) Math.min(count, ZEROS.length);
+      digest.update(ZEROS, 0, length);
+      count -= length;
+    }
+  }
+}
@@ -0,0 +1,73 @@
+/*
+ * Copyright 2000-2018 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.turn.ttorrent.common.creation;
+
+import java.util.List;
+
+class MerkleHashingResult {
+
+  private final List<Long> sourceSizes;
+  private final List<Long> padLengths;
+  private final List<byte[]> piecesRoots;
+  private final List<byte[]> pieceLayers;
+  private final List<byte[]> v1Hashes;
+
+  MerkleHashingResult(List<Long> sourceSizes,
+                      List<Long> padLengths,
+                      List<byte[]> piecesRoots,
+                      List<byte[]> pieceLayers,
+                      List<byte[]> v1Hashes) {
+    this.sourceSizes = sourceSizes;
+    this.padLengths = padLengths;
+    this.piecesRoots = piecesRoots;
+    this.pieceLayers = pieceLayers;
+    this.v1Hashes = v1Hashes;
+  }
+
+  List<Long> getSourceSizes() {
+    return sourceSizes;
+  }
+
+  /**
+   * @return length of padding before each source. Padding is used only in v1 representation of hybrid torrents
+   */
+  List<Long> getPadLengths() {
+    return padLengths;
+  }
+
+  /**
+   * @return pieces root for each source or null for empty sources
+   */
+  List<byte[]> getPiecesRoots() {
+    return piecesRoots;
+  }
+
+  /**
+   * @return piece layer for each source or null if source isn't larger than one piece
+   */
+  List<byte[]> getPieceLayers() {
+    return pieceLayers;
+  }
+
+  /**
+   * @return v1 hashes of pieces including padding or empty list if v1 hashes were not requested
+   */
+  List<byte[]> getV1Hashes() {
+    return v1Hashes;
+  }
+}
@@ -0,0 +1,43 @@
+/*
+ * Copyright 2000-2018 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.turn.ttorrent.common.creation;
+
+/**
+ * Version of metadata format which is used for creating new torrents
+ *
+ * @see <a href="http://bittorrent.org/beps/bep_0052.html">http://bittorrent.org/beps/bep_0052.html</a>
+ */
+public enum MetaVersion {
+
+  /**
+   * metadata contains only SHA-1 hashes of pieces
+   */
+  V1,
+
+  /**
+   * metadata contains only merkle trees of files which are built from SHA-256 hashes of 16KiB blocks
+   */
+  V2,
+
+  /**
+   * metadata contains both v1 and v2 hashes, so the torrent can be downloaded by clients which support only v1.
+   * Pad files are added between files for aligning each file to piece boundary
+   */
+  HYBRID
+
+}
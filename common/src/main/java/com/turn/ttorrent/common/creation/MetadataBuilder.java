@@ -18,9 +18,9 @@ package com.turn.ttorrent.common.creation;
 
 import com.turn.ttorrent.Constants;
 import com.turn.ttorrent.bcodec.BEValue;
-import com.turn.ttorrent.bcodec.BEncoder;
 import com.turn.ttorrent.common.*;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 import org.slf4j.Logger;
 
 import java.io.*;
@@ -40,6 +40,8 @@ public class MetadataBuilder {
   private String announce = "";
   @NotNull
   private List<List<String>> announceList = new ArrayList<List<String>>();
+  @NotNull
+  private List<String> webSeedUrlList = new ArrayList<String>();
   private long creationDate = -1;
   @NotNull
   private String comment = "";
@@ -54,11 +56,16 @@ public class MetadataBuilder {
   private List<Source> sources = new ArrayList<Source>();
   @NotNull
   private String directoryName = "";
+  @NotNull
+  private MetaVersion metaVersion = MetaVersion.V1;
+  private boolean alignFilesToPieces = false;
   //end info dictionary
 
   //fields which store some internal information
   @NotNull
   private PiecesHashesCalculator piecesHashesCalculator = new SingleThreadHashesCalculator();
+  @Nullable
+  private PieceHashesCache pieceHashesCache = null;
   //end
 
   public MetadataBuilder() {
@@ -123,6 +130,17 @@ public class MetadataBuilder {
     return this;
   }
 
+  /**
+   * add web seed url. For multi-file torrent the url must point to the directory which
+   * contains the {@link #directoryName} directory, for single-file torrent the url can point
+   * to the file itself or to its parent directory (in this case the url must end with slash)
+   *
+   * @see <a href="http://bittorrent.org/beps/bep_0019.html">http://bittorrent.org/beps/bep_0019.html</a>
+   */
+  public MetadataBuilder addWebSeedUrl(@NotNull String url) {
+    webSeedUrlList.add(url);
+    return this;
+  }
 
   /**
    * Set the creation time of the torrent in standard UNIX epoch format.
@@ -159,6 +177,15 @@ public class MetadataBuilder {
     return this;
   }
 
+  /**
+   * Set {@link PieceHashesCache} for reusing of piece hashes calculated by previous build. Only data after
+   * the first changed file is hashed then. The cache is used only for v1 torrents
+   */
+  public MetadataBuilder setPieceHashesCache(@Nullable PieceHashesCache pieceHashesCache) {
+    this.pieceHashesCache = pieceHashesCache;
+    return this;
+  }
+
   /**
    * Set length int bytes of one piece. By default is used 512KB.
    * Larger piece size reduces size of .torrent file but cause inefficiency
@@ -171,6 +198,30 @@ public class MetadataBuilder {
     return this;
   }
 
+  /**
+   * Set version of metadata format. By default v1 torrent is created.
+   * For v2 and hybrid torrents piece length must be a power of two and at least 16KiB
+   *
+   * @see <a href="http://bittorrent.org/beps/bep_0052.html">http://bittorrent.org/beps/bep_0052.html</a>
+   */
+  public MetadataBuilder setMetaVersion(@NotNull MetaVersion metaVersion) {
+    this.metaVersion = metaVersion;
+    return this;
+  }
+
+  /**
+   * Enables insertion of pad files before files of multi-file v1 torrent, so each file starts
+   * on piece boundary and pieces of different files are never shared. Sizes of all sources
+   * except the last one must be known, so sources must be files.
+   * Files of v2 and hybrid torrents are always aligned
+   *
+   * @see <a href="http://bittorrent.org/beps/bep_0047.html">http://bittorrent.org/beps/bep_0047.html</a>
+   */
+  public MetadataBuilder setAlignFilesToPieces(boolean alignFilesToPieces) {
+    this.alignFilesToPieces = alignFilesToPieces;
+    return this;
+  }
+
   /**
    * Set the name of the directory in which to store all the files.
    * If {@link #directoryName} isn't empty then multi-file torrent will be created, otherwise single-file
@@ -253,29 +304,35 @@ public class MetadataBuilder {
    * @throws IllegalStateException if builder's state is incorrect (e.g. missing required fields)
    */
   public byte[] buildBinary() throws IOException {
+    Map<String, byte[]> pieceLayers = new HashMap<String, byte[]>();
+    final BEValue metadata = buildAndCloseResources(pieceLayers);
     ByteArrayOutputStream baos = new ByteArrayOutputStream();
-    BEncoder.bencode(buildBEP(), baos);
+    TorrentUtils.bencodeMetadata(metadata.getMap(), pieceLayers, baos);
     return baos.toByteArray();
   }
 
   /**
-   * @return BEP-encoded dictionary of metadata
+   * @return BEP-encoded dictionary of metadata. Piece layers of v2 torrents are keyed by binary hashes
+   * which can't be keys of the dictionary, so they are included only into {@link #buildBinary()}
    * @throws IOException           if IO error occurs on reading from source streams and files
    * @throws IllegalStateException if builder's state is incorrect (e.g. missing required fields)
    */
   public BEValue buildBEP() throws IOException {
-    return buildAndCloseResources();
+    return buildAndCloseResources(new HashMap<String, byte[]>());
   }
 
-  private BEValue buildAndCloseResources() throws IOException {
+  /**
+   * @param pieceLayers map which is filled with piece layers of v2 torrent by hex representation of pieces roots
+   */
+  private BEValue buildAndCloseResources(Map<String, byte[]> pieceLayers) throws IOException {
     try {
-      return doBuild();
+      return doBuild(pieceLayers);
     } finally {
       closeAllSources();
     }
   }
 
-  private BEValue doBuild() throws IOException {
+  private BEValue doBuild(Map<String, byte[]> pieceLayers) throws IOException {
     dropEmptyTiersFromAnnounce();
 
     if (announce.isEmpty() && !announceList.isEmpty()) {
@@ -299,6 +356,7 @@ public class MetadataBuilder {
     Map<String, BEValue> torrent = new HashMap<String, BEValue>();
     if (!announce.isEmpty()) torrent.put(ANNOUNCE, new BEValue(announce));
     if (!announceList.isEmpty()) torrent.put(ANNOUNCE_LIST, wrapAnnounceList());
+    if (!webSeedUrlList.isEmpty()) torrent.put(URL_LIST, wrapStringList(webSeedUrlList));
     if (creationDate > 0) {
       torrent.put(CREATION_DATE_SEC, new BEValue(creationDate));
     }
@@ -306,42 +364,114 @@ public class MetadataBuilder {
     if (!comment.isEmpty()) torrent.put(COMMENT, new BEValue(comment));
     if (!createdBy.isEmpty()) torrent.put(CREATED_BY, new BEValue(createdBy));
 
-    HashingResult hashingResult = piecesHashesCalculator.calculateHashes(mapSources(sources), pieceLength);
-
     Map<String, BEValue> info = new HashMap<String, BEValue>();
     info.put(PIECE_LENGTH, new BEValue(pieceLength));
-    info.put(PIECES, concatHashes(hashingResult.getHashes()));
     info.put(PRIVATE, new BEValue(isPrivate ? 1 : 0));
     info.put(NAME, new BEValue(name));
-    if (isSingleMode) {
-      Long sourceSize = hashingResult.getSourceSizes().get(0);
-      info.put(FILE_LENGTH, new BEValue(sourceSize));
+    if (metaVersion == MetaVersion.V1) {
+      final List<Source> v1Sources = alignFilesToPieces && !isSingleMode ? alignToPieces(sources) : sources;
+      HashingResult hashingResult = pieceHashesCache == null ?
+              piecesHashesCalculator.calculateHashes(mapSources(v1Sources), pieceLength) :
+              pieceHashesCache.calculateHashes(v1Sources, pieceLength, piecesHashesCalculator);
+      info.put(PIECES, concatHashes(hashingResult.getHashes()));
+      if (isSingleMode) {
+        Long sourceSize = hashingResult.getSourceSizes().get(0);
+        info.put(FILE_LENGTH, new BEValue(sourceSize));
+      } else {
+        List<TorrentFile> files = new ArrayList<TorrentFile>();
+        for (int i = 0; i < v1Sources.size(); i++) {
+          final Source source = v1Sources.get(i);
+          files.add(new TorrentFile(getPathElements(source), hashingResult.getSourceSizes().get(i), null, null, source.isPadding()));
+        }
+        info.put(FILES, new BEValue(getFilesList(files)));
+      }
     } else {
-      List<BEValue> files = getFilesList(hashingResult);
-      info.put(FILES, new BEValue(files));
+      putV2Metadata(info, pieceLayers, name, isSingleMode);
     }
     torrent.put(INFO_TABLE, new BEValue(info));
 
     return new BEValue(torrent);
   }
 
-  private List<BEValue> getFilesList(HashingResult hashingResult) throws UnsupportedEncodingException {
-    ArrayList<BEValue> result = new ArrayList<BEValue>();
+  private void putV2Metadata(Map<String, BEValue> info,
+                             Map<String, byte[]> pieceLayers,
+                             String name,
+                             boolean isSingleMode) throws IOException {
+    if (pieceLength < MerkleTree.BLOCK_SIZE || Integer.bitCount(pieceLength) != 1) {
+      throw new IllegalStateException("Piece length of v2 torrent must be a power of two and at least 16KiB");
+    }
+    final boolean isHybrid = metaVersion == MetaVersion.HYBRID;
+    MerkleHashingResult hashingResult = new MerkleHashesCalculator().calculateHashes(mapSources(sources), pieceLength, isHybrid);
+
+    List<TorrentFile> files = new ArrayList<TorrentFile>();
     for (int i = 0; i < sources.size(); i++) {
+      final long padLength = hashingResult.getPadLengths().get(i);
+      if (padLength > 0) {
+        files.add(new TorrentFile(Arrays.asList(".pad", String.valueOf(padLength)), padLength, null, null, true));
+      }
+      final List<String> path = isSingleMode ? Collections.singletonList(name) : getPathElements(sources.get(i));
+      final byte[] piecesRoot = hashingResult.getPiecesRoots().get(i);
+      files.add(new TorrentFile(path, hashingResult.getSourceSizes().get(i), null, piecesRoot, false));
+      final byte[] pieceLayer = hashingResult.getPieceLayers().get(i);
+      if (pieceLayer != null) {
+        pieceLayers.put(TorrentUtils.byteArrayToHexString(piecesRoot), pieceLayer);
+      }
+    }
+
+    info.put(META_VERSION, new BEValue(2));
+    info.put(FILE_TREE, new BEValue(TorrentUtils.createFileTree(files)));
+    if (isHybrid) {
+      info.put(PIECES, concatHashes(hashingResult.getV1Hashes()));
+      if (isSingleMode) {
+        info.put(FILE_LENGTH, new BEValue(hashingResult.getSourceSizes().get(0)));
+      } else {
+        info.put(FILES, new BEValue(getFilesList(files)));
+      }
+    }
+  }
+
+  private List<Source> alignToPieces(List<Source> sources) {
+    final List<Source> result = new ArrayList<Source>();
+    long offset = 0;
+    for (Source source : sources) {
+      if (offset < 0) {
+        throw new IllegalStateException("Files can't be aligned to pieces because size of source " +
+                result.get(result.size() - 1).getPath() + " is unknown");
+      }
+      final long length = source.getLength();
+      final long padLength = (pieceLength - offset % pieceLength) % pieceLength;
+      if (length != 0 && padLength > 0) {
+        result.add(Source.padding(padLength));
+        offset += padLength;
+      }
+      result.add(source);
+      offset = length < 0 ? -1 : offset + length;
+    }
+    return result;
+  }
+
+  private List<BEValue> getFilesList(List<TorrentFile> files) throws UnsupportedEncodingException {
+    ArrayList<BEValue> result = new ArrayList<BEValue>();
+    for (TorrentFile torrentFile : files) {
       Map<String, BEValue> file = new HashMap<String, BEValue>();
-      Long sourceSize = hashingResult.getSourceSizes().get(i);
-      Source source = sources.get(i);
       List<BEValue> filePath = new ArrayList<BEValue>();
-      for (String path : source.getPath().replace("\\", "/").split("/")) {
+      for (String path : torrentFile.relativePath) {
         filePath.add(new BEValue(path));
       }
       file.put(FILE_PATH, new BEValue(filePath));
-      file.put(FILE_LENGTH, new BEValue(sourceSize));
+      file.put(FILE_LENGTH, new BEValue(torrentFile.size));
+      if (torrentFile.padFile) {
+        file.put(FILE_ATTRIBUTES, new BEValue("p"));
+      }
       result.add(new BEValue(file));
     }
     return result;
   }
 
+  private List<String> getPathElements(Source source) {
+    return Arrays.asList(source.getPath().replace("\\", "/").split("/"));
+  }
+
   private BEValue concatHashes(List<byte[]> hashes) throws UnsupportedEncodingException {
     StringBuilder sb = new StringBuilder();
     for (byte[] hash : hashes) {
@@ -358,6 +488,14 @@ public class MetadataBuilder {
     return result;
   }
 
+  private BEValue wrapStringList(List<String> list) throws UnsupportedEncodingException {
+    List<BEValue> result = new LinkedList<BEValue>();
+    for (String s : list) {
+      result.add(new BEValue(s));
+    }
+    return new BEValue(result);
+  }
+
   private BEValue wrapAnnounceList() throws UnsupportedEncodingException {
     List<BEValue> result = new LinkedList<BEValue>();
     for (List<String> tier : announceList) {
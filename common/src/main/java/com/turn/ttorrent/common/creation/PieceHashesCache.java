@@ -0,0 +1,301 @@
+/*
+ * Copyright 2000-2018 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.turn.ttorrent.common.creation;
+
+import com.turn.ttorrent.bcodec.BDecoder;
+import com.turn.ttorrent.bcodec.BEValue;
+import com.turn.ttorrent.bcodec.BEncoder;
+import com.turn.ttorrent.common.LoggerUtils;
+import com.turn.ttorrent.common.TorrentLoggerFactory;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.slf4j.Logger;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * Persistent cache of piece hashes for repeated creation of torrents from the same files.
+ * The cache stores path, size and modification time of each file of the previous build together with
+ * hashes of its pieces. On next build pieces which are fully covered by the leading unchanged files
+ * are taken from the cache and only the rest of data is hashed, so creation of a torrent for
+ * append-only data hashes only appended files.
+ * <p>
+ * One cache file should be used for one torrent, the cache is replaced with state of the latest build.
+ * Sources which are user's streams can't be checked for changes, so data from the first such
+ * source is always hashed. Pad files inserted by {@link MetadataBuilder#setAlignFilesToPieces(boolean)}
+ * are unchanged while sizes of preceding files are unchanged.
+ */
+public class PieceHashesCache {
+
+  private final static Logger logger = TorrentLoggerFactory.getLogger(PieceHashesCache.class);
+
+  private static final String PIECE_LENGTH = "piece length";
+  private static final String FILES = "files";
+  private static final String PATH = "path";
+  private static final String LENGTH = "length";
+  private static final String MODIFIED = "modified";
+  private static final String PIECES = "pieces";
+  private static final int HASH_SIZE = 20;
+
+  @NotNull
+  private final File cacheFile;
+  private boolean loaded = false;
+  private int cachedPieceLength = -1;
+  @NotNull
+  private List<FileState> cachedFiles = new ArrayList<FileState>();
+  @NotNull
+  private List<byte[]> cachedHashes = new ArrayList<byte[]>();
+  private int lastReusedPiecesCount = 0;
+
+  /**
+   * @param cacheFile file where the cache is stored between builds. The file is created on first build
+   */
+  public PieceHashesCache(@NotNull File cacheFile) {
+    this.cacheFile = cacheFile;
+  }
+
+  /**
+   * @return count of pieces whose hashes were taken from the cache on the latest build
+   */
+  public synchronized int getLastReusedPiecesCount() {
+    return lastReusedPiecesCount;
+  }
+
+  synchronized HashingResult calculateHashes(List<Source> sources,
+                                             int pieceLength,
+                                             PiecesHashesCalculator calculator) throws IOException {
+    loadIfNecessary();
+    final List<FileState> currentFiles = new ArrayList<FileState>();
+    for (Source source : sources) {
+      currentFiles.add(FileState.of(source));
+    }
+
+    long unchangedBytes = 0;
+    int unchangedFiles = 0;
+    if (pieceLength == cachedPieceLength) {
+      for (; unchangedFiles < currentFiles.size() && unchangedFiles < cachedFiles.size(); unchangedFiles++) {
+        final FileState state = currentFiles.get(unchangedFiles);
+        if (!state.isComparable() || !state.equals(cachedFiles.get(unchangedFiles))) break;
+        unchangedBytes += state.length;
+      }
+    }
+    final int reusedPieces;
+    final long skippedBytes;
+    if (unchangedFiles == currentFiles.size() && unchangedFiles == cachedFiles.size()) {
+      // nothing is changed, the last incomplete piece can be reused too
+      reusedPieces = cachedHashes.size();
+      skippedBytes = unchangedBytes;
+    } else {
+      reusedPieces = (int) Math.min(unchangedBytes / pieceLength, cachedHashes.size());
+      skippedBytes = (long) reusedPieces * pieceLength;
+    }
+
+    final List<DataSourceHolder> holders = new ArrayList<DataSourceHolder>();
+    final List<Long> sourceSizes = new ArrayList<Long>();
+    long sourceStart = 0;
+    int firstHashedSource = -1;
+    for (int i = 0; i < sources.size(); i++) {
+      final DataSourceHolder holder = sources.get(i).getSourceHolder();
+      final long length = currentFiles.get(i).length;
+      if (firstHashedSource < 0 && currentFiles.get(i).isComparable() && sourceStart + length <= skippedBytes) {
+        // the whole source is covered by reused pieces, it's closed by the builder with other sources
+        sourceSizes.add(length);
+        sourceStart += length;
+        continue;
+      }
+      if (firstHashedSource < 0) {
+        firstHashedSource = i;
+        holders.add(new SkippingSourceHolder(holder, skippedBytes - sourceStart));
+      } else {
+        holders.add(holder);
+      }
+    }
+
+    final List<byte[]> hashes = new ArrayList<byte[]>(cachedHashes.subList(0, reusedPieces));
+    if (!holders.isEmpty()) {
+      final HashingResult result = calculator.calculateHashes(holders, pieceLength);
+      hashes.addAll(result.getHashes());
+      final List<Long> hashedSizes = result.getSourceSizes();
+      for (int i = 0; i < hashedSizes.size(); i++) {
+        sourceSizes.add(i == 0 ? hashedSizes.get(i) + skippedBytes - sourceStart : hashedSizes.get(i));
+      }
+    }
+    lastReusedPiecesCount = reusedPieces;
+    logger.debug("Reused {} of {} piece hashes from cache {}", new Object[]{reusedPieces, hashes.size(), cacheFile});
+
+    cachedPieceLength = pieceLength;
+    cachedFiles = currentFiles;
+    cachedHashes = hashes;
+    store();
+    return new HashingResult(hashes, sourceSizes);
+  }
+
+  private void loadIfNecessary() {
+    if (loaded) return;
+    loaded = true;
+    if (!cacheFile.isFile()) return;
+    InputStream in = null;
+    try {
+      in = new BufferedInputStream(new FileInputStream(cacheFile));
+      final Map<String, BEValue> root = BDecoder.bdecode(in).getMap();
+      final List<FileState> files = new ArrayList<FileState>();
+      for (BEValue file : root.get(FILES).getList()) {
+        final Map<String, BEValue> fileMap = file.getMap();
+        files.add(new FileState(fileMap.get(PATH).getString(), fileMap.get(LENGTH).getLong(), fileMap.get(MODIFIED).getLong()));
+      }
+      final byte[] pieces = root.get(PIECES).getBytes();
+      final List<byte[]> hashes = new ArrayList<byte[]>();
+      for (int offset = 0; offset + HASH_SIZE <= pieces.length; offset += HASH_SIZE) {
+        hashes.add(Arrays.copyOfRange(pieces, offset, offset + HASH_SIZE));
+      }
+      cachedPieceLength = root.get(PIECE_LENGTH).getInt();
+      cachedFiles = files;
+      cachedHashes = hashes;
+    } catch (Exception e) {
+      LoggerUtils.warnAndDebugDetails(logger, "unable to load piece hashes cache from {}, all pieces will be hashed", cacheFile, e);
+    } finally {
+      closeQuietly(in);
+    }
+  }
+
+  private void store() {
+    final Map<String, BEValue> root = new HashMap<String, BEValue>();
+    final File tempFile = new File(cacheFile.getPath() + ".tmp");
+    OutputStream out = null;
+    try {
+      root.put(PIECE_LENGTH, new BEValue(cachedPieceLength));
+      final List<BEValue> files = new ArrayList<BEValue>();
+      for (FileState state : cachedFiles) {
+        final Map<String, BEValue> file = new HashMap<String, BEValue>();
+        file.put(PATH, new BEValue(state.path));
+        file.put(LENGTH, new BEValue(state.length));
+        file.put(MODIFIED, new BEValue(state.lastModified));
+        files.add(new BEValue(file));
+      }
+      root.put(FILES, new BEValue(files));
+      final byte[] pieces = new byte[cachedHashes.size() * HASH_SIZE];
+      for (int i = 0; i < cachedHashes.size(); i++) {
+        System.arraycopy(cachedHashes.get(i), 0, pieces, i * HASH_SIZE, HASH_SIZE);
+      }
+      root.put(PIECES, new BEValue(pieces));
+
+      out = new BufferedOutputStream(new FileOutputStream(tempFile));
+      BEncoder.bencode(root, out);
+      out.close();
+      out = null;
+      if (!tempFile.renameTo(cacheFile)) {
+        if (!cacheFile.delete() || !tempFile.renameTo(cacheFile)) {
+          throw new IOException("unable to rename " + tempFile + " to " + cacheFile);
+        }
+      }
+    } catch (IOException e) {
+      LoggerUtils.warnAndDebugDetails(logger, "unable to store piece hashes cache to {}", cacheFile, e);
+    } finally {
+      closeQuietly(out);
+    }
+  }
+
+  private static void closeQuietly(@Nullable Closeable closeable) {
+    if (closeable == null) return;
+    try {
+      closeable.close();
+    } catch (IOException e) {
+      logger.debug("unable to close " + closeable, e);
+    }
+  }
+
+  private static class FileState {
+
+    @NotNull
+    private final String path;
+    private final long length;
+    private final long lastModified;
+
+    FileState(@NotNull String path, long length, long lastModified) {
+      this.path = path;
+      this.length = length;
+      this.lastModified = lastModified;
+    }
+
+    static FileState of(Source source) {
+      if (source.isPadding()) return new FileState("", source.getLength(), 0);
+      final File file = source.getFile();
+      if (file == null) return new FileState("", -1, -1);
+      final long lastModified = file.lastModified();
+      // zero modification time means that it's unknown
+      return new FileState(file.getAbsolutePath(), file.length(), lastModified == 0 ? -1 : lastModified);
+    }
+
+    /**
+     * @return false if it's unknown whether the source was changed since previous build
+     */
+    boolean isComparable() {
+      return lastModified >= 0;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) return true;
+      if (!(o instanceof FileState)) return false;
+      final FileState other = (FileState) o;
+      return length == other.length && lastModified == other.lastModified && path.equals(other.path);
+    }
+
+    @Override
+    public int hashCode() {
+      return 31 * path.hashCode() + (int) (length ^ (length >>> 32));
+    }
+  }
+
+  /**
+   * Skips data of the source which is covered by reused pieces before the stream is returned to the calculator
+   */
+  private static class SkippingSourceHolder implements DataSourceHolder {
+
+    private final DataSourceHolder delegate;
+    private long bytesToSkip;
+
+    SkippingSourceHolder(DataSourceHolder delegate, long bytesToSkip) {
+      this.delegate = delegate;
+      this.bytesToSkip = bytesToSkip;
+    }
+
+    @Override
+    public InputStream getStream() throws IOException {
+      final InputStream stream = delegate.getStream();
+      while (bytesToSkip > 0) {
+        final long skipped = stream.skip(bytesToSkip);
+        if (skipped <= 0) {
+          throw new EOFException("Source " + delegate + " is shorter than cached data");
+        }
+        bytesToSkip -= skipped;
+      }
+      return stream;
+    }
+
+    @Override
+    public void close() throws IOException {
+      delegate.close();
+    }
+
+    @Override
+    public String toString() {
+      return delegate.toString();
+    }
+  }
+}
@@ -0,0 +1,144 @@
+/*
+ * Copyright 2000-2018 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.turn.ttorrent.common.creation;
+
+import com.turn.ttorrent.common.Digests;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.*;
+
+/**
+ * Calculates hashes of pieces in the executor while next pieces are read from sources.
+ * Pieces are read into a bounded ring of buffers which are reused, so the calculator doesn't copy
+ * data of pieces and memory usage doesn't depend on size of sources. Sources of files
+ * are read via {@link FileChannel}. Hashes are collected in order of pieces.
+ */
+public class PipelinedHashesCalculator implements PiecesHashesCalculator {
+
+  private final ExecutorService executor;
+  private final int buffersCount;
+
+  /**
+   * @param executor     executor for calculation of hashes
+   * @param buffersCount count of pieces which can be in memory at the same time,
+   *                     it should be greater than count of threads of the executor
+   */
+  public PipelinedHashesCalculator(ExecutorService executor, int buffersCount) {
+    if (buffersCount <= 0) throw new IllegalArgumentException("count of buffers must be positive");
+    this.executor = executor;
+    this.buffersCount = buffersCount;
+  }
+
+  @Override
+  public HashingResult calculateHashes(List<DataSourceHolder> sources, int pieceSize) throws IOException {
+    final BlockingQueue<byte[]> freeBuffers = new ArrayBlockingQueue<byte[]>(buffersCount);
+    final Queue<Future<byte[]>> futures = new ArrayDeque<Future<byte[]>>();
+    final List<byte[]> hashes = new ArrayList<byte[]>();
+    final List<Long> sourcesSizes = new ArrayList<Long>();
+    int allocatedBuffers = 0;
+    try {
+      byte[] buffer = null;
+      int read = 0;
+      for (DataSourceHolder source : sources) {
+        long sourceSize = 0;
+        try {
+          final InputStream stream = source.getStream();
+          final FileChannel channel = stream instanceof FileInputStream ? ((FileInputStream) stream).getChannel() : null;
+          while (true) {
+            if (buffer == null) {
+              if (allocatedBuffers < buffersCount) {
+                buffer = new byte[pieceSize];
+                allocatedBuffers++;
+              } else {
+                buffer = freeBuffers.take();
+              }
+            }
+            final int readFromSource = channel != null ?
+                    channel.read(ByteBuffer.wrap(buffer, read, pieceSize - read)) :
+                    stream.read(buffer, read, pieceSize - read);
+            if (readFromSource < 0) break;
+            sourceSize += readFromSource;
+            read += readFromSource;
+            if (read == pieceSize) {
+              futures.add(executor.submit(new HashingTask(buffer, read, freeBuffers)));
+              buffer = null;
+              read = 0;
+              collectCompletedHashes(futures, hashes);
+            }
+          }
+        } finally {
+          source.close();
+        }
+        sourcesSizes.add(sourceSize);
+      }
+      if (read > 0) {
+        futures.add(executor.submit(new HashingTask(buffer, read, freeBuffers)));
+      }
+      while (!futures.isEmpty()) {
+        hashes.add(futures.poll().get());
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Calculation of hashes was interrupted");
+    } catch (ExecutionException e) {
+      throw new RuntimeException(e.getCause());
+    } finally {
+      for (Future<byte[]> future : futures) {
+        future.cancel(true);
+      }
+    }
+    return new HashingResult(hashes, sourcesSizes);
+  }
+
+  private void collectCompletedHashes(Queue<Future<byte[]>> futures, List<byte[]> hashes)
+          throws InterruptedException, ExecutionException {
+    while (!futures.isEmpty() && futures.peek().isDone()) {
+      hashes.add(futures.poll().get());
+    }
+  }
+
+  private static class HashingTask implements Callable<byte[]> {
+
+    private final byte[] buffer;
+    private final int length;
+    private final BlockingQueue<byte[]> freeBuffers;
+
+    HashingTask(byte[] buffer, int length, BlockingQueue<byte[]> freeBuffers) {
+      this.buffer = buffer;
+      this.length = length;
+      this.freeBuffers = freeBuffers;
+    }
+
+    @Override
+    public byte[] call() {
+      try {
+        return Digests.sha1(buffer, 0, length);
+      } finally {
+        freeBuffers.offer(buffer);
+      }
+    }
+  }
+}
@@ -22,10 +22,15 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.Arrays;
 
 class Source {
   private final String path;
   private final DataSourceHolder sourceHolder;
+  @Nullable
+  private final File file;
+  private final boolean padding;
+  private final long padLength;
 
   Source(File source) {
     this(source, source.getName());
@@ -33,6 +38,9 @@ class Source {
 
   Source(final File source, String path) {
     this.path = path;
+    this.file = source;
+    this.padding = false;
+    this.padLength = 0;
     this.sourceHolder = new DataSourceHolder() {
 
       @Nullable
@@ -62,6 +70,9 @@ class Source {
 
   Source(final InputStream source, String path, final boolean closeAfterBuild) {
     this.path = path;
+    this.file = null;
+    this.padding = false;
+    this.padLength = 0;
     this.sourceHolder = new DataSourceHolder() {
       @Override
       public InputStream getStream() {
@@ -82,11 +93,91 @@ class Source {
     };
   }
 
+  private Source(final long padLength) {
+    this.path = ".pad/" + padLength;
+    this.file = null;
+    this.padding = true;
+    this.padLength = padLength;
+    this.sourceHolder = new DataSourceHolder() {
+
+      private final InputStream zeros = new ZerosInputStream(padLength);
+
+      @Override
+      public InputStream getStream() {
+        return zeros;
+      }
+
+      @Override
+      public void close() {
+      }
+
+      @Override
+      public String toString() {
+        return "Data source for pad file of " + padLength + " bytes";
+      }
+    };
+  }
+
+  /**
+   * @return source of pad file which contains specified count of zeros
+   * @see <a href="http://bittorrent.org/beps/bep_0047.html">http://bittorrent.org/beps/bep_0047.html</a>
+   */
+  static Source padding(long padLength) {
+    return new Source(padLength);
+  }
+
+  boolean isPadding() {
+    return padding;
+  }
+
+  /**
+   * @return size of the source or -1 if the source is user's stream and its size is unknown before reading
+   */
+  long getLength() {
+    if (file != null) return file.length();
+    if (padding) return padLength;
+    return -1;
+  }
+
   String getPath() {
     return path;
   }
 
+  /**
+   * @return file of the source or null if the source is user's stream
+   */
+  @Nullable
+  File getFile() {
+    return file;
+  }
+
   DataSourceHolder getSourceHolder() {
     return sourceHolder;
   }
+
+  private static class ZerosInputStream extends InputStream {
+
+    private long remaining;
+
+    ZerosInputStream(long length) {
+      remaining = length;
+    }
+
+    @Override
+    public int read() {
+      if (remaining <= 0) return -1;
+      remaining--;
+      return 0;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) {
+      if (len == 0) return 0;
+      if (remaining <= 0) return -1;
+      final int count = (int) Math.min(len, remaining);
+      Arrays.fill(b, off, off + count, (byte) 0);
+      remaining -= count;
+      return count;
+    }
+  }
 }
@@ -16,10 +16,13 @@
 package com.turn.ttorrent.common.protocol;
 
 import com.turn.ttorrent.Constants;
+import com.turn.ttorrent.common.MerkleTree;
 import com.turn.ttorrent.common.TorrentInfo;
+import com.turn.ttorrent.common.TorrentUtils;
 
 import java.nio.ByteBuffer;
 import java.text.ParseException;
+import java.util.Arrays;
 import java.util.BitSet;
 
 /**
@@ -61,7 +64,10 @@ public abstract class PeerMessage {
     BITFIELD(5),
     REQUEST(6),
     PIECE(7),
-    CANCEL(8);
+    CANCEL(8),
+    HASH_REQUEST(21),
+    HASHES(22),
+    HASH_REJECT(23);
 
     private byte id;
 
@@ -182,6 +188,12 @@ public abstract class PeerMessage {
         return PieceMessage.parse(buffer.slice(), torrent);
       case CANCEL:
         return CancelMessage.parse(buffer.slice(), torrent);
+      case HASH_REQUEST:
+        return HashRequestMessage.parse(buffer.slice(), torrent);
+      case HASHES:
+        return HashesMessage.parse(buffer.slice(), torrent);
+      case HASH_REJECT:
+        return HashRejectMessage.parse(buffer.slice(), torrent);
       default:
         throw new IllegalStateException("Message type should have " +
                 "been properly defined by now.");
@@ -689,4 +701,218 @@ public abstract class PeerMessage {
               " (" + this.getLength() + "@" + this.getOffset() + ")";
     }
   }
+
+  /**
+   * Base class for messages of v2 torrents which refer to a range of hashes in merkle tree of a file.
+   *
+   * <len=0049+X><id><pieces root><base layer><index><length><proof layers>
+   *
+   * @see <a href="http://bittorrent.org/beps/bep_0052.html">http://bittorrent.org/beps/bep_0052.html</a>
+   */
+  public static abstract class HashRangeMessage extends PeerMessage {
+
+    private static final int BASE_SIZE = 1 + MerkleTree.HASH_SIZE + 16;
+
+    private final byte[] piecesRoot;
+    private final int baseLayer;
+    private final int index;
+    private final int length;
+    private final int proofLayers;
+
+    private HashRangeMessage(Type type, ByteBuffer buffer, byte[] piecesRoot,
+                             int baseLayer, int index, int length, int proofLayers) {
+      super(type, buffer);
+      this.piecesRoot = piecesRoot;
+      this.baseLayer = baseLayer;
+      this.index = index;
+      this.length = length;
+      this.proofLayers = proofLayers;
+    }
+
+    public byte[] getPiecesRoot() {
+      return this.piecesRoot;
+    }
+
+    public int getBaseLayer() {
+      return this.baseLayer;
+    }
+
+    public int getIndex() {
+      return this.index;
+    }
+
+    public int getLength() {
+      return this.length;
+    }
+
+    public int getProofLayers() {
+      return this.proofLayers;
+    }
+
+    @Override
+    public HashRangeMessage validate(TorrentInfo torrent)
+            throws MessageValidationException {
+      if (this.baseLayer >= 0 && this.index >= 0 && this.length > 0 && this.proofLayers >= 0) {
+        return this;
+      }
+
+      throw new MessageValidationException(this);
+    }
+
+    private static ByteBuffer craftBuffer(Type type, byte[] piecesRoot, int baseLayer,
+                                          int index, int length, int proofLayers, int payloadSize) {
+      ByteBuffer buffer = ByteBuffer.allocate(
+              MESSAGE_LENGTH_FIELD_SIZE + HashRangeMessage.BASE_SIZE + payloadSize);
+      buffer.putInt(HashRangeMessage.BASE_SIZE + payloadSize);
+      buffer.put(type.getTypeByte());
+      buffer.put(piecesRoot);
+      buffer.putInt(baseLayer);
+      buffer.putInt(index);
+      buffer.putInt(length);
+      buffer.putInt(proofLayers);
+      return buffer;
+    }
+
+    private static byte[] readPiecesRoot(ByteBuffer buffer) {
+      byte[] piecesRoot = new byte[MerkleTree.HASH_SIZE];
+      buffer.get(piecesRoot);
+      return piecesRoot;
+    }
+
+    public String toString() {
+      return super.toString() + " " + TorrentUtils.byteArrayToHexString(this.piecesRoot) +
+              " (layer " + this.baseLayer + ", " + this.length + "@" + this.index + ", proof " + this.proofLayers + ")";
+    }
+  }
+
+  /**
+   * Hash request message.
+   *
+   * <len=0049><id=21><pieces root><base layer><index><length><proof layers>
+   */
+  public static class HashRequestMessage extends HashRangeMessage {
+
+    /**
+     * Max count of hashes in one request, BEP 52 requires peers to reject requests of more hashes.
+     * Length of a request must be power of two and index must be multiple of the length
+     */
+    public static final int MAX_LENGTH = 512;
+
+    private HashRequestMessage(ByteBuffer buffer, byte[] piecesRoot,
+                               int baseLayer, int index, int length, int proofLayers) {
+      super(Type.HASH_REQUEST, buffer, piecesRoot, baseLayer, index, length, proofLayers);
+    }
+
+    public static HashRequestMessage parse(ByteBuffer buffer,
+                                           TorrentInfo torrent) throws MessageValidationException {
+      byte[] piecesRoot = HashRangeMessage.readPiecesRoot(buffer);
+      int baseLayer = buffer.getInt();
+      int index = buffer.getInt();
+      int length = buffer.getInt();
+      int proofLayers = buffer.getInt();
+      return (HashRequestMessage) new HashRequestMessage(buffer, piecesRoot,
+              baseLayer, index, length, proofLayers).validate(torrent);
+    }
+
+    public static HashRequestMessage craft(byte[] piecesRoot, int baseLayer,
+                                           int index, int length, int proofLayers) {
+      ByteBuffer buffer = HashRangeMessage.craftBuffer(Type.HASH_REQUEST, piecesRoot,
+              baseLayer, index, length, proofLayers, 0);
+      return new HashRequestMessage(buffer, piecesRoot, baseLayer, index, length, proofLayers);
+    }
+  }
+
+  /**
+   * Hashes message. Contains requested hashes of the base layer followed by uncle hashes.
+   *
+   * <len=0049+X><id=22><pieces root><base layer><index><length><proof layers><hashes>
+   */
+  public static class HashesMessage extends HashRangeMessage {
+
+    private final byte[] hashes;
+
+    private HashesMessage(ByteBuffer buffer, byte[] piecesRoot, int baseLayer,
+                          int index, int length, int proofLayers, byte[] hashes) {
+      super(Type.HASHES, buffer, piecesRoot, baseLayer, index, length, proofLayers);
+      this.hashes = hashes;
+    }
+
+    /**
+     * @return concatenated hashes of the base layer followed by uncle hashes
+     */
+    public byte[] getHashes() {
+      return this.hashes;
+    }
+
+    /**
+     * @return concatenated requested hashes of the base layer
+     */
+    public byte[] getBaseLayerHashes() {
+      return Arrays.copyOf(this.hashes, this.getLength() * MerkleTree.HASH_SIZE);
+    }
+
+    @Override
+    public HashesMessage validate(TorrentInfo torrent)
+            throws MessageValidationException {
+      super.validate(torrent);
+      if (this.hashes.length % MerkleTree.HASH_SIZE == 0 &&
+              this.hashes.length >= (long) this.getLength() * MerkleTree.HASH_SIZE) {
+        return this;
+      }
+
+      throw new MessageValidationException(this);
+    }
+
+    public static HashesMessage parse(ByteBuffer buffer,
+                                      TorrentInfo torrent) throws MessageValidationException {
+      byte[] piecesRoot = HashRangeMessage.readPiecesRoot(buffer);
+      int baseLayer = buffer.getInt();
+      int index = buffer.getInt();
+      int length = buffer.getInt();
+      int proofLayers = buffer.getInt();
+      byte[] hashes = new byte[buffer.remaining()];
+      buffer.get(hashes);
+      return new HashesMessage(buffer, piecesRoot,
+              baseLayer, index, length, proofLayers, hashes).validate(torrent);
+    }
+
+    public static HashesMessage craft(byte[] piecesRoot, int baseLayer,
+                                      int index, int length, int proofLayers, byte[] hashes) {
+      ByteBuffer buffer = HashRangeMessage.craftBuffer(Type.HASHES, piecesRoot,
+              baseLayer, index, length, proofLayers, hashes.length);
+      buffer.put(hashes);
+      return new HashesMessage(buffer, piecesRoot, baseLayer, index, length, proofLayers, hashes);
+    }
+  }
+
+  /**
+   * Hash reject message. It's sent in response to hash request which can not be satisfied.
+   *
+   * <len=0049><id=23><pieces root><base layer><index><length><proof layers>
+   */
+  public static class HashRejectMessage extends HashRangeMessage {
+
+    private HashRejectMessage(ByteBuffer buffer, byte[] piecesRoot,
+                              int baseLayer, int index, int length, int proofLayers) {
+      super(Type.HASH_REJECT, buffer, piecesRoot, baseLayer, index, length, proofLayers);
+    }
+
+    public static HashRejectMessage parse(ByteBuffer buffer,
+                                          TorrentInfo torrent) throws MessageValidationException {
+      byte[] piecesRoot = HashRangeMessage.readPiecesRoot(buffer);
+      int baseLayer = buffer.getInt();
+      int index = buffer.getInt();
+      int length = buffer.getInt();
+      int proofLayers = buffer.getInt();
+      return (HashRejectMessage) new HashRejectMessage(buffer, piecesRoot,
+              baseLayer, index, length, proofLayers).validate(torrent);
+    }
+
+    public static HashRejectMessage craft(HashRequestMessage request) {
+      ByteBuffer buffer = HashRangeMessage.craftBuffer(Type.HASH_REJECT, request.getPiecesRoot(),
+              request.getBaseLayer(), request.getIndex(), request.getLength(), request.getProofLayers(), 0);
+      return new HashRejectMessage(buffer, request.getPiecesRoot(), request.getBaseLayer(),
+              request.getIndex(), request.getLength(), request.getProofLayers());
+    }
+  }
 }
@@ -17,7 +17,8 @@ package com.turn.ttorrent.common.protocol.http;
 
 import com.turn.ttorrent.Constants;
 import com.turn.ttorrent.bcodec.BEValue;
-import com.turn.ttorrent.bcodec.BEncoder;
+import com.turn.ttorrent.bcodec.BReader;
+import com.turn.ttorrent.bcodec.BufferEncoder;
 import com.turn.ttorrent.bcodec.InvalidBEncodingException;
 import com.turn.ttorrent.common.Peer;
 import com.turn.ttorrent.common.protocol.AnnounceResponseMessage;
@@ -39,6 +40,12 @@ import java.util.*;
 public class HTTPAnnounceResponseMessage extends HTTPTrackerMessage
         implements AnnounceResponseMessage {
 
+  private static final BufferEncoder.Key COMPLETE = new BufferEncoder.Key("complete");
+  private static final BufferEncoder.Key INCOMPLETE = new BufferEncoder.Key("incomplete");
+  private static final BufferEncoder.Key INTERVAL = new BufferEncoder.Key("interval");
+  private static final BufferEncoder.Key PEERS = new BufferEncoder.Key("peers");
+  private static final BufferEncoder.Key TORRENT_IDENTIFIER = new BufferEncoder.Key("torrentIdentifier");
+
   private final int interval;
   private final int complete;
   private final int incomplete;
@@ -103,7 +110,7 @@ public class HTTPAnnounceResponseMessage extends HTTPTrackerMessage
       try {
         // First attempt to decode a compact response, since we asked
         // for it.
-        peers = toPeerList(params.get("peers").getBytes());
+        peers = toPeerList(ByteBuffer.wrap(params.get("peers").getBytes()));
       } catch (InvalidBEncodingException ibee) {
         // Fall back to peer list, non-compact response, in case the
         // tracker did not support compact responses.
@@ -132,6 +139,104 @@ public class HTTPAnnounceResponseMessage extends HTTPTrackerMessage
     }
   }
 
+  /**
+   * Parses the announce response with {@link BReader}: only fields of the response are read,
+   * other fields are skipped without decoding.
+   *
+   * @param data The b-encoded announce response dictionary.
+   */
+  public static HTTPAnnounceResponseMessage parse(ByteBuffer data)
+          throws IOException, MessageValidationException {
+    final BReader reader = new BReader(data);
+    if (reader.next() != BReader.Token.DICT_START) {
+      throw new MessageValidationException(
+              "Could not decode tracker message (not B-encoded?)!");
+    }
+
+    Integer interval = null;
+    int complete = 0;
+    int incomplete = 0;
+    List<Peer> peers = null;
+    String hexInfoHash = null;
+    try {
+      while (reader.next() == BReader.Token.KEY) {
+        if (reader.isKey("interval")) {
+          reader.next();
+          interval = reader.getInt();
+        } else if (reader.isKey("complete")) {
+          reader.next();
+          complete = reader.getInt();
+        } else if (reader.isKey("incomplete")) {
+          reader.next();
+          incomplete = reader.getInt();
+        } else if (reader.isKey("peers")) {
+          reader.next();
+          peers = readPeers(reader);
+        } else if (reader.isKey("torrentIdentifier")) {
+          reader.next();
+          hexInfoHash = reader.getString();
+        } else {
+          reader.next();
+          reader.skip();
+        }
+      }
+    } catch (InvalidBEncodingException ibee) {
+      throw new MessageValidationException("Invalid response " +
+              "from tracker!", ibee);
+    } catch (UnknownHostException uhe) {
+      throw new MessageValidationException("Invalid peer " +
+              "in tracker response!", uhe);
+    }
+
+    if (interval == null) {
+      throw new MessageValidationException("Tracker message missing mandatory field 'interval'!");
+    }
+    if (peers == null) {
+      throw new MessageValidationException("Tracker message missing mandatory field 'peers'!");
+    }
+    return new HTTPAnnounceResponseMessage(Constants.EMPTY_BUFFER,
+            interval, complete, incomplete, peers, hexInfoHash);
+  }
+
+  /**
+   * Reads peers from the current value of the reader: either the binary compact peer list
+   * or the list of dictionaries with ip and port of peers.
+   */
+  private static List<Peer> readPeers(BReader reader)
+          throws IOException {
+    if (reader.getToken() == BReader.Token.BYTES) {
+      return toPeerList(reader.getBuffer());
+    }
+    if (reader.getToken() != BReader.Token.LIST_START) {
+      throw new InvalidBEncodingException("Invalid peers: " + reader.getToken());
+    }
+    List<Peer> result = new LinkedList<Peer>();
+    while (reader.next() == BReader.Token.DICT_START) {
+      String ip = null;
+      Integer port = null;
+      while (reader.next() == BReader.Token.KEY) {
+        if (reader.isKey("ip")) {
+          reader.next();
+          ip = reader.getString(Constants.BYTE_ENCODING);
+        } else if (reader.isKey("port")) {
+          reader.next();
+          port = reader.getInt();
+        } else {
+          reader.next();
+          reader.skip();
+        }
+      }
+      if (ip == null || port == null) {
+        throw new InvalidBEncodingException("Peer without ip or port");
+      }
+      result.add(new Peer(ip, port));
+    }
+    if (reader.getToken() != BReader.Token.LIST_END) {
+      throw new InvalidBEncodingException("Peer must be a dictionary, not " + reader.getToken());
+    }
+    return result;
+  }
+
   /**
    * Build a peer list as a list of {@link Peer}s from the
    * announce response's peer list (in non-compact mode).
@@ -164,17 +269,17 @@ public class HTTPAnnounceResponseMessage extends HTTPTrackerMessage
    * @return A {@link List} of {@link Peer}s representing the
    * peers' addresses. Peer IDs are lost, but they are not crucial.
    */
-  private static List<Peer> toPeerList(byte[] data)
+  private static List<Peer> toPeerList(ByteBuffer peers)
           throws InvalidBEncodingException, UnknownHostException {
-    if (data.length % 6 != 0) {
+    if (peers.remaining() % 6 != 0) {
       throw new InvalidBEncodingException("Invalid peers " +
               "binary information string!");
     }
 
     List<Peer> result = new LinkedList<Peer>();
-    ByteBuffer peers = ByteBuffer.wrap(data);
+    final int count = peers.remaining() / 6;
 
-    for (int i = 0; i < data.length / 6; i++) {
+    for (int i = 0; i < count; i++) {
       byte[] ipBytes = new byte[4];
       peers.get(ipBytes);
       InetAddress ip = InetAddress.getByAddress(ipBytes);
@@ -189,6 +294,7 @@ public class HTTPAnnounceResponseMessage extends HTTPTrackerMessage
 
   /**
    * Craft a compact announce response message with a torrent identifier.
+   * The message is encoded into a buffer of exact size without intermediate maps and arrays.
    *
    * @param interval
    * @param complete
@@ -198,15 +304,32 @@ public class HTTPAnnounceResponseMessage extends HTTPTrackerMessage
   public static HTTPAnnounceResponseMessage craft(int interval,
                                                   int complete, int incomplete,
                                                   List<Peer> peers, String hexInfoHash) throws IOException, UnsupportedEncodingException {
-    Map<String, BEValue> response = new HashMap<String, BEValue>();
-    response.put("interval", new BEValue(interval));
-    response.put("complete", new BEValue(complete));
-    response.put("incomplete", new BEValue(incomplete));
+    // only IPv4 peers can be sent in compact format
+    int peersLength = 0;
+    for (Peer peer : peers) {
+      byte[] ip = peer.getRawIp();
+      if (ip != null && ip.length == 4) {
+        peersLength += 6;
+      }
+    }
+
+    // keys are written in sorted order
+    int size = 2 +
+            COMPLETE.encodedSize() + BufferEncoder.integerSize(complete) +
+            INCOMPLETE.encodedSize() + BufferEncoder.integerSize(incomplete) +
+            INTERVAL.encodedSize() + BufferEncoder.integerSize(interval) +
+            PEERS.encodedSize() + BufferEncoder.bytesSize(peersLength);
     if (hexInfoHash != null) {
-      response.put("torrentIdentifier", new BEValue(hexInfoHash));
+      size += TORRENT_IDENTIFIER.encodedSize() + BufferEncoder.encodedSize(hexInfoHash);
     }
 
-    ByteBuffer data = ByteBuffer.allocate(peers.size() * 6);
+    ByteBuffer data = ByteBuffer.allocate(size);
+    BufferEncoder encoder = new BufferEncoder(data)
+            .startDictionary()
+            .writeKey(COMPLETE).writeInteger(complete)
+            .writeKey(INCOMPLETE).writeInteger(incomplete)
+            .writeKey(INTERVAL).writeInteger(interval)
+            .writeKey(PEERS).writeBytesLength(peersLength);
     for (Peer peer : peers) {
       byte[] ip = peer.getRawIp();
       if (ip == null || ip.length != 4) {
@@ -215,10 +338,14 @@ public class HTTPAnnounceResponseMessage extends HTTPTrackerMessage
       data.put(ip);
       data.putShort((short) peer.getPort());
     }
-    response.put("peers", new BEValue(Arrays.copyOf(data.array(), data.position())));
+    if (hexInfoHash != null) {
+      encoder.writeKey(TORRENT_IDENTIFIER).writeString(hexInfoHash);
+    }
+    encoder.end();
+    data.flip();
 
     return new HTTPAnnounceResponseMessage(
-            BEncoder.bencode(response),
+            data,
             interval, complete, incomplete, peers, hexInfoHash);
   }
 }
@@ -18,6 +18,7 @@ package com.turn.ttorrent.common.protocol.http;
 import com.turn.ttorrent.Constants;
 import com.turn.ttorrent.bcodec.BEValue;
 import com.turn.ttorrent.bcodec.BEncoder;
+import com.turn.ttorrent.bcodec.BReader;
 import com.turn.ttorrent.bcodec.InvalidBEncodingException;
 import com.turn.ttorrent.common.protocol.TrackerMessage.ErrorMessage;
 
@@ -67,6 +68,40 @@ public class HTTPTrackerErrorMessage extends HTTPTrackerMessage
     }
   }
 
+  /**
+   * Parses the error message with {@link BReader}, fields except the failure reason are skipped.
+   *
+   * @param data The b-encoded error message dictionary.
+   */
+  public static HTTPTrackerErrorMessage parse(ByteBuffer data)
+          throws IOException, MessageValidationException {
+    final BReader reader = new BReader(data);
+    if (reader.next() != BReader.Token.DICT_START) {
+      throw new MessageValidationException(
+              "Could not decode tracker message (not B-encoded?)!");
+    }
+
+    try {
+      String reason = null;
+      while (reader.next() == BReader.Token.KEY) {
+        if (reader.isKey("failure reason")) {
+          reader.next();
+          reason = reader.getString(Constants.BYTE_ENCODING);
+        } else {
+          reader.next();
+          reader.skip();
+        }
+      }
+      if (reason == null) {
+        throw new MessageValidationException("Tracker error message missing field 'failure reason'!");
+      }
+      return new HTTPTrackerErrorMessage(Constants.EMPTY_BUFFER, reason);
+    } catch (InvalidBEncodingException ibee) {
+      throw new MessageValidationException("Invalid tracker error " +
+              "message!", ibee);
+    }
+  }
+
   public static HTTPTrackerErrorMessage craft(
           ErrorMessage.FailureReason reason) throws IOException {
     return HTTPTrackerErrorMessage.craft(reason.getMessage());
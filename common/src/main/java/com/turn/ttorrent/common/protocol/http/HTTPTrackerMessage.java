@@ -15,9 +15,11 @@
  */
 package com.turn.ttorrent.common.protocol.http;
 
-import com.turn.ttorrent.bcodec.BDecoder;
 import com.turn.ttorrent.bcodec.BEValue;
+import com.turn.ttorrent.bcodec.BReader;
+import com.turn.ttorrent.bcodec.BufferDecoder;
 import com.turn.ttorrent.common.protocol.TrackerMessage;
+import org.apache.commons.io.IOUtils;
 
 import java.io.IOException;
 import java.io.InputStream;
@@ -38,11 +40,50 @@ public abstract class HTTPTrackerMessage extends TrackerMessage {
 
   public static HTTPTrackerMessage parse(InputStream data)
           throws IOException, MessageValidationException {
-    BEValue decoded = BDecoder.bdecode(data);
-    if (decoded == null) {
+    return parse(ByteBuffer.wrap(IOUtils.toByteArray(data)));
+  }
+
+  public static HTTPTrackerMessage parse(ByteBuffer data)
+          throws IOException, MessageValidationException {
+    final BReader reader = new BReader(data);
+    if (reader.next() != BReader.Token.DICT_START) {
       throw new MessageValidationException("Could not decode tracker message (not B-encoded?)!: ");
     }
-    return parse(decoded);
+    return parse(reader);
+  }
+
+  /**
+   * Parses the message from the dictionary which starts at the current token of the reader.
+   * Only keys of the dictionary are scanned to detect type of the message, announce responses and
+   * errors are read without decoding into {@link BEValue}s. After invocation the current token
+   * of the reader is the end of the dictionary.
+   */
+  public static HTTPTrackerMessage parse(BReader reader)
+          throws IOException, MessageValidationException {
+    if (reader.getToken() != BReader.Token.DICT_START) {
+      throw new MessageValidationException("Tracker message must be a dictionary, not " + reader.getToken());
+    }
+    boolean hasInfoHash = false;
+    boolean hasPeers = false;
+    boolean hasFailureReason = false;
+    while (reader.next() == BReader.Token.KEY) {
+      hasInfoHash |= reader.isKey("info_hash");
+      hasPeers |= reader.isKey("peers");
+      hasFailureReason |= reader.isKey("failure reason");
+      reader.next();
+      reader.skip();
+    }
+    final ByteBuffer message = reader.getRaw();
+
+    if (hasInfoHash) {
+      return HTTPAnnounceRequestMessage.parse(BufferDecoder.bdecode(message));
+    } else if (hasPeers) {
+      return HTTPAnnounceResponseMessage.parse(message);
+    } else if (hasFailureReason) {
+      return HTTPTrackerErrorMessage.parse(message);
+    }
+
+    throw new MessageValidationException("Unknown HTTP tracker message!");
   }
 
   public static HTTPTrackerMessage parse(BEValue decoded) throws IOException, MessageValidationException {
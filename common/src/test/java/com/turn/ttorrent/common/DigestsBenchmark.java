@@ -0,0 +1,64 @@
+package com.turn.ttorrent.common;
+
+import org.apache.commons.codec.digest.DigestUtils;
+
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.util.Random;
+
+/**
+ * Compares throughput of hashing of blocks and pieces with digests which are created on each
+ * invocation and with digests of {@link Digests}. Arguments: size of data in KiB, count of iterations
+ */
+public class DigestsBenchmark {
+
+  private static volatile byte[] ourSink;
+
+  public static void main(String[] args) throws Exception {
+    final int size = (args.length > 0 ? Integer.parseInt(args[0]) : 16) * 1024;
+    final int iterations = args.length > 1 ? Integer.parseInt(args[1]) : 20000;
+    final byte[] data = new byte[size];
+    new Random(42).nextBytes(data);
+    final ByteBuffer direct = ByteBuffer.allocateDirect(size);
+    direct.put(data);
+
+    for (int round = 0; round < 3; round++) {
+      long start = System.nanoTime();
+      for (int i = 0; i < iterations; i++) {
+        ourSink = MessageDigest.getInstance("SHA-1").digest(data);
+      }
+      print(round, "MessageDigest.getInstance", start, size, iterations);
+
+      start = System.nanoTime();
+      for (int i = 0; i < iterations; i++) {
+        ourSink = DigestUtils.sha(data);
+      }
+      print(round, "DigestUtils.sha", start, size, iterations);
+
+      start = System.nanoTime();
+      for (int i = 0; i < iterations; i++) {
+        ourSink = Digests.sha1(data);
+      }
+      print(round, "Digests.sha1(byte[])", start, size, iterations);
+
+      start = System.nanoTime();
+      for (int i = 0; i < iterations; i++) {
+        direct.clear();
+        ourSink = Digests.sha1(direct);
+      }
+      print(round, "Digests.sha1(direct buffer)", start, size, iterations);
+
+      start = System.nanoTime();
+      for (int i = 0; i < iterations; i++) {
+        ourSink = Digests.sha256(data);
+      }
+      print(round, "Digests.sha256(byte[])", start, size, iterations);
+    }
+  }
+
+  private static void print(int round, String name, long start, int size, int iterations) {
+    final double seconds = (System.nanoTime() - start) / 1e9;
+    System.out.printf("round %d %-30s %8.1f MB/s %8.2f us/op%n", round, name,
+            (double) size * iterations / 1024 / 1024 / seconds, seconds * 1e6 / iterations);
+  }
+}
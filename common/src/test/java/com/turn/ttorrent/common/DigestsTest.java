@@ -0,0 +1,71 @@
+package com.turn.ttorrent.common;
+
+import org.apache.commons.codec.digest.DigestUtils;
+import org.jetbrains.annotations.NotNull;
+import org.testng.annotations.Test;
+
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+@Test
+public class DigestsTest {
+
+  public void testHashesOfArraysAndBuffers() {
+    final byte[] data = new byte[100000];
+    for (int i = 0; i < data.length; i++) {
+      data[i] = (byte) (i * 31);
+    }
+    final byte[] part = new byte[1000];
+    System.arraycopy(data, 500, part, 0, part.length);
+
+    assertEquals(Digests.sha1(data), DigestUtils.sha(data));
+    assertEquals(Digests.sha1(data, 500, 1000), DigestUtils.sha(part));
+    assertEquals(Digests.sha256(data, 500, 1000), DigestUtils.sha256(part));
+
+    final ByteBuffer direct = ByteBuffer.allocateDirect(data.length);
+    direct.put(data);
+    direct.flip();
+    assertEquals(Digests.sha1(direct), DigestUtils.sha(data));
+    assertEquals(direct.remaining(), 0);
+    direct.position(500).limit(1500);
+    assertEquals(Digests.sha256(direct), DigestUtils.sha256(part));
+
+    // pooled digest is reset even if previous hashing wasn't completed
+    final MessageDigest incremental = Digests.createSha1();
+    incremental.update(data, 0, 500);
+    incremental.update(part);
+    incremental.update(data, 1500, data.length - 1500);
+    assertEquals(incremental.digest(), Digests.sha1(data));
+  }
+
+  public void testCustomProvider() {
+    final List<String> requested = new ArrayList<String>();
+    final DigestProvider defaultProvider = Digests.getProvider();
+    Digests.setProvider(new DigestProvider() {
+      @Override
+      public MessageDigest createDigest(@NotNull String algorithm) {
+        requested.add(algorithm);
+        return null;
+      }
+    });
+    try {
+      // digests are created by the JDK if the provider doesn't support the algorithm
+      assertEquals(Digests.sha1(new byte[]{1, 2, 3}), DigestUtils.sha(new byte[]{1, 2, 3}));
+      assertEquals(Digests.sha1(new byte[]{4}), DigestUtils.sha(new byte[]{4}));
+      assertEquals(requested.size(), 1);
+      assertTrue(requested.contains(Digests.SHA1));
+    } finally {
+      Digests.setProvider(defaultProvider);
+    }
+  }
+
+  @Test(expectedExceptions = IllegalArgumentException.class)
+  public void testUnknownAlgorithm() {
+    Digests.create("unknown");
+  }
+}
@@ -0,0 +1,174 @@
+package com.turn.ttorrent.common;
+
+import com.turn.ttorrent.bcodec.BEValue;
+import com.turn.ttorrent.bcodec.BEncoder;
+import com.turn.ttorrent.bcodec.InvalidBEncodingException;
+import com.turn.ttorrent.common.creation.MetaVersion;
+import com.turn.ttorrent.common.creation.MetadataBuilder;
+import org.testng.annotations.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.testng.Assert.*;
+
+@Test
+public class MerkleTreeTest {
+
+  private static final int PIECE_LENGTH = 4 * MerkleTree.BLOCK_SIZE;
+
+  public void testRootOfPieceLayerEqualsRootOfLeaves() {
+    byte[] data = randomBytes(5 * PIECE_LENGTH + 100, 1);
+    final byte[] leaves = MerkleTree.blockHashes(data, 0, data.length);
+    final byte[] pieceLayer = MerkleTree.upperLayer(leaves, 4, 0);
+
+    assertEquals(pieceLayer.length, 6 * MerkleTree.HASH_SIZE);
+    assertEquals(MerkleTree.root(pieceLayer, 2), MerkleTree.root(leaves, 0));
+  }
+
+  public void testUncleHashes() {
+    byte[] data = randomBytes(5 * PIECE_LENGTH, 2);
+    final byte[] pieceLayer = MerkleTree.upperLayer(MerkleTree.blockHashes(data, 0, data.length), 4, 0);
+    final byte[] root = MerkleTree.root(pieceLayer, 2);
+
+    final int index = 4;
+    final byte[] uncles = MerkleTree.uncles(pieceLayer, 2, index, 10);
+    assertEquals(uncles.length, 3 * MerkleTree.HASH_SIZE);
+
+    byte[] hash = MerkleTree.getHash(pieceLayer, index);
+    int position = index;
+    for (int i = 0; i < uncles.length / MerkleTree.HASH_SIZE; i++) {
+      final byte[] uncle = MerkleTree.getHash(uncles, i);
+      hash = position % 2 == 0 ?
+              MerkleTree.hashPair(MerkleTree.createDigest(), hash, uncle) :
+              MerkleTree.hashPair(MerkleTree.createDigest(), uncle, hash);
+      position /= 2;
+    }
+    assertEquals(hash, root);
+  }
+
+  public void testV2RoundTrip() throws IOException {
+    final byte[] first = randomBytes(3 * PIECE_LENGTH + 10, 3);
+    final byte[] second = randomBytes(100, 4);
+    final TorrentMetadata metadata = parse(new MetadataBuilder()
+            .setMetaVersion(MetaVersion.V2)
+            .setDirectoryName("dir")
+            .setPieceLength(PIECE_LENGTH)
+            .addDataSource(new ByteArrayInputStream(first), "first.bin")
+            .addDataSource(new ByteArrayInputStream(second), "sub/second.bin")
+            .buildBinary());
+
+    assertNotNull(metadata.getInfoHashV2());
+    assertEquals(metadata.getPiecesHashes().length, 0);
+    assertEquals(metadata.getInfoHash(), Arrays.copyOf(metadata.getInfoHashV2(), 20));
+
+    final List<TorrentFile> files = metadata.getFiles();
+    assertEquals(files.size(), 3);
+    assertEquals(files.get(0).relativePath, Arrays.asList("first.bin"));
+    assertTrue(files.get(1).padFile);
+    assertEquals(files.get(1).size, PIECE_LENGTH - 10);
+    assertEquals(files.get(2).relativePath, Arrays.asList("sub", "second.bin"));
+    assertEquals(metadata.getPiecesCount(), 5);
+
+    final byte[] firstRoot = files.get(0).piecesRoot.get();
+    assertEquals(firstRoot, MerkleTree.root(MerkleTree.blockHashes(first, 0, first.length), 0));
+    assertNotNull(metadata.getPieceLayer(firstRoot));
+    assertNull(metadata.getPieceLayer(files.get(2).piecesRoot.get()));
+
+    final TorrentMetadata reparsed = parse(new TorrentSerializer().serialize(metadata));
+    assertNotNull(reparsed.getInfoHashV2());
+    assertEquals(reparsed.getFiles().size(), 3);
+    assertEquals(reparsed.getPieceLayer(firstRoot), metadata.getPieceLayer(firstRoot));
+  }
+
+  public void testHybridRoundTrip() throws IOException {
+    final byte[] first = randomBytes(PIECE_LENGTH + 10, 5);
+    final byte[] second = randomBytes(2 * PIECE_LENGTH, 6);
+    final TorrentMetadata metadata = parse(new MetadataBuilder()
+            .setMetaVersion(MetaVersion.HYBRID)
+            .setDirectoryName("dir")
+            .setPieceLength(PIECE_LENGTH)
+            .addDataSource(new ByteArrayInputStream(first), "first.bin")
+            .addDataSource(new ByteArrayInputStream(second), "second.bin")
+            .buildBinary());
+
+    assertNotNull(metadata.getInfoHashV2());
+    assertEquals(metadata.getPiecesCount(), 4);
+    assertEquals(metadata.getPiecesHashes().length, 4 * 20);
+    assertTrue(metadata.getFiles().get(1).padFile);
+    assertEquals(metadata.getFiles().get(2).piecesRoot.get(),
+            MerkleTree.root(MerkleTree.blockHashes(second, 0, second.length), 0));
+
+    final TorrentMetadata reparsed = parse(new TorrentSerializer().serialize(metadata));
+    assertNotNull(reparsed.getInfoHashV2());
+    assertEquals(reparsed.getPiecesHashes(), metadata.getPiecesHashes());
+    assertTrue(reparsed.getFiles().get(1).padFile);
+  }
+
+  public void testMisalignedHybridIsRejected() throws IOException {
+    final BEValue torrent = new MetadataBuilder()
+            .setMetaVersion(MetaVersion.HYBRID)
+            .setDirectoryName("dir")
+            .setPieceLength(PIECE_LENGTH)
+            .addDataSource(new ByteArrayInputStream(randomBytes(PIECE_LENGTH + 10, 8)), "first.bin")
+            .addDataSource(new ByteArrayInputStream(randomBytes(PIECE_LENGTH, 9)), "second.bin")
+            .buildBEP();
+    final List<BEValue> files = torrent.getMap().get(TorrentMetadataKeys.INFO_TABLE).getMap()
+            .get(TorrentMetadataKeys.FILES).getList();
+    assertEquals(files.size(), 3);
+    // without the pad file the second file doesn't start at a piece boundary
+    files.remove(1);
+    try {
+      parse(BEncoder.bencode(torrent.getMap()).array());
+      fail("Misaligned hybrid torrent must be rejected");
+    } catch (InvalidBEncodingException e) {
+      // expected
+    }
+  }
+
+  public void testPieceValidation() throws IOException {
+    final byte[] data = randomBytes(2 * PIECE_LENGTH + MerkleTree.BLOCK_SIZE + 5, 7);
+    final TorrentMetadata metadata = parse(new MetadataBuilder()
+            .setMetaVersion(MetaVersion.V2)
+            .setPieceLength(PIECE_LENGTH)
+            .addDataSource(new ByteArrayInputStream(data), "file.bin")
+            .buildBinary());
+
+    final MerklePieceInfo[] infos = MerklePieceInfo.create(metadata);
+    assertNotNull(infos);
+    assertEquals(infos.length, 3);
+    assertEquals(infos[2].getDataLength(), MerkleTree.BLOCK_SIZE + 5);
+    assertEquals(infos[2].getFirstBlockIndex(), 8);
+
+    final byte[] lastPiece = Arrays.copyOfRange(data, 2 * PIECE_LENGTH, data.length);
+    assertTrue(infos[2].isValid(lastPiece));
+    assertTrue(infos[2].verifyBlockHashes(infos[2].calculateBlockHashes(lastPiece)));
+    assertFalse(infos[1].isValid(lastPiece));
+
+    // data of the piece in a reused buffer is followed by data of other pieces
+    final byte[] buffer = Arrays.copyOf(lastPiece, PIECE_LENGTH);
+    Arrays.fill(buffer, lastPiece.length, buffer.length, (byte) 1);
+    assertTrue(infos[2].isValid(buffer, lastPiece.length));
+    assertFalse(infos[2].isValid(buffer, lastPiece.length + 1));
+
+    lastPiece[3]++;
+    assertFalse(infos[2].isValid(lastPiece));
+    assertNull(MerklePieceInfo.create(parse(new MetadataBuilder()
+            .setPieceLength(PIECE_LENGTH)
+            .addDataSource(new ByteArrayInputStream(data), "file.bin")
+            .buildBinary())));
+  }
+
+  private TorrentMetadata parse(byte[] metadata) throws IOException {
+    return new TorrentParser().parse(metadata);
+  }
+
+  private byte[] randomBytes(int size, long seed) {
+    byte[] result = new byte[size];
+    new Random(seed).nextBytes(result);
+    return result;
+  }
+}
@@ -0,0 +1,55 @@
+package com.turn.ttorrent.common;
+
+import com.turn.ttorrent.common.creation.MetadataBuilder;
+import org.apache.commons.io.FileUtils;
+import org.testng.annotations.Test;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.testng.Assert.assertEquals;
+
+@Test
+@SuppressWarnings("deprecation")
+public class TorrentCreatorTest {
+
+  public void testHashesMatchMetadataBuilder() throws Exception {
+    final File parent = new File(FileUtils.getTempDirectory(), "creator_test_" + System.nanoTime());
+    final File first = new File(parent, "first.bin");
+    final File second = new File(parent, "second.bin");
+    final byte[] firstData = new byte[100 * 1024 + 17];
+    final byte[] secondData = new byte[50 * 1024];
+    for (int i = 0; i < firstData.length; i++) {
+      firstData[i] = (byte) (i * 31);
+    }
+    for (int i = 0; i < secondData.length; i++) {
+      secondData[i] = (byte) (i * 17);
+    }
+    final int pieceSize = 16 * 1024;
+    final ExecutorService executor = Executors.newFixedThreadPool(2);
+    try {
+      FileUtils.writeByteArrayToFile(first, firstData);
+      FileUtils.writeByteArrayToFile(second, secondData);
+
+      final TorrentMetadata expected = new TorrentParser().parse(new MetadataBuilder()
+              .setDirectoryName(parent.getName())
+              .setPieceLength(pieceSize)
+              .addFile(first)
+              .addFile(second)
+              .buildBinary());
+      final TorrentMetadata created = TorrentCreator.create(parent, Arrays.asList(first, second),
+              null, null, "test", pieceSize, executor);
+      final TorrentMetadata createdWithOwnExecutor = TorrentCreator.create(parent, Arrays.asList(first, second),
+              null, null, "test", pieceSize);
+
+      assertEquals(created.getPiecesCount(), expected.getPiecesCount());
+      assertEquals(created.getPiecesHashes(), expected.getPiecesHashes());
+      assertEquals(createdWithOwnExecutor.getPiecesHashes(), expected.getPiecesHashes());
+    } finally {
+      executor.shutdown();
+      FileUtils.deleteDirectory(parent);
+    }
+  }
+}
@@ -72,6 +72,41 @@ public class TorrentParserTest {
 
   }
 
+  public void parseWebSeedsTest() throws IOException {
+    final Map<String, BEValue> metadata = new HashMap<String, BEValue>();
+    final HashMap<String, BEValue> infoTable = new HashMap<String, BEValue>();
+    infoTable.put("piece length", new BEValue(4));
+    infoTable.put("pieces", new BEValue(new byte[100]));
+    infoTable.put("name", new BEValue("test.file"));
+    infoTable.put("length", new BEValue(19));
+    metadata.put("info", new BEValue(infoTable));
+
+    assertTrue(myTorrentParser.parse(BEncoder.bencode(metadata).array()).getWebSeedUrlList().isEmpty());
+
+    metadata.put("url-list", new BEValue("http://localhost/files/test.file"));
+    assertEquals(myTorrentParser.parse(BEncoder.bencode(metadata).array()).getWebSeedUrlList(),
+            Collections.singletonList("http://localhost/files/test.file"));
+
+    List<BEValue> urlList = new ArrayList<BEValue>();
+    urlList.add(new BEValue("http://first/"));
+    urlList.add(new BEValue(""));
+    urlList.add(new BEValue("http://second/"));
+    metadata.put("url-list", new BEValue(urlList));
+    assertEquals(myTorrentParser.parse(BEncoder.bencode(metadata).array()).getWebSeedUrlList(),
+            Arrays.asList("http://first/", "http://second/"));
+  }
+
+  public void infoHashOfNonCanonicalInfoTest() throws IOException {
+    // keys of the info dictionary aren't sorted, so re-encoding would change its bytes
+    final String info = "d4:name9:test.file6:lengthi19e12:piece lengthi4e6:pieces20:01234567890123456789e";
+    final byte[] metadata = ("d8:announce25:http://localhost/announce4:info" + info + "e").getBytes("ISO-8859-1");
+
+    final TorrentMetadata torrentMetadata = myTorrentParser.parse(metadata);
+
+    assertEquals(torrentMetadata.getInfoHash(), TorrentUtils.calculateSha1Hash(info.getBytes("ISO-8859-1")));
+    assertEquals(torrentMetadata.getDirectoryName(), "test.file");
+  }
+
   public void badBEPFormatTest() {
     try {
       myTorrentParser.parse("abcd".getBytes());
@@ -18,6 +18,8 @@ package com.turn.ttorrent.common;
 import org.testng.annotations.Test;
 
 import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
 
 public class TorrentUtilsTest {
 
@@ -27,6 +29,16 @@ public class TorrentUtilsTest {
     TorrentUtils.byteArrayToHexString(null);
   }
 
+  @Test
+  public void testHashMatches() {
+    final byte[] hashes = new byte[]{1, 2, 3, 4, 5, 6};
+    assertTrue(TorrentUtils.hashMatches(new byte[]{3, 4}, hashes, 2));
+    assertTrue(TorrentUtils.hashMatches(new byte[]{5, 6}, hashes, 4));
+    assertFalse(TorrentUtils.hashMatches(new byte[]{3, 5}, hashes, 2));
+    assertFalse(TorrentUtils.hashMatches(new byte[]{6, 7}, hashes, 5));
+    assertFalse(TorrentUtils.hashMatches(new byte[]{1, 2}, new byte[0], 0));
+  }
+
   @Test
   public void testBytesToHexWithEmptyByteArray() {
     assertEquals("", TorrentUtils.byteArrayToHexString(new byte[0]));
@@ -0,0 +1,60 @@
+package com.turn.ttorrent.common.creation;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Reports throughput of implementations of {@link PiecesHashesCalculator} on a temporary file.
+ * Usage: HashesCalculatorsBenchmark [size in megabytes] [piece size in kilobytes]
+ */
+public class HashesCalculatorsBenchmark {
+
+  public static void main(String[] args) throws Exception {
+    final int sizeMb = args.length > 0 ? Integer.parseInt(args[0]) : 512;
+    final int pieceSize = (args.length > 1 ? Integer.parseInt(args[1]) : 1024) * 1024;
+    final int threads = Runtime.getRuntime().availableProcessors();
+    final File file = createFile(sizeMb);
+    final ExecutorService executor = Executors.newFixedThreadPool(threads);
+    try {
+      final List<PiecesHashesCalculator> calculators = Arrays.asList(
+              new SingleThreadHashesCalculator(),
+              new MultiThreadHashesCalculator(executor, threads * 2),
+              new PipelinedHashesCalculator(executor, threads * 2));
+      for (int round = 0; round < 3; round++) {
+        for (PiecesHashesCalculator calculator : calculators) {
+          final List<DataSourceHolder> sources = new ArrayList<DataSourceHolder>();
+          sources.add(new Source(file).getSourceHolder());
+          final long start = System.nanoTime();
+          calculator.calculateHashes(sources, pieceSize);
+          final double seconds = (System.nanoTime() - start) / 1e9;
+          System.out.printf("round %d %-30s %8.1f MB/s%n", round, calculator.getClass().getSimpleName(), sizeMb / seconds);
+        }
+      }
+    } finally {
+      executor.shutdown();
+      file.delete();
+    }
+  }
+
+  private static File createFile(int sizeMb) throws IOException {
+    final File file = File.createTempFile("hashing-benchmark", ".bin");
+    final byte[] chunk = new byte[1024 * 1024];
+    new Random(42).nextBytes(chunk);
+    final FileOutputStream output = new FileOutputStream(file);
+    try {
+      for (int i = 0; i < sizeMb; i++) {
+        output.write(chunk);
+      }
+    } finally {
+      output.close();
+    }
+    return file;
+  }
+}
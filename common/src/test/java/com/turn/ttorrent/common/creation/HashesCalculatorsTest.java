@@ -17,11 +17,13 @@
 package com.turn.ttorrent.common.creation;
 
 import com.turn.ttorrent.common.TorrentUtils;
+import org.apache.commons.io.FileUtils;
 import org.testng.annotations.AfterMethod;
 import org.testng.annotations.BeforeMethod;
 import org.testng.annotations.Test;
 
 import java.io.ByteArrayInputStream;
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.ArrayList;
@@ -48,7 +50,9 @@ public class HashesCalculatorsTest {
             new SingleThreadHashesCalculator(),
             new MultiThreadHashesCalculator(executor, 3),
             new MultiThreadHashesCalculator(executor, 20),
-            new MultiThreadHashesCalculator(executor, 1)
+            new MultiThreadHashesCalculator(executor, 1),
+            new PipelinedHashesCalculator(executor, 1),
+            new PipelinedHashesCalculator(executor, 8)
     );
   }
 
@@ -122,6 +126,42 @@ public class HashesCalculatorsTest {
     verifyImplementationsResults(Collections.singletonList(sourceBytes), pieceSize, expected);
   }
 
+  public void testFileSources() throws IOException {
+    final byte[] first = new byte[1000];
+    final byte[] second = new byte[333];
+    for (int i = 0; i < first.length; i++) {
+      first[i] = (byte) (i * 7);
+    }
+    for (int i = 0; i < second.length; i++) {
+      second[i] = (byte) (i * 11);
+    }
+    final byte[] all = new byte[first.length + second.length];
+    System.arraycopy(first, 0, all, 0, first.length);
+    System.arraycopy(second, 0, all, first.length, second.length);
+    final int pieceSize = 256;
+    List<byte[]> hashes = new ArrayList<byte[]>();
+    for (int offset = 0; offset < all.length; offset += pieceSize) {
+      hashes.add(TorrentUtils.calculateSha1Hash(Arrays.copyOfRange(all, offset, Math.min(offset + pieceSize, all.length))));
+    }
+    final HashingResult expected = new HashingResult(hashes, asList((long) first.length, (long) second.length));
+
+    final File firstFile = File.createTempFile("hashing", ".bin");
+    final File secondFile = File.createTempFile("hashing", ".bin");
+    try {
+      FileUtils.writeByteArrayToFile(firstFile, first);
+      FileUtils.writeByteArrayToFile(secondFile, second);
+      for (PiecesHashesCalculator implementation : implementations) {
+        List<DataSourceHolder> sources = new ArrayList<DataSourceHolder>();
+        sources.add(new Source(firstFile).getSourceHolder());
+        sources.add(new Source(secondFile).getSourceHolder());
+        assertHashingResult(implementation.calculateHashes(sources, pieceSize), expected);
+      }
+    } finally {
+      FileUtils.deleteQuietly(firstFile);
+      FileUtils.deleteQuietly(secondFile);
+    }
+  }
+
   private void verifyImplementationsResults(List<byte[]> sourceBytes,
                                             int pieceSize,
                                             HashingResult expected) throws IOException {
@@ -20,10 +20,14 @@ import com.turn.ttorrent.Constants;
 import com.turn.ttorrent.bcodec.BEValue;
 import com.turn.ttorrent.bcodec.BEncoder;
 import com.turn.ttorrent.common.TimeService;
+import com.turn.ttorrent.common.TorrentFile;
+import com.turn.ttorrent.common.TorrentMetadata;
+import com.turn.ttorrent.common.TorrentUtils;
 import org.mockito.Mockito;
 import org.testng.annotations.Test;
 
 import java.io.ByteArrayInputStream;
+import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.util.Arrays;
@@ -32,8 +36,7 @@ import java.util.List;
 import java.util.Map;
 
 import static com.turn.ttorrent.common.TorrentMetadataKeys.*;
-import static org.testng.Assert.assertEquals;
-import static org.testng.Assert.assertNull;
+import static org.testng.Assert.*;
 
 @Test
 public class MetadataBuilderTest {
@@ -122,4 +125,67 @@ public class MetadataBuilderTest {
     }
 
   }
+
+  public void testAlignFilesToPieces() throws IOException {
+    final byte[] data = new byte[40];
+    for (int i = 0; i < data.length; i++) {
+      data[i] = (byte) (i + 1);
+    }
+    final File first = createTempFile(Arrays.copyOfRange(data, 0, 15));
+    final File second = createTempFile(Arrays.copyOfRange(data, 15, 35));
+    try {
+      // the last source can be stream because its size isn't used for alignment
+      final TorrentMetadata metadata = new MetadataBuilder()
+              .setDirectoryName("root")
+              .setPieceLength(10)
+              .setAlignFilesToPieces(true)
+              .addFile(first, "a")
+              .addFile(second, "b")
+              .addDataSource(new ByteArrayInputStream(Arrays.copyOfRange(data, 35, 40)), "c")
+              .build();
+
+      final List<TorrentFile> files = metadata.getFiles();
+      assertEquals(files.size(), 4);
+      assertEquals(files.get(1).relativePath, Arrays.asList(".pad", "5"));
+      assertEquals(files.get(1).size, 5);
+      assertTrue(files.get(1).padFile);
+      assertFalse(files.get(0).padFile);
+      assertFalse(files.get(2).padFile);
+      assertFalse(files.get(3).padFile);
+
+      final byte[] padded = new byte[45];
+      System.arraycopy(data, 0, padded, 0, 15);
+      System.arraycopy(data, 15, padded, 20, 25);
+      assertEquals(metadata.getPiecesCount(), 5);
+      for (int i = 0; i < metadata.getPiecesCount(); i++) {
+        final byte[] piece = Arrays.copyOfRange(padded, i * 10, Math.min(padded.length, i * 10 + 10));
+        assertEquals(Arrays.copyOfRange(metadata.getPiecesHashes(), i * 20, i * 20 + 20), TorrentUtils.calculateSha1Hash(piece));
+      }
+    } finally {
+      first.delete();
+      second.delete();
+    }
+  }
+
+  @Test(expectedExceptions = IllegalStateException.class)
+  public void testAlignFilesWithStreamInTheMiddle() throws IOException {
+    new MetadataBuilder()
+            .setDirectoryName("root")
+            .setPieceLength(10)
+            .setAlignFilesToPieces(true)
+            .addDataSource(new ByteArrayInputStream(new byte[15]), "a")
+            .addDataSource(new ByteArrayInputStream(new byte[5]), "b")
+            .buildBEP();
+  }
+
+  private File createTempFile(byte[] data) throws IOException {
+    final File file = File.createTempFile("metadata-builder", ".bin");
+    final FileOutputStream out = new FileOutputStream(file);
+    try {
+      out.write(data);
+    } finally {
+      out.close();
+    }
+    return file;
+  }
 }
@@ -0,0 +1,132 @@
+/*
+ * Copyright 2000-2018 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.turn.ttorrent.common.creation;
+
+import com.turn.ttorrent.bcodec.BEncoder;
+import org.apache.commons.io.FileUtils;
+import org.jetbrains.annotations.Nullable;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import static com.turn.ttorrent.common.TorrentMetadataKeys.*;
+import static org.testng.Assert.assertEquals;
+
+@Test
+public class PieceHashesCacheTest {
+
+  private static final int PIECE_LENGTH = 32;
+
+  private File myDir;
+
+  @BeforeMethod
+  public void setUp() throws IOException {
+    myDir = File.createTempFile("hashes-cache", "");
+    FileUtils.forceDelete(myDir);
+    FileUtils.forceMkdir(myDir);
+  }
+
+  @AfterMethod
+  public void tearDown() throws IOException {
+    FileUtils.deleteDirectory(myDir);
+  }
+
+  public void testUnchangedAndAppendedFiles() throws IOException {
+    final List<File> files = new ArrayList<File>();
+    files.add(createFile("first", 100, 1));
+    files.add(createFile("second", 50, 2));
+    final File cacheFile = new File(myDir, "hashes.cache");
+
+    final PieceHashesCache cache = new PieceHashesCache(cacheFile);
+    assertEquals(buildInfo(files, cache), buildInfo(files, null));
+    assertEquals(cache.getLastReusedPiecesCount(), 0);
+
+    // cache is loaded from disk by new instance, all pieces including the last incomplete one are reused
+    final PieceHashesCache loadedCache = new PieceHashesCache(cacheFile);
+    assertEquals(buildInfo(files, loadedCache), buildInfo(files, null));
+    assertEquals(loadedCache.getLastReusedPiecesCount(), 5);
+
+    files.add(createFile("third", 70, 3));
+    final PieceHashesCache appendCache = new PieceHashesCache(cacheFile);
+    assertEquals(buildInfo(files, appendCache), buildInfo(files, null));
+    assertEquals(appendCache.getLastReusedPiecesCount(), 150 / PIECE_LENGTH);
+  }
+
+  public void testChangedFile() throws IOException {
+    final List<File> files = new ArrayList<File>();
+    files.add(createFile("first", 100, 1));
+    files.add(createFile("second", 50, 2));
+    files.add(createFile("third", 70, 3));
+    final PieceHashesCache cache = new PieceHashesCache(new File(myDir, "hashes.cache"));
+    buildInfo(files, cache);
+
+    files.set(1, createFile("second", 50, 4));
+    assertEquals(buildInfo(files, cache), buildInfo(files, null));
+    assertEquals(cache.getLastReusedPiecesCount(), 100 / PIECE_LENGTH);
+
+    final PieceHashesCache otherPieceLength = new PieceHashesCache(new File(myDir, "hashes.cache"));
+    buildInfo(files, otherPieceLength, PIECE_LENGTH * 2);
+    assertEquals(otherPieceLength.getLastReusedPiecesCount(), 0);
+  }
+
+  public void testCorruptedCacheFile() throws IOException {
+    final List<File> files = new ArrayList<File>();
+    files.add(createFile("first", 100, 1));
+    final File cacheFile = new File(myDir, "hashes.cache");
+    FileUtils.writeStringToFile(cacheFile, "not a cache");
+
+    final PieceHashesCache cache = new PieceHashesCache(cacheFile);
+    assertEquals(buildInfo(files, cache), buildInfo(files, null));
+    assertEquals(cache.getLastReusedPiecesCount(), 0);
+  }
+
+  private File createFile(String name, int size, int seed) throws IOException {
+    final byte[] data = new byte[size];
+    for (int i = 0; i < size; i++) {
+      data[i] = (byte) (i * seed);
+    }
+    final File file = new File(myDir, name);
+    FileUtils.writeByteArrayToFile(file, data);
+    // modification time must differ from previous content of the file
+    file.setLastModified(1000000000000L + seed * 1000L);
+    return file;
+  }
+
+  private byte[] buildInfo(List<File> files, @Nullable PieceHashesCache cache) throws IOException {
+    return buildInfo(files, cache, PIECE_LENGTH);
+  }
+
+  private byte[] buildInfo(List<File> files, @Nullable PieceHashesCache cache, int pieceLength) throws IOException {
+    final MetadataBuilder builder = new MetadataBuilder()
+            .setDirectoryName("root")
+            .setPieceLength(pieceLength)
+            .setPieceHashesCache(cache);
+    for (File file : files) {
+      builder.addFile(file);
+    }
+    final ByteBuffer info = BEncoder.bencode(builder.buildBEP().getMap().get(INFO_TABLE).getMap());
+    final byte[] result = new byte[info.remaining()];
+    info.get(result);
+    return result;
+  }
+}
@@ -10,11 +10,13 @@ import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.net.InetSocketAddress;
 import java.nio.ByteBuffer;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
 import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
 
 public class HTTPAnnounceResponseMessageTest {
 
@@ -46,4 +48,60 @@ public class HTTPAnnounceResponseMessageTest {
     assertEquals(peer.getIp(), ip);
     assertEquals(peer.getPort(), port);
   }
+
+  @Test
+  public void parseNonCompactResponseWithUnknownFieldsTest() throws IOException, TrackerMessage.MessageValidationException {
+    final String response = "d8:completei3e6:extrasd4:listli1ei2eee10:incompletei2e8:intervali1800e" +
+            "5:peersld2:ip11:192.168.1.17:peer id20:aaaaaaaaaaaaaaaaaaaa4:porti6881eed2:ip8:10.0.0.24:porti51413eee" +
+            "17:torrentIdentifier4:abcde";
+
+    HTTPAnnounceResponseMessage parsedResponse = (HTTPAnnounceResponseMessage) HTTPTrackerMessage.parse(
+            ByteBuffer.wrap(response.getBytes("ISO-8859-1")));
+
+    assertEquals(parsedResponse.getInterval(), 1800);
+    assertEquals(parsedResponse.getComplete(), 3);
+    assertEquals(parsedResponse.getIncomplete(), 2);
+    assertEquals(parsedResponse.getHexInfoHash(), "abcd");
+    List<Peer> peers = parsedResponse.getPeers();
+    assertEquals(peers.size(), 2);
+    assertEquals(peers.get(0).getIp(), "192.168.1.1");
+    assertEquals(peers.get(0).getPort(), 6881);
+    assertEquals(peers.get(1).getIp(), "10.0.0.2");
+    assertEquals(peers.get(1).getPort(), 51413);
+  }
+
+  @Test
+  public void parseErrorTest() throws IOException, TrackerMessage.MessageValidationException {
+    final ByteBuffer data = HTTPTrackerErrorMessage.craft("torrent not registered").getData();
+
+    TrackerMessage message = HTTPTrackerMessage.parse(data);
+
+    assertTrue(message instanceof HTTPTrackerErrorMessage);
+    assertEquals(((HTTPTrackerErrorMessage) message).getReason(), "torrent not registered");
+  }
+
+  @Test(expectedExceptions = TrackerMessage.MessageValidationException.class)
+  public void parseResponseWithoutIntervalTest() throws IOException, TrackerMessage.MessageValidationException {
+    HTTPTrackerMessage.parse(ByteBuffer.wrap("d5:peers0:e".getBytes("ISO-8859-1")));
+  }
+
+  @Test
+  public void craftAndParseTest() throws IOException, TrackerMessage.MessageValidationException {
+    List<Peer> peers = new ArrayList<Peer>();
+    peers.add(new Peer("192.168.1.1", 6881));
+    peers.add(new Peer("10.0.0.2", 51413));
+
+    HTTPAnnounceResponseMessage crafted = HTTPAnnounceResponseMessage.craft(1800, 3, 2, peers, "abcd");
+    ByteBuffer data = crafted.getData();
+
+    assertEquals(data.remaining(), data.capacity());
+    HTTPAnnounceResponseMessage parsed = (HTTPAnnounceResponseMessage) HTTPTrackerMessage.parse(data);
+    assertEquals(parsed.getInterval(), 1800);
+    assertEquals(parsed.getComplete(), 3);
+    assertEquals(parsed.getIncomplete(), 2);
+    assertEquals(parsed.getHexInfoHash(), "abcd");
+    assertEquals(parsed.getPeers().size(), 2);
+    assertEquals(parsed.getPeers().get(1).getIp(), "10.0.0.2");
+    assertEquals(parsed.getPeers().get(1).getPort(), 51413);
+  }
 }
@@ -22,25 +22,30 @@ import com.turn.ttorrent.client.network.OutgoingConnectionListener;
 import com.turn.ttorrent.client.network.StateChannelListener;
 import com.turn.ttorrent.client.peer.PeerActivityListener;
 import com.turn.ttorrent.client.peer.SharingPeer;
-import com.turn.ttorrent.client.storage.FairPieceStorageFactory;
-import com.turn.ttorrent.client.storage.FileCollectionStorage;
-import com.turn.ttorrent.client.storage.PieceStorage;
-import com.turn.ttorrent.client.storage.PieceStorageFactory;
+import com.turn.ttorrent.client.storage.*;
+import com.turn.ttorrent.client.webseed.WebSeed;
+import com.turn.ttorrent.client.webseed.WebSeedDownloader;
+import com.turn.ttorrent.client.webseed.WebSeedListener;
 import com.turn.ttorrent.common.*;
 import com.turn.ttorrent.common.protocol.AnnounceRequestMessage;
 import com.turn.ttorrent.common.protocol.PeerMessage;
 import com.turn.ttorrent.network.*;
+import org.jetbrains.annotations.Nullable;
 import org.slf4j.Logger;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.io.UnsupportedEncodingException;
 import java.net.InetAddress;
 import java.net.InetSocketAddress;
+import java.net.MalformedURLException;
 import java.net.URI;
 import java.nio.ByteBuffer;
 import java.nio.channels.ByteChannel;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Future;
 import java.util.concurrent.RejectedExecutionException;
@@ -70,7 +75,7 @@ import static com.turn.ttorrent.common.protocol.AnnounceRequestMessage.RequestEv
  *
  * @author mpetazzoni
  */
-public class CommunicationManager implements AnnounceResponseListener, PeerActivityListener, Context, ConnectionManagerContext {
+public class CommunicationManager implements AnnounceResponseListener, PeerActivityListener, WebSeedListener, Context, ConnectionManagerContext {
 
   protected static final Logger logger = TorrentLoggerFactory.getLogger(CommunicationManager.class);
 
@@ -91,6 +96,13 @@ public class CommunicationManager implements AnnounceResponseListener, PeerActiv
   private volatile ConnectionManager myConnectionManager;
   private final ExecutorService myExecutorService;
   private final ExecutorService myPieceValidatorExecutor;
+  private final ConcurrentMap<String, List<WebSeedDownloader>> myWebSeedDownloaders;
+  private final ConcurrentMap<String, PiecesCheck> myRunningChecks;
+  private final ConcurrentMap<String, PieceScrubber> myScrubbers;
+  private volatile long myScrubbingBytesPerSecond = 0;
+  private volatile boolean myDirectReadsForSeeding = false;
+  private final DiskIoScheduler myDiskIoScheduler;
+  private final PieceCache myPieceCache;
 
   /**
    * @param workingExecutor        executor service for run connection worker and process incoming data. Must have a pool size at least 2
@@ -110,12 +122,17 @@ public class CommunicationManager implements AnnounceResponseListener, PeerActiv
     this.torrentsStorage = new TorrentsStorage();
     this.peersStorage = new PeersStorage();
     this.mySendBufferSize = new AtomicInteger();
-    this.myTorrentLoader = new TorrentLoaderImpl(this.torrentsStorage);
+    myDiskIoScheduler = new DiskIoScheduler();
+    myPieceCache = new PieceCache(0);
+    this.myTorrentLoader = new TorrentLoaderImpl(this.torrentsStorage, myDiskIoScheduler);
     this.myReceiveBufferSize = new AtomicInteger();
     this.myInConnectionAllower = new CountLimitConnectionAllower(peersStorage);
     this.myOutConnectionAllower = new CountLimitConnectionAllower(peersStorage);
     this.myExecutorService = workingExecutor;
     myPieceValidatorExecutor = pieceValidatorExecutor;
+    myWebSeedDownloaders = new ConcurrentHashMap<String, List<WebSeedDownloader>>();
+    myRunningChecks = new ConcurrentHashMap<String, PiecesCheck>();
+    myScrubbers = new ConcurrentHashMap<String, PieceScrubber>();
   }
 
   /**
@@ -175,9 +192,42 @@ public class CommunicationManager implements AnnounceResponseListener, PeerActiv
                                    List<TorrentListener> listeners) throws IOException {
     FileMetadataProvider metadataProvider = new FileMetadataProvider(dotTorrentFilePath);
     TorrentMetadata metadata = metadataProvider.getTorrentMetadata();
-    FileCollectionStorage fileCollectionStorage = FileCollectionStorage.create(metadata, new File(downloadDirPath));
-    PieceStorage pieceStorage = pieceStorageFactory.createStorage(metadata, fileCollectionStorage);
-    return addTorrent(metadataProvider, pieceStorage, listeners);
+    FileCollectionStorage fileCollectionStorage = FileCollectionStorage.create(metadata, new File(downloadDirPath),
+            FileChannelPool.getDefault(), myDirectReadsForSeeding);
+    if (!(pieceStorageFactory instanceof CheckingPieceStorageFactory)) {
+      PieceStorage pieceStorage = pieceStorageFactory.createStorage(metadata, fileCollectionStorage);
+      return addTorrent(metadataProvider, pieceStorage, listeners);
+    }
+    return checkAndAddTorrent(metadataProvider, metadata, fileCollectionStorage,
+            (CheckingPieceStorageFactory) pieceStorageFactory, listeners);
+  }
+
+  /**
+   * creates piece storage reporting progress of the check to listeners and adds the torrent. The check is
+   * cancelled if the torrent is removed while the check is in progress, the torrent isn't added in this case
+   */
+  private TorrentManager checkAndAddTorrent(TorrentMetadataProvider metadataProvider,
+                                            TorrentMetadata metadata,
+                                            TorrentByteStorage byteStorage,
+                                            CheckingPieceStorageFactory pieceStorageFactory,
+                                            List<TorrentListener> listeners) throws IOException {
+    final String hexInfoHash = metadata.getHexInfoHash();
+    final PiecesCheck check = new PiecesCheck(listeners);
+    myRunningChecks.put(hexInfoHash, check);
+    try {
+      final PieceStorage pieceStorage = pieceStorageFactory.createStorage(metadata, byteStorage, check);
+      // the torrent must not be added if it's removed after the check is finished, so the flag is checked
+      // under the lock of the check, removeTorrent waits for addition and removes added torrent
+      synchronized (check) {
+        if (check.isCancelled()) {
+          pieceStorage.close();
+          throw new InterruptedIOException("Torrent " + hexInfoHash + " was removed while its data was checked");
+        }
+        return addTorrent(metadataProvider, pieceStorage, listeners);
+      }
+    } finally {
+      myRunningChecks.remove(hexInfoHash, check);
+    }
   }
 
   /**
@@ -196,15 +246,17 @@ public class CommunicationManager implements AnnounceResponseListener, PeerActiv
    * Adds torrent to storage with any storage, metadata source and specified listeners
    *
    * @param metadataProvider specified metadata source
-   * @param pieceStorage     specified storage of pieces
+   * @param storage          specified storage of pieces
    * @param listeners        specified listeners
    * @return {@link TorrentManager} instance for monitoring torrent state
    * @throws IOException if IO error occurs in reading metadata file
    */
   public TorrentManager addTorrent(TorrentMetadataProvider metadataProvider,
-                                   PieceStorage pieceStorage,
+                                   PieceStorage storage,
                                    List<TorrentListener> listeners) throws IOException {
     TorrentMetadata torrentMetadata = metadataProvider.getTorrentMetadata();
+    final PieceStorage pieceStorage = myPieceCache.getMaxBytes() > 0 ?
+            new CachingPieceStorage(storage, torrentMetadata, myPieceCache, true) : storage;
     EventDispatcher eventDispatcher = new EventDispatcher();
     for (TorrentListener listener : listeners) {
       eventDispatcher.addListener(listener);
@@ -219,18 +271,72 @@ public class CommunicationManager implements AnnounceResponseListener, PeerActiv
     if (pieceStorage.isFinished()) {
       loadedTorrent.getTorrentStatistic().setLeft(0);
     } else {
-      long left = calculateLeft(pieceStorage, torrentMetadata);
+      long left = calculateLeft(pieceStorage, torrentMetadata, new BitSet());
       loadedTorrent.getTorrentStatistic().setLeft(left);
     }
     eventDispatcher.multicaster().validationComplete(pieceStorage.getAvailablePieces().cardinality(), torrentMetadata.getPiecesCount());
 
     this.torrentsStorage.addTorrent(loadedTorrent.getTorrentHash().getHexInfoHash(), loadedTorrent);
     forceAnnounceAndLogError(loadedTorrent, pieceStorage.isFinished() ? COMPLETED : STARTED);
+    if (myStarted) {
+      startWebSeedsIfNecessary(loadedTorrent);
+    }
+    final PieceScrubber scrubber = startScrubberIfNecessary(loadedTorrent, torrentMetadata);
     logger.debug(String.format("Added torrent %s (%s)", loadedTorrent, loadedTorrent.getTorrentHash().getHexInfoHash()));
-    return new TorrentManagerImpl(eventDispatcher, loadedTorrent.getTorrentHash());
+    return new TorrentManagerImpl(loadedTorrent, scrubber);
+  }
+
+  @Nullable
+  private PieceScrubber startScrubberIfNecessary(final LoadedTorrent loadedTorrent, final TorrentMetadata torrentMetadata) {
+    final long bytesPerSecond = myScrubbingBytesPerSecond;
+    if (bytesPerSecond <= 0) return null;
+    final String torrentHash = torrentMetadata.getHexInfoHash();
+    PieceStorage pieceStorage = loadedTorrent.getPieceStorage();
+    if (pieceStorage instanceof CachingPieceStorage) {
+      // data on disk must be verified, cached pieces aren't interesting for the scrubber
+      pieceStorage = ((CachingPieceStorage) pieceStorage).getUncachedView();
+    }
+    final PieceScrubber scrubber = new PieceScrubber(torrentMetadata, pieceStorage,
+            loadedTorrent.getTorrentStatistic(), new PieceScrubber.Listener() {
+      @Override
+      public void pieceCorrupted(int pieceIndex) {
+        handleLocalPieceCorrupted(loadedTorrent, torrentMetadata, pieceIndex);
+      }
+    }, bytesPerSecond);
+    final PieceScrubber previous = myScrubbers.put(torrentHash, scrubber);
+    if (previous != null) {
+      previous.stop();
+    }
+    scrubber.start();
+    return scrubber;
+  }
+
+  private void stopScrubber(String torrentHash) {
+    final PieceScrubber scrubber = myScrubbers.remove(torrentHash);
+    if (scrubber != null) {
+      scrubber.stop();
+    }
+  }
+
+  private void handleLocalPieceCorrupted(LoadedTorrent loadedTorrent, TorrentMetadata torrentMetadata, int pieceIndex) {
+    final String torrentHash = torrentMetadata.getHexInfoHash();
+    final PieceStorage pieceStorage = loadedTorrent.getPieceStorage();
+    loadedTorrent.getTorrentStatistic().setLeft(
+            calculateLeft(pieceStorage, torrentMetadata, loadedTorrent.getPiecePriorities().getSkippedPieces()));
+    final SharedTorrent torrent = torrentsStorage.getTorrent(torrentHash);
+    if (torrent != null) {
+      torrent.handleLocalPieceCorrupted(pieceIndex);
+    }
+    if (myStarted) {
+      startWebSeedsIfNecessary(loadedTorrent);
+    }
   }
 
-  private long calculateLeft(PieceStorage pieceStorage, TorrentMetadata torrentMetadata) {
+  /**
+   * @param skippedPieces pieces which aren't downloaded because they belong only to skipped files
+   * @return count of bytes of wanted pieces which aren't downloaded yet
+   */
+  static long calculateLeft(PieceStorage pieceStorage, TorrentMetadata torrentMetadata, BitSet skippedPieces) {
 
     long size = 0;
     for (TorrentFile torrentFile : torrentMetadata.getFiles()) {
@@ -241,14 +347,68 @@ public class CommunicationManager implements AnnounceResponseListener, PeerActiv
     long result = 0;
     BitSet availablePieces = pieceStorage.getAvailablePieces();
     for (int i = 0; i < torrentMetadata.getPiecesCount(); i++) {
-      if (availablePieces.get(i)) {
+      if (availablePieces.get(i) || skippedPieces.get(i)) {
         continue;
       }
-      result += Math.min(pieceLength, size - i * pieceLength);
+      result += Math.min(pieceLength, size - (long) i * pieceLength);
     }
     return result;
   }
 
+  /**
+   * starts downloading of the torrent from web seeds if the torrent contains web seeds and isn't downloaded yet
+   *
+   * @see <a href="http://bittorrent.org/beps/bep_0019.html">http://bittorrent.org/beps/bep_0019.html</a>
+   */
+  private void startWebSeedsIfNecessary(LoadedTorrent loadedTorrent) {
+    if (loadedTorrent.getPieceStorage().isFinished()) return;
+
+    final String torrentHash = loadedTorrent.getTorrentHash().getHexInfoHash();
+    if (myWebSeedDownloaders.containsKey(torrentHash)) return;
+
+    final TorrentMetadata metadata;
+    try {
+      metadata = loadedTorrent.getMetadata();
+    } catch (IllegalStateException e) {
+      LoggerUtils.warnAndDebugDetails(logger, "unable to load metadata of torrent {} for downloading from web seeds", torrentHash, e);
+      return;
+    }
+    if (metadata.getWebSeedUrlList().isEmpty()) return;
+
+    final SharedTorrent torrent;
+    try {
+      torrent = myTorrentLoader.loadTorrent(loadedTorrent);
+    } catch (IOException e) {
+      LoggerUtils.warnAndDebugDetails(logger, "unable to load torrent {} for downloading from web seeds", torrentHash, e);
+      return;
+    }
+
+    List<WebSeedDownloader> downloaders = new ArrayList<WebSeedDownloader>();
+    for (String url : metadata.getWebSeedUrlList()) {
+      try {
+        downloaders.add(new WebSeedDownloader(WebSeed.create(url, metadata), torrent, this));
+      } catch (MalformedURLException e) {
+        logger.warn("Skipping invalid web seed url {} of torrent {}", url, torrentHash);
+      }
+    }
+    if (downloaders.isEmpty()) return;
+
+    if (myWebSeedDownloaders.putIfAbsent(torrentHash, downloaders) != null) return;
+
+    logger.debug("Starting downloading torrent {} from {} web seed(s)", torrentHash, downloaders.size());
+    for (WebSeedDownloader downloader : downloaders) {
+      downloader.start();
+    }
+  }
+
+  private void stopWebSeeds(String torrentHash) {
+    final List<WebSeedDownloader> downloaders = myWebSeedDownloaders.remove(torrentHash);
+    if (downloaders == null) return;
+    for (WebSeedDownloader downloader : downloaders) {
+      downloader.stop();
+    }
+  }
+
   private void forceAnnounceAndLogError(LoadedTorrent torrent, AnnounceRequestMessage.RequestEvent event) {
     try {
       this.announce.forceAnnounce(torrent.createAnnounceableInformation(), this, event);
@@ -265,6 +425,12 @@ public class CommunicationManager implements AnnounceResponseListener, PeerActiv
    */
   public void removeTorrent(String torrentHash) {
     logger.debug("Stopping seeding " + torrentHash);
+    final PiecesCheck check = myRunningChecks.get(torrentHash);
+    if (check != null) {
+      check.cancel();
+    }
+    stopWebSeeds(torrentHash);
+    stopScrubber(torrentHash);
     final Pair<SharedTorrent, LoadedTorrent> torrents = torrentsStorage.remove(torrentHash);
 
     SharedTorrent torrent = torrents.first();
@@ -339,6 +505,57 @@ public class CommunicationManager implements AnnounceResponseListener, PeerActiv
     mySendBufferSize.set(newSize);
   }
 
+  /**
+   * enables background re-verification of data of torrents which are added after the call.
+   * Corrupted pieces are marked as not downloaded and they are downloaded again
+   *
+   * @param bytesPerSecond max count of bytes which are read per second for each torrent,
+   *                       zero or negative value disables the verification
+   * @see PieceScrubber
+   */
+  public void setScrubbingSpeed(long bytesPerSecond) {
+    myScrubbingBytesPerSecond = bytesPerSecond;
+  }
+
+  /**
+   * enables reading of data of seeded torrents with direct I/O, so data sent to peers doesn't pollute
+   * the page cache of the OS. It's applied to torrents which are added after the call. It's recommended
+   * to enable {@link #setPieceCacheSize(long) the cache of pieces} together with direct I/O, otherwise
+   * each request of a peer is read from disk. Files are read through the page cache as usual if the JVM
+   * (JDK 10 or newer is required) or the file system doesn't support direct I/O
+   *
+   * @param enabled true if files opened for seeding must be read with direct I/O
+   */
+  public void setDirectReadsForSeeding(boolean enabled) {
+    myDirectReadsForSeeding = enabled;
+  }
+
+  /**
+   * sets size of the cache of pieces which is shared by torrents. Pieces of torrents which are added
+   * after the call are read from the cache when they are requested by peers
+   *
+   * @param bytes max count of bytes of cached pieces, zero disables caching
+   * @see PieceCache
+   */
+  public void setPieceCacheSize(long bytes) {
+    myPieceCache.setMaxBytes(bytes);
+  }
+
+  /**
+   * @return the cache of pieces, it can be used for monitoring of hit ratio of the cache
+   */
+  public PieceCache getPieceCache() {
+    return myPieceCache;
+  }
+
+  /**
+   * @return the scheduler which performs reading and writing of pieces of all torrents,
+   * it can be used for monitoring of the disk load
+   */
+  public DiskIoScheduler getDiskIoScheduler() {
+    return myDiskIoScheduler;
+  }
+
   public void setMaxOutConnectionsCount(int maxConnectionsCount) {
     this.myOutConnectionAllower.setMyMaxConnectionCount(maxConnectionsCount);
   }
@@ -448,6 +665,10 @@ public class CommunicationManager implements AnnounceResponseListener, PeerActiv
     this.stop.set(false);
 
     myStarted = true;
+
+    for (LoadedTorrent loadedTorrent : torrentsStorage.getLoadedTorrents()) {
+      startWebSeedsIfNecessary(loadedTorrent);
+    }
   }
 
   /**
@@ -472,6 +693,14 @@ public class CommunicationManager implements AnnounceResponseListener, PeerActiv
 
     logger.trace("announce thread is stopped");
 
+    for (String torrentHash : new ArrayList<String>(myWebSeedDownloaders.keySet())) {
+      stopWebSeeds(torrentHash);
+    }
+
+    for (String torrentHash : new ArrayList<String>(myScrubbers.keySet())) {
+      stopScrubber(torrentHash);
+    }
+
     for (SharedTorrent torrent : this.torrentsStorage.activeTorrents()) {
       logger.trace("try close torrent {}", torrent);
       torrent.closeFully();
@@ -655,6 +884,11 @@ public class CommunicationManager implements AnnounceResponseListener, PeerActiv
         continue;
       }
 
+      if (peersStorage.isBanned(peer.getIp())) {
+        logger.debug("skipping peer {}, because it's banned", peer);
+        continue;
+      }
+
       ConnectionListener connectionListener = new OutgoingConnectionListener(
               this,
               announceableTorrent.getTorrentHash(),
@@ -734,6 +968,7 @@ public class CommunicationManager implements AnnounceResponseListener, PeerActiv
   }
 
   private void validatePieceAsync(final SharedTorrent torrent, final Piece piece, String torrentHash, SharingPeer peer) {
+    Set<SharingPeer> corruptingPeers = Collections.emptySet();
     try {
       synchronized (piece) {
 
@@ -741,15 +976,8 @@ public class CommunicationManager implements AnnounceResponseListener, PeerActiv
 
         piece.validate(torrent, piece);
         if (piece.isValid()) {
-          torrent.notifyPieceDownloaded(piece, peer);
-          piece.finish();
-          // Send a HAVE message to all connected peers, which don't have the piece
-          PeerMessage have = PeerMessage.HaveMessage.craft(piece.getIndex());
-          for (SharingPeer remote : getConnectedPeers()) {
-            if (remote.getTorrent().getHexInfoHash().equals(torrentHash) &&
-                    !remote.getAvailablePieces().get(piece.getIndex()))
-              remote.send(have);
-          }
+          corruptingPeers = piece.findCorruptingPeers();
+          storeValidatedPiece(torrent, piece, torrentHash, peer);
           peer.pieceDownloaded();
 
           final boolean isTorrentComplete;
@@ -764,48 +992,133 @@ public class CommunicationManager implements AnnounceResponseListener, PeerActiv
               }
             }
 
-            isTorrentComplete = torrent.isComplete();
-
-            if (isTorrentComplete) {
-              logger.info("Download of {} complete.", torrent.getDirectoryName());
-
-              torrent.finish();
-            }
+            isTorrentComplete = finishTorrentIfComplete(torrent);
           }
 
           if (isTorrentComplete) {
+            announceTorrentCompleted(torrent, torrentHash);
+          }
+        } else {
+          torrent.markUncompleted(piece);
+          logger.info("Downloaded piece #{} from {} was not valid ;-(. Trying another peer", piece.getIndex(), peer);
+          peer.getPoorlyAvailablePieces().set(piece.getIndex());
+        }
+      }
+    } catch (Throwable e) {
+      torrent.markUncompleted(piece);
+      logger.warn("unhandled exception in piece {} validation task", e);
+    }
+    for (SharingPeer corruptingPeer : corruptingPeers) {
+      banPeer(corruptingPeer, piece);
+    }
+    torrent.handlePeerReady(peer);
+  }
 
-            LoadedTorrent announceableTorrent = torrentsStorage.getLoadedTorrent(torrentHash);
+  /**
+   * Bans the peer which sent corrupted blocks of the piece and closes connections with it
+   */
+  private void banPeer(SharingPeer corruptingPeer, Piece piece) {
+    logger.info("Peer {} sent corrupted data of piece #{}, banning it", corruptingPeer, piece.getIndex());
+    peersStorage.banPeer(corruptingPeer.getIp());
+    for (SharingPeer connectedPeer : peersStorage.getSharingPeers()) {
+      if (connectedPeer.getIp().equals(corruptingPeer.getIp())) {
+        connectedPeer.unbind(true);
+      }
+    }
+  }
 
-            if (announceableTorrent == null) return;
+  @Override
+  public void handleWebSeedPieceCompleted(final WebSeedDownloader downloader, final Piece piece) {
+    final SharedTorrent torrent = downloader.getTorrent();
+    final String torrentHash = torrent.getHexInfoHash();
+    try {
+      final Future<?> validationFuture = myPieceValidatorExecutor.submit(new Runnable() {
+        @Override
+        public void run() {
+          validateWebSeedPieceAsync(torrent, piece, torrentHash, downloader);
+        }
+      });
+      torrent.markCompletedAndAddValidationFuture(piece, validationFuture);
+    } catch (RejectedExecutionException e) {
+      torrent.markUncompleted(piece);
+      LoggerUtils.warnWithMessageAndDebugDetails(logger, "Unable to submit validation task for torrent {}", torrentHash, e);
+    }
+  }
 
-            AnnounceableInformation announceableInformation = announceableTorrent.createAnnounceableInformation();
+  private void validateWebSeedPieceAsync(final SharedTorrent torrent, final Piece piece, String torrentHash, WebSeedDownloader downloader) {
+    try {
+      synchronized (piece) {
 
-            if (!TorrentUtils.isTrackerLessInfo(announceableInformation)) {
-              try {
-                announce.getCurrentTrackerClient(announceableInformation)
-                        .announceAllInterfaces(COMPLETED, true, announceableInformation);
-              } catch (AnnounceException e) {
-                logger.debug("unable to announce torrent {} on tracker {}", torrent, torrent.getAnnounce());
-              }
-            }
+        if (piece.isValid()) return;
 
-            for (SharingPeer remote : getPeersForTorrent(torrentHash)) {
-              remote.notInteresting();
-            }
+        piece.validate(torrent, piece);
+        if (piece.isValid()) {
+          storeValidatedPiece(torrent, piece, torrentHash, downloader.getWebSeed());
 
+          final boolean isTorrentComplete;
+          synchronized (torrent) {
+            torrent.removeValidationFuture(piece);
+            isTorrentComplete = finishTorrentIfComplete(torrent);
+          }
+
+          if (isTorrentComplete) {
+            announceTorrentCompleted(torrent, torrentHash);
           }
         } else {
           torrent.markUncompleted(piece);
-          logger.info("Downloaded piece #{} from {} was not valid ;-(. Trying another peer", piece.getIndex(), peer);
-          peer.getPoorlyAvailablePieces().set(piece.getIndex());
+          downloader.pieceValidationFailed(piece);
         }
       }
     } catch (Throwable e) {
       torrent.markUncompleted(piece);
       logger.warn("unhandled exception in piece {} validation task", e);
     }
-    torrent.handlePeerReady(peer);
+  }
+
+  private void storeValidatedPiece(SharedTorrent torrent, Piece piece, String torrentHash, PeerInformation source) throws IOException {
+    torrent.notifyPieceDownloaded(piece, source);
+    piece.finish(torrent.getDiskIoScheduler());
+    // Send a HAVE message to all connected peers, which don't have the piece
+    PeerMessage have = PeerMessage.HaveMessage.craft(piece.getIndex());
+    for (SharingPeer remote : getConnectedPeers()) {
+      if (remote.getTorrent().getHexInfoHash().equals(torrentHash) &&
+              !remote.getAvailablePieces().get(piece.getIndex()))
+        remote.send(have);
+    }
+  }
+
+  private boolean finishTorrentIfComplete(SharedTorrent torrent) {
+    final boolean isTorrentComplete = torrent.isComplete();
+
+    if (isTorrentComplete) {
+      logger.info("Download of {} complete.", torrent.getDirectoryName());
+
+      torrent.finish();
+    }
+    return isTorrentComplete;
+  }
+
+  private void announceTorrentCompleted(SharedTorrent torrent, String torrentHash) {
+    stopWebSeeds(torrentHash);
+
+    LoadedTorrent announceableTorrent = torrentsStorage.getLoadedTorrent(torrentHash);
+
+    if (announceableTorrent == null) return;
+
+    AnnounceableInformation announceableInformation = announceableTorrent.createAnnounceableInformation();
+
+    if (!TorrentUtils.isTrackerLessInfo(announceableInformation)) {
+      try {
+        announce.getCurrentTrackerClient(announceableInformation)
+                .announceAllInterfaces(COMPLETED, true, announceableInformation);
+      } catch (AnnounceException e) {
+        logger.debug("unable to announce torrent {} on tracker {}", torrent, torrent.getAnnounce());
+      }
+    }
+
+    for (SharingPeer remote : getPeersForTorrent(torrentHash)) {
+      remote.notInteresting();
+    }
   }
 
   @Override
@@ -848,4 +1161,32 @@ public class CommunicationManager implements AnnounceResponseListener, PeerActiv
     }
     return connectionManager;
   }
+
+  private static class PiecesCheck implements PiecesCheckListener {
+
+    private final List<TorrentListener> myListeners;
+    private volatile boolean myCancelled = false;
+
+    PiecesCheck(List<TorrentListener> listeners) {
+      myListeners = listeners;
+    }
+
+    @Override
+    public void piecesChecked(int checkedPieces, int totalPieces) {
+      for (TorrentListener listener : myListeners) {
+        if (listener instanceof ValidationProgressListener) {
+          ((ValidationProgressListener) listener).validationProgress(checkedPieces, totalPieces);
+        }
+      }
+    }
+
+    @Override
+    public boolean isCancelled() {
+      return myCancelled;
+    }
+
+    synchronized void cancel() {
+      myCancelled = true;
+    }
+  }
 }
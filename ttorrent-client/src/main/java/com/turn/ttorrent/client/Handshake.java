@@ -34,6 +34,12 @@ public class Handshake implements TorrentHash {
   public static final String BITTORRENT_PROTOCOL_IDENTIFIER = "BitTorrent protocol";
   public static final int BASE_HANDSHAKE_LENGTH = 49;
 
+  /**
+   * Reserved bit which is set by clients supporting v2 torrents (BEP 52)
+   */
+  private static final int V2_SUPPORT_BYTE = 7;
+  private static final byte V2_SUPPORT_MASK = 0x10;
+
   private ByteBuffer data;
   private ByteBuffer infoHash;
   private ByteBuffer peerId;
@@ -41,14 +47,16 @@ public class Handshake implements TorrentHash {
   private String torrentIdentifier;
 
   private int myPstrlen;
+  private final byte[] myReserved;
 
   private Handshake(ByteBuffer data, ByteBuffer infoHash,
-                    ByteBuffer peerId) {
+                    ByteBuffer peerId, byte[] reserved) {
     this.data = data;
     this.data.rewind();
 
     this.infoHash = infoHash;
     this.peerId = peerId;
+    myReserved = reserved;
   }
 
   public ByteBuffer getData() {
@@ -67,6 +75,13 @@ public class Handshake implements TorrentHash {
     return this.peerId.array();
   }
 
+  /**
+   * @return true if the peer supports v2 torrents and hash request messages
+   */
+  public boolean isV2Supported() {
+    return (myReserved[V2_SUPPORT_BYTE] & V2_SUPPORT_MASK) != 0;
+  }
+
   public static Handshake parse(ByteBuffer buffer)
           throws ParseException, UnsupportedEncodingException {
     int pstrlen = Byte.valueOf(buffer.get()).intValue();
@@ -85,7 +100,6 @@ public class Handshake implements TorrentHash {
       throw new ParseException("Invalid protocol identifier!", 1);
     }
 
-    // Ignore reserved bytes
     byte[] reserved = new byte[8];
     buffer.get(reserved);
 
@@ -94,7 +108,7 @@ public class Handshake implements TorrentHash {
     byte[] peerId = new byte[20];
     buffer.get(peerId);
     return new Handshake(buffer, ByteBuffer.wrap(infoHash),
-            ByteBuffer.wrap(peerId));
+            ByteBuffer.wrap(peerId), reserved);
   }
 
   public static Handshake parse(ByteBuffer buffer, String torrentIdentifier) throws UnsupportedEncodingException, ParseException {
@@ -116,6 +130,7 @@ public class Handshake implements TorrentHash {
                       Handshake.BITTORRENT_PROTOCOL_IDENTIFIER.length());
 
       byte[] reserved = new byte[8];
+      reserved[V2_SUPPORT_BYTE] |= V2_SUPPORT_MASK;
       ByteBuffer infoHash = ByteBuffer.wrap(torrentInfoHash);
       ByteBuffer peerId = ByteBuffer.wrap(clientPeerId);
 
@@ -127,7 +142,7 @@ public class Handshake implements TorrentHash {
       buffer.put(infoHash);
       buffer.put(peerId);
 
-      return new Handshake(buffer, infoHash, peerId);
+      return new Handshake(buffer, infoHash, peerId, reserved);
     } catch (UnsupportedEncodingException uee) {
       return null;
     }
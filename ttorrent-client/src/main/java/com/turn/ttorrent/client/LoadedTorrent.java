@@ -1,6 +1,7 @@
 package com.turn.ttorrent.client;
 
 import com.turn.ttorrent.client.storage.PieceStorage;
+import com.turn.ttorrent.client.strategy.PiecePriorities;
 import com.turn.ttorrent.common.AnnounceableInformation;
 import com.turn.ttorrent.common.TorrentHash;
 import com.turn.ttorrent.common.TorrentMetadata;
@@ -42,4 +43,10 @@ public interface LoadedTorrent {
    */
   EventDispatcher getEventDispatcher();
 
+  /**
+   * @return priorities of pieces which are set by users of the torrent's data
+   */
+  @NotNull
+  PiecePriorities getPiecePriorities();
+
 }
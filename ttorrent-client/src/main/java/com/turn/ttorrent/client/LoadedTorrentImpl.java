@@ -1,6 +1,7 @@
 package com.turn.ttorrent.client;
 
 import com.turn.ttorrent.client.storage.PieceStorage;
+import com.turn.ttorrent.client.strategy.PiecePriorities;
 import com.turn.ttorrent.common.*;
 import org.jetbrains.annotations.NotNull;
 
@@ -17,6 +18,7 @@ public class LoadedTorrentImpl implements LoadedTorrent {
   private final PieceStorage pieceStorage;
   private final TorrentMetadataProvider metadataProvider;
   private final EventDispatcher eventDispatcher;
+  private final PiecePriorities piecePriorities;
 
   LoadedTorrentImpl(TorrentStatistic torrentStatistic,
                     TorrentMetadataProvider metadataProvider,
@@ -26,6 +28,7 @@ public class LoadedTorrentImpl implements LoadedTorrent {
     this.torrentStatistic = torrentStatistic;
     this.metadataProvider = metadataProvider;
     this.eventDispatcher = eventDispatcher;
+    this.piecePriorities = new PiecePriorities(torrentMetadata.getFiles(), torrentMetadata.getPieceLength());
     torrentHash = new ImmutableTorrentHash(torrentMetadata.getInfoHash());
     if (torrentMetadata.getAnnounceList() != null) {
       this.announceUrls = Collections.unmodifiableList(torrentMetadata.getAnnounceList());
@@ -78,6 +81,12 @@ public class LoadedTorrentImpl implements LoadedTorrent {
     return eventDispatcher;
   }
 
+  @NotNull
+  @Override
+  public PiecePriorities getPiecePriorities() {
+    return piecePriorities;
+  }
+
   @Override
   public String toString() {
     return "LoadedTorrentImpl{" +
@@ -6,6 +6,8 @@ import com.turn.ttorrent.common.PeerUID;
 
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.locks.ReadWriteLock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
@@ -14,9 +16,11 @@ public class PeersStorage {
 
   private volatile Peer self = null;
   private final ConcurrentHashMap<PeerUID, SharingPeer> connectedSharingPeers;
+  private final Set<String> bannedIps;
 
   public PeersStorage() {
     this.connectedSharingPeers = new ConcurrentHashMap<PeerUID, SharingPeer>();
+    this.bannedIps = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
   }
 
   public Peer getSelf() {
@@ -46,4 +50,18 @@ public class PeersStorage {
   public Collection<SharingPeer> getSharingPeers() {
     return new ArrayList<SharingPeer>(connectedSharingPeers.values());
   }
+
+  /**
+   * Bans the peer's address, for example because the peer sent corrupted data.
+   * Connections with banned addresses are rejected
+   *
+   * @param ip address of the peer
+   */
+  public void banPeer(String ip) {
+    bannedIps.add(ip);
+  }
+
+  public boolean isBanned(String ip) {
+    return bannedIps.contains(ip);
+  }
 }
@@ -16,14 +16,20 @@
 package com.turn.ttorrent.client;
 
 import com.turn.ttorrent.client.peer.SharingPeer;
+import com.turn.ttorrent.client.storage.DiskIoScheduler;
 import com.turn.ttorrent.client.storage.PieceStorage;
+import com.turn.ttorrent.common.Digests;
+import com.turn.ttorrent.common.MerklePieceInfo;
+import com.turn.ttorrent.common.MerkleTree;
 import com.turn.ttorrent.common.TorrentLoggerFactory;
 import com.turn.ttorrent.common.TorrentUtils;
+import org.jetbrains.annotations.Nullable;
 import org.slf4j.Logger;
 
 import java.io.IOException;
 import java.nio.ByteBuffer;
-import java.util.Arrays;
+import java.security.MessageDigest;
+import java.util.*;
 
 
 /**
@@ -42,6 +48,18 @@ import java.util.Arrays;
  * impression of a contiguous, linear byte storage.
  * </p>
  *
+ * <p>
+ * Pieces of v2 torrents are validated using merkle tree of the file. When hashes
+ * of the piece's blocks are known, each received block can be verified separately.
+ * </p>
+ *
+ * <p>
+ * A torrent can contain millions of pieces, so pieces aren't kept for the whole torrent:
+ * the torrent keeps validity and availability of all pieces in {@link PieceStates} and creates
+ * piece objects only for pieces which are downloaded, other piece objects are short-lived views.
+ * A piece doesn't copy its hash, it's read by offset from hashes of all pieces of the torrent.
+ * </p>
+ *
  * @author mpetazzoni
  */
 public class Piece implements Comparable<Piece>, PieceInformation {
@@ -50,13 +68,27 @@ public class Piece implements Comparable<Piece>, PieceInformation {
           TorrentLoggerFactory.getLogger(Piece.class);
 
   private final PieceStorage pieceStorage;
+  private final PieceStates states;
   private final int index;
   private final long length;
-  private final byte[] hash;
+  private final byte[] hashes;
+  private final int hashOffset;
+  @Nullable
+  private final MerklePieceInfo merkleInfo;
 
-  private volatile boolean valid;
-  private int seen;
   private ByteBuffer data;
+  @Nullable
+  private volatile byte[] blockHashes;
+  @Nullable
+  private byte[] pendingBlockHashes;
+  @Nullable
+  private BitSet pendingHashedBlocks;
+  @Nullable
+  private BitSet receivedBlocks;
+  @Nullable
+  private Map<Integer, BlockRecord> blockSources;
+  @Nullable
+  private Map<Integer, List<BlockRecord>> failedBlocks;
 
   /**
    * Initialize a new piece in the byte bucket.
@@ -67,16 +99,52 @@ public class Piece implements Comparable<Piece>, PieceInformation {
    * @param hash    This piece 20-byte SHA1 hash sum.
    */
   public Piece(PieceStorage pieceStorage, int index, long length, byte[] hash) {
+    this(pieceStorage, index, length, hash, null);
+  }
+
+  /**
+   * Initialize a new piece of v2 or hybrid torrent in the byte bucket.
+   *
+   * @param pieceStorage The underlying piece storage bucket.
+   * @param index        This piece index in the torrent.
+   * @param length       This piece length, in bytes.
+   * @param hash         This piece 20-byte SHA1 hash sum, it's ignored if merkle info is specified.
+   * @param merkleInfo   Information for validating this piece using merkle tree of the file.
+   */
+  public Piece(PieceStorage pieceStorage, int index, long length, byte[] hash, @Nullable MerklePieceInfo merkleInfo) {
+    this(pieceStorage, index, length, hash, 0, merkleInfo);
+  }
+
+  /**
+   * Initialize a new piece which reads its hash from hashes of all pieces of the torrent.
+   *
+   * @param pieceStorage The underlying piece storage bucket.
+   * @param index        This piece index in the torrent.
+   * @param length       This piece length, in bytes.
+   * @param hashes       Array which contains 20-byte SHA1 hash sum of this piece, it isn't copied.
+   *                     If it doesn't contain the hash, the piece can be validated only with merkle info.
+   * @param hashOffset   Offset of this piece's hash in the array.
+   * @param merkleInfo   Information for validating this piece using merkle tree of the file.
+   */
+  public Piece(PieceStorage pieceStorage, int index, long length,
+               byte[] hashes, int hashOffset, @Nullable MerklePieceInfo merkleInfo) {
+    this(pieceStorage, new PieceStates(index, 1), index, length, hashes, hashOffset, merkleInfo);
+  }
+
+  /**
+   * Initialize a view of the piece of the torrent.
+   *
+   * @param states State of all pieces of the torrent, validity and availability of this piece are kept there.
+   */
+  Piece(PieceStorage pieceStorage, PieceStates states, int index, long length,
+        byte[] hashes, int hashOffset, @Nullable MerklePieceInfo merkleInfo) {
     this.pieceStorage = pieceStorage;
+    this.states = states;
     this.index = index;
     this.length = length;
-    this.hash = hash;
-
-    // Piece is considered invalid until first check.
-    this.valid = false;
-
-    // Piece start unseen
-    this.seen = 0;
+    this.hashes = hashes;
+    this.hashOffset = hashOffset;
+    this.merkleInfo = merkleInfo;
 
     this.data = null;
   }
@@ -90,7 +158,7 @@ public class Piece implements Comparable<Piece>, PieceInformation {
    * Tells whether this piece's data is valid or not.
    */
   public boolean isValid() {
-    return this.valid;
+    return this.states.isValid(this.index);
   }
 
   /**
@@ -115,7 +183,7 @@ public class Piece implements Comparable<Piece>, PieceInformation {
    * Tells whether this piece is available in the current connected peer swarm.
    */
   public boolean available() {
-    return this.seen > 0;
+    return this.states.getSeenCount(this.index) > 0;
   }
 
   /**
@@ -124,7 +192,7 @@ public class Piece implements Comparable<Piece>, PieceInformation {
    * @param peer The sharing peer this piece has been seen available at.
    */
   public void seenAt(SharingPeer peer) {
-    this.seen++;
+    this.states.seenAt(this.index);
   }
 
   /**
@@ -133,19 +201,24 @@ public class Piece implements Comparable<Piece>, PieceInformation {
    * @param peer The sharing peer from which the piece is no longer available.
    */
   public void noLongerAt(SharingPeer peer) {
-    this.seen--;
+    this.states.noLongerAt(this.index);
   }
 
   void setValid(boolean valid) {
-    this.valid = valid;
+    this.states.setValid(this.index, valid);
+  }
+
+  @Nullable
+  public MerklePieceInfo getMerkleInfo() {
+    return this.merkleInfo;
   }
 
   /**
    * Validates this piece.
    *
    * @return Returns true if this piece, as stored in the underlying byte
-   * storage, is valid, i.e. its SHA1 sum matches the one from the torrent
-   * meta-info.
+   * storage, is valid, i.e. its SHA1 sum (or root of merkle tree of its blocks
+   * for v2 torrents) matches the one from the torrent meta-info.
    */
   public boolean validate(SharedTorrent torrent, Piece piece) throws IOException {
 
@@ -154,11 +227,20 @@ public class Piece implements Comparable<Piece>, PieceInformation {
     // TODO: remove cast to int when large ByteBuffer support is
     // implemented in Java.
     byte[] pieceBytes = data.array();
-    final byte[] calculatedHash = TorrentUtils.calculateSha1Hash(pieceBytes);
-    this.valid = Arrays.equals(calculatedHash, this.hash);
-    logger.trace("validating result of piece {} is {}", this.index, this.valid);
+    final boolean valid;
+    if (this.merkleInfo != null) {
+      valid = this.merkleInfo.isValid(pieceBytes);
+    } else {
+      valid = TorrentUtils.hashMatches(TorrentUtils.calculateSha1Hash(pieceBytes), this.hashes, this.hashOffset);
+    }
+    setValid(valid);
+    if (!valid) {
+      this.receivedBlocks = null;
+      rememberFailedBlocks(pieceBytes);
+    }
+    logger.trace("validating result of piece {} is {}", this.index, valid);
 
-    return this.isValid();
+    return valid;
   }
 
   /**
@@ -217,7 +299,7 @@ public class Piece implements Comparable<Piece>, PieceInformation {
    */
   public ByteBuffer read(long offset, int length, ByteBuffer block)
           throws IllegalArgumentException, IllegalStateException, IOException {
-    if (!this.valid) {
+    if (!this.isValid()) {
       throw new IllegalStateException("Attempting to read an " +
               "known-to-be invalid piece!");
     }
@@ -225,6 +307,31 @@ public class Piece implements Comparable<Piece>, PieceInformation {
     return this._read(offset, length, block);
   }
 
+  /**
+   * Queues read of a piece block in the disk I/O scheduler, the callback is
+   * invoked in the scheduler's thread when data is read.
+   *
+   * @param offset Offset inside this piece where to start reading.
+   * @param length Number of bytes to read from the piece.
+   * @throws IllegalArgumentException If <em>offset + length</em> goes over
+   *                                  the piece boundary.
+   * @throws IllegalStateException    If the piece is not valid when attempting
+   *                                  to read it.
+   */
+  public void read(int offset, int length, DiskIoScheduler scheduler, DiskIoScheduler.ReadCallback callback)
+          throws IllegalArgumentException, IllegalStateException {
+    if (!this.isValid()) {
+      throw new IllegalStateException("Attempting to read an " +
+              "known-to-be invalid piece!");
+    }
+    if ((long) offset + length > this.length) {
+      throw new IllegalArgumentException("Piece#" + this.index +
+              " overrun (" + offset + " + " + length + " > " +
+              this.length + ") !");
+    }
+    scheduler.read(this.pieceStorage, this.index, offset, length, callback);
+  }
+
   /**
    * Record the given block at the given offset in this piece.
    *
@@ -232,25 +339,250 @@ public class Piece implements Comparable<Piece>, PieceInformation {
    * @param offset The block offset in this piece.
    */
   public void record(ByteBuffer block, int offset) {
+    record(block, offset, null);
+  }
+
+  /**
+   * Record the given block at the given offset in this piece and remember the peer
+   * which sent the block. If the piece turns out to be invalid, the peer which sent
+   * corrupted data can be found later, see {@link #findCorruptingPeers()}.
+   *
+   * @param block  The ByteBuffer containing the block data.
+   * @param offset The block offset in this piece.
+   * @param source The peer which sent the block or null if the block wasn't received from a peer.
+   */
+  public void record(ByteBuffer block, int offset, @Nullable SharingPeer source) {
+    if (source != null) {
+      if (this.blockSources == null) {
+        this.blockSources = new HashMap<Integer, BlockRecord>();
+      }
+      this.blockSources.put(offset, new BlockRecord(source, block.remaining()));
+    } else if (this.blockSources != null) {
+      // data of blocks is overwritten, previous sources aren't responsible for it anymore
+      final Iterator<Integer> iterator = this.blockSources.keySet().iterator();
+      while (iterator.hasNext()) {
+        final int blockOffset = iterator.next();
+        if (blockOffset >= offset && blockOffset < offset + block.remaining()) {
+          iterator.remove();
+        }
+      }
+    }
     if (this.data == null) {
       // TODO: remove cast to int when large ByteBuffer support is
       // implemented in Java.
       this.data = ByteBuffer.allocate((int) this.length);
     }
 
+    if (this.receivedBlocks == null) {
+      this.receivedBlocks = new BitSet();
+    }
+
     int pos = block.position();
     this.data.position(offset);
     this.data.put(block);
     block.position(pos);
+    this.receivedBlocks.set(offset / MerkleTree.BLOCK_SIZE,
+            (offset + block.remaining() + MerkleTree.BLOCK_SIZE - 1) / MerkleTree.BLOCK_SIZE);
+  }
+
+  /**
+   * @return true if hashes of blocks of this piece are known and each block can be verified separately
+   */
+  public boolean hasBlockHashes() {
+    return this.blockHashes != null;
+  }
+
+  /**
+   * Sets hashes of blocks of this piece received from a peer. Hashes are accepted only if they
+   * match the hash of this piece from the torrent meta-info.
+   *
+   * @param hashes concatenated hashes of all blocks of the piece
+   * @return true if hashes are valid and were accepted
+   */
+  public boolean setBlockHashes(byte[] hashes) {
+    if (this.merkleInfo == null || !this.merkleInfo.verifyBlockHashes(hashes)) {
+      return false;
+    }
+    this.blockHashes = hashes;
+    return true;
+  }
+
+  /**
+   * Adds part of hashes of blocks of this piece received from a peer. Hashes of pieces with more than
+   * {@link com.turn.ttorrent.common.protocol.PeerMessage.HashRequestMessage#MAX_LENGTH} blocks are requested
+   * in several parts, they are verified when hashes of all blocks are received.
+   *
+   * @param firstBlock index of the first block of the part in this piece
+   * @param hashes     concatenated hashes of blocks of the part
+   * @return true if hashes of all blocks are received, valid and were accepted
+   */
+  public boolean addBlockHashes(int firstBlock, byte[] hashes) {
+    if (this.merkleInfo == null) return false;
+    final int blocksCount = this.merkleInfo.getBlocksCount();
+    final int count = hashes.length / MerkleTree.HASH_SIZE;
+    if (firstBlock < 0 || firstBlock + count > blocksCount) return false;
+    if (firstBlock == 0 && count == blocksCount) {
+      return setBlockHashes(hashes);
+    }
+    if (this.pendingBlockHashes == null || this.pendingHashedBlocks == null) {
+      this.pendingBlockHashes = new byte[blocksCount * MerkleTree.HASH_SIZE];
+      this.pendingHashedBlocks = new BitSet(blocksCount);
+    }
+    System.arraycopy(hashes, 0, this.pendingBlockHashes, firstBlock * MerkleTree.HASH_SIZE, hashes.length);
+    this.pendingHashedBlocks.set(firstBlock, firstBlock + count);
+    if (this.pendingHashedBlocks.cardinality() < blocksCount) return false;
+
+    final byte[] allHashes = this.pendingBlockHashes;
+    this.pendingBlockHashes = null;
+    this.pendingHashedBlocks = null;
+    return setBlockHashes(allHashes);
+  }
+
+  /**
+   * Verifies the recorded block using hashes of blocks. Block is considered valid if hashes are unknown yet.
+   *
+   * @param offset offset of the block in this piece
+   * @param length length of the block
+   * @return false if recorded data of the block doesn't match hashes of blocks
+   */
+  public boolean verifyBlock(int offset, int length) {
+    final byte[] hashes = this.blockHashes;
+    if (hashes == null || this.data == null || this.merkleInfo == null) return true;
+
+    final MessageDigest digest = MerkleTree.createDigest();
+    final byte[] pieceBytes = this.data.array();
+    final int dataLength = this.merkleInfo.getDataLength();
+    final int end = Math.min(offset + length, pieceBytes.length);
+    if (offset % MerkleTree.BLOCK_SIZE != 0) return true;
+    for (int blockStart = offset; blockStart < end; blockStart += MerkleTree.BLOCK_SIZE) {
+      if (blockStart >= dataLength) {
+        // padding after the end of the file must contain only zeros
+        for (int i = blockStart; i < end; i++) {
+          if (pieceBytes[i] != 0) return false;
+        }
+        return true;
+      }
+      final int blockLength = Math.min(MerkleTree.BLOCK_SIZE, dataLength - blockStart);
+      if (blockStart + blockLength > end) {
+        // block is received partially, it can't be verified
+        return true;
+      }
+      digest.update(pieceBytes, blockStart, blockLength);
+      if (!Arrays.equals(digest.digest(), MerkleTree.getHash(hashes, blockStart / MerkleTree.BLOCK_SIZE))) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Verifies all recorded blocks of this piece and forgets invalid blocks.
+   * It's used when hashes of blocks are received after the blocks.
+   *
+   * @return offsets of invalid blocks which must be downloaded again
+   */
+  public List<Integer> removeInvalidBlocks() {
+    List<Integer> result = new ArrayList<Integer>();
+    if (this.blockHashes == null || this.receivedBlocks == null) return result;
+    for (int i = this.receivedBlocks.nextSetBit(0); i >= 0; i = this.receivedBlocks.nextSetBit(i + 1)) {
+      final int offset = i * MerkleTree.BLOCK_SIZE;
+      if (!verifyBlock(offset, MerkleTree.BLOCK_SIZE)) {
+        this.receivedBlocks.clear(i);
+        result.add(offset);
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Reads this piece from the underlying byte storage and calculates hashes of its blocks.
+   *
+   * @return concatenated hashes of all blocks of the piece including zero hashes beyond the end of the file
+   * @throws IllegalStateException if this piece isn't valid or isn't piece of v2 torrent
+   */
+  public byte[] calculateBlockHashes() throws IOException {
+    if (!this.isValid() || this.merkleInfo == null) {
+      throw new IllegalStateException("Unable to calculate hashes of blocks of " + this);
+    }
+    final byte[] bytes = this.pieceStorage.readPiecePart(this.index, 0, this.merkleInfo.getDataLength());
+    return this.merkleInfo.calculateBlockHashes(bytes);
+  }
+
+  /**
+   * Remembers hashes of blocks of the invalid piece together with peers which sent these blocks.
+   */
+  private void rememberFailedBlocks(byte[] pieceBytes) {
+    if (this.blockSources == null) return;
+    if (this.failedBlocks == null) {
+      this.failedBlocks = new HashMap<Integer, List<BlockRecord>>();
+    }
+    for (Map.Entry<Integer, BlockRecord> entry : this.blockSources.entrySet()) {
+      final int offset = entry.getKey();
+      final BlockRecord block = entry.getValue();
+      if (offset + block.length > pieceBytes.length) continue;
+      block.hash = blockHash(pieceBytes, offset, block.length);
+      // blocks of all failed attempts are kept, each of them could be corrupted by its own peer
+      List<BlockRecord> records = this.failedBlocks.get(offset);
+      if (records == null) {
+        records = new ArrayList<BlockRecord>(1);
+        this.failedBlocks.put(offset, records);
+      }
+      records.add(block);
+    }
+    this.blockSources = null;
+  }
+
+  /**
+   * Compares blocks of this piece which were received before failed validations with valid data of the piece.
+   * It must be called after successful validation and before {@link #finish()}.
+   *
+   * @return peers which sent blocks which differ from valid data
+   */
+  public Set<SharingPeer> findCorruptingPeers() {
+    final Map<Integer, List<BlockRecord>> blocks = this.failedBlocks;
+    this.failedBlocks = null;
+    if (blocks == null || !this.isValid() || this.data == null) {
+      return Collections.emptySet();
+    }
+    final byte[] pieceBytes = this.data.array();
+    Set<SharingPeer> result = new HashSet<SharingPeer>();
+    for (Map.Entry<Integer, List<BlockRecord>> entry : blocks.entrySet()) {
+      final int offset = entry.getKey();
+      for (BlockRecord block : entry.getValue()) {
+        if (!Arrays.equals(blockHash(pieceBytes, offset, block.length), block.hash)) {
+          result.add(block.source);
+        }
+      }
+    }
+    return result;
+  }
+
+  private static byte[] blockHash(byte[] bytes, int offset, int length) {
+    return Digests.sha1(bytes, offset, length);
   }
 
   public void finish() throws IOException {
+    finish(null);
+  }
+
+  /**
+   * Saves data of this piece into the storage.
+   *
+   * @param scheduler the scheduler which orders disk operations or null if data must be saved in the current thread
+   */
+  public void finish(@Nullable DiskIoScheduler scheduler) throws IOException {
     this.data.rewind();
     logger.trace("Recording {}...", this);
     try {
-      pieceStorage.savePiece(index, this.data.array());
+      if (scheduler != null) {
+        scheduler.writeAndWait(pieceStorage, index, this.data.array());
+      } else {
+        pieceStorage.savePiece(index, this.data.array());
+      }
     } finally {
       this.data = null;
+      this.receivedBlocks = null;
+      this.blockSources = null;
     }
   }
 
@@ -272,6 +604,11 @@ public class Piece implements Comparable<Piece>, PieceInformation {
     }
   }
 
+  @Override
+  public int hashCode() {
+    return this.index;
+  }
+
   /**
    * Piece comparison function for ordering pieces based on their
    * availability.
@@ -280,15 +617,33 @@ public class Piece implements Comparable<Piece>, PieceInformation {
    */
   public int compareTo(Piece other) {
     // return true for the same pieces, otherwise sort by time seen, then by index;
+    final int seen = this.states.getSeenCount(this.index);
+    final int otherSeen = other.states.getSeenCount(other.index);
     if (this.equals(other)) {
       return 0;
-    } else if (this.seen == other.seen) {
+    } else if (seen == otherSeen) {
       return new Integer(this.index).compareTo(other.index);
-    } else if (this.seen < other.seen) {
+    } else if (seen < otherSeen) {
       return -1;
     } else {
       return 1;
     }
   }
 
+
+  /**
+   * Received block: the peer which sent the block and hash of received data.
+   * Hash is calculated only if the piece turns out to be invalid
+   */
+  private static class BlockRecord {
+
+    private final SharingPeer source;
+    private final int length;
+    private byte[] hash;
+
+    private BlockRecord(SharingPeer source, int length) {
+      this.source = source;
+      this.length = length;
+    }
+  }
 }
@@ -0,0 +1,98 @@
+package com.turn.ttorrent.client;
+
+import java.util.BitSet;
+
+/**
+ * Validity and availability in the swarm of pieces of a torrent. State of all pieces is kept
+ * in primitive arrays, so {@link Piece} objects are needed only for pieces which are downloaded.
+ */
+final class PieceStates {
+
+  private final int myFirstIndex;
+  private final int myCount;
+  private final BitSet myValidPieces;
+  // count of peers which have the piece, it's allocated when the first peer reports its pieces
+  private int[] mySeenCounts;
+
+  PieceStates(int count) {
+    this(0, count);
+  }
+
+  /**
+   * @param firstIndex index of the first piece, the state of a single piece can be kept without arrays for all pieces
+   * @param count      count of pieces
+   */
+  PieceStates(int firstIndex, int count) {
+    myFirstIndex = firstIndex;
+    myCount = count;
+    myValidPieces = new BitSet(count);
+  }
+
+  synchronized boolean isValid(int index) {
+    return myValidPieces.get(index - myFirstIndex);
+  }
+
+  synchronized void setValid(int index, boolean valid) {
+    myValidPieces.set(index - myFirstIndex, valid);
+  }
+
+  synchronized void setValid(BitSet validPieces) {
+    for (int i = validPieces.nextSetBit(myFirstIndex); i >= 0 && i < myFirstIndex + myCount;
+         i = validPieces.nextSetBit(i + 1)) {
+      myValidPieces.set(i - myFirstIndex);
+    }
+  }
+
+  synchronized int getSeenCount(int index) {
+    return mySeenCounts == null ? 0 : mySeenCounts[index - myFirstIndex];
+  }
+
+  synchronized void seenAt(int index) {
+    seenCounts()[index - myFirstIndex]++;
+  }
+
+  synchronized void noLongerAt(int index) {
+    seenCounts()[index - myFirstIndex]--;
+  }
+
+  /**
+   * Marks pieces as seen at the peer, pieces out of the torrent's range are ignored
+   */
+  synchronized void seenAt(BitSet pieces) {
+    final int[] seenCounts = seenCounts();
+    for (int i = pieces.nextSetBit(myFirstIndex); i >= 0 && i < myFirstIndex + myCount; i = pieces.nextSetBit(i + 1)) {
+      seenCounts[i - myFirstIndex]++;
+    }
+  }
+
+  /**
+   * Marks pieces as no longer available at the peer, pieces out of the torrent's range are ignored
+   */
+  synchronized void noLongerAt(BitSet pieces) {
+    if (mySeenCounts == null) return;
+    for (int i = pieces.nextSetBit(myFirstIndex); i >= 0 && i < myFirstIndex + myCount; i = pieces.nextSetBit(i + 1)) {
+      mySeenCounts[i - myFirstIndex]--;
+    }
+  }
+
+  /**
+   * @return pieces which are available in the connected peer swarm
+   */
+  synchronized BitSet getAvailablePieces() {
+    final BitSet result = new BitSet(myFirstIndex + myCount);
+    if (mySeenCounts == null) return result;
+    for (int i = 0; i < myCount; i++) {
+      if (mySeenCounts[i] > 0) {
+        result.set(myFirstIndex + i);
+      }
+    }
+    return result;
+  }
+
+  private int[] seenCounts() {
+    if (mySeenCounts == null) {
+      mySeenCounts = new int[myCount];
+    }
+    return mySeenCounts;
+  }
+}
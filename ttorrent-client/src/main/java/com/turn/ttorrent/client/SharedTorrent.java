@@ -18,7 +18,11 @@ package com.turn.ttorrent.client;
 import com.turn.ttorrent.Constants;
 import com.turn.ttorrent.client.peer.PeerActivityListener;
 import com.turn.ttorrent.client.peer.SharingPeer;
+import com.turn.ttorrent.client.storage.CachingPieceStorage;
+import com.turn.ttorrent.client.storage.DiskIoScheduler;
 import com.turn.ttorrent.client.storage.PieceStorage;
+import com.turn.ttorrent.client.storage.SelectiveFileStorage;
+import com.turn.ttorrent.client.storage.StorageUtils;
 import com.turn.ttorrent.client.storage.TorrentByteStorage;
 import com.turn.ttorrent.client.strategy.*;
 import com.turn.ttorrent.common.Optional;
@@ -30,7 +34,6 @@ import org.slf4j.Logger;
 
 import java.io.File;
 import java.io.IOException;
-import java.nio.ByteBuffer;
 import java.util.*;
 import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.Future;
@@ -72,6 +75,11 @@ public class SharedTorrent implements PeerActivityListener, TorrentMetadata, Tor
   private static final int END_GAME_STATIC_PIECES_COUNT = 20;
   private static final long END_GAME_INVOCATION_PERIOD_MS = 2000;
 
+  /**
+   * Max count of pieces with deadlines which can be downloaded from one peer at the same time
+   */
+  private static final int MAX_DEADLINE_PIECES_PER_PEER = 10;
+
   private final TorrentStatistic myTorrentStatistic;
 
   private long myLastAnnounceTime = -1;
@@ -84,18 +92,28 @@ public class SharedTorrent implements PeerActivityListener, TorrentMetadata, Tor
   private final long myTorrentTotalSize;
 
   private final int pieceLength;
-  private final ByteBuffer piecesHashes;
+  private final byte[] piecesHashes;
 
   private boolean initialized;
-  private Piece[] pieces;
+  private final int myPiecesCount;
+  private final PieceStates myPieceStates;
+  @Nullable
+  private MerklePieceInfo[] myMerkleInfos;
+  // pieces which are downloaded, they are kept until they are validated. Other pieces are short-lived views
+  private final Map<Integer, Piece> myPiecesInFlight = new HashMap<Integer, Piece>();
+  private final Map<String, Integer> myFirstPiecesOfFiles;
   private final BitSet completedPieces;
   private final BitSet requestedPieces;
   private final RequestStrategy myRequestStrategy;
+  private final PiecePriorities myPiecePriorities;
   private final EventDispatcher eventDispatcher;
 
   private final List<SharingPeer> myDownloaders = new CopyOnWriteArrayList<SharingPeer>();
   private final EndGameStrategy endGameStrategy = new EndGameStrategyImpl(2);
+  private final DeadlineStrategy myDeadlineStrategy = new DeadlineStrategyImpl(2);
   private volatile long endGameEnabledOn = -1;
+  @Nullable
+  private volatile DiskIoScheduler myDiskIoScheduler;
 
   private volatile ClientState clientState = ClientState.WAITING;
   private static final int MAX_VALIDATION_TASK_COUNT = 200;
@@ -109,7 +127,21 @@ public class SharedTorrent implements PeerActivityListener, TorrentMetadata, Tor
    */
   public SharedTorrent(TorrentMetadata torrentMetadata, PieceStorage pieceStorage, RequestStrategy requestStrategy,
                        TorrentStatistic torrentStatistic, EventDispatcher eventDispatcher) {
+    this(torrentMetadata, pieceStorage, requestStrategy, torrentStatistic, eventDispatcher,
+            new PiecePriorities(torrentMetadata.getFiles(), torrentMetadata.getPieceLength()));
+  }
+
+  /**
+   * Create a new shared torrent from meta-info
+   *
+   * @param torrentMetadata The meta-info
+   * @param piecePriorities priorities of pieces which are set by users of the torrent's data
+   */
+  public SharedTorrent(TorrentMetadata torrentMetadata, PieceStorage pieceStorage, RequestStrategy requestStrategy,
+                       TorrentStatistic torrentStatistic, EventDispatcher eventDispatcher,
+                       PiecePriorities piecePriorities) {
     myTorrentMetadata = torrentMetadata;
+    myPiecePriorities = piecePriorities;
     this.pieceStorage = pieceStorage;
     this.eventDispatcher = eventDispatcher;
     myTorrentStatistic = torrentStatistic;
@@ -122,16 +154,20 @@ public class SharedTorrent implements PeerActivityListener, TorrentMetadata, Tor
     this.myRequestStrategy = requestStrategy;
 
     this.pieceLength = myTorrentMetadata.getPieceLength();
-    this.piecesHashes = ByteBuffer.wrap(myTorrentMetadata.getPiecesHashes());
+    this.piecesHashes = myTorrentMetadata.getPiecesHashes();
 
-    if (this.piecesHashes.capacity() / Constants.PIECE_HASH_SIZE *
+    // v2 torrents can contain only merkle trees of files without hashes of pieces
+    final boolean hasPiecesHashes = myTorrentMetadata.getInfoHashV2() == null || this.piecesHashes.length > 0;
+    if (hasPiecesHashes && this.piecesHashes.length / Constants.PIECE_HASH_SIZE *
             (long) this.pieceLength < myTorrentTotalSize) {
       throw new IllegalArgumentException("Torrent size does not " +
               "match the number of pieces and the piece size!");
     }
 
     this.initialized = false;
-    this.pieces = new Piece[0];
+    myPiecesCount = (int) (Math.ceil((double) myTorrentTotalSize / this.pieceLength));
+    myPieceStates = new PieceStates(myPiecesCount);
+    this.myFirstPiecesOfFiles = new HashMap<String, Integer>();
     this.completedPieces = new BitSet(torrentMetadata.getPiecesCount());
     this.requestedPieces = new BitSet();
   }
@@ -193,6 +229,18 @@ public class SharedTorrent implements PeerActivityListener, TorrentMetadata, Tor
     myLastAnnounceTime = lastAnnounceTime;
   }
 
+  /**
+   * @return the scheduler which performs disk operations of the torrent or null if they are performed in threads of callers
+   */
+  @Nullable
+  public DiskIoScheduler getDiskIoScheduler() {
+    return myDiskIoScheduler;
+  }
+
+  public void setDiskIoScheduler(@Nullable DiskIoScheduler diskIoScheduler) {
+    myDiskIoScheduler = diskIoScheduler;
+  }
+
   /**
    * Tells whether this torrent has been fully initialized yet.
    */
@@ -207,17 +255,17 @@ public class SharedTorrent implements PeerActivityListener, TorrentMetadata, Tor
   }
 
   /**
-   * Build this torrent's pieces array.
+   * Build this torrent's pieces state.
    * <p/>
    * <p>
-   * Hash and verify any potentially present local data and create this
-   * torrent's pieces array from their respective hash provided in the
-   * torrent meta-info.
+   * Record the state of any potentially present local data. Piece objects
+   * aren't created here, they are created for pieces which are downloaded
+   * and as short-lived views of other pieces.
    * </p>
    * <p/>
    * <p>
    * This function should be called soon after the constructor to initialize
-   * the pieces array.
+   * the pieces state.
    * </p>
    */
   public synchronized void init() throws InterruptedException, IOException {
@@ -232,39 +280,82 @@ public class SharedTorrent implements PeerActivityListener, TorrentMetadata, Tor
     this.initialized = true;
   }
 
-  private void initPieces() {
-    int nPieces = (int) (Math.ceil(
-            (double) myTorrentTotalSize / this.pieceLength));
-    this.pieces = new Piece[nPieces];
-    this.piecesHashes.clear();
-  }
-
   private void hashSingleThread() {
-    initPieces();
-
     logger.debug("Analyzing local data for {} with {} threads...",
             myTorrentMetadata.getDirectoryName(), TorrentCreator.HASHING_THREADS_COUNT);
-    for (int idx = 0; idx < this.pieces.length; idx++) {
-      byte[] hash = new byte[Constants.PIECE_HASH_SIZE];
-      this.piecesHashes.get(hash);
-
-      // The last piece may be shorter than the torrent's global piece
-      // length. Let's make sure we get the right piece length in any
-      // situation.
-      long off = ((long) idx) * this.pieceLength;
-      long len = Math.min(
-              myTorrentTotalSize - off,
-              this.pieceLength);
-
-      Piece piece = new Piece(this.pieceStorage, idx, len, hash
-      );
-      this.pieces[idx] = piece;
-      piece.setValid(pieceStorage.getAvailablePieces().get(idx));
-
-      if (piece.isValid()) {
-        this.completedPieces.set(piece.getIndex());
+    myMerkleInfos = MerklePieceInfo.create(myTorrentMetadata);
+    for (int idx = 0; idx < myPiecesCount; idx++) {
+      final MerklePieceInfo merkleInfo = getMerkleInfo(idx);
+      if (merkleInfo != null && merkleInfo.getFirstBlockIndex() == 0) {
+        myFirstPiecesOfFiles.put(TorrentUtils.byteArrayToHexString(merkleInfo.getPiecesRoot()), idx);
       }
     }
+
+    final BitSet availablePieces = pieceStorage.getAvailablePieces();
+    if (availablePieces.length() > myPiecesCount) {
+      availablePieces.clear(myPiecesCount, availablePieces.length());
+    }
+    myPieceStates.setValid(availablePieces);
+    this.completedPieces.or(availablePieces);
+    myPiecePriorities.piecesAvailable(availablePieces);
+  }
+
+  @Nullable
+  private MerklePieceInfo getMerkleInfo(int index) {
+    final MerklePieceInfo[] merkleInfos = myMerkleInfos;
+    return merkleInfos == null || index >= merkleInfos.length ? null : merkleInfos[index];
+  }
+
+  private long getPieceSize(int index, @Nullable MerklePieceInfo merkleInfo) {
+    if (merkleInfo != null && this.piecesHashes.length == 0) {
+      // pieces of v2 torrent don't contain padding after the end of the file
+      return merkleInfo.getDataLength();
+    }
+    // The last piece may be shorter than the torrent's global piece
+    // length. Let's make sure we get the right piece length in any
+    // situation.
+    return Math.min(myTorrentTotalSize - ((long) index) * this.pieceLength, this.pieceLength);
+  }
+
+  private Piece createPiece(int index) {
+    final MerklePieceInfo merkleInfo = getMerkleInfo(index);
+    // hashes aren't copied, each piece reads its hash from the array of the metadata
+    return new Piece(this.pieceStorage, myPieceStates, index, getPieceSize(index, merkleInfo),
+            this.piecesHashes, index * Constants.PIECE_HASH_SIZE, merkleInfo);
+  }
+
+  /**
+   * Returns the piece which keeps state of its downloading, the same piece is returned
+   * until it's validated.
+   */
+  private Piece getPieceForDownload(int index) {
+    synchronized (myPiecesInFlight) {
+      Piece piece = myPiecesInFlight.get(index);
+      if (piece == null) {
+        piece = createPiece(index);
+        myPiecesInFlight.put(index, piece);
+      }
+      return piece;
+    }
+  }
+
+  /**
+   * Finds piece of v2 torrent by pieces root of the file and index of the block in the file.
+   *
+   * @param piecesRoot pieces root of the file
+   * @param blockIndex index of the first block of the piece in the file
+   * @return the piece or null if the torrent doesn't contain such piece
+   */
+  @Nullable
+  public Piece getPieceByBlock(byte[] piecesRoot, int blockIndex) {
+    if (!this.initialized) return null;
+    final Integer firstPiece = myFirstPiecesOfFiles.get(TorrentUtils.byteArrayToHexString(piecesRoot));
+    if (firstPiece == null || blockIndex < 0) return null;
+    final int pieceIndex = firstPiece + blockIndex / (this.pieceLength / MerkleTree.BLOCK_SIZE);
+    if (pieceIndex >= myPiecesCount) return null;
+    final MerklePieceInfo merkleInfo = getMerkleInfo(pieceIndex);
+    if (merkleInfo == null || !Arrays.equals(merkleInfo.getPiecesRoot(), piecesRoot)) return null;
+    return getPiece(pieceIndex);
   }
 
   public synchronized void close() {
@@ -289,21 +380,60 @@ public class SharedTorrent implements PeerActivityListener, TorrentMetadata, Tor
     }
   }
 
+  /**
+   * Reads the piece into the cache of pieces in background, so following requests of its blocks
+   * are served from memory. Nothing is done if pieces of the torrent aren't cached, the piece
+   * isn't available or the disk is congested.
+   *
+   * @param pieceIndex index of the piece which is likely requested soon
+   */
+  public void readAhead(final int pieceIndex) {
+    final DiskIoScheduler diskIoScheduler = myDiskIoScheduler;
+    if (diskIoScheduler == null || diskIoScheduler.isCongested() || !(pieceStorage instanceof CachingPieceStorage)) return;
+    if (!this.initialized || pieceIndex < 0 || pieceIndex >= myPiecesCount) return;
+    final Piece piece = getPiece(pieceIndex);
+    if (!piece.isValid() || ((CachingPieceStorage) pieceStorage).isPieceCached(pieceIndex)) return;
+    try {
+      // caching storage keeps the whole piece after the read
+      piece.read(0, (int) piece.size(), diskIoScheduler, new DiskIoScheduler.ReadCallback() {
+        @Override
+        public void onRead(byte[] data) {
+        }
+
+        @Override
+        public void onFailure(Throwable e) {
+          logger.debug("unable to read ahead piece {} of torrent {}", pieceIndex, getHexInfoHash());
+        }
+      });
+    } catch (IllegalStateException e) {
+      // piece was marked as invalid after the check
+    }
+  }
+
   /**
    * Retrieve a piece object by index.
    *
+   * <p>
+   * The piece which is being downloaded is returned if there is such piece,
+   * otherwise a new view of the piece is created.
+   * </p>
+   *
    * @param index The index of the piece in this torrent.
    */
   public Piece getPiece(int index) {
-    if (this.pieces == null) {
+    if (!this.initialized) {
       throw new IllegalStateException("Torrent not initialized yet.");
     }
 
-    if (index >= this.pieces.length) {
+    if (index < 0 || index >= myPiecesCount) {
       throw new IllegalArgumentException("Invalid piece index!");
     }
 
-    return this.pieces[index];
+    synchronized (myPiecesInFlight) {
+      final Piece piece = myPiecesInFlight.get(index);
+      if (piece != null) return piece;
+    }
+    return createPiece(index);
   }
 
   /**
@@ -319,17 +449,7 @@ public class SharedTorrent implements PeerActivityListener, TorrentMetadata, Tor
       throw new IllegalStateException("Torrent not yet initialized!");
     }
 
-    BitSet availablePieces = new BitSet(this.pieces.length);
-
-    synchronized (this.pieces) {
-      for (Piece piece : this.pieces) {
-        if (piece.available()) {
-          availablePieces.set(piece.getIndex());
-        }
-      }
-    }
-
-    return availablePieces;
+    return myPieceStates.getAvailablePieces();
   }
 
   /**
@@ -344,12 +464,14 @@ public class SharedTorrent implements PeerActivityListener, TorrentMetadata, Tor
   }
 
   /**
-   * Tells whether this torrent has been fully downloaded, or is fully
-   * available locally.
+   * Tells whether all wanted pieces of this torrent have been downloaded, or are
+   * available locally. Pieces which belong only to skipped files aren't taken into account.
    */
   public synchronized boolean isComplete() {
-    return this.pieces.length > 0
-            && pieceStorage.getAvailablePieces().cardinality() == myTorrentMetadata.getPiecesCount();
+    final BitSet availableOrSkipped = pieceStorage.getAvailablePieces();
+    availableOrSkipped.or(myPiecePriorities.getSkippedPieces());
+    return this.initialized && myPiecesCount > 0
+            && availableOrSkipped.cardinality() == myTorrentMetadata.getPiecesCount();
   }
 
   /**
@@ -372,6 +494,16 @@ public class SharedTorrent implements PeerActivityListener, TorrentMetadata, Tor
       throw new IllegalStateException("Torrent download is not complete!");
     }
 
+    final SelectiveFileStorage files = StorageUtils.find(pieceStorage, SelectiveFileStorage.class);
+    if (files != null && !pieceStorage.isFinished()) {
+      // some files are skipped, so only wanted files are moved to their final location
+      try {
+        files.finishWantedFiles();
+      } catch (IOException e) {
+        LoggerUtils.warnAndDebugDetails(logger, "unable to finish downloaded files of torrent {}", this, e);
+      }
+    }
+
     eventDispatcher.multicaster().downloadComplete();
     setClientState(ClientState.SEEDING);
   }
@@ -416,11 +548,48 @@ public class SharedTorrent implements PeerActivityListener, TorrentMetadata, Tor
     this.completedPieces.clear(piece.getIndex());
   }
 
+  /**
+   * Handles piece which was found corrupted in the local storage after it had been downloaded.
+   * The piece must be already marked as unavailable in the storage, it's marked as uncompleted and
+   * connected peers which have the piece become interesting, so the piece is downloaded again.
+   * Count of left bytes in the torrent's statistic isn't changed by the method.
+   *
+   * @param pieceIndex index of the corrupted piece
+   */
+  public void handleLocalPieceCorrupted(int pieceIndex) {
+    final List<SharingPeer> readyPeers = new ArrayList<SharingPeer>();
+    synchronized (this) {
+      if (!this.isInitialized()) return;
+      final Piece piece = getPiece(pieceIndex);
+      piece.setValid(false);
+      removeValidationFuture(piece);
+      this.completedPieces.clear(pieceIndex);
+      myPiecePriorities.pieceUnavailable(pieceIndex);
+      if (clientState == ClientState.SEEDING) {
+        setClientState(ClientState.SHARING);
+      }
+      for (SharingPeer peer : myDownloaders) {
+        if (!peer.getAvailablePieces().get(pieceIndex)) continue;
+        peer.interesting();
+        if (!peer.isChoked() && !peer.isDownloading()) {
+          readyPeers.add(peer);
+        }
+      }
+    }
+    for (SharingPeer peer : readyPeers) {
+      handlePeerReady(peer);
+    }
+  }
+
   public synchronized void removeValidationFuture(Piece piece) {
     myValidationFutures.remove(piece.getIndex());
   }
 
-  public void notifyPieceDownloaded(Piece piece, SharingPeer peer) {
+  public void notifyPieceDownloaded(Piece piece, PeerInformation peer) {
+    synchronized (myPiecesInFlight) {
+      myPiecesInFlight.remove(piece.getIndex());
+    }
+    myPiecePriorities.pieceDownloaded(piece.getIndex());
     eventDispatcher.multicaster().pieceDownloaded(piece, peer);
   }
 
@@ -474,16 +643,30 @@ public class SharedTorrent implements PeerActivityListener, TorrentMetadata, Tor
     requestsCollection.sendAllRequests();
   }
 
+  /**
+   * @return true if the disk can't keep up with already downloaded data and new pieces shouldn't be requested
+   */
+  private boolean isDiskCongested() {
+    final DiskIoScheduler diskIoScheduler = myDiskIoScheduler;
+    return diskIoScheduler != null && diskIoScheduler.isCongested();
+  }
+
   @NotNull
   private synchronized RequestsCollection getRequestsCollection(final SharingPeer peer) {
     if (myValidationFutures.size() > MAX_VALIDATION_TASK_COUNT) return RequestsCollection.Empty.INSTANCE;
 
+    if (isDiskCongested()) return RequestsCollection.Empty.INSTANCE;
+
     if (this.requestedPieces.cardinality() > MAX_REQUESTED_PIECES_PER_TORRENT) return RequestsCollection.Empty.INSTANCE;
 
-    int completedAndValidated = pieceStorage.getAvailablePieces().cardinality();
+    final BitSet skippedPieces = myPiecePriorities.getSkippedPieces();
+    final BitSet availablePieces = pieceStorage.getAvailablePieces();
+    availablePieces.andNot(skippedPieces);
+    int completedAndValidated = availablePieces.cardinality();
+    int wantedPiecesCount = getPiecesCount() - skippedPieces.cardinality();
 
-    boolean turnOnEndGame = completedAndValidated > getPiecesCount() * ENG_GAME_COMPLETION_RATIO ||
-            completedAndValidated > getPiecesCount() - END_GAME_STATIC_PIECES_COUNT;
+    boolean turnOnEndGame = completedAndValidated > wantedPiecesCount * ENG_GAME_COMPLETION_RATIO ||
+            completedAndValidated > wantedPiecesCount - END_GAME_STATIC_PIECES_COUNT;
     if (turnOnEndGame) {
       long now = System.currentTimeMillis();
       if (now - END_GAME_INVOCATION_PERIOD_MS > endGameEnabledOn) {
@@ -491,41 +674,130 @@ public class SharedTorrent implements PeerActivityListener, TorrentMetadata, Tor
         logger.info("Running end-game mode, currently available {}/{} pieces",
                 pieceStorage.getAvailablePieces().cardinality(),
                 getPieceCount());
-        return endGameStrategy.collectRequests(pieces, myDownloaders);
+        return endGameStrategy.collectRequests(getMissingPieces(skippedPieces), myDownloaders);
       }
       return RequestsCollection.Empty.INSTANCE;
     }
 
     final BitSet interesting = peer.getAvailablePieces();
+    if (interesting.length() > myPiecesCount) {
+      interesting.clear(myPiecesCount, interesting.length());
+    }
     interesting.andNot(this.completedPieces);
     interesting.andNot(this.requestedPieces);
+    interesting.andNot(skippedPieces);
 
     int maxRequestingPieces = Math.min(10, interesting.cardinality());
     int currentlyDownloading = peer.getDownloadingPiecesCount();
     Map<Piece, List<SharingPeer>> toRequest = new HashMap<Piece, List<SharingPeer>>();
+    final Set<PieceDeadline> deadlines = myPiecePriorities.getDeadlines();
+    if (!deadlines.isEmpty() && currentlyDownloading < MAX_DEADLINE_PIECES_PER_PEER) {
+      final List<Integer> timeCritical = myDeadlineStrategy.choosePieces(peer, interesting, this.requestedPieces,
+              this.pieceLength, myDownloaders, deadlines, MAX_DEADLINE_PIECES_PER_PEER - currentlyDownloading,
+              System.currentTimeMillis());
+      for (int index : timeCritical) {
+        this.requestedPieces.set(index);
+        currentlyDownloading++;
+        toRequest.put(getPieceForDownload(index), Collections.singletonList(peer));
+        interesting.clear(index);
+      }
+    }
     while (currentlyDownloading < maxRequestingPieces) {
       if (!peer.isConnected()) {
         break;
       }
 
       if (interesting.cardinality() == 0) {
-        return RequestsCollection.Empty.INSTANCE;
+        break;
       }
 
-      Piece chosen = myRequestStrategy.choosePiece(interesting, pieces);
-      if (chosen == null) {
-        logger.info("chosen piece is null");
+      int chosen = choosePiece(interesting);
+      if (chosen < 0) {
+        logger.info("no piece is chosen");
         break;
       }
-      this.requestedPieces.set(chosen.getIndex());
+      this.requestedPieces.set(chosen);
       currentlyDownloading++;
-      toRequest.put(chosen, Collections.singletonList(peer));
-      interesting.clear(chosen.getIndex());
+      toRequest.put(getPieceForDownload(chosen), Collections.singletonList(peer));
+      interesting.clear(chosen);
     }
 
     return new RequestsCollectionImpl(toRequest);
   }
 
+  /**
+   * Select pieces for downloading from web seed. Web seed has all pieces of the torrent so any piece
+   * which isn't completed and isn't requested from other peers can be selected. Selected pieces
+   * are marked as requested and must be released via {@link #handleWebSeedPieceCompleted(Piece)}
+   * or {@link #cancelWebSeedRequest(Piece)}
+   *
+   * @param maxCount max count of pieces to select
+   * @return selected pieces or empty list if there are no pieces for downloading at the moment
+   */
+  @NotNull
+  public synchronized List<Piece> requestPiecesForWebSeed(int maxCount) {
+    if (!isInitialized() || maxCount <= 0) return Collections.emptyList();
+
+    if (myValidationFutures.size() > MAX_VALIDATION_TASK_COUNT) return Collections.emptyList();
+
+    if (isDiskCongested()) return Collections.emptyList();
+
+    final BitSet interesting = new BitSet(myPiecesCount);
+    interesting.set(0, myPiecesCount);
+    interesting.andNot(this.completedPieces);
+    interesting.andNot(this.requestedPieces);
+    interesting.andNot(myPiecePriorities.getSkippedPieces());
+
+    List<Piece> result = new ArrayList<Piece>();
+    while (result.size() < maxCount && !interesting.isEmpty()) {
+      int chosen = choosePiece(interesting);
+      if (chosen < 0) break;
+      this.requestedPieces.set(chosen);
+      interesting.clear(chosen);
+      result.add(getPieceForDownload(chosen));
+    }
+    return result;
+  }
+
+  /**
+   * chooses urgent piece if there is any interesting urgent piece, then piece of files with high priority,
+   * otherwise delegates to the request strategy
+   */
+  private int choosePiece(BitSet interesting) {
+    final int urgentPiece = myPiecePriorities.chooseUrgentPiece(interesting);
+    if (urgentPiece >= 0) {
+      return urgentPiece;
+    }
+    final int highPriorityPiece = myPiecePriorities.chooseHighPriorityPiece(interesting);
+    if (highPriorityPiece >= 0) {
+      return highPriorityPiece;
+    }
+    return myRequestStrategy.choosePiece(interesting, myPiecesCount);
+  }
+
+  /**
+   * @return pieces which are neither completed nor skipped and which are available at connected peers
+   */
+  private Piece[] getMissingPieces(BitSet skippedPieces) {
+    final BitSet missing = myPieceStates.getAvailablePieces();
+    missing.andNot(this.completedPieces);
+    missing.andNot(skippedPieces);
+    List<Piece> result = new ArrayList<Piece>(missing.cardinality());
+    for (int i = missing.nextSetBit(0); i >= 0; i = missing.nextSetBit(i + 1)) {
+      result.add(getPieceForDownload(i));
+    }
+    return result.toArray(new Piece[result.size()]);
+  }
+
+  public synchronized void cancelWebSeedRequest(Piece piece) {
+    this.requestedPieces.set(piece.getIndex(), false);
+  }
+
+  public synchronized void handleWebSeedPieceCompleted(Piece piece) {
+    myTorrentStatistic.addDownloaded(piece.size());
+    this.requestedPieces.set(piece.getIndex(), false);
+  }
+
   public synchronized void initIfNecessary(SharingPeer peer) {
     if (!isInitialized()) {
       try {
@@ -569,7 +841,7 @@ public class SharedTorrent implements PeerActivityListener, TorrentMetadata, Tor
                     peer.getAvailablePieces().cardinality(),
                     this.completedPieces.cardinality(),
                     this.getAvailablePieces().cardinality(),
-                    this.pieces.length
+                    myPiecesCount
             });
 
     if (!peer.isChoked() &&
@@ -602,10 +874,7 @@ public class SharedTorrent implements PeerActivityListener, TorrentMetadata, Tor
       interesting.andNot(this.requestedPieces);
     }
     // Record the peer has all the pieces it told us it had.
-    for (int i = availablePieces.nextSetBit(0); i >= 0;
-         i = availablePieces.nextSetBit(i + 1)) {
-      this.pieces[i].seenAt(peer);
-    }
+    myPieceStates.seenAt(availablePieces);
 
     if (interesting.cardinality() == 0) {
       peer.notInteresting();
@@ -690,10 +959,7 @@ public class SharedTorrent implements PeerActivityListener, TorrentMetadata, Tor
   public synchronized void handlePeerDisconnected(SharingPeer peer) {
     BitSet availablePieces = peer.getAvailablePieces();
 
-    for (int i = availablePieces.nextSetBit(0); i >= 0;
-         i = availablePieces.nextSetBit(i + 1)) {
-      this.pieces[i].noLongerAt(peer);
-    }
+    myPieceStates.noLongerAt(availablePieces);
 
     Set<Piece> requested = peer.getRequestedPieces();
     if (requested != null) {
@@ -715,7 +981,7 @@ public class SharedTorrent implements PeerActivityListener, TorrentMetadata, Tor
                     peer,
                     availablePieces.cardinality(),
                     this.completedPieces.cardinality(),
-                    this.pieces.length
+                    myPiecesCount
             });
     logger.trace("We now have {} piece(s) and {} outstanding request(s): {}",
             new Object[]{
@@ -767,6 +1033,12 @@ public class SharedTorrent implements PeerActivityListener, TorrentMetadata, Tor
     return myTorrentMetadata.getAnnounce();
   }
 
+  @NotNull
+  @Override
+  public List<String> getWebSeedUrlList() {
+    return myTorrentMetadata.getWebSeedUrlList();
+  }
+
   @Override
   public Optional<Long> getCreationDate() {
     return myTorrentMetadata.getCreationDate();
@@ -812,6 +1084,18 @@ public class SharedTorrent implements PeerActivityListener, TorrentMetadata, Tor
     return myTorrentMetadata.getHexInfoHash();
   }
 
+  @Nullable
+  @Override
+  public byte[] getInfoHashV2() {
+    return myTorrentMetadata.getInfoHashV2();
+  }
+
+  @Nullable
+  @Override
+  public byte[] getPieceLayer(@NotNull byte[] piecesRoot) {
+    return myTorrentMetadata.getPieceLayer(piecesRoot);
+  }
+
   @Override
   public int getPieceCount() {
     return getPiecesCount();
@@ -833,11 +1117,9 @@ public class SharedTorrent implements PeerActivityListener, TorrentMetadata, Tor
 
   public synchronized boolean isAllPiecesOfPeerCompletedAndValidated(SharingPeer peer) {
     final BitSet availablePieces = peer.getAvailablePieces();
-    for (Piece piece : pieces) {
-      final boolean peerHaveCurrentPiece = availablePieces.get(piece.getIndex());
-      if (!peerHaveCurrentPiece) continue;
-      if (!completedPieces.get(piece.getIndex())) return false;
-      if (myValidationFutures.get(piece.getIndex()) != null) return false;
+    for (int i = availablePieces.nextSetBit(0); i >= 0 && i < myPiecesCount; i = availablePieces.nextSetBit(i + 1)) {
+      if (!completedPieces.get(i)) return false;
+      if (myValidationFutures.get(i) != null) return false;
     }
     return true;
   }
@@ -0,0 +1,162 @@
+package com.turn.ttorrent.client;
+
+import com.turn.ttorrent.client.storage.PieceStorage;
+import com.turn.ttorrent.client.strategy.PiecePriorities;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousCloseException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ReadableByteChannel;
+
+/**
+ * Channel for random-access reading of one file of the torrent while the torrent is downloading.
+ * Read blocks until the piece which contains the data is downloaded and validated. Pieces from
+ * the current position to the end of the read-ahead window are marked as urgent, so they
+ * are requested before all other pieces of the torrent.
+ * <p>
+ * Methods of the channel are similar to methods of seekable byte channel. The channel isn't thread-safe
+ * except {@link #close()} method which can be used for interrupting blocked read
+ */
+public class TorrentFileChannel implements ReadableByteChannel {
+
+  private static final int DEFAULT_READ_AHEAD_PIECES = 4;
+  private static final long AVAILABILITY_CHECK_PERIOD_MILLIS = 100;
+
+  private final PieceStorage myPieceStorage;
+  private final PiecePriorities myPiecePriorities;
+  private final EventDispatcher myEventDispatcher;
+  private final long myFileOffset;
+  private final long mySize;
+  private final int myPieceLength;
+  private final Object myMonitor = new Object();
+  private final TorrentListener myListener;
+  private volatile boolean myClosed;
+  private long myPosition;
+  private int myReadAheadPieces = DEFAULT_READ_AHEAD_PIECES;
+  private int myUrgentPiece = -1;
+
+  TorrentFileChannel(@NotNull PieceStorage pieceStorage,
+                     @NotNull PiecePriorities piecePriorities,
+                     @NotNull EventDispatcher eventDispatcher,
+                     long fileOffset,
+                     long size,
+                     int pieceLength) {
+    myPieceStorage = pieceStorage;
+    myPiecePriorities = piecePriorities;
+    myEventDispatcher = eventDispatcher;
+    myFileOffset = fileOffset;
+    mySize = size;
+    myPieceLength = pieceLength;
+    myListener = new TorrentListenerWrapper() {
+      @Override
+      public void pieceDownloaded(PieceInformation pieceInformation, PeerInformation peerInformation) {
+        synchronized (myMonitor) {
+          myMonitor.notifyAll();
+        }
+      }
+    };
+    myEventDispatcher.addListener(myListener);
+  }
+
+  @Override
+  public int read(ByteBuffer dst) throws IOException {
+    ensureOpen();
+    if (myPosition >= mySize) return -1;
+    if (!dst.hasRemaining()) return 0;
+
+    final long torrentOffset = myFileOffset + myPosition;
+    final int pieceIndex = (int) (torrentOffset / myPieceLength);
+    final int offsetInPiece = (int) (torrentOffset % myPieceLength);
+    final int length = (int) Math.min(Math.min(dst.remaining(), myPieceLength - offsetInPiece), mySize - myPosition);
+
+    updateUrgentPieces(pieceIndex);
+    awaitPiece(pieceIndex);
+    dst.put(myPieceStorage.readPiecePart(pieceIndex, offsetInPiece, length));
+    myPosition += length;
+    return length;
+  }
+
+  private void updateUrgentPieces(int pieceIndex) {
+    if (pieceIndex == myUrgentPiece) return;
+    myUrgentPiece = pieceIndex;
+    final int lastPiece = (int) ((myFileOffset + mySize - 1) / myPieceLength);
+    myPiecePriorities.setUrgentRange(this, pieceIndex, Math.min(pieceIndex + myReadAheadPieces, lastPiece + 1));
+  }
+
+  private void awaitPiece(int pieceIndex) throws IOException {
+    synchronized (myMonitor) {
+      // listener is notified before the piece is saved into the storage, so availability is checked periodically
+      while (!myPieceStorage.isPieceAvailable(pieceIndex)) {
+        if (myClosed) {
+          myPiecePriorities.removeUrgentRange(this);
+          throw new AsynchronousCloseException();
+        }
+        try {
+          myMonitor.wait(AVAILABILITY_CHECK_PERIOD_MILLIS);
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          throw new InterruptedIOException("Interrupted while waiting for piece " + pieceIndex);
+        }
+      }
+    }
+  }
+
+  /**
+   * @return current position in the file
+   */
+  public long position() {
+    return myPosition;
+  }
+
+  /**
+   * sets position in the file. Position can be greater than the size, in this case read returns -1
+   *
+   * @return this channel
+   */
+  public TorrentFileChannel position(long newPosition) throws IOException {
+    ensureOpen();
+    if (newPosition < 0) throw new IllegalArgumentException("position must be non-negative");
+    myPosition = newPosition;
+    return this;
+  }
+
+  /**
+   * @return size of the file
+   */
+  public long size() throws IOException {
+    ensureOpen();
+    return mySize;
+  }
+
+  /**
+   * @param readAheadPieces count of pieces starting from the current position which are downloaded with top priority
+   */
+  public void setReadAheadPieces(int readAheadPieces) {
+    if (readAheadPieces <= 0) throw new IllegalArgumentException("read-ahead window must contain at least one piece");
+    myReadAheadPieces = readAheadPieces;
+    myUrgentPiece = -1;
+  }
+
+  @Override
+  public boolean isOpen() {
+    return !myClosed;
+  }
+
+  @Override
+  public void close() {
+    if (myClosed) return;
+    myClosed = true;
+    myPiecePriorities.removeUrgentRange(this);
+    myEventDispatcher.removeListener(myListener);
+    synchronized (myMonitor) {
+      myMonitor.notifyAll();
+    }
+  }
+
+  private void ensureOpen() throws ClosedChannelException {
+    if (myClosed) throw new ClosedChannelException();
+  }
+}
@@ -1,8 +1,10 @@
 package com.turn.ttorrent.client;
 
+import com.turn.ttorrent.client.storage.DiskIoScheduler;
 import com.turn.ttorrent.client.strategy.RequestStrategyImplAnyInteresting;
 import com.turn.ttorrent.common.TorrentMetadata;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
 import java.io.IOException;
 
@@ -10,9 +12,20 @@ public class TorrentLoaderImpl implements TorrentLoader {
 
   @NotNull
   private final TorrentsStorage myTorrentsStorage;
+  @Nullable
+  private final DiskIoScheduler myDiskIoScheduler;
 
   public TorrentLoaderImpl(@NotNull TorrentsStorage torrentsStorage) {
+    this(torrentsStorage, null);
+  }
+
+  /**
+   * @param diskIoScheduler scheduler which performs disk operations of loaded torrents or null
+   *                        if they must be performed in threads of callers
+   */
+  public TorrentLoaderImpl(@NotNull TorrentsStorage torrentsStorage, @Nullable DiskIoScheduler diskIoScheduler) {
     myTorrentsStorage = torrentsStorage;
+    myDiskIoScheduler = diskIoScheduler;
   }
 
   @Override
@@ -35,7 +48,9 @@ public class TorrentLoaderImpl implements TorrentLoader {
 
     final SharedTorrent sharedTorrent = new SharedTorrent(torrentMetadata, loadedTorrent.getPieceStorage(),
             new RequestStrategyImplAnyInteresting(),
-            loadedTorrent.getTorrentStatistic(), loadedTorrent.getEventDispatcher());
+            loadedTorrent.getTorrentStatistic(), loadedTorrent.getEventDispatcher(),
+            loadedTorrent.getPiecePriorities());
+    sharedTorrent.setDiskIoScheduler(myDiskIoScheduler);
 
     old = myTorrentsStorage.putIfAbsentActiveTorrent(hexInfoHash, sharedTorrent);
     if (old != null) {
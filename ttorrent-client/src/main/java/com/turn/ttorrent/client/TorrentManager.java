@@ -1,7 +1,11 @@
 package com.turn.ttorrent.client;
 
+import com.turn.ttorrent.client.strategy.FilePriority;
 import com.turn.ttorrent.common.TorrentHash;
+import org.jetbrains.annotations.NotNull;
 
+import java.io.IOException;
+import java.io.InputStream;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
 
@@ -32,4 +36,91 @@ public interface TorrentManager extends TorrentHash {
    * @throws TimeoutException     if timeout was elapsed
    */
   void awaitDownloadComplete(int timeout, TimeUnit timeUnit) throws InterruptedException, TimeoutException;
+
+  /**
+   * opens channel for reading specified file of the torrent before the torrent is fully downloaded.
+   * Read from the channel blocks until required piece is downloaded and validated, pieces which are read
+   * are downloaded before other pieces. The channel must be closed after usage
+   *
+   * @param fileIndex index of the file in list of files of the torrent's metadata
+   * @return new channel
+   * @throws IllegalArgumentException if the torrent doesn't contain file with specified index
+   * @throws IOException              if unable to load metadata of the torrent
+   */
+  @NotNull
+  TorrentFileChannel openFileChannel(int fileIndex) throws IOException;
+
+  /**
+   * opens input stream for reading specified file of the torrent before the torrent is fully downloaded.
+   *
+   * @param fileIndex index of the file in list of files of the torrent's metadata
+   * @return new input stream over {@link #openFileChannel(int) the file channel}
+   * @throws IllegalArgumentException if the torrent doesn't contain file with specified index
+   * @throws IOException              if unable to load metadata of the torrent
+   */
+  @NotNull
+  InputStream openFileInputStream(int fileIndex) throws IOException;
+
+  /**
+   * sets time by which the piece must be downloaded. Pieces with deadlines are downloaded before other pieces
+   * from the fastest peers, if the deadline is at risk the piece is requested from several peers at the same time
+   *
+   * @param pieceIndex index of the piece
+   * @param timeout    time from now by which the piece must be downloaded
+   * @param timeUnit   the time unit of the timeout argument
+   */
+  void setPieceDeadline(int pieceIndex, long timeout, TimeUnit timeUnit);
+
+  /**
+   * removes deadline of the piece, the piece will be downloaded with usual priority
+   *
+   * @param pieceIndex index of the piece
+   */
+  void removePieceDeadline(int pieceIndex);
+
+  /**
+   * @return count of pieces which were downloaded in time
+   */
+  long getMetDeadlinesCount();
+
+  /**
+   * @return count of pieces which were downloaded after the deadline
+   */
+  long getMissedDeadlinesCount();
+
+  /**
+   * sets download priority of the file. Pieces of skipped files aren't downloaded except pieces
+   * which are shared with wanted files, the data of skipped files from these pieces is kept
+   * in the parts file, so skipped files aren't created on disk. The torrent is completed
+   * when all pieces of wanted files are downloaded
+   *
+   * @param fileIndex index of the file in list of files of the torrent's metadata
+   * @param priority  new priority of the file
+   * @throws IllegalArgumentException if the torrent doesn't contain file with specified index
+   * @throws IOException              if unable to load metadata of the torrent or to update the storage
+   */
+  void setFilePriority(int fileIndex, FilePriority priority) throws IOException;
+
+  /**
+   * @param fileIndex index of the file in list of files of the torrent's metadata
+   * @return download priority of the file
+   * @throws IllegalArgumentException if the torrent doesn't contain file with specified index
+   */
+  FilePriority getFilePriority(int fileIndex);
+
+  /**
+   * @return count of pieces which were re-verified by background scrubbing, zero if scrubbing is disabled
+   * @see CommunicationManager#setScrubbingSpeed(long)
+   */
+  long getScrubbedPiecesCount();
+
+  /**
+   * @return count of downloaded pieces which were found corrupted on disk by background scrubbing
+   */
+  long getCorruptedPiecesCount();
+
+  /**
+   * @return count of completed passes of background scrubbing over all downloaded pieces
+   */
+  long getScrubRoundsCount();
 }
@@ -1,7 +1,20 @@
 package com.turn.ttorrent.client;
 
+import com.turn.ttorrent.client.storage.PieceScrubber;
+import com.turn.ttorrent.client.storage.PieceStorage;
+import com.turn.ttorrent.client.storage.SelectiveFileStorage;
+import com.turn.ttorrent.client.storage.StorageUtils;
+import com.turn.ttorrent.client.strategy.FilePriority;
+import com.turn.ttorrent.client.strategy.PiecePriorities;
+import com.turn.ttorrent.common.TorrentFile;
 import com.turn.ttorrent.common.TorrentHash;
+import com.turn.ttorrent.common.TorrentMetadata;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.Channels;
 import java.util.List;
 import java.util.concurrent.Semaphore;
 import java.util.concurrent.TimeUnit;
@@ -11,10 +24,15 @@ class TorrentManagerImpl implements TorrentManager {
 
   private final EventDispatcher eventDispatcher;
   private final TorrentHash hash;
+  private final LoadedTorrent loadedTorrent;
+  @Nullable
+  private final PieceScrubber scrubber;
 
-  TorrentManagerImpl(EventDispatcher eventDispatcher, TorrentHash hash) {
-    this.eventDispatcher = eventDispatcher;
-    this.hash = hash;
+  TorrentManagerImpl(LoadedTorrent loadedTorrent, @Nullable PieceScrubber scrubber) {
+    this.eventDispatcher = loadedTorrent.getEventDispatcher();
+    this.hash = loadedTorrent.getTorrentHash();
+    this.loadedTorrent = loadedTorrent;
+    this.scrubber = scrubber;
   }
 
   @Override
@@ -55,4 +73,90 @@ class TorrentManagerImpl implements TorrentManager {
       removeListener(listener);
     }
   }
+
+  @NotNull
+  @Override
+  public TorrentFileChannel openFileChannel(int fileIndex) throws IOException {
+    final TorrentMetadata metadata = getMetadata();
+    final List<TorrentFile> files = metadata.getFiles();
+    if (fileIndex < 0 || fileIndex >= files.size()) {
+      throw new IllegalArgumentException("Torrent " + hash.getHexInfoHash() + " doesn't contain file #" + fileIndex);
+    }
+    long fileOffset = 0;
+    for (int i = 0; i < fileIndex; i++) {
+      fileOffset += files.get(i).size;
+    }
+    return new TorrentFileChannel(loadedTorrent.getPieceStorage(), loadedTorrent.getPiecePriorities(),
+            eventDispatcher, fileOffset, files.get(fileIndex).size, metadata.getPieceLength());
+  }
+
+  @NotNull
+  @Override
+  public InputStream openFileInputStream(int fileIndex) throws IOException {
+    return Channels.newInputStream(openFileChannel(fileIndex));
+  }
+
+  @Override
+  public void setPieceDeadline(int pieceIndex, long timeout, TimeUnit timeUnit) {
+    loadedTorrent.getPiecePriorities().setDeadline(pieceIndex, System.currentTimeMillis() + timeUnit.toMillis(timeout));
+  }
+
+  @Override
+  public void removePieceDeadline(int pieceIndex) {
+    loadedTorrent.getPiecePriorities().removeDeadline(pieceIndex);
+  }
+
+  @Override
+  public long getMetDeadlinesCount() {
+    return loadedTorrent.getPiecePriorities().getMetDeadlinesCount();
+  }
+
+  @Override
+  public long getMissedDeadlinesCount() {
+    return loadedTorrent.getPiecePriorities().getMissedDeadlinesCount();
+  }
+
+  @Override
+  public void setFilePriority(int fileIndex, FilePriority priority) throws IOException {
+    final TorrentMetadata metadata = getMetadata();
+    final PiecePriorities piecePriorities = loadedTorrent.getPiecePriorities();
+    final PieceStorage pieceStorage = loadedTorrent.getPieceStorage();
+    piecePriorities.setFilePriority(fileIndex, priority);
+    final SelectiveFileStorage files = StorageUtils.find(pieceStorage, SelectiveFileStorage.class);
+    if (files != null) {
+      files.setFileSkipped(fileIndex, priority == FilePriority.SKIP);
+    }
+    if (!pieceStorage.isFinished()) {
+      loadedTorrent.getTorrentStatistic().setLeft(
+              CommunicationManager.calculateLeft(pieceStorage, metadata, piecePriorities.getSkippedPieces()));
+    }
+  }
+
+  @Override
+  public FilePriority getFilePriority(int fileIndex) {
+    return loadedTorrent.getPiecePriorities().getFilePriority(fileIndex);
+  }
+
+  @Override
+  public long getScrubbedPiecesCount() {
+    return scrubber == null ? 0 : scrubber.getScrubbedPiecesCount();
+  }
+
+  @Override
+  public long getCorruptedPiecesCount() {
+    return scrubber == null ? 0 : scrubber.getCorruptedPiecesCount();
+  }
+
+  @Override
+  public long getScrubRoundsCount() {
+    return scrubber == null ? 0 : scrubber.getCompletedRoundsCount();
+  }
+
+  private TorrentMetadata getMetadata() throws IOException {
+    try {
+      return loadedTorrent.getMetadata();
+    } catch (IllegalStateException e) {
+      throw new IOException(e.getMessage(), e);
+    }
+  }
 }
@@ -0,0 +1,19 @@
+package com.turn.ttorrent.client;
+
+/**
+ * Optional interface of {@link TorrentListener} which is notified about progress of the check
+ * of torrent's data. Progress is reported only for torrents whose data is checked by
+ * {@link com.turn.ttorrent.client.storage.CheckingPieceStorageFactory}
+ */
+public interface ValidationProgressListener {
+
+  /**
+   * Invoked periodically while data of the torrent is validated before
+   * {@link TorrentListener#validationComplete(int, int)}
+   *
+   * @param checkedPieces count of already checked pieces
+   * @param totalPieces   count of pieces which must be checked
+   */
+  void validationProgress(int checkedPieces, int totalPieces);
+
+}
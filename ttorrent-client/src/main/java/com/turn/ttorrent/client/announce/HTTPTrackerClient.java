@@ -15,8 +15,7 @@
  */
 package com.turn.ttorrent.client.announce;
 
-import com.turn.ttorrent.bcodec.BDecoder;
-import com.turn.ttorrent.bcodec.BEValue;
+import com.turn.ttorrent.bcodec.BReader;
 import com.turn.ttorrent.common.AnnounceableInformation;
 import com.turn.ttorrent.common.LoggerUtils;
 import com.turn.ttorrent.common.Peer;
@@ -26,12 +25,14 @@ import com.turn.ttorrent.common.protocol.TrackerMessage.MessageValidationExcepti
 import com.turn.ttorrent.common.protocol.http.HTTPAnnounceRequestMessage;
 import com.turn.ttorrent.common.protocol.http.HTTPAnnounceResponseMessage;
 import com.turn.ttorrent.common.protocol.http.HTTPTrackerMessage;
+import org.apache.commons.io.IOUtils;
 import org.slf4j.Logger;
 
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.UnsupportedEncodingException;
 import java.net.*;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -134,15 +135,14 @@ public class HTTPTrackerClient extends TrackerClient {
             return;
           }
 
-          final BEValue bdecode = BDecoder.bdecode(inputStream);
-          if (bdecode == null) {
+          final BReader reader = new BReader(ByteBuffer.wrap(IOUtils.toByteArray(inputStream)));
+          if (reader.next() != BReader.Token.LIST_START) {
             logger.info("tracker sent bad response for multi announce message.");
             logger.debug(bodyStr);
             return;
           }
-          final List<BEValue> list = bdecode.getList();
-          for (BEValue value : list) {
-            responsesForCurrentIp.add(HTTPTrackerMessage.parse(value));
+          while (reader.next() != BReader.Token.LIST_END) {
+            responsesForCurrentIp.add(HTTPTrackerMessage.parse(reader));
           }
         }
       });
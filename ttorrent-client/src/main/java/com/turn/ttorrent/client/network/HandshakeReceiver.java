@@ -79,6 +79,11 @@ public class HandshakeReceiver implements DataProcessor {
       return new ShutdownProcessor().processAndGetNext(socketChannel);
     }
 
+    if (myContext.getPeersStorage().isBanned(myHostAddress)) {
+      logger.debug("Peer {} is banned, close connection", myHostAddress);
+      return new ShutdownProcessor().processAndGetNext(socketChannel);
+    }
+
     final LoadedTorrent announceableTorrent = myContext.getTorrentsStorage().getLoadedTorrent(hs.getHexInfoHash());
 
     if (announceableTorrent == null) {
@@ -112,6 +117,7 @@ public class HandshakeReceiver implements DataProcessor {
                     socketChannel,
                     clientType,
                     clientVersion);
+    sharingPeer.setV2Supported(hs.isV2Supported());
     PeerUID peerUID = new PeerUID(sharingPeer.getAddress(), hs.getHexInfoHash());
 
     SharingPeer old = myContext.getPeersStorage().putIfAbsent(peerUID, sharingPeer);
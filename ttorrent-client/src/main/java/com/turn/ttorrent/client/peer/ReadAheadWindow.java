@@ -0,0 +1,30 @@
+package com.turn.ttorrent.client.peer;
+
+/**
+ * Tracks order of pieces requested by a peer and decides how many following pieces should be read
+ * into the cache in advance. The window is doubled while the peer requests pieces one by one
+ * and it's closed when the peer requests a piece out of order, e.g. the rarest one.
+ */
+class ReadAheadWindow {
+
+  static final int MAX_PIECES = 8;
+
+  private int myLastPiece = -1;
+  private int myWindow = 0;
+
+  /**
+   * @param pieceIndex index of the piece of the received request
+   * @return count of pieces after the requested one which should be read in advance
+   * or zero if the piece was already requested by the previous request
+   */
+  synchronized int pieceRequested(int pieceIndex) {
+    if (pieceIndex == myLastPiece) return 0;
+    if (myLastPiece >= 0 && pieceIndex == myLastPiece + 1) {
+      myWindow = myWindow == 0 ? 1 : Math.min(myWindow * 2, MAX_PIECES);
+    } else {
+      myWindow = 0;
+    }
+    myLastPiece = pieceIndex;
+    return myWindow;
+  }
+}
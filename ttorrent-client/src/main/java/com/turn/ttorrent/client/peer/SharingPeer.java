@@ -18,7 +18,10 @@ package com.turn.ttorrent.client.peer;
 import com.turn.ttorrent.client.PeerInformation;
 import com.turn.ttorrent.client.Piece;
 import com.turn.ttorrent.client.SharedTorrent;
+import com.turn.ttorrent.client.storage.DiskIoScheduler;
 import com.turn.ttorrent.common.LoggerUtils;
+import com.turn.ttorrent.common.MerklePieceInfo;
+import com.turn.ttorrent.common.MerkleTree;
 import com.turn.ttorrent.common.Peer;
 import com.turn.ttorrent.common.TorrentLoggerFactory;
 import com.turn.ttorrent.common.TorrentUtils;
@@ -75,6 +78,12 @@ public class SharingPeer extends Peer implements MessageListener, PeerInformatio
 
   private static final Logger logger = TorrentLoggerFactory.getLogger(SharingPeer.class);
 
+  /**
+   * Max count of blocks which didn't match hashes of blocks of v2 torrent. Connection with the peer
+   * is closed when the peer sends more invalid blocks
+   */
+  private static final int MAX_INVALID_BLOCKS = 5;
+
   private final Object availablePiecesLock;
   private volatile boolean choking;
   private volatile boolean interesting;
@@ -102,6 +111,10 @@ public class SharingPeer extends Peer implements MessageListener, PeerInformatio
   private final String clientIdentifier;
   private final int clientVersion;
 
+  private volatile boolean v2Supported;
+  private final AtomicInteger invalidBlocksCount;
+  private final ReadAheadWindow readAheadWindow;
+
   /**
    * Create a new sharing peer on a given torrent.
    *  @param ip      The peer's IP address.
@@ -144,6 +157,8 @@ public class SharingPeer extends Peer implements MessageListener, PeerInformatio
     this.interested = false;
     this.downloading = false;
     this.downloadedPiecesCount = new AtomicInteger();
+    this.invalidBlocksCount = new AtomicInteger();
+    this.readAheadWindow = new ReadAheadWindow();
   }
 
   public Rate getDLRate() {
@@ -185,6 +200,17 @@ public class SharingPeer extends Peer implements MessageListener, PeerInformatio
     return clientVersion;
   }
 
+  /**
+   * @return true if the peer supports v2 torrents and can send hashes of blocks
+   */
+  public boolean isV2Supported() {
+    return v2Supported;
+  }
+
+  public void setV2Supported(boolean v2Supported) {
+    this.v2Supported = v2Supported;
+  }
+
   public void onConnectionEstablished() {
     firePeerConnected();
     BitSet pieces = this.torrent.getCompletedPieces();
@@ -391,11 +417,60 @@ public class SharingPeer extends Peer implements MessageListener, PeerInformatio
       myRequestedPieces.put(piece, requestedBlocksCount);
       this.downloading = myRequestedPieces.size() > 0;
     }
+    final MerklePieceInfo merkleInfo = piece.getMerkleInfo();
+    if (this.v2Supported && merkleInfo != null && !piece.hasBlockHashes() && merkleInfo.getBlocksCount() > 1) {
+      // hashes of blocks allow to verify each block when it's received.
+      // Count of blocks is power of two, so large pieces are requested in parts of max allowed length
+      final int blocksCount = merkleInfo.getBlocksCount();
+      final int partLength = Math.min(blocksCount, PeerMessage.HashRequestMessage.MAX_LENGTH);
+      for (int block = 0; block < blocksCount; block += partLength) {
+        this.send(PeerMessage.HashRequestMessage.craft(merkleInfo.getPiecesRoot(), 0,
+                merkleInfo.getFirstBlockIndex() + block, partLength, 0));
+      }
+    }
     for (PeerMessage.RequestMessage requestMessage : toSend) {
       this.send(requestMessage);
     }
   }
 
+  /**
+   * Requests blocks of the piece again, it's used when received blocks don't match hashes of blocks
+   *
+   * @param piece   the piece
+   * @param offsets offsets of blocks in the piece
+   */
+  private void requestBlocksAgain(final Piece piece, List<Integer> offsets) {
+    if (offsets.isEmpty()) return;
+    List<PeerMessage.RequestMessage> toSend = new ArrayList<PeerMessage.RequestMessage>();
+    synchronized (this.requestsLock) {
+      Integer requestedBlocksCount = myRequestedPieces.get(piece);
+      myRequestedPieces.put(piece, (requestedBlocksCount == null ? 0 : requestedBlocksCount) + offsets.size());
+      this.downloading = true;
+      for (Integer offset : offsets) {
+        toSend.add(PeerMessage.RequestMessage.craft(piece.getIndex(), offset,
+                Math.min((int) (piece.size() - offset), PeerMessage.RequestMessage.DEFAULT_REQUEST_SIZE)));
+      }
+    }
+    for (PeerMessage.RequestMessage requestMessage : toSend) {
+      this.send(requestMessage);
+    }
+  }
+
+  /**
+   * @return false if the peer sent too many invalid blocks and connection with the peer was closed
+   */
+  private boolean invalidBlockReceived(Piece piece, int offset) {
+    final int invalidBlocks = this.invalidBlocksCount.incrementAndGet();
+    logger.debug("Block {} of piece {} from {} doesn't match hashes of blocks",
+            new Object[]{offset, piece.getIndex(), this});
+    if (invalidBlocks > MAX_INVALID_BLOCKS) {
+      logger.info("Peer {} sent {} invalid blocks, terminating exchange", this, invalidBlocks);
+      this.unbind(true);
+      return false;
+    }
+    return true;
+  }
+
   public boolean isDownloading() {
     return this.downloading;
   }
@@ -411,12 +486,13 @@ public class SharingPeer extends Peer implements MessageListener, PeerInformatio
    * </p>
    *
    * @param piece The piece of PIECE message received.
+   * @return false if the piece isn't requested from this peer
    */
-  private void removeBlockRequest(final Piece piece) {
+  private boolean removeBlockRequest(final Piece piece) {
     synchronized (this.requestsLock) {
       Integer requestedBlocksCount = myRequestedPieces.get(piece);
       if (requestedBlocksCount == null) {
-        return;
+        return false;
       }
       if (requestedBlocksCount <= 1) {
         //it's last block
@@ -425,6 +501,7 @@ public class SharingPeer extends Peer implements MessageListener, PeerInformatio
         myRequestedPieces.put(piece, requestedBlocksCount - 1);
       }
       this.downloading = myRequestedPieces.size() > 0;
+      return true;
     }
   }
 
@@ -572,6 +649,16 @@ public class SharingPeer extends Peer implements MessageListener, PeerInformatio
 
         // At this point we agree to send the requested piece block to
         // the remote peer, so let's queue a message with that block
+        final DiskIoScheduler diskIoScheduler = this.torrent.getDiskIoScheduler();
+        if (diskIoScheduler != null) {
+          sendBlockAsync(rp, request, diskIoScheduler);
+          // peers which download pieces in order get following pieces from the cache
+          final int readAheadPieces = this.readAheadWindow.pieceRequested(request.getPiece());
+          for (int i = 1; i <= readAheadPieces; i++) {
+            this.torrent.readAhead(request.getPiece() + i);
+          }
+          break;
+        }
         try {
 
           ByteBuffer bufferForMessage = PeerMessage.PieceMessage.createBufferWithHeaderForMessage(
@@ -616,15 +703,27 @@ public class SharingPeer extends Peer implements MessageListener, PeerInformatio
           synchronized (p) {
             // Remove the corresponding request from the request queue to
             //  make room for next block requests.
-            this.removeBlockRequest(p);
+            final boolean requested = this.removeBlockRequest(p);
             if (p.isValid()) {
               this.cancelPendingRequests(p);
               this.firePeerReady();
               logger.trace("Discarding block for already completed " + p);
               break;
             }
+            if (!requested) {
+              // requests were cancelled, e.g. on choke. Only the piece which is being downloaded keeps received blocks
+              logger.trace("Discarding block for not requested " + p);
+              break;
+            }
             //TODO add proper catch for IOException
-            p.record(piece.getBlock(), piece.getOffset());
+            final int blockLength = piece.getBlock().remaining();
+            p.record(piece.getBlock(), piece.getOffset(), this);
+            if (!p.verifyBlock(piece.getOffset(), blockLength)) {
+              if (invalidBlockReceived(p, piece.getOffset())) {
+                this.requestBlocksAgain(p, Collections.singletonList(piece.getOffset()));
+              }
+              break;
+            }
 
             // If the block offset equals the piece size and the block
             // length is 0, it means the piece has been entirely
@@ -648,9 +747,73 @@ public class SharingPeer extends Peer implements MessageListener, PeerInformatio
       case CANCEL:
         // No need to support
         break;
+      case HASH_REQUEST:
+        handleHashRequest((PeerMessage.HashRequestMessage) msg);
+        break;
+      case HASHES:
+        handleHashes((PeerMessage.HashesMessage) msg);
+        break;
+      case HASH_REJECT:
+        logger.debug("Peer {} rejected request {}", this, msg);
+        break;
+    }
+  }
+
+  private void handleHashRequest(PeerMessage.HashRequestMessage request) {
+    final Piece piece = this.torrent.getPieceByBlock(request.getPiecesRoot(), request.getIndex());
+    final MerklePieceInfo merkleInfo = piece == null ? null : piece.getMerkleInfo();
+    final int length = request.getLength();
+    final int firstBlock = merkleInfo == null ? -1 : request.getIndex() - merkleInfo.getFirstBlockIndex();
+    // only requests for blocks inside one piece are supported, BEP 52 limits length and alignment of requests
+    if (piece == null || merkleInfo == null || !piece.isValid() ||
+            request.getBaseLayer() != 0 ||
+            length > PeerMessage.HashRequestMessage.MAX_LENGTH || Integer.bitCount(length) != 1 ||
+            request.getIndex() % length != 0 ||
+            firstBlock < 0 || firstBlock + length > merkleInfo.getBlocksCount()) {
+      this.send(PeerMessage.HashRejectMessage.craft(request));
+      return;
+    }
+    try {
+      final byte[] blockHashes = piece.calculateBlockHashes();
+      // proof contains uncles inside the piece's subtree, then uncles of the piece in the file's tree
+      final int partLevel = MerkleTree.log2(length);
+      final byte[] partRoots = MerkleTree.upperLayer(blockHashes, length, 0);
+      final byte[] pieceUncles = MerkleTree.uncles(partRoots, partLevel, firstBlock / length, request.getProofLayers());
+      final byte[] fileUncles = merkleInfo.getUncleHashes(
+              request.getProofLayers() - pieceUncles.length / MerkleTree.HASH_SIZE);
+      final int partSize = length * MerkleTree.HASH_SIZE;
+      final byte[] hashes = new byte[partSize + pieceUncles.length + fileUncles.length];
+      System.arraycopy(blockHashes, firstBlock * MerkleTree.HASH_SIZE, hashes, 0, partSize);
+      System.arraycopy(pieceUncles, 0, hashes, partSize, pieceUncles.length);
+      System.arraycopy(fileUncles, 0, hashes, partSize + pieceUncles.length, fileUncles.length);
+      this.send(PeerMessage.HashesMessage.craft(request.getPiecesRoot(), request.getBaseLayer(),
+              request.getIndex(), request.getLength(), request.getProofLayers(), hashes));
+    } catch (IOException ioe) {
+      LoggerUtils.warnAndDebugDetails(logger, "unable to calculate hashes of blocks of piece {}", piece, ioe);
+      this.send(PeerMessage.HashRejectMessage.craft(request));
     }
   }
 
+  private void handleHashes(PeerMessage.HashesMessage hashes) {
+    final Piece piece = this.torrent.getPieceByBlock(hashes.getPiecesRoot(), hashes.getIndex());
+    final MerklePieceInfo merkleInfo = piece == null ? null : piece.getMerkleInfo();
+    if (piece == null || merkleInfo == null || hashes.getBaseLayer() != 0) return;
+    final int firstBlock = hashes.getIndex() - merkleInfo.getFirstBlockIndex();
+    final List<Integer> invalidBlocks;
+    synchronized (piece) {
+      if (piece.isValid() || piece.hasBlockHashes() ||
+              !piece.addBlockHashes(firstBlock, hashes.getBaseLayerHashes())) {
+        return;
+      }
+      // blocks received before hashes are verified now
+      invalidBlocks = piece.removeInvalidBlocks();
+    }
+    for (Integer offset : invalidBlocks) {
+      if (!invalidBlockReceived(piece, offset)) return;
+    }
+    requestBlocksAgain(piece, invalidBlocks);
+  }
+
   /**
    * Fire the peer choked event to all registered listeners.
    * <p/>
@@ -703,6 +866,43 @@ public class SharingPeer extends Peer implements MessageListener, PeerInformatio
     }
   }
 
+  /**
+   * Queues read of the requested block in the disk I/O scheduler and sends the block
+   * when it's read, so handling of peer's messages isn't blocked by the disk.
+   */
+  private void sendBlockAsync(final Piece piece, final PeerMessage.RequestMessage request, DiskIoScheduler diskIoScheduler) {
+    piece.read(request.getOffset(), request.getLength(), diskIoScheduler, new DiskIoScheduler.ReadCallback() {
+      @Override
+      public void onRead(byte[] data) {
+        if (!isConnected()) return;
+        ByteBuffer bufferForMessage = PeerMessage.PieceMessage.createBufferWithHeaderForMessage(
+                request.getPiece(), request.getOffset(), request.getLength());
+        bufferForMessage.put(data);
+        bufferForMessage.rewind();
+
+        send(PeerMessage.PieceMessage.craft(request.getPiece(),
+                request.getOffset(), bufferForMessage));
+        upload.add(request.getLength());
+
+        if (request.getOffset() + request.getLength() == piece.size()) {
+          firePieceSent(piece);
+        }
+      }
+
+      @Override
+      public void onFailure(Throwable e) {
+        if (e instanceof IllegalArgumentException) {
+          // piece was marked as unavailable after the request was accepted
+          logger.debug("Piece {} requested by {} isn't available anymore", piece.getIndex(), SharingPeer.this);
+          return;
+        }
+        logger.debug("error", e);
+        fireIOException(new IOException(
+                "Error while sending piece block request!", e));
+      }
+    });
+  }
+
   /**
    * Fire the piece sent event to all registered listeners.
    * <p/>
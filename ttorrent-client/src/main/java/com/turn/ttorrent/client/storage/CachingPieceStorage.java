@@ -0,0 +1,220 @@
+package com.turn.ttorrent.client.storage;
+
+import com.turn.ttorrent.common.TorrentMetadata;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.BitSet;
+import java.util.concurrent.*;
+
+/**
+ * Piece storage which serves reads of pieces from {@link PieceCache}. Piece is read from the delegate
+ * as a whole when its part is requested at first time, so following requests of other blocks of the piece
+ * and requests of other peers don't touch the disk. Concurrent requests of a piece which isn't cached
+ * wait for the same read, so the piece is read from the delegate only once.
+ */
+public class CachingPieceStorage implements PieceStorage, DecoratingStorage {
+
+  private final PieceStorage myDelegate;
+  private final PieceCache myCache;
+  private final PieceValidator myPieceLengths;
+  private final boolean myCacheSavedPieces;
+  private final PieceStorage myUncachedView = new UncachedView();
+  // reads of whole pieces which are in progress
+  private final ConcurrentMap<Integer, FutureTask<byte[]>> myLoads = new ConcurrentHashMap<Integer, FutureTask<byte[]>>();
+
+  /**
+   * @param cacheSavedPieces true if downloaded pieces must be put into the cache when they are saved,
+   *                         such pieces are likely requested by other peers soon
+   */
+  public CachingPieceStorage(PieceStorage delegate, TorrentMetadata metadata, PieceCache cache, boolean cacheSavedPieces) {
+    myDelegate = delegate;
+    myCache = cache;
+    myPieceLengths = new PieceValidator(metadata);
+    myCacheSavedPieces = cacheSavedPieces;
+  }
+
+  @Override
+  public void savePiece(int pieceIndex, byte[] pieceData) throws IOException {
+    invalidate(pieceIndex);
+    myDelegate.savePiece(pieceIndex, pieceData);
+    // pieces which were read while the piece was saved aren't cached
+    myLoads.remove(pieceIndex);
+    if (myCacheSavedPieces) {
+      myCache.put(this, pieceIndex, pieceData);
+    }
+  }
+
+  @Override
+  public byte[] readPiecePart(int pieceIndex, int offset, int length) throws IOException {
+    final byte[] cached = myCache.read(this, pieceIndex, offset, length);
+    if (cached != null) return cached;
+    final int pieceLength = myPieceLengths.getPieceLength(pieceIndex);
+    if (pieceLength > myCache.getMaxBytes() || offset + length > pieceLength) {
+      return myDelegate.readPiecePart(pieceIndex, offset, length);
+    }
+    final byte[] piece = loadPiece(pieceIndex, pieceLength);
+    if (offset == 0 && length == pieceLength) return piece;
+    final byte[] result = new byte[length];
+    System.arraycopy(piece, offset, result, 0, length);
+    return result;
+  }
+
+  /**
+   * Reads the whole piece from the delegate and puts it into the cache. If the piece is being read
+   * by another thread, waits for that read
+   */
+  private byte[] loadPiece(final int pieceIndex, final int pieceLength) throws IOException {
+    final FutureTask<byte[]> load = new FutureTask<byte[]>(new Callable<byte[]>() {
+      @Override
+      public byte[] call() throws IOException {
+        return myDelegate.readPiecePart(pieceIndex, 0, pieceLength);
+      }
+    });
+    final FutureTask<byte[]> existing = myLoads.putIfAbsent(pieceIndex, load);
+    if (existing != null) {
+      return awaitLoad(existing);
+    }
+    try {
+      load.run();
+      final byte[] piece = awaitLoad(load);
+      // the piece isn't cached if it was changed or invalidated while it was read
+      if (myLoads.remove(pieceIndex, load)) {
+        myCache.put(this, pieceIndex, piece);
+      }
+      return piece;
+    } finally {
+      myLoads.remove(pieceIndex, load);
+    }
+  }
+
+  private static byte[] awaitLoad(FutureTask<byte[]> load) throws IOException {
+    try {
+      return load.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted while waiting for read of piece");
+    } catch (ExecutionException e) {
+      final Throwable cause = e.getCause();
+      if (cause instanceof IOException) throw (IOException) cause;
+      if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+      if (cause instanceof Error) throw (Error) cause;
+      throw new IOException(cause);
+    }
+  }
+
+  private void invalidate(int pieceIndex) {
+    myLoads.remove(pieceIndex);
+    myCache.invalidate(this, pieceIndex);
+  }
+
+  public boolean isPieceCached(int pieceIndex) {
+    return myCache.contains(this, pieceIndex);
+  }
+
+  /**
+   * @return view of this storage which reads data from the delegate bypassing the cache, e.g. for verification
+   * of data on disk. Other operations of the view are performed by this storage
+   */
+  public PieceStorage getUncachedView() {
+    return myUncachedView;
+  }
+
+  @Override
+  public BitSet getAvailablePieces() {
+    return myDelegate.getAvailablePieces();
+  }
+
+  @Override
+  public boolean isPieceAvailable(int pieceIndex) {
+    return myDelegate.isPieceAvailable(pieceIndex);
+  }
+
+  @Override
+  public int nextAvailablePiece(int fromIndex) {
+    return myDelegate.nextAvailablePiece(fromIndex);
+  }
+
+  @Override
+  public boolean isFinished() {
+    return myDelegate.isFinished();
+  }
+
+  @Override
+  public void closeFully() throws IOException {
+    myLoads.clear();
+    myCache.invalidateAll(this);
+    myDelegate.closeFully();
+  }
+
+  @Override
+  public Object getDecorated() {
+    return myDelegate;
+  }
+
+  @Override
+  public void markPieceUnavailable(int pieceIndex) throws IOException {
+    invalidate(pieceIndex);
+    myDelegate.markPieceUnavailable(pieceIndex);
+  }
+
+  @Override
+  public void close() throws IOException {
+    myLoads.clear();
+    myCache.invalidateAll(this);
+    myDelegate.close();
+  }
+
+  private class UncachedView implements PieceStorage, DecoratingStorage {
+
+    @Override
+    public void savePiece(int pieceIndex, byte[] pieceData) throws IOException {
+      CachingPieceStorage.this.savePiece(pieceIndex, pieceData);
+    }
+
+    @Override
+    public byte[] readPiecePart(int pieceIndex, int offset, int length) throws IOException {
+      return myDelegate.readPiecePart(pieceIndex, offset, length);
+    }
+
+    @Override
+    public BitSet getAvailablePieces() {
+      return CachingPieceStorage.this.getAvailablePieces();
+    }
+
+    @Override
+    public boolean isPieceAvailable(int pieceIndex) {
+      return CachingPieceStorage.this.isPieceAvailable(pieceIndex);
+    }
+
+    @Override
+    public int nextAvailablePiece(int fromIndex) {
+      return CachingPieceStorage.this.nextAvailablePiece(fromIndex);
+    }
+
+    @Override
+    public boolean isFinished() {
+      return CachingPieceStorage.this.isFinished();
+    }
+
+    @Override
+    public void closeFully() throws IOException {
+      CachingPieceStorage.this.closeFully();
+    }
+
+    @Override
+    public Object getDecorated() {
+      return CachingPieceStorage.this;
+    }
+
+    @Override
+    public void markPieceUnavailable(int pieceIndex) throws IOException {
+      CachingPieceStorage.this.markPieceUnavailable(pieceIndex);
+    }
+
+    @Override
+    public void close() throws IOException {
+      CachingPieceStorage.this.close();
+    }
+  }
+}
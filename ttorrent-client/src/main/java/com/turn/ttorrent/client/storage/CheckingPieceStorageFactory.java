@@ -0,0 +1,22 @@
+package com.turn.ttorrent.client.storage;
+
+import com.turn.ttorrent.common.TorrentMetadata;
+
+import java.io.IOException;
+
+/**
+ * Factory which checks data of pieces while creating the storage. Progress of the check is reported
+ * to the listener and the check can be cancelled via the listener
+ */
+public interface CheckingPieceStorageFactory extends PieceStorageFactory {
+
+  /**
+   * @param metadata    specified metadata
+   * @param byteStorage specified byte storage where will be stored pieces
+   * @param listener    listener of the check
+   * @return new {@link PieceStorage}
+   * @throws java.io.InterruptedIOException if the check is cancelled
+   */
+  PieceStorage createStorage(TorrentMetadata metadata, TorrentByteStorage byteStorage, PiecesCheckListener listener) throws IOException;
+
+}
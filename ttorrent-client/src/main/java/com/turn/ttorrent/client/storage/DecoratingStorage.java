@@ -0,0 +1,13 @@
+package com.turn.ttorrent.client.storage;
+
+/**
+ * Storage which wraps another storage. It allows to find optional interfaces of the wrapped storage,
+ * see {@link StorageUtils#find(Object, Class)}
+ */
+public interface DecoratingStorage {
+
+  /**
+   * @return the wrapped storage
+   */
+  Object getDecorated();
+}
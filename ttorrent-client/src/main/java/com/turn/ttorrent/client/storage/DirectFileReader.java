@@ -0,0 +1,211 @@
+package com.turn.ttorrent.client.storage;
+
+import com.turn.ttorrent.common.TorrentLoggerFactory;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.slf4j.Logger;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.Array;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Reads a file with direct I/O (O_DIRECT), bypassing the page cache of the OS. It's used for seeding
+ * of big torrents, when data read for peers mustn't evict memory of other processes from the page cache.
+ * <p>
+ * Direct I/O requires positions, lengths and memory addresses of reads aligned to the block size
+ * of the file system, so the smallest aligned span which contains requested bytes is read into an aligned
+ * buffer and requested bytes are copied from it. Buffers are shared by all readers and reused.
+ * <p>
+ * The file is opened with {@code com.sun.nio.file.ExtendedOpenOption.DIRECT} (JDK 10+) and buffers are
+ * aligned with {@code ByteBuffer.alignedSlice} (JDK 9+), both are accessed via reflection. If they aren't
+ * available or the file system doesn't support direct I/O, {@link #open(File)} returns null and the file
+ * must be read as usual through the page cache.
+ * <p>
+ * Readers are opened and closed by {@link FileChannelPool}, so they are counted in the limit of open files.
+ */
+class DirectFileReader implements Closeable {
+
+  private static final Logger logger =
+          TorrentLoggerFactory.getLogger(DirectFileReader.class);
+
+  // buffers are aligned to max supported block size, so they can be used with any file system
+  private static final int MAX_BLOCK_SIZE = 64 * 1024;
+  private static final int BUFFER_SIZE = 256 * 1024;
+  private static final int MAX_POOLED_BUFFERS = 16;
+
+  private static final Queue<ByteBuffer> ourBuffers = new ConcurrentLinkedQueue<ByteBuffer>();
+  private static final AtomicInteger ourPooledBuffers = new AtomicInteger();
+
+  @Nullable
+  private static final Reflection ourReflection = Reflection.create();
+
+  private final FileChannel myChannel;
+  private final int myBlockSize;
+
+  private DirectFileReader(FileChannel channel, int blockSize) {
+    myChannel = channel;
+    myBlockSize = blockSize;
+  }
+
+  /**
+   * @return reader of the file or null if the file can't be opened for direct I/O
+   * @throws IOException if the file can't be opened at all
+   */
+  @Nullable
+  static DirectFileReader open(@NotNull File file) throws IOException {
+    final Reflection reflection = ourReflection;
+    if (reflection == null) return null;
+    final int blockSize;
+    final FileChannel channel;
+    try {
+      final Object path = reflection.toPath.invoke(file);
+      blockSize = ((Long) reflection.getBlockSize.invoke(reflection.getFileStore.invoke(null, path))).intValue();
+      if (blockSize <= 0 || blockSize > MAX_BLOCK_SIZE || MAX_BLOCK_SIZE % blockSize != 0) {
+        logger.debug("block size {} of file {} isn't supported for direct I/O", blockSize, file);
+        return null;
+      }
+      channel = (FileChannel) reflection.openChannel.invoke(null, path, reflection.directReadOptions);
+    } catch (IllegalAccessException e) {
+      return null;
+    } catch (InvocationTargetException e) {
+      if (!file.exists()) {
+        throw new IOException("File " + file.getAbsolutePath() + " doesn't exist");
+      }
+      // e.g. the file system doesn't support O_DIRECT
+      logger.debug("unable to open file {} for direct I/O: {}", file, e.getCause());
+      return null;
+    }
+    return new DirectFileReader(channel, blockSize);
+  }
+
+  /**
+   * Reads remaining bytes of the buffer from specified position of the file
+   *
+   * @return count of read bytes
+   * @throws IOException if the file ends before all bytes are read
+   */
+  int read(@NotNull ByteBuffer buffer, long position) throws IOException {
+    final int requested = buffer.remaining();
+    final ByteBuffer span = acquireBuffer();
+    try {
+      while (buffer.hasRemaining()) {
+        final long spanStart = position - position % myBlockSize;
+        final int offsetInSpan = (int) (position - spanStart);
+        final long spanEnd = roundUp(position + buffer.remaining());
+        span.clear();
+        span.limit((int) Math.min(span.capacity(), spanEnd - spanStart));
+        final int read = myChannel.read(span, spanStart);
+        if (read <= offsetInSpan) {
+          throw new IOException("Storage underrun!");
+        }
+        final int length = Math.min(buffer.remaining(), read - offsetInSpan);
+        span.limit(offsetInSpan + length);
+        span.position(offsetInSpan);
+        buffer.put(span);
+        position += length;
+      }
+    } finally {
+      releaseBuffer(span);
+    }
+    return requested;
+  }
+
+  @Override
+  public void close() throws IOException {
+    myChannel.close();
+  }
+
+  private long roundUp(long position) {
+    final long remainder = position % myBlockSize;
+    return remainder == 0 ? position : position + myBlockSize - remainder;
+  }
+
+  private static ByteBuffer acquireBuffer() {
+    final ByteBuffer buffer = ourBuffers.poll();
+    if (buffer != null) {
+      ourPooledBuffers.decrementAndGet();
+      return buffer;
+    }
+    final Reflection reflection = ourReflection;
+    final ByteBuffer memory = ByteBuffer.allocateDirect(BUFFER_SIZE + MAX_BLOCK_SIZE);
+    if (reflection == null) return memory;
+    try {
+      final ByteBuffer aligned = (ByteBuffer) reflection.alignedSlice.invoke(memory, MAX_BLOCK_SIZE);
+      aligned.limit(BUFFER_SIZE);
+      return aligned.slice();
+    } catch (Exception e) {
+      throw new IllegalStateException("unable to allocate aligned buffer", e);
+    }
+  }
+
+  private static void releaseBuffer(ByteBuffer buffer) {
+    if (ourPooledBuffers.incrementAndGet() > MAX_POOLED_BUFFERS) {
+      ourPooledBuffers.decrementAndGet();
+      return;
+    }
+    ourBuffers.offer(buffer);
+  }
+
+  /**
+   * Methods and options of JDK 9+ which are required for direct I/O
+   */
+  private static class Reflection {
+
+    private final Method toPath;
+    private final Method getFileStore;
+    private final Method getBlockSize;
+    private final Method openChannel;
+    private final Method alignedSlice;
+    private final Object directReadOptions;
+
+    private Reflection(Method toPath, Method getFileStore, Method getBlockSize, Method openChannel,
+                       Method alignedSlice, Object directReadOptions) {
+      this.toPath = toPath;
+      this.getFileStore = getFileStore;
+      this.getBlockSize = getBlockSize;
+      this.openChannel = openChannel;
+      this.alignedSlice = alignedSlice;
+      this.directReadOptions = directReadOptions;
+    }
+
+    @Nullable
+    static Reflection create() {
+      try {
+        final Class<?> pathClass = Class.forName("java.nio.file.Path");
+        final Class<?> openOptionClass = Class.forName("java.nio.file.OpenOption");
+        final Object options = Array.newInstance(openOptionClass, 2);
+        Array.set(options, 0, enumConstant("java.nio.file.StandardOpenOption", "READ"));
+        Array.set(options, 1, enumConstant("com.sun.nio.file.ExtendedOpenOption", "DIRECT"));
+        return new Reflection(
+                File.class.getMethod("toPath"),
+                Class.forName("java.nio.file.Files").getMethod("getFileStore", pathClass),
+                Class.forName("java.nio.file.FileStore").getMethod("getBlockSize"),
+                FileChannel.class.getMethod("open", pathClass, options.getClass()),
+                ByteBuffer.class.getMethod("alignedSlice", int.class),
+                options);
+      } catch (Exception e) {
+        logger.debug("direct I/O isn't supported by the JVM: {}", e.toString());
+        return null;
+      }
+    }
+
+    private static Object enumConstant(String className, String name) throws ClassNotFoundException {
+      final Object[] constants = Class.forName(className).getEnumConstants();
+      if (constants != null) {
+        for (Object constant : constants) {
+          if (((Enum<?>) constant).name().equals(name)) return constant;
+        }
+      }
+      throw new IllegalArgumentException("Enum " + className + " doesn't contain " + name);
+    }
+  }
+}
@@ -0,0 +1,361 @@
+package com.turn.ttorrent.client.storage;
+
+import com.turn.ttorrent.common.LoggerUtils;
+import com.turn.ttorrent.common.TorrentLoggerFactory;
+import org.jetbrains.annotations.NotNull;
+import org.slf4j.Logger;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Performs disk operations of piece storages on a bounded count of own threads, so reading and
+ * writing of pieces don't compete with handling of peers' messages.
+ * <p>
+ * Queued operations are ordered by storage, piece and offset and they are served in elevator order:
+ * each worker takes the operation which follows the last served one and starts from the beginning
+ * when the end of the queue is reached. Queued reads of adjacent blocks of the same piece are merged
+ * into one read of the storage. Data of blocks is collected in memory until the piece is complete,
+ * so writes are already coalesced per piece and they are ordered in the same way as reads.
+ * <p>
+ * The scheduler is congested when count of queued operations exceeds the threshold, requests of
+ * new pieces should be postponed in this case.
+ * <p>
+ * Threads are started when operations are queued and they are finished after some time of idleness.
+ */
+public class DiskIoScheduler {
+
+  private static final Logger logger =
+          TorrentLoggerFactory.getLogger(DiskIoScheduler.class);
+
+  public static final int DEFAULT_THREADS_COUNT = 2;
+  public static final int DEFAULT_CONGESTION_THRESHOLD = 256;
+
+  private static final int MAX_MERGED_READ_LENGTH = 1024 * 1024;
+  private static final long WORKER_KEEP_ALIVE_MILLIS = 60000;
+
+  private final int myThreadsCount;
+  private final int myCongestionThreshold;
+  private final TreeSet<Operation> myQueue = new TreeSet<Operation>();
+  private final List<Thread> myWorkers = new ArrayList<Thread>();
+  private final AtomicLong mySequence = new AtomicLong();
+  private final AtomicLong myCompletedOperations = new AtomicLong();
+  private final AtomicLong myMergedOperations = new AtomicLong();
+  private final AtomicLong myTotalLatencyNanos = new AtomicLong();
+  private final AtomicLong myMaxLatencyNanos = new AtomicLong();
+  private Operation myHead;
+  private boolean myShutdown = false;
+
+  public DiskIoScheduler() {
+    this(DEFAULT_THREADS_COUNT, DEFAULT_CONGESTION_THRESHOLD);
+  }
+
+  /**
+   * @param threadsCount        count of threads which perform disk operations. Java doesn't provide
+   *                            information about devices of files, so the count should be equal
+   *                            to count of devices which are used by storages of the scheduler
+   * @param congestionThreshold count of queued operations starting from which the scheduler is congested
+   */
+  public DiskIoScheduler(int threadsCount, int congestionThreshold) {
+    if (threadsCount <= 0) throw new IllegalArgumentException("count of threads must be positive");
+    myThreadsCount = threadsCount;
+    myCongestionThreshold = congestionThreshold;
+  }
+
+  /**
+   * queues read of the part of the piece. Callback is invoked in the scheduler's thread
+   */
+  public void read(@NotNull PieceStorage storage, int pieceIndex, int offset, int length, @NotNull ReadCallback callback) {
+    enqueue(new Operation(storage, pieceIndex, offset, length, null, callback));
+  }
+
+  /**
+   * queues saving of the piece
+   *
+   * @return future which is completed when the piece is saved
+   */
+  @NotNull
+  public Future<?> write(@NotNull final PieceStorage storage, final int pieceIndex, @NotNull final byte[] data) {
+    final Operation operation = new Operation(storage, pieceIndex, 0, data.length, data, null);
+    enqueue(operation);
+    return operation.myWriteFuture;
+  }
+
+  /**
+   * saves the piece through the queue and waits until the piece is saved
+   */
+  public void writeAndWait(@NotNull PieceStorage storage, int pieceIndex, @NotNull byte[] data) throws IOException {
+    try {
+      write(storage, pieceIndex, data).get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted while saving piece " + pieceIndex);
+    } catch (ExecutionException e) {
+      final Throwable cause = e.getCause();
+      if (cause instanceof IOException) throw (IOException) cause;
+      if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+      throw new IOException("Unable to save piece " + pieceIndex, cause);
+    }
+  }
+
+  private synchronized void enqueue(Operation operation) {
+    if (myShutdown) {
+      operation.fail(new IOException("Disk I/O scheduler is stopped"));
+      return;
+    }
+    myQueue.add(operation);
+    if (myWorkers.size() < myThreadsCount && myWorkers.size() < myQueue.size()) {
+      startWorker();
+    }
+    notify();
+  }
+
+  private void startWorker() {
+    final Thread worker = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        processOperations();
+      }
+    }, "ttorrent disk I/O " + myWorkers.size());
+    worker.setDaemon(true);
+    myWorkers.add(worker);
+    worker.start();
+  }
+
+  private void processOperations() {
+    try {
+      List<Operation> batch;
+      while ((batch = takeNextBatch()) != null) {
+        execute(batch);
+      }
+    } catch (InterruptedException e) {
+      logger.debug("disk I/O worker was interrupted");
+    } finally {
+      synchronized (this) {
+        myWorkers.remove(Thread.currentThread());
+      }
+    }
+  }
+
+  /**
+   * @return the next operation in elevator order with queued reads of adjacent blocks or null if the worker must exit
+   */
+  private synchronized List<Operation> takeNextBatch() throws InterruptedException {
+    final long idleDeadline = System.currentTimeMillis() + WORKER_KEEP_ALIVE_MILLIS;
+    while (myQueue.isEmpty()) {
+      final long idleMillis = idleDeadline - System.currentTimeMillis();
+      if (myShutdown || idleMillis <= 0) {
+        // worker is removed under the lock, so new operations start a new worker
+        myWorkers.remove(Thread.currentThread());
+        return null;
+      }
+      wait(idleMillis);
+    }
+    Operation first = myHead == null ? null : myQueue.ceiling(myHead);
+    if (first == null) {
+      first = myQueue.first();
+    }
+    myQueue.remove(first);
+    final List<Operation> batch = new ArrayList<Operation>();
+    batch.add(first);
+    Operation last = first;
+    if (first.isRead()) {
+      int mergedLength = first.myLength;
+      for (Iterator<Operation> iterator = myQueue.tailSet(first).iterator(); iterator.hasNext(); ) {
+        final Operation next = iterator.next();
+        if (!next.isRead() || next.myStorage != first.myStorage || next.myPieceIndex != first.myPieceIndex) break;
+        if (next.myOffset > last.myOffset + last.myLength) break;
+        final int end = Math.max(last.myOffset + last.myLength, next.myOffset + next.myLength);
+        if (end - first.myOffset > MAX_MERGED_READ_LENGTH) break;
+        iterator.remove();
+        batch.add(next);
+        if (next.myOffset + next.myLength > last.myOffset + last.myLength) {
+          last = next;
+        }
+        mergedLength = end - first.myOffset;
+      }
+      first.myMergedLength = mergedLength;
+    }
+    myHead = last;
+    return batch;
+  }
+
+  private void execute(List<Operation> batch) {
+    final Operation first = batch.get(0);
+    try {
+      if (first.isRead()) {
+        final byte[] data = first.myStorage.readPiecePart(first.myPieceIndex, first.myOffset, first.myMergedLength);
+        if (batch.size() > 1) {
+          myMergedOperations.addAndGet(batch.size() - 1);
+        }
+        for (Operation operation : batch) {
+          final int from = operation.myOffset - first.myOffset;
+          operation.complete(from == 0 && operation.myLength == data.length ?
+                  data : Arrays.copyOfRange(data, from, from + operation.myLength));
+        }
+      } else {
+        first.myStorage.savePiece(first.myPieceIndex, first.myData);
+        first.complete(null);
+      }
+    } catch (Throwable e) {
+      for (Operation operation : batch) {
+        operation.fail(e);
+      }
+    }
+  }
+
+  private void operationCompleted(Operation operation) {
+    final long latency = System.nanoTime() - operation.myCreationTime;
+    myCompletedOperations.incrementAndGet();
+    myTotalLatencyNanos.addAndGet(latency);
+    long max;
+    while (latency > (max = myMaxLatencyNanos.get())) {
+      if (myMaxLatencyNanos.compareAndSet(max, latency)) break;
+    }
+  }
+
+  /**
+   * stops threads of the scheduler. Queued operations fail
+   */
+  public void shutdown() {
+    final List<Operation> pending;
+    synchronized (this) {
+      myShutdown = true;
+      pending = new ArrayList<Operation>(myQueue);
+      myQueue.clear();
+      myHead = null;
+      notifyAll();
+    }
+    for (Operation operation : pending) {
+      operation.fail(new IOException("Disk I/O scheduler is stopped"));
+    }
+  }
+
+  /**
+   * @return true if count of queued operations exceeds the threshold
+   */
+  public synchronized boolean isCongested() {
+    return myQueue.size() > myCongestionThreshold;
+  }
+
+  public synchronized int getQueueDepth() {
+    return myQueue.size();
+  }
+
+  /**
+   * @return count of completed operations including merged ones
+   */
+  public long getCompletedOperationsCount() {
+    return myCompletedOperations.get();
+  }
+
+  /**
+   * @return count of reads which were merged with reads of previous blocks
+   */
+  public long getMergedOperationsCount() {
+    return myMergedOperations.get();
+  }
+
+  /**
+   * @return average time from queueing of operation to its completion in microseconds
+   */
+  public long getAverageLatencyMicros() {
+    final long completed = myCompletedOperations.get();
+    return completed == 0 ? 0 : TimeUnit.NANOSECONDS.toMicros(myTotalLatencyNanos.get() / completed);
+  }
+
+  /**
+   * @return max time from queueing of operation to its completion in microseconds
+   */
+  public long getMaxLatencyMicros() {
+    return TimeUnit.NANOSECONDS.toMicros(myMaxLatencyNanos.get());
+  }
+
+  public interface ReadCallback {
+
+    void onRead(byte[] data);
+
+    void onFailure(Throwable e);
+
+  }
+
+  private class Operation implements Comparable<Operation> {
+
+    private final PieceStorage myStorage;
+    private final int myStorageHash;
+    private final int myPieceIndex;
+    private final int myOffset;
+    private final int myLength;
+    private final byte[] myData;
+    private final ReadCallback myCallback;
+    private final FutureTask<Void> myWriteFuture;
+    private final long mySequence;
+    private final long myCreationTime;
+    private int myMergedLength;
+    private volatile Throwable myFailure;
+
+    Operation(PieceStorage storage, int pieceIndex, int offset, int length, byte[] data, ReadCallback callback) {
+      myStorage = storage;
+      myStorageHash = System.identityHashCode(storage);
+      myPieceIndex = pieceIndex;
+      myOffset = offset;
+      myLength = length;
+      myData = data;
+      myCallback = callback;
+      myMergedLength = length;
+      mySequence = DiskIoScheduler.this.mySequence.incrementAndGet();
+      myCreationTime = System.nanoTime();
+      myWriteFuture = callback != null ? null : new FutureTask<Void>(new Callable<Void>() {
+        @Override
+        public Void call() throws Exception {
+          final Throwable failure = myFailure;
+          if (failure instanceof Exception) throw (Exception) failure;
+          if (failure != null) throw new ExecutionException(failure);
+          return null;
+        }
+      });
+    }
+
+    boolean isRead() {
+      return myCallback != null;
+    }
+
+    void complete(byte[] data) {
+      operationCompleted(this);
+      if (isRead()) {
+        try {
+          myCallback.onRead(data);
+        } catch (Throwable e) {
+          LoggerUtils.warnAndDebugDetails(logger, "unhandled exception in callback of read of piece {}", myPieceIndex, e);
+        }
+      } else {
+        myWriteFuture.run();
+      }
+    }
+
+    void fail(Throwable e) {
+      if (isRead()) {
+        try {
+          myCallback.onFailure(e);
+        } catch (Throwable t) {
+          LoggerUtils.warnAndDebugDetails(logger, "unhandled exception in callback of read of piece {}", myPieceIndex, t);
+        }
+      } else {
+        myFailure = e;
+        myWriteFuture.run();
+      }
+    }
+
+    @Override
+    public int compareTo(Operation o) {
+      if (myStorageHash != o.myStorageHash) return myStorageHash < o.myStorageHash ? -1 : 1;
+      if (myPieceIndex != o.myPieceIndex) return myPieceIndex < o.myPieceIndex ? -1 : 1;
+      if (myOffset != o.myOffset) return myOffset < o.myOffset ? -1 : 1;
+      if (mySequence != o.mySequence) return mySequence < o.mySequence ? -1 : 1;
+      return 0;
+    }
+  }
+}
@@ -1,56 +1,43 @@
 package com.turn.ttorrent.client.storage;
 
-import com.turn.ttorrent.Constants;
-import com.turn.ttorrent.common.TorrentFile;
 import com.turn.ttorrent.common.TorrentMetadata;
-import com.turn.ttorrent.common.TorrentUtils;
 
 import java.io.IOException;
-import java.nio.ByteBuffer;
-import java.util.Arrays;
 import java.util.BitSet;
 
 /**
  * This implementation will read all pieces from storage and compare hashes of pieces with really hashed
- * from metadata
+ * from metadata. Pieces are checked in parallel by {@link ParallelPiecesChecker}
+ * <p>
+ * {@link #INSTANCE} uses one reader for each device which stores files of the torrent and one hasher
+ * for each available processor. Factory with other counts can be passed to the client explicitly
  */
-public class FairPieceStorageFactory implements PieceStorageFactory {
+public class FairPieceStorageFactory implements CheckingPieceStorageFactory {
 
-  public final static FairPieceStorageFactory INSTANCE = new FairPieceStorageFactory();
+  public final static FairPieceStorageFactory INSTANCE = new FairPieceStorageFactory(
+          ParallelPiecesChecker.READER_PER_DEVICE, Runtime.getRuntime().availableProcessors());
 
-  private FairPieceStorageFactory() {
+  private final ParallelPiecesChecker myPiecesChecker;
+
+  /**
+   * @param readersCount count of threads which read data of the torrent or {@link ParallelPiecesChecker#READER_PER_DEVICE},
+   *                     see {@link ParallelPiecesChecker#ParallelPiecesChecker(int, int)}
+   * @param hashersCount count of threads which calculate hashes of pieces
+   */
+  public FairPieceStorageFactory(int readersCount, int hashersCount) {
+    myPiecesChecker = new ParallelPiecesChecker(readersCount, hashersCount);
   }
 
   @Override
   public PieceStorage createStorage(TorrentMetadata metadata, TorrentByteStorage byteStorage) throws IOException {
-    long totalSize = 0;
-    for (TorrentFile file : metadata.getFiles()) {
-      totalSize += file.size;
-    }
-
-    byteStorage.open(false);
-    BitSet availablePieces = new BitSet(metadata.getPiecesCount());
-    try {
-      int pieceLength = metadata.getPieceLength();
-      for (int i = 0; i < metadata.getPiecesCount(); i++) {
-        long position = (long) i * pieceLength;
-        int len;
-        if (totalSize - position > pieceLength) {
-          len = pieceLength;
-        } else {
-          len = (int) (totalSize - position);
-        }
-        ByteBuffer buffer = ByteBuffer.allocate(len);
-        byteStorage.read(buffer, position);
-        byte[] expectedHash = Arrays.copyOfRange(metadata.getPiecesHashes(), i * Constants.PIECE_HASH_SIZE, (i + 1) * Constants.PIECE_HASH_SIZE);
-        byte[] actualHash = TorrentUtils.calculateSha1Hash(buffer.array());
-        if (Arrays.equals(expectedHash, actualHash)) {
-          availablePieces.set(i);
-        }
-      }
-    } finally {
-      byteStorage.close();
-    }
+    return createStorage(metadata, byteStorage, PiecesCheckListener.NO_OP);
+  }
+
+  @Override
+  public PieceStorage createStorage(TorrentMetadata metadata, TorrentByteStorage byteStorage, PiecesCheckListener listener) throws IOException {
+    final BitSet allPieces = new BitSet(metadata.getPiecesCount());
+    allPieces.set(0, metadata.getPiecesCount());
+    BitSet availablePieces = checkPieces(metadata, byteStorage, allPieces, listener);
 
     return new PieceStorageImpl(
             byteStorage,
@@ -59,4 +46,17 @@ public class FairPieceStorageFactory implements PieceStorageFactory {
             metadata.getPieceLength()
     );
   }
+
+  /**
+   * reads specified pieces from the storage and compares their hashes with hashes from metadata
+   *
+   * @param piecesToCheck indexes of pieces which must be checked
+   * @return indexes of checked pieces which are valid
+   */
+  BitSet checkPieces(TorrentMetadata metadata,
+                     TorrentByteStorage byteStorage,
+                     BitSet piecesToCheck,
+                     PiecesCheckListener listener) throws IOException {
+    return myPiecesChecker.check(metadata, byteStorage, piecesToCheck, listener);
+  }
 }
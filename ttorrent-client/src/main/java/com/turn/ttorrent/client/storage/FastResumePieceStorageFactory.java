@@ -0,0 +1,99 @@
+package com.turn.ttorrent.client.storage;
+
+import com.turn.ttorrent.common.LoggerUtils;
+import com.turn.ttorrent.common.TorrentLoggerFactory;
+import com.turn.ttorrent.common.TorrentMetadata;
+import org.jetbrains.annotations.Nullable;
+import org.slf4j.Logger;
+
+import java.io.IOException;
+import java.util.BitSet;
+import java.util.List;
+
+/**
+ * This implementation trusts {@link ResumeData} saved on clean shutdown of previous run: pieces of files
+ * which size and modification time aren't changed are considered valid without hashing, pieces of changed
+ * files are checked as in {@link FairPieceStorageFactory}. Created storage saves resume data when it's closed.
+ * Saved data is removed when the storage is created, so all pieces are checked after a crash.
+ * <p>
+ * Storages other than {@link FileCollectionStorage} are always checked fully
+ */
+public class FastResumePieceStorageFactory implements CheckingPieceStorageFactory {
+
+  private static final Logger logger =
+          TorrentLoggerFactory.getLogger(FastResumePieceStorageFactory.class);
+
+  private final ResumeDataStorage myResumeDataStorage;
+  private final FairPieceStorageFactory myFairPieceStorageFactory;
+
+  public FastResumePieceStorageFactory(ResumeDataStorage resumeDataStorage) {
+    this(resumeDataStorage, FairPieceStorageFactory.INSTANCE);
+  }
+
+  /**
+   * @param fairPieceStorageFactory factory which is used for checking pieces of changed files
+   */
+  public FastResumePieceStorageFactory(ResumeDataStorage resumeDataStorage, FairPieceStorageFactory fairPieceStorageFactory) {
+    myResumeDataStorage = resumeDataStorage;
+    myFairPieceStorageFactory = fairPieceStorageFactory;
+  }
+
+  @Override
+  public PieceStorage createStorage(TorrentMetadata metadata, TorrentByteStorage byteStorage) throws IOException {
+    return createStorage(metadata, byteStorage, PiecesCheckListener.NO_OP);
+  }
+
+  @Override
+  public PieceStorage createStorage(TorrentMetadata metadata, TorrentByteStorage byteStorage, PiecesCheckListener listener) throws IOException {
+    if (!(byteStorage instanceof FileCollectionStorage)) {
+      return myFairPieceStorageFactory.createStorage(metadata, byteStorage, listener);
+    }
+    final FileCollectionStorage fileCollectionStorage = (FileCollectionStorage) byteStorage;
+    final String hexInfoHash = metadata.getHexInfoHash();
+    final int piecesCount = metadata.getPiecesCount();
+
+    // states must be collected before the storage is opened, because opening updates modification time
+    final List<ResumeData.FileState> fileStates = fileCollectionStorage.getFileStates();
+    final ResumeData.FileState partsFileState = fileCollectionStorage.getPartsFileState();
+    final ResumeData resumeData = loadResumeData(hexInfoHash);
+
+    BitSet availablePieces = new BitSet(piecesCount);
+    BitSet piecesToCheck = new BitSet(piecesCount);
+    if (resumeData == null || !resumeData.isCleanShutdown()
+            || resumeData.getFileStates().size() != fileStates.size()
+            || !resumeData.getPartsFileState().equals(partsFileState)) {
+      piecesToCheck.set(0, piecesCount);
+    } else {
+      availablePieces = resumeData.getAvailablePieces();
+      availablePieces.clear(piecesCount, Math.max(piecesCount, availablePieces.length()));
+      final int pieceLength = metadata.getPieceLength();
+      long offset = 0;
+      for (int i = 0; i < fileStates.size(); i++) {
+        final long size = metadata.getFiles().get(i).size;
+        if (size > 0 && !fileStates.get(i).equals(resumeData.getFileStates().get(i))) {
+          piecesToCheck.set((int) (offset / pieceLength), (int) ((offset + size - 1) / pieceLength) + 1);
+        }
+        offset += size;
+      }
+      availablePieces.andNot(piecesToCheck);
+      logger.debug("Resume data of torrent {} is loaded, {} pieces will be checked",
+              hexInfoHash, piecesToCheck.cardinality());
+    }
+    availablePieces.or(myFairPieceStorageFactory.checkPieces(metadata, byteStorage, piecesToCheck, listener));
+    // the torrent can be written from now on, so saved state isn't valid until the storage is closed
+    myResumeDataStorage.remove(hexInfoHash);
+
+    final PieceStorageImpl pieceStorage = new PieceStorageImpl(byteStorage, availablePieces, piecesCount, metadata.getPieceLength());
+    return new ResumablePieceStorage(pieceStorage, fileCollectionStorage, myResumeDataStorage, hexInfoHash);
+  }
+
+  @Nullable
+  private ResumeData loadResumeData(String hexInfoHash) {
+    try {
+      return myResumeDataStorage.load(hexInfoHash);
+    } catch (IOException e) {
+      LoggerUtils.warnAndDebugDetails(logger, "unable to load resume data of torrent {}, all pieces will be checked", hexInfoHash, e);
+      return null;
+    }
+  }
+}
@@ -0,0 +1,322 @@
+package com.turn.ttorrent.client.storage;
+
+import com.turn.ttorrent.common.TorrentLoggerFactory;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.slf4j.Logger;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.ClosedByInterruptException;
+import java.nio.channels.FileChannel;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded pool of open file channels which is shared between {@link FileStorage} instances,
+ * so torrents with many files don't exhaust the limit of open file descriptors.
+ * <p>
+ * Channel is opened when the owner acquires it at first time and it's closed when the pool
+ * contains more than max count of channels and the channel is the least recently used one.
+ * Channels which are in use at the moment aren't closed, so the pool can temporarily contain
+ * more channels than the limit.
+ * <p>
+ * The pool also keeps readers of files opened with direct I/O (see {@link DirectFileReader}),
+ * they are opened, counted and evicted in the same way as channels.
+ * <p>
+ * Files are opened and closed outside of the pool's lock, so slow disk operations of one
+ * owner don't block owners which have open channels. The slot of the channel is reserved under
+ * the lock, other users of the same owner wait until the file is opened.
+ */
+public class FileChannelPool {
+
+  private static final Logger logger =
+          TorrentLoggerFactory.getLogger(FileChannelPool.class);
+
+  public static final int DEFAULT_MAX_OPEN_FILES = 512;
+
+  private static final FileChannelPool DEFAULT = new FileChannelPool(DEFAULT_MAX_OPEN_FILES);
+
+  // access-ordered map, so the first entry is the least recently used one
+  private final LinkedHashMap<Object, Handle> myHandles = new LinkedHashMap<Object, Handle>(16, 0.75f, true);
+  private final AtomicLong myHits = new AtomicLong();
+  private final AtomicLong myMisses = new AtomicLong();
+  private final AtomicLong myEvictions = new AtomicLong();
+  private int myMaxOpenFiles;
+
+  public FileChannelPool(int maxOpenFiles) {
+    setMaxOpenFiles(maxOpenFiles);
+  }
+
+  /**
+   * @return the pool which is used by file storages by default
+   */
+  public static FileChannelPool getDefault() {
+    return DEFAULT;
+  }
+
+  public void setMaxOpenFiles(int maxOpenFiles) {
+    if (maxOpenFiles <= 0) throw new IllegalArgumentException("max count of open files must be positive");
+    final List<Handle> evicted;
+    synchronized (this) {
+      myMaxOpenFiles = maxOpenFiles;
+      evicted = evictIfNecessary();
+    }
+    closeEvicted(evicted);
+  }
+
+  public synchronized int getMaxOpenFiles() {
+    return myMaxOpenFiles;
+  }
+
+  /**
+   * returns channel of the owner opening the file if necessary. Every successful call must be followed
+   * by {@link #release(Object)} when the channel isn't used anymore
+   *
+   * @param owner owner of the channel, the owner can have only one open channel
+   * @param file  file which is opened if the owner doesn't have open channel
+   * @param mode  access mode for {@link RandomAccessFile}
+   */
+  @NotNull
+  FileChannel acquire(@NotNull Object owner, @NotNull final File file, @NotNull final String mode) throws IOException {
+    final Closeable raf = acquire(owner, new Opener() {
+      @Override
+      public Closeable open() throws IOException {
+        return new RandomAccessFile(file, mode);
+      }
+    });
+    if (raf == null) throw new IllegalStateException("file " + file + " isn't opened");
+    return ((RandomAccessFile) raf).getChannel();
+  }
+
+  /**
+   * returns reader of the owner which reads the file with direct I/O opening the file if necessary.
+   * Every call which returns a reader must be followed by {@link #release(Object)} when the reader
+   * isn't used anymore
+   *
+   * @param owner owner of the reader, it must not own a channel
+   * @param file  file which is opened if the owner doesn't have open reader
+   * @return the reader or null if the file can't be read with direct I/O
+   */
+  @Nullable
+  DirectFileReader acquireDirectReader(@NotNull Object owner, @NotNull final File file) throws IOException {
+    return (DirectFileReader) acquire(owner, new Opener() {
+      @Override
+      public Closeable open() throws IOException {
+        return DirectFileReader.open(file);
+      }
+    });
+  }
+
+  /**
+   * @return resource of the owner or null if the opener returned null
+   */
+  @Nullable
+  private Closeable acquire(Object owner, Opener opener) throws IOException {
+    Handle handle;
+    final boolean opening;
+    final List<Handle> evicted;
+    synchronized (this) {
+      handle = myHandles.get(owner);
+      opening = handle == null;
+      if (opening) {
+        myMisses.incrementAndGet();
+        handle = new Handle();
+        myHandles.put(owner, handle);
+      } else {
+        myHits.incrementAndGet();
+      }
+      handle.users++;
+      evicted = evictIfNecessary();
+    }
+    closeEvicted(evicted);
+    Closeable result = null;
+    try {
+      if (opening) {
+        open(owner, handle, opener);
+      }
+      result = handle.awaitResource();
+      return result;
+    } finally {
+      if (result == null) {
+        synchronized (this) {
+          handle.users--;
+        }
+      }
+    }
+  }
+
+  private void open(Object owner, Handle handle, Opener opener) throws IOException {
+    Closeable resource = null;
+    IOException failure = null;
+    try {
+      resource = opener.open();
+    } catch (IOException e) {
+      failure = e;
+      throw e;
+    } finally {
+      if (resource == null) {
+        // the slot is freed, so next acquire of the owner tries to open the file again
+        synchronized (this) {
+          if (myHandles.get(owner) == handle) {
+            myHandles.remove(owner);
+          }
+        }
+      }
+      handle.opened(resource, failure);
+    }
+  }
+
+  void release(@NotNull Object owner) {
+    final List<Handle> evicted;
+    synchronized (this) {
+      final Handle handle = myHandles.get(owner);
+      if (handle == null) return;
+      handle.users--;
+      evicted = evictIfNecessary();
+    }
+    closeEvicted(evicted);
+  }
+
+  /**
+   * closes channel or reader of the owner if it's open
+   *
+   * @param force true if content of the file must be written to the device before closing
+   */
+  void close(@NotNull Object owner, boolean force) throws IOException {
+    final Handle handle;
+    synchronized (this) {
+      handle = myHandles.remove(owner);
+    }
+    if (handle == null) return;
+    final Closeable resource;
+    try {
+      resource = handle.awaitResource();
+    } catch (IOException e) {
+      // the file wasn't opened
+      return;
+    }
+    if (force && resource instanceof RandomAccessFile) {
+      final FileChannel channel = ((RandomAccessFile) resource).getChannel();
+      if (channel.isOpen()) {
+        try {
+          channel.force(true);
+        } catch (ClosedByInterruptException ignored) {
+        }
+      }
+    }
+    if (resource != null) {
+      resource.close();
+    }
+  }
+
+  /**
+   * removes least recently used channels which aren't in use from the pool,
+   * they must be closed by {@link #closeEvicted(List)} outside of the lock
+   */
+  private List<Handle> evictIfNecessary() {
+    if (myHandles.size() <= myMaxOpenFiles) return Collections.emptyList();
+    List<Handle> result = new ArrayList<Handle>();
+    final Iterator<Map.Entry<Object, Handle>> iterator = myHandles.entrySet().iterator();
+    while (myHandles.size() > myMaxOpenFiles && iterator.hasNext()) {
+      final Handle handle = iterator.next().getValue();
+      if (handle.users > 0) continue;
+      iterator.remove();
+      myEvictions.incrementAndGet();
+      result.add(handle);
+    }
+    return result;
+  }
+
+  private static void closeEvicted(List<Handle> evicted) {
+    for (Handle handle : evicted) {
+      try {
+        final Closeable resource = handle.awaitResource();
+        if (resource != null) {
+          resource.close();
+        }
+      } catch (IOException e) {
+        logger.debug("unable to close evicted file channel", e);
+      }
+    }
+  }
+
+  /**
+   * @return count of acquired channels which were already open
+   */
+  public long getHitsCount() {
+    return myHits.get();
+  }
+
+  /**
+   * @return count of acquired channels which were opened by the pool
+   */
+  public long getMissesCount() {
+    return myMisses.get();
+  }
+
+  /**
+   * @return count of channels which were closed because the pool was full
+   */
+  public long getEvictionsCount() {
+    return myEvictions.get();
+  }
+
+  public synchronized int getOpenFilesCount() {
+    return myHandles.size();
+  }
+
+  private interface Opener {
+
+    /**
+     * @return opened file or null if the file can't be opened in this way
+     */
+    @Nullable
+    Closeable open() throws IOException;
+  }
+
+  /**
+   * Slot of the owner's open file. It's added into the pool before the file is opened,
+   * users of the slot wait until the file is opened
+   */
+  private static class Handle {
+
+    // guarded by the pool's lock, other fields are guarded by the handle
+    private int users = 0;
+    private boolean opened = false;
+    private Closeable resource;
+    private IOException failure;
+
+    synchronized void opened(@Nullable Closeable resource, @Nullable IOException failure) {
+      this.opened = true;
+      this.resource = resource;
+      this.failure = failure;
+      notifyAll();
+    }
+
+    /**
+     * @return opened file or null if the opener returned null
+     * @throws IOException if the file wasn't opened because of an error
+     */
+    @Nullable
+    synchronized Closeable awaitResource() throws IOException {
+      boolean interrupted = false;
+      while (!this.opened) {
+        try {
+          wait();
+        } catch (InterruptedException e) {
+          interrupted = true;
+        }
+      }
+      if (interrupted) {
+        Thread.currentThread().interrupt();
+      }
+      if (this.failure != null) {
+        throw new IOException("Unable to open file", this.failure);
+      }
+      return this.resource;
+    }
+  }
+}
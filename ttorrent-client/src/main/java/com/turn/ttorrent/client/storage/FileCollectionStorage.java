@@ -18,13 +18,13 @@ package com.turn.ttorrent.client.storage;
 import com.turn.ttorrent.common.TorrentFile;
 import com.turn.ttorrent.common.TorrentLoggerFactory;
 import com.turn.ttorrent.common.TorrentMetadata;
+import org.jetbrains.annotations.Nullable;
 import org.slf4j.Logger;
 
 import java.io.File;
 import java.io.IOException;
 import java.nio.ByteBuffer;
-import java.util.LinkedList;
-import java.util.List;
+import java.util.*;
 
 
 /**
@@ -38,17 +38,35 @@ import java.util.List;
  * file this offset lands.
  * </p>
  *
+ * <p>
+ * Files are created when data is written into them at first time. Files can be
+ * skipped, in this case data which belongs to pieces shared with wanted files is
+ * written into the parts file, so skipped files are never created on disk.
+ * </p>
+ *
+ * <p>
+ * Pad files (BEP 47) are never created on disk, they are read as zeros and data
+ * written into them is dropped.
+ * </p>
+ *
  * @author mpetazzoni
  * @author dgiffin
  */
-public class FileCollectionStorage implements TorrentByteStorage {
+public class FileCollectionStorage implements TorrentByteStorage, SelectiveFileStorage {
 
   private static final Logger logger =
           TorrentLoggerFactory.getLogger(FileCollectionStorage.class);
 
   private final List<FileStorage> files;
+  // exclusive end offsets of files in the torrent, used for binary search of the file by offset
+  private final long[] myFileEnds;
   private final long size;
+  @Nullable
+  private final PartsFile myPartsFile;
+  private final Set<FileStorage> mySkippedFiles = new HashSet<FileStorage>();
+  private final Set<FileStorage> myPadFiles;
   private volatile boolean myIsOpen;
+  private volatile boolean mySeeder;
 
   /**
    * Initialize a new multi-file torrent byte storage.
@@ -59,18 +77,52 @@ public class FileCollectionStorage implements TorrentByteStorage {
    */
   public FileCollectionStorage(List<FileStorage> files,
                                long size) {
-    this.files = files;
+    this(files, size, null, Collections.<FileStorage>emptySet());
+  }
+
+  private FileCollectionStorage(List<FileStorage> files,
+                                long size,
+                                @Nullable PartsFile partsFile,
+                                Set<FileStorage> padFiles) {
+    this.files = new ArrayList<FileStorage>(files);
+    myFileEnds = new long[files.size()];
+    for (int i = 0; i < myFileEnds.length; i++) {
+      final FileStorage file = this.files.get(i);
+      myFileEnds[i] = file.offset() + file.size();
+    }
     this.size = size;
+    myPartsFile = partsFile;
+    myPadFiles = padFiles;
 
     logger.debug("Initialized torrent byte storage on {} file(s) " +
             "({} total byte(s)).", files.size(), size);
   }
 
   public static FileCollectionStorage create(TorrentMetadata metadata, File parent) throws IOException {
+    return create(metadata, parent, FileChannelPool.getDefault());
+  }
+
+  /**
+   * @param channelPool pool of open channels which is used by files of the storage
+   */
+  public static FileCollectionStorage create(TorrentMetadata metadata, File parent, FileChannelPool channelPool) throws IOException {
+    return create(metadata, parent, channelPool, false);
+  }
+
+  /**
+   * @param channelPool pool of open channels which is used by files of the storage
+   * @param directReads true if files opened for seeding must be read with direct I/O bypassing
+   *                    the page cache, see {@link FileStorage#FileStorage(File, long, long, FileChannelPool, boolean)}
+   */
+  public static FileCollectionStorage create(TorrentMetadata metadata,
+                                             File parent,
+                                             FileChannelPool channelPool,
+                                             boolean directReads) throws IOException {
     if (!parent.isDirectory()) {
       throw new IllegalArgumentException("Invalid parent directory!");
     }
-    List<FileStorage> files = new LinkedList<FileStorage>();
+    List<FileStorage> files = new ArrayList<FileStorage>();
+    Set<FileStorage> padFiles = new HashSet<FileStorage>();
     long offset = 0L;
     long totalSize = 0;
     for (TorrentFile file : metadata.getFiles()) {
@@ -80,35 +132,144 @@ public class FileCollectionStorage implements TorrentByteStorage {
         throw new SecurityException("Torrent file path attempted " +
                 "to break directory jail!");
       }
-
-      if (!actual.getParentFile().exists() && !actual.getParentFile().mkdirs()) {
-        throw new IOException("Unable to create directories " + actual.getParent() + " for storing torrent file " + actual.getName());
+      final FileStorage fileStorage = new FileStorage(actual, offset, file.size, channelPool, directReads);
+      files.add(fileStorage);
+      if (file.padFile) {
+        padFiles.add(fileStorage);
       }
-      files.add(new FileStorage(actual, offset, file.size));
       offset += file.size;
       totalSize += file.size;
     }
-    return new FileCollectionStorage(files, totalSize);
+    final PartsFile partsFile = new PartsFile(new File(parent, "." + metadata.getHexInfoHash() + ".parts"),
+            metadata.getPieceLength(), metadata.getPiecesCount());
+    return new FileCollectionStorage(files, totalSize, partsFile, padFiles);
   }
 
   public synchronized void open(final boolean seeder) throws IOException {
+    mySeeder = seeder;
     for (FileStorage file : files) {
-      if (!file.isOpen())
+      if (myPadFiles.contains(file)) continue;
+      // files which don't exist yet are created on first write
+      if (!file.isOpen() && (seeder || file.exists()))
         file.open(seeder);
     }
     myIsOpen = true;
   }
 
+  /**
+   * @return states of files on disk in order from the torrent's metadata
+   */
+  public List<ResumeData.FileState> getFileStates() {
+    List<ResumeData.FileState> result = new ArrayList<ResumeData.FileState>(files.size());
+    for (FileStorage file : files) {
+      result.add(file.getStateOnDisk());
+    }
+    return result;
+  }
+
+  /**
+   * @return file stores of files in order from the torrent's metadata, see {@link StorageUtils#getFileStore(File)}
+   */
+  List<Object> getFileStores() {
+    List<Object> result = new ArrayList<Object>(files.size());
+    for (FileStorage file : files) {
+      result.add(file.getFileStore());
+    }
+    return result;
+  }
+
+  /**
+   * @return state of the file which stores data of skipped files
+   */
+  public ResumeData.FileState getPartsFileState() {
+    return myPartsFile == null ? ResumeData.FileState.ABSENT : myPartsFile.getStateOnDisk();
+  }
+
+  /**
+   * Marks the file as skipped. Data of skipped file which doesn't exist on disk
+   * is written into the parts file. When the file is no longer skipped, the file
+   * is created and data from the parts file is copied into it.
+   *
+   * @param fileIndex index of the file in list of files of the torrent's metadata
+   */
+  @Override
+  public synchronized void setFileSkipped(int fileIndex, boolean skipped) throws IOException {
+    if (fileIndex < 0 || fileIndex >= files.size()) {
+      throw new IllegalArgumentException("Torrent doesn't contain file #" + fileIndex);
+    }
+    final FileStorage file = files.get(fileIndex);
+    if (skipped) {
+      mySkippedFiles.add(file);
+      return;
+    }
+    if (!mySkippedFiles.remove(file)) return;
+    if (myPartsFile != null && myPartsFile.containsData(file.offset(), file.size())) {
+      materialize(file);
+    }
+  }
+
+  /**
+   * Moves files which aren't skipped to their final location. It can be invoked
+   * when all pieces of wanted files are downloaded.
+   */
+  @Override
+  public synchronized void finishWantedFiles() throws IOException {
+    for (FileStorage file : files) {
+      if (mySkippedFiles.contains(file) || myPadFiles.contains(file) || file.isFinished()) continue;
+      materialize(file);
+      file.finish();
+    }
+  }
+
+  /**
+   * @return true if specified file must be used for the operation, false if the operation
+   * must be done in the parts file
+   */
+  private synchronized boolean prepareFile(FileStorage file, boolean write) throws IOException {
+    if (file.isOpen()) return true;
+    if (file.exists()) {
+      file.open(mySeeder);
+      return true;
+    }
+    if (!write || myPartsFile != null && mySkippedFiles.contains(file)) return false;
+    file.open(false);
+    return true;
+  }
+
+  /**
+   * opens the file and copies its data from the parts file if the file is created
+   */
+  private synchronized void materialize(FileStorage file) throws IOException {
+    if (file.isOpen()) return;
+    final boolean existed = file.exists();
+    file.open(false);
+    if (!existed && myPartsFile != null) {
+      myPartsFile.copyTo(file);
+    }
+  }
+
   @Override
   public int read(ByteBuffer buffer, long position) throws IOException {
     int requested = buffer.remaining();
     int bytes = 0;
 
-    for (FileOffset fo : this.select(position, requested)) {
-      // TODO: remove cast to int when large ByteBuffer support is
-      // implemented in Java.
-      buffer.limit((int) (buffer.position() + fo.length));
-      bytes += fo.file.read(buffer, fo.offset);
+    checkRange(position, requested);
+    for (int index = firstFileIndex(position); bytes < requested && index < this.files.size(); index++) {
+      final FileStorage file = this.files.get(index);
+      final long offsetInFile = position + bytes - file.offset();
+      final int length = (int) Math.min(file.size() - offsetInFile, requested - bytes);
+      if (length <= 0) continue;
+      buffer.limit(buffer.position() + length);
+      if (myPadFiles.contains(file)) {
+        bytes += putZeros(buffer);
+      } else if (prepareFile(file, false)) {
+        bytes += file.read(buffer, offsetInFile);
+      } else if (myPartsFile != null) {
+        bytes += myPartsFile.read(buffer, file.offset() + offsetInFile);
+      } else {
+        // the file isn't created yet, so it contains only zeros
+        bytes += putZeros(buffer);
+      }
     }
 
     if (bytes < requested) {
@@ -118,15 +279,37 @@ public class FileCollectionStorage implements TorrentByteStorage {
     return bytes;
   }
 
+  private static int putZeros(ByteBuffer buffer) {
+    final int count = buffer.remaining();
+    while (buffer.hasRemaining()) {
+      buffer.put((byte) 0);
+    }
+    return count;
+  }
+
   @Override
   public int write(ByteBuffer buffer, long position) throws IOException {
     int requested = buffer.remaining();
 
     int bytes = 0;
 
-    for (FileOffset fo : this.select(position, requested)) {
-      buffer.limit(bytes + (int) fo.length);
-      bytes += fo.file.write(buffer, fo.offset);
+    checkRange(position, requested);
+    final int start = buffer.position();
+    for (int index = firstFileIndex(position); bytes < requested && index < this.files.size(); index++) {
+      final FileStorage file = this.files.get(index);
+      final long offsetInFile = position + bytes - file.offset();
+      final int length = (int) Math.min(file.size() - offsetInFile, requested - bytes);
+      if (length <= 0) continue;
+      buffer.limit(start + bytes + length);
+      if (myPadFiles.contains(file)) {
+        // pad files contain only zeros, so their data isn't stored
+        buffer.position(buffer.limit());
+        bytes += length;
+      } else if (prepareFile(file, true)) {
+        bytes += file.write(buffer, offsetInFile);
+      } else {
+        bytes += myPartsFile.write(buffer, file.offset() + offsetInFile);
+      }
     }
 
     if (bytes < requested) {
@@ -141,20 +324,29 @@ public class FileCollectionStorage implements TorrentByteStorage {
     for (FileStorage file : this.files) {
       file.close();
     }
+    if (myPartsFile != null) {
+      myPartsFile.close();
+    }
     myIsOpen = false;
   }
 
   @Override
   public synchronized void finish() throws IOException {
+    // all data is downloaded, so skipped files are created too
     for (FileStorage file : this.files) {
+      if (myPadFiles.contains(file)) continue;
+      materialize(file);
       file.finish();
     }
+    if (myPartsFile != null) {
+      myPartsFile.delete();
+    }
   }
 
   @Override
   public boolean isFinished() {
     for (FileStorage file : this.files) {
-      if (!file.isFinished()) {
+      if (!myPadFiles.contains(file) && !file.isFinished()) {
         return false;
       }
     }
@@ -167,83 +359,38 @@ public class FileCollectionStorage implements TorrentByteStorage {
     for (FileStorage file : files) {
       file.delete();
     }
-  }
-
-  /**
-   * File operation details holder.
-   *
-   * <p>
-   * This simple inner class holds the details for a read or write operation
-   * on one of the underlying {@link FileStorage}s.
-   * </p>
-   *
-   * @author dgiffin
-   * @author mpetazzoni
-   */
-  private static class FileOffset {
-
-    public final FileStorage file;
-    public final long offset;
-    public final long length;
-
-    FileOffset(FileStorage file, long offset, long length) {
-      this.file = file;
-      this.offset = offset;
-      this.length = length;
+    if (myPartsFile != null) {
+      myPartsFile.delete();
     }
   }
 
   /**
-   * Select the group of files impacted by an operation.
-   *
-   * <p>
-   * This function selects which files are impacted by a read or write
-   * operation, with their respective relative offset and chunk length.
-   * </p>
-   *
-   * @param offset The offset of the operation, in bytes, relative to the
-   *               complete byte storage.
-   * @param length The number of bytes to read or write.
-   * @return A list of {@link FileOffset} objects representing the {@link
-   * FileStorage}s impacted by the operation, bundled with their
-   * respective relative offset and number of bytes to read or write.
    * @throws IllegalArgumentException If the offset and length go over the
    *                                  byte storage size.
-   * @throws IllegalStateException    If the files registered with this byte
-   *                                  storage can't accommodate the request (should not happen, really).
    */
-  private List<FileOffset> select(long offset, long length) {
+  private void checkRange(long offset, long length) {
     if (offset + length > this.size) {
       throw new IllegalArgumentException("Buffer overrun (" +
               offset + " + " + length + " > " + this.size + ") !");
     }
+  }
 
-    List<FileOffset> selected = new LinkedList<FileOffset>();
-    long bytes = 0;
-
-    for (FileStorage file : this.files) {
-      if (file.offset() >= offset + length) {
-        break;
-      }
-
-      if (file.offset() + file.size() < offset) {
-        continue;
+  /**
+   * @param offset offset in the complete byte storage
+   * @return index of the first file which contains byte at specified offset,
+   * empty files are skipped. Count of files if the offset is after the end of the last file
+   */
+  private int firstFileIndex(long offset) {
+    int low = 0;
+    int high = myFileEnds.length;
+    while (low < high) {
+      final int middle = (low + high) >>> 1;
+      if (myFileEnds[middle] <= offset) {
+        low = middle + 1;
+      } else {
+        high = middle;
       }
-
-      long position = offset - file.offset();
-      position = position > 0 ? position : 0;
-      long size = Math.min(
-              file.size() - position,
-              length - bytes);
-      selected.add(new FileOffset(file, position, size));
-      bytes += size;
     }
-
-    if (selected.size() == 0 || bytes < length) {
-      throw new IllegalStateException("Buffer underrun (only got " +
-              bytes + " out of " + length + " byte(s) requested)!");
-    }
-
-    return selected;
+    return low;
   }
 }
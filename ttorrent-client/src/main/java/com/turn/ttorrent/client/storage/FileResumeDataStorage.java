@@ -0,0 +1,136 @@
+package com.turn.ttorrent.client.storage;
+
+import com.turn.ttorrent.bcodec.BDecoder;
+import com.turn.ttorrent.bcodec.BEValue;
+import com.turn.ttorrent.bcodec.BEncoder;
+import com.turn.ttorrent.bcodec.InvalidBEncodingException;
+import org.apache.commons.io.FileUtils;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.util.*;
+
+/**
+ * Stores resume data of each torrent in separate bencoded file in specified directory.
+ * The file is replaced atomically, so data isn't corrupted if the process is killed while saving
+ */
+public class FileResumeDataStorage implements ResumeDataStorage {
+
+  private static final String RESUME_FILE_EXTENSION = ".resume";
+  private static final String PIECES_KEY = "pieces";
+  private static final String PIECES_COUNT_KEY = "pieces count";
+  private static final String FILES_KEY = "files";
+  private static final String LENGTH_KEY = "length";
+  private static final String MTIME_KEY = "mtime";
+  private static final String PARTS_KEY = "parts";
+  private static final String CLEAN_SHUTDOWN_KEY = "clean shutdown";
+
+  private final File myDirectory;
+
+  public FileResumeDataStorage(@NotNull File directory) {
+    myDirectory = directory;
+  }
+
+  @Nullable
+  @Override
+  public ResumeData load(@NotNull String hexInfoHash) throws IOException {
+    final File file = getFile(hexInfoHash);
+    if (!file.isFile()) return null;
+    final BEValue value = BDecoder.bdecode(ByteBuffer.wrap(FileUtils.readFileToByteArray(file)));
+    if (value == null) {
+      throw new InvalidBEncodingException("Resume data file " + file + " is empty");
+    }
+    final Map<String, BEValue> map = value.getMap();
+    if (!map.containsKey(PIECES_KEY) || !map.containsKey(PIECES_COUNT_KEY) || !map.containsKey(FILES_KEY)) {
+      throw new InvalidBEncodingException("Resume data file " + file + " doesn't contain required keys");
+    }
+    final BitSet pieces = fromBitfield(map.get(PIECES_KEY).getBytes(), map.get(PIECES_COUNT_KEY).getInt());
+    List<ResumeData.FileState> fileStates = new ArrayList<ResumeData.FileState>();
+    for (BEValue fileValue : map.get(FILES_KEY).getList()) {
+      fileStates.add(toFileState(fileValue));
+    }
+    final ResumeData.FileState partsFileState =
+            map.containsKey(PARTS_KEY) ? toFileState(map.get(PARTS_KEY)) : ResumeData.FileState.ABSENT;
+    final boolean cleanShutdown = map.containsKey(CLEAN_SHUTDOWN_KEY) && map.get(CLEAN_SHUTDOWN_KEY).getInt() == 1;
+    return new ResumeData(pieces, fileStates, partsFileState, cleanShutdown);
+  }
+
+  @Override
+  public void save(@NotNull String hexInfoHash, @NotNull ResumeData resumeData) throws IOException {
+    if (!myDirectory.isDirectory() && !myDirectory.mkdirs()) {
+      throw new IOException("Unable to create directory " + myDirectory);
+    }
+    final BitSet pieces = resumeData.getAvailablePieces();
+    Map<String, BEValue> map = new HashMap<String, BEValue>();
+    map.put(PIECES_KEY, new BEValue(toBitfield(pieces)));
+    map.put(PIECES_COUNT_KEY, new BEValue(pieces.length()));
+    List<BEValue> files = new ArrayList<BEValue>();
+    for (ResumeData.FileState state : resumeData.getFileStates()) {
+      files.add(toBEValue(state));
+    }
+    map.put(FILES_KEY, new BEValue(files));
+    map.put(PARTS_KEY, toBEValue(resumeData.getPartsFileState()));
+    map.put(CLEAN_SHUTDOWN_KEY, new BEValue(resumeData.isCleanShutdown() ? 1 : 0));
+
+    final File file = getFile(hexInfoHash);
+    final File temp = new File(myDirectory, file.getName() + ".tmp");
+    final OutputStream out = new BufferedOutputStream(new FileOutputStream(temp));
+    try {
+      BEncoder.bencode(map, out);
+    } finally {
+      out.close();
+    }
+    if (!temp.renameTo(file)) {
+      // rename doesn't replace existing file on some platforms
+      FileUtils.deleteQuietly(file);
+      if (!temp.renameTo(file)) {
+        FileUtils.deleteQuietly(temp);
+        throw new IOException("Unable to save resume data into " + file);
+      }
+    }
+  }
+
+  @Override
+  public void remove(@NotNull String hexInfoHash) throws IOException {
+    final File file = getFile(hexInfoHash);
+    if (file.exists() && !file.delete()) {
+      throw new IOException("Unable to delete resume data file " + file);
+    }
+  }
+
+  private File getFile(String hexInfoHash) {
+    return new File(myDirectory, hexInfoHash + RESUME_FILE_EXTENSION);
+  }
+
+  private static BEValue toBEValue(ResumeData.FileState state) {
+    Map<String, BEValue> fileMap = new HashMap<String, BEValue>();
+    fileMap.put(LENGTH_KEY, new BEValue(state.getLength()));
+    fileMap.put(MTIME_KEY, new BEValue(state.getLastModified()));
+    return new BEValue(fileMap);
+  }
+
+  private static ResumeData.FileState toFileState(BEValue value) throws InvalidBEncodingException {
+    final Map<String, BEValue> fileMap = value.getMap();
+    return new ResumeData.FileState(fileMap.get(LENGTH_KEY).getLong(), fileMap.get(MTIME_KEY).getLong());
+  }
+
+  private static byte[] toBitfield(BitSet pieces) {
+    byte[] result = new byte[(pieces.length() + 7) / 8];
+    for (int i = pieces.nextSetBit(0); i >= 0; i = pieces.nextSetBit(i + 1)) {
+      result[i / 8] |= 1 << (7 - i % 8);
+    }
+    return result;
+  }
+
+  private static BitSet fromBitfield(byte[] bitfield, int piecesCount) {
+    BitSet result = new BitSet(piecesCount);
+    for (int i = 0; i < piecesCount && i / 8 < bitfield.length; i++) {
+      if ((bitfield[i / 8] & (1 << (7 - i % 8))) != 0) {
+        result.set(i);
+      }
+    }
+    return result;
+  }
+}
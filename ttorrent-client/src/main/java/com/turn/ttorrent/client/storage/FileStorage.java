@@ -17,13 +17,13 @@ package com.turn.ttorrent.client.storage;
 
 import com.turn.ttorrent.common.TorrentLoggerFactory;
 import org.apache.commons.io.FileUtils;
+import org.jetbrains.annotations.Nullable;
 import org.slf4j.Logger;
 
 import java.io.File;
 import java.io.IOException;
 import java.io.RandomAccessFile;
 import java.nio.ByteBuffer;
-import java.nio.channels.ClosedByInterruptException;
 import java.nio.channels.FileChannel;
 import java.util.concurrent.locks.ReadWriteLock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
@@ -38,6 +38,19 @@ import java.util.concurrent.locks.ReentrantReadWriteLock;
  * FileChannel to expose thread-safe read/write methods.
  * </p>
  *
+ * <p>
+ * The channel is taken from {@link FileChannelPool} on each operation, so
+ * it's opened on first read or write and can be closed by the pool between
+ * operations when too many files are open.
+ * </p>
+ *
+ * <p>
+ * Optionally a file opened for seeding is read with direct I/O bypassing the
+ * page cache, see {@link DirectFileReader}. The reader is taken from the pool
+ * too, so it's opened lazily and counted in the limit of open files. If direct
+ * I/O isn't supported, the file is read through the page cache as usual.
+ * </p>
+ *
  * @author mpetazzoni
  */
 public class FileStorage implements TorrentByteStorage {
@@ -52,32 +65,60 @@ public class FileStorage implements TorrentByteStorage {
   private final long offset;
   private final long size;
 
-  private RandomAccessFile raf;
-  private FileChannel channel;
+  private final FileChannelPool myChannelPool;
+  private final boolean myDirectReads;
+  // owner of the direct reader in the pool, the storage itself owns the channel
+  private final Object myDirectReaderOwner = new Object();
+  private volatile boolean myUseDirectReader = false;
   private File current;
+  private String myMode;
   private boolean myIsOpen = false;
 
   private final ReadWriteLock myLock = new ReentrantReadWriteLock();
 
   public FileStorage(File file, long offset, long size)
           throws IOException {
+    this(file, offset, size, FileChannelPool.getDefault());
+  }
+
+  /**
+   * @param channelPool pool which keeps channel of the file open between operations
+   */
+  public FileStorage(File file, long offset, long size, FileChannelPool channelPool) {
+    this(file, offset, size, channelPool, false);
+  }
+
+  /**
+   * @param channelPool pool which keeps channel of the file open between operations
+   * @param directReads true if the file opened for seeding must be read with direct I/O when it's supported
+   */
+  public FileStorage(File file, long offset, long size, FileChannelPool channelPool, boolean directReads) {
     this.target = file;
     this.offset = offset;
     this.size = size;
-
+    myChannelPool = channelPool;
+    myDirectReads = directReads;
   }
 
   public void open(final boolean seeder) throws IOException {
     try {
       myLock.writeLock().lock();
+      // channel opened in previous mode mustn't be used anymore
+      myChannelPool.close(this, false);
+      closeDirectReader();
       if (seeder) {
         if (!target.exists()) {
           throw new IOException("Target file " + target.getAbsolutePath() + " doesn't exist.");
         }
         this.current = this.target;
-        this.raf = new RandomAccessFile(this.current, "r");
+        myMode = "r";
+        myUseDirectReader = myDirectReads;
       } else {
-        this.partial = new File(this.target.getAbsolutePath() + PARTIAL_FILE_NAME_SUFFIX);
+        final File parent = this.target.getParentFile();
+        if (parent != null && !parent.exists() && !parent.mkdirs()) {
+          throw new IOException("Unable to create directories " + parent + " for storing torrent file " + target.getName());
+        }
+        this.partial = getPartialFile();
 
         if (this.partial.exists()) {
           logger.debug("Partial download found at {}. Continuing...",
@@ -92,14 +133,22 @@ public class FileStorage implements TorrentByteStorage {
                   this.target.getAbsolutePath());
           this.current = this.target;
         }
-        this.raf = new RandomAccessFile(this.current, "rw");
-        this.raf.setLength(this.size);
+        myMode = "rw";
+        // Set the file length to the appropriate size, eventually truncating
+        // or extending the file if it already exists with a different size.
+        // Truncating to the same length updates modification time of the file
+        if (!this.current.exists() || this.current.length() != this.size) {
+          final RandomAccessFile raf = new RandomAccessFile(this.current, "rw");
+          try {
+            raf.setLength(this.size);
+          } finally {
+            raf.close();
+          }
+        }
       }
 
-      // Set the file length to the appropriate size, eventually truncating
-      // or extending the file if it already exists with a different size.
+      // channel of the file is opened lazily by the pool on first read or write
       myIsOpen = true;
-      this.channel = raf.getChannel();
 
       logger.debug("Opened byte storage file at {} ({}+{} byte(s)).",
               new Object[]{
@@ -112,6 +161,53 @@ public class FileStorage implements TorrentByteStorage {
     }
   }
 
+  private void closeDirectReader() throws IOException {
+    myUseDirectReader = false;
+    myChannelPool.close(myDirectReaderOwner, false);
+  }
+
+  /**
+   * @return true if the file is opened for seeding and it's read with direct I/O
+   */
+  boolean isReadingDirectly() {
+    return myUseDirectReader;
+  }
+
+  private FileChannel acquireChannel() throws IOException {
+    if (!myIsOpen) throw new IOException("Storage " + this.target.getAbsolutePath() + " isn't open");
+    return myChannelPool.acquire(this, this.current, myMode);
+  }
+
+  private File getPartialFile() {
+    return new File(this.target.getAbsolutePath() + PARTIAL_FILE_NAME_SUFFIX);
+  }
+
+  /**
+   * @return true if the target file or the partial file exists
+   */
+  public boolean exists() {
+    return this.target.exists() || getPartialFile().exists();
+  }
+
+  /**
+   * @return file store of the file or null if it can't be determined, see {@link StorageUtils#getFileStore(File)}
+   */
+  @Nullable
+  Object getFileStore() {
+    return StorageUtils.getFileStore(this.target);
+  }
+
+  /**
+   * @return size and modification time of the file which is used for storing data
+   */
+  public ResumeData.FileState getStateOnDisk() {
+    // partial file is used if it exists
+    final File partialFile = getPartialFile();
+    final File file = partialFile.exists() ? partialFile : this.target;
+    if (!file.exists()) return ResumeData.FileState.ABSENT;
+    return new ResumeData.FileState(file.length(), file.lastModified());
+  }
+
   protected long offset() {
     return this.offset;
   }
@@ -130,7 +226,26 @@ public class FileStorage implements TorrentByteStorage {
         throw new IllegalArgumentException("Invalid storage read request!");
       }
 
-      int bytes = this.channel.read(buffer, position);
+      if (myUseDirectReader) {
+        final DirectFileReader directReader = myChannelPool.acquireDirectReader(myDirectReaderOwner, this.current);
+        if (directReader != null) {
+          try {
+            return directReader.read(buffer, position);
+          } finally {
+            myChannelPool.release(myDirectReaderOwner);
+          }
+        }
+        // direct I/O isn't supported, the file is read through the page cache from now on
+        myUseDirectReader = false;
+      }
+
+      int bytes;
+      final FileChannel channel = acquireChannel();
+      try {
+        bytes = channel.read(buffer, position);
+      } finally {
+        myChannelPool.release(this);
+      }
       if (bytes < requested) {
         throw new IOException("Storage underrun!");
       }
@@ -151,7 +266,12 @@ public class FileStorage implements TorrentByteStorage {
         throw new IllegalArgumentException("Invalid storage write request!");
       }
 
-      return this.channel.write(buffer, position);
+      final FileChannel channel = acquireChannel();
+      try {
+        return channel.write(buffer, position);
+      } finally {
+        myChannelPool.release(this);
+      }
     } finally {
       myLock.writeLock().unlock();
     }
@@ -162,14 +282,9 @@ public class FileStorage implements TorrentByteStorage {
     try {
       myLock.writeLock().lock();
       if (!myIsOpen) return;
-      logger.debug("Closing file channel to {}. Channel open: {}", current.getName(), channel.isOpen());
-      if (this.channel.isOpen()) {
-        try {
-          this.channel.force(true);
-        } catch (ClosedByInterruptException ignored) {
-        }
-      }
-      this.raf.close();
+      logger.debug("Closing file channel to {}", current.getName());
+      myChannelPool.close(this, "rw".equals(myMode));
+      closeDirectReader();
       myIsOpen = false;
     } finally {
       myLock.writeLock().unlock();
@@ -185,9 +300,8 @@ public class FileStorage implements TorrentByteStorage {
       myLock.writeLock().lock();
       logger.debug("Closing file channel to " + this.current.getName() +
               " (download complete).");
-      if (this.channel.isOpen()) {
-        this.channel.force(true);
-      }
+      myChannelPool.close(this, "rw".equals(myMode));
+      closeDirectReader();
 
       // Nothing more to do if we're already on the target file.
       if (this.isFinished()) {
@@ -196,7 +310,6 @@ public class FileStorage implements TorrentByteStorage {
 
       try {
         FileUtils.deleteQuietly(this.target);
-        this.raf.close();
         FileUtils.moveFile(this.current, this.target);
       } catch (Exception ex) {
         logger.error("An error occurred while moving file to its final location", ex);
@@ -229,7 +342,7 @@ public class FileStorage implements TorrentByteStorage {
 
   @Override
   public boolean isFinished() {
-    return this.current.equals(this.target);
+    return this.target.equals(this.current);
   }
 
   @Override
@@ -0,0 +1,233 @@
+package com.turn.ttorrent.client.storage;
+
+import com.turn.ttorrent.common.Digests;
+import com.turn.ttorrent.common.TorrentFile;
+import com.turn.ttorrent.common.TorrentLoggerFactory;
+import com.turn.ttorrent.common.TorrentMetadata;
+import org.slf4j.Logger;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Checks pieces of the torrent in parallel. Reader threads read pieces sequentially, each file of the torrent
+ * is read by one reader, so the disk isn't forced to seek between files. Data is read into the bounded ring of
+ * reusable buffers and hashing threads compare hashes of pieces with hashes from metadata.
+ * <p>
+ * By default one reader is used for each device which stores files of the torrent, see {@link #READER_PER_DEVICE}.
+ */
+public class ParallelPiecesChecker {
+
+  private static final Logger logger =
+          TorrentLoggerFactory.getLogger(ParallelPiecesChecker.class);
+
+  private static final long PROGRESS_PERIOD_MILLIS = 500;
+  private static final long MAX_BUFFERS_MEMORY = 64 * 1024 * 1024;
+
+  /**
+   * count of readers which means that files on each device (file store) are read by a separate reader.
+   * Devices are known only for {@link FileCollectionStorage} on JDK 7+, otherwise one reader is used
+   */
+  public static final int READER_PER_DEVICE = 0;
+
+  private final int myReadersCount;
+  private final int myHashersCount;
+
+  /**
+   * @param readersCount count of threads which read data or {@link #READER_PER_DEVICE}. Files are read
+   *                     sequentially by one reader, so count of readers should be equal to count of devices
+   *                     which store the files
+   * @param hashersCount count of threads which calculate hashes
+   */
+  public ParallelPiecesChecker(int readersCount, int hashersCount) {
+    if (readersCount < 0 || hashersCount <= 0) {
+      throw new IllegalArgumentException("Count of readers must not be negative and count of hashers must be positive");
+    }
+    myReadersCount = readersCount;
+    myHashersCount = hashersCount;
+  }
+
+  /**
+   * @param piecesToCheck indexes of pieces which must be checked
+   * @return indexes of checked pieces which are valid
+   * @throws InterruptedIOException if the check is cancelled or the thread is interrupted
+   */
+  public BitSet check(final TorrentMetadata metadata,
+                      final TorrentByteStorage byteStorage,
+                      BitSet piecesToCheck,
+                      PiecesCheckListener listener) throws IOException {
+    final BitSet result = new BitSet(metadata.getPiecesCount());
+    final BitSet toCheck = (BitSet) piecesToCheck.clone();
+    toCheck.clear(metadata.getPiecesCount(), Math.max(metadata.getPiecesCount(), toCheck.length()));
+    final int totalPieces = toCheck.cardinality();
+    if (totalPieces == 0) return result;
+
+    final int pieceLength = metadata.getPieceLength();
+    final List<Queue<int[]>> readerRanges = splitByReaders(metadata, byteStorage, pieceLength);
+    final int readersCount = readerRanges.size();
+    final int buffersCount = (int) Math.max(2, Math.min(2 * myHashersCount + readersCount, MAX_BUFFERS_MEMORY / pieceLength));
+    final BlockingQueue<byte[]> freeBuffers = new ArrayBlockingQueue<byte[]>(buffersCount);
+    for (int i = 0; i < buffersCount; i++) {
+      freeBuffers.add(new byte[pieceLength]);
+    }
+    final BlockingQueue<PieceData> filledBuffers = new ArrayBlockingQueue<PieceData>(buffersCount + myHashersCount);
+    final AtomicInteger checkedPieces = new AtomicInteger();
+    final AtomicInteger activeReaders = new AtomicInteger(readersCount);
+    final AtomicReference<Throwable> error = new AtomicReference<Throwable>();
+    final CountDownLatch hashersLatch = new CountDownLatch(myHashersCount);
+    final PieceValidator validator = new PieceValidator(metadata);
+
+    byteStorage.open(false);
+    ExecutorService executor = Executors.newFixedThreadPool(readersCount + myHashersCount);
+    try {
+      for (final Queue<int[]> ranges : readerRanges) {
+        executor.submit(new Runnable() {
+          @Override
+          public void run() {
+            try {
+              int[] range;
+              while ((range = ranges.poll()) != null && error.get() == null) {
+                for (int index = toCheck.nextSetBit(range[0]); index >= 0 && index < range[1]; index = toCheck.nextSetBit(index + 1)) {
+                  final byte[] buffer = freeBuffers.take();
+                  final int length = validator.getPieceLength(index);
+                  byteStorage.read(ByteBuffer.wrap(buffer, 0, length), (long) index * pieceLength);
+                  filledBuffers.put(new PieceData(index, buffer, length));
+                }
+              }
+            } catch (InterruptedException e) {
+              Thread.currentThread().interrupt();
+            } catch (Throwable e) {
+              error.compareAndSet(null, e);
+            } finally {
+              if (activeReaders.decrementAndGet() == 0) {
+                for (int i = 0; i < myHashersCount; i++) {
+                  filledBuffers.offer(PieceData.END);
+                }
+              }
+            }
+          }
+        });
+      }
+      for (int i = 0; i < myHashersCount; i++) {
+        executor.submit(new Runnable() {
+          @Override
+          public void run() {
+            try {
+              final MessageDigest digest = Digests.createSha1();
+              PieceData data;
+              while ((data = filledBuffers.take()) != PieceData.END) {
+                final boolean valid = validator.isValid(data.index, data.buffer, data.length, digest);
+                freeBuffers.put(data.buffer);
+                if (valid) {
+                  synchronized (result) {
+                    result.set(data.index);
+                  }
+                }
+                checkedPieces.incrementAndGet();
+              }
+            } catch (InterruptedException e) {
+              Thread.currentThread().interrupt();
+            } catch (Throwable e) {
+              error.compareAndSet(null, e);
+            } finally {
+              hashersLatch.countDown();
+            }
+          }
+        });
+      }
+
+      while (!hashersLatch.await(PROGRESS_PERIOD_MILLIS, TimeUnit.MILLISECONDS)) {
+        if (error.get() != null) break;
+        if (listener.isCancelled()) {
+          throw new InterruptedIOException("Check of pieces of torrent " + metadata.getHexInfoHash() + " is cancelled");
+        }
+        listener.piecesChecked(checkedPieces.get(), totalPieces);
+      }
+      final Throwable throwable = error.get();
+      if (throwable instanceof IOException) throw (IOException) throwable;
+      if (throwable != null) throw new IOException("Unable to check pieces of torrent " + metadata.getHexInfoHash(), throwable);
+      listener.piecesChecked(checkedPieces.get(), totalPieces);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted while checking pieces of torrent " + metadata.getHexInfoHash());
+    } finally {
+      executor.shutdownNow();
+      byteStorage.close();
+    }
+    logger.debug("Checked {} pieces of torrent {}, {} pieces are valid",
+            new Object[]{totalPieces, metadata.getHexInfoHash(), result.cardinality()});
+    return result;
+  }
+
+  /**
+   * @return ranges of pieces for each reader. Readers share one queue if count of readers is specified,
+   * otherwise each reader gets ranges of files on one device
+   */
+  private List<Queue<int[]>> splitByReaders(TorrentMetadata metadata, TorrentByteStorage byteStorage, int pieceLength) {
+    final List<int[]> ranges = splitByFiles(metadata, pieceLength);
+    if (myReadersCount != READER_PER_DEVICE) {
+      return Collections.<Queue<int[]>>nCopies(myReadersCount, new ConcurrentLinkedQueue<int[]>(ranges));
+    }
+    final FileCollectionStorage fileCollectionStorage = StorageUtils.find(byteStorage, FileCollectionStorage.class);
+    List<Object> fileStores = fileCollectionStorage == null ? null : fileCollectionStorage.getFileStores();
+    if (fileStores != null && fileStores.size() != metadata.getFiles().size()) {
+      fileStores = null;
+    }
+    Map<Object, Queue<int[]>> result = new LinkedHashMap<Object, Queue<int[]>>();
+    for (int[] range : ranges) {
+      final Object fileStore = fileStores == null ? null : fileStores.get(range[2]);
+      Queue<int[]> queue = result.get(fileStore);
+      if (queue == null) {
+        queue = new ConcurrentLinkedQueue<int[]>();
+        result.put(fileStore, queue);
+      }
+      queue.add(range);
+    }
+    if (result.isEmpty()) {
+      return Collections.<Queue<int[]>>singletonList(new ConcurrentLinkedQueue<int[]>());
+    }
+    logger.debug("Pieces of torrent {} are read by {} reader(s), one for each device",
+            metadata.getHexInfoHash(), result.size());
+    return new ArrayList<Queue<int[]>>(result.values());
+  }
+
+  /**
+   * @return ranges of pieces, each range contains pieces which start in one file: first piece,
+   * last piece exclusive and index of the file
+   */
+  private static List<int[]> splitByFiles(TorrentMetadata metadata, int pieceLength) {
+    List<int[]> result = new ArrayList<int[]>();
+    long offset = 0;
+    final List<TorrentFile> files = metadata.getFiles();
+    for (int i = 0; i < files.size(); i++) {
+      final int from = (int) ((offset + pieceLength - 1) / pieceLength);
+      offset += files.get(i).size;
+      final int to = (int) Math.min((offset + pieceLength - 1) / pieceLength, metadata.getPiecesCount());
+      if (from < to) {
+        result.add(new int[]{from, to, i});
+      }
+    }
+    return result;
+  }
+
+  private static class PieceData {
+
+    private static final PieceData END = new PieceData(-1, null, 0);
+
+    private final int index;
+    private final byte[] buffer;
+    private final int length;
+
+    PieceData(int index, byte[] buffer, int length) {
+      this.index = index;
+      this.buffer = buffer;
+      this.length = length;
+    }
+  }
+}
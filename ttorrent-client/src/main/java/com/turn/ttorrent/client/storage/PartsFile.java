@@ -0,0 +1,215 @@
+package com.turn.ttorrent.client.storage;
+
+import com.turn.ttorrent.common.TorrentLoggerFactory;
+import org.slf4j.Logger;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Storage for data of skipped files which belongs to pieces shared with wanted files.
+ * <p>
+ * The file starts with the table which contains slot number for each piece of the torrent (4 bytes per piece,
+ * 0 means the piece isn't stored), the table is followed by slots of piece length. Slot is allocated
+ * when data of the piece is written at first time. The file is created only if some data is written.
+ * Data which wasn't written is read as zeros.
+ */
+class PartsFile {
+
+  private static final Logger logger =
+          TorrentLoggerFactory.getLogger(PartsFile.class);
+
+  private final File myFile;
+  private final int myPieceLength;
+  private final int myPiecesCount;
+  private final Map<Integer, Integer> mySlots = new HashMap<Integer, Integer>();
+  private RandomAccessFile myRaf;
+  private FileChannel myChannel;
+
+  PartsFile(File file, int pieceLength, int piecesCount) {
+    myFile = file;
+    myPieceLength = pieceLength;
+    myPiecesCount = piecesCount;
+  }
+
+  /**
+   * reads data stored at specified position of the torrent
+   *
+   * @return count of read bytes, it's always equal to remaining bytes in the buffer
+   */
+  synchronized int read(ByteBuffer buffer, long position) throws IOException {
+    final boolean exists = openIfExists();
+    final int requested = buffer.remaining();
+    final int limit = buffer.limit();
+    try {
+      while (buffer.hasRemaining()) {
+        final int pieceIndex = (int) (position / myPieceLength);
+        final int offsetInPiece = (int) (position % myPieceLength);
+        final int length = Math.min(buffer.remaining(), myPieceLength - offsetInPiece);
+        buffer.limit(buffer.position() + length);
+        final Integer slot = exists ? mySlots.get(pieceIndex) : null;
+        long slotPosition = slot == null ? -1 : getSlotPosition(slot) + offsetInPiece;
+        while (buffer.hasRemaining()) {
+          final int bytes = slotPosition < 0 ? -1 : myChannel.read(buffer, slotPosition);
+          if (bytes <= 0) {
+            fillZeros(buffer);
+            break;
+          }
+          slotPosition += bytes;
+        }
+        buffer.limit(limit);
+        position += length;
+      }
+    } finally {
+      buffer.limit(limit);
+    }
+    return requested;
+  }
+
+  /**
+   * writes data at specified position of the torrent
+   *
+   * @return count of written bytes
+   */
+  synchronized int write(ByteBuffer buffer, long position) throws IOException {
+    open();
+    final int requested = buffer.remaining();
+    final int limit = buffer.limit();
+    try {
+      while (buffer.hasRemaining()) {
+        final int pieceIndex = (int) (position / myPieceLength);
+        final int offsetInPiece = (int) (position % myPieceLength);
+        final int length = Math.min(buffer.remaining(), myPieceLength - offsetInPiece);
+        buffer.limit(buffer.position() + length);
+        long slotPosition = getSlotPosition(getOrAllocateSlot(pieceIndex)) + offsetInPiece;
+        while (buffer.hasRemaining()) {
+          slotPosition += myChannel.write(buffer, slotPosition);
+        }
+        buffer.limit(limit);
+        position += length;
+      }
+    } finally {
+      buffer.limit(limit);
+    }
+    return requested;
+  }
+
+  /**
+   * @return true if the file contains data of at least one piece which intersects specified range of the torrent
+   */
+  synchronized boolean containsData(long offset, long length) throws IOException {
+    if (length <= 0 || !openIfExists()) return false;
+    final int firstPiece = (int) (offset / myPieceLength);
+    final int lastPiece = (int) ((offset + length - 1) / myPieceLength);
+    for (Integer pieceIndex : mySlots.keySet()) {
+      if (pieceIndex >= firstPiece && pieceIndex <= lastPiece) return true;
+    }
+    return false;
+  }
+
+  /**
+   * copies all stored data which belongs to the file into the file
+   */
+  synchronized void copyTo(FileStorage file) throws IOException {
+    if (file.size() == 0 || !openIfExists()) return;
+    final long fileStart = file.offset();
+    final long fileEnd = fileStart + file.size();
+    for (Integer pieceIndex : mySlots.keySet()) {
+      final long pieceStart = (long) pieceIndex * myPieceLength;
+      final long from = Math.max(pieceStart, fileStart);
+      final long to = Math.min(pieceStart + myPieceLength, fileEnd);
+      if (from >= to) continue;
+      ByteBuffer buffer = ByteBuffer.allocate((int) (to - from));
+      read(buffer, from);
+      buffer.flip();
+      file.write(buffer, from - fileStart);
+    }
+    logger.debug("Copied data of skipped file from {} into the file", myFile.getName());
+  }
+
+  /**
+   * @return size and modification time of the file or {@link ResumeData.FileState#ABSENT} if it doesn't exist
+   */
+  ResumeData.FileState getStateOnDisk() {
+    if (!myFile.exists()) return ResumeData.FileState.ABSENT;
+    return new ResumeData.FileState(myFile.length(), myFile.lastModified());
+  }
+
+  synchronized void close() throws IOException {
+    if (myRaf == null) return;
+    myChannel.force(true);
+    myRaf.close();
+    myRaf = null;
+    myChannel = null;
+    mySlots.clear();
+  }
+
+  synchronized void delete() throws IOException {
+    close();
+    if (myFile.exists() && !myFile.delete()) {
+      throw new IOException("Unable to delete parts file " + myFile.getAbsolutePath());
+    }
+  }
+
+  private boolean openIfExists() throws IOException {
+    if (myChannel != null) return true;
+    if (!myFile.exists()) return false;
+    open();
+    return true;
+  }
+
+  private void open() throws IOException {
+    if (myChannel != null) return;
+    myRaf = new RandomAccessFile(myFile, "rw");
+    myChannel = myRaf.getChannel();
+    final long tableSize = getTableSize();
+    if (myChannel.size() < tableSize) {
+      myRaf.setLength(tableSize);
+      return;
+    }
+    ByteBuffer table = ByteBuffer.allocate((int) tableSize);
+    while (table.hasRemaining()) {
+      if (myChannel.read(table, table.position()) < 0) break;
+    }
+    table.flip();
+    for (int i = 0; i < myPiecesCount; i++) {
+      final int slot = table.getInt();
+      if (slot > 0) {
+        mySlots.put(i, slot - 1);
+      }
+    }
+  }
+
+  private int getOrAllocateSlot(int pieceIndex) throws IOException {
+    Integer slot = mySlots.get(pieceIndex);
+    if (slot != null) return slot;
+    slot = mySlots.size();
+    ByteBuffer entry = ByteBuffer.allocate(4);
+    entry.putInt(slot + 1);
+    entry.flip();
+    while (entry.hasRemaining()) {
+      myChannel.write(entry, (long) pieceIndex * 4 + entry.position());
+    }
+    mySlots.put(pieceIndex, slot);
+    return slot;
+  }
+
+  private long getTableSize() {
+    return (long) myPiecesCount * 4;
+  }
+
+  private long getSlotPosition(int slot) {
+    return getTableSize() + (long) slot * myPieceLength;
+  }
+
+  private static void fillZeros(ByteBuffer buffer) {
+    while (buffer.hasRemaining()) {
+      buffer.put((byte) 0);
+    }
+  }
+}
@@ -0,0 +1,327 @@
+package com.turn.ttorrent.client.storage;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Cache of whole pieces which is shared between piece storages, so pieces which are requested
+ * by many peers are read from disk once. Data of pieces is stored in direct buffers outside of the heap
+ * and the cache is bounded by count of bytes.
+ * <p>
+ * Pieces are evicted by the adaptive replacement policy (ARC): the cache keeps pieces which were
+ * used once and pieces which were used several times in separate lists and it remembers keys of recently
+ * evicted pieces, so the target size of the lists follows the workload. Sequential pass over a big torrent
+ * doesn't evict pieces which are requested often.
+ */
+public class PieceCache {
+
+  private final LinkedHashMap<Key, ByteBuffer> myRecent = new LinkedHashMap<Key, ByteBuffer>();
+  private final LinkedHashMap<Key, ByteBuffer> myFrequent = new LinkedHashMap<Key, ByteBuffer>();
+  private final LinkedHashMap<Key, Integer> myRecentGhosts = new LinkedHashMap<Key, Integer>();
+  private final LinkedHashMap<Key, Integer> myFrequentGhosts = new LinkedHashMap<Key, Integer>();
+  private final AtomicLong myHits = new AtomicLong();
+  private final AtomicLong myMisses = new AtomicLong();
+  private final AtomicLong myEvictions = new AtomicLong();
+  private long myRecentBytes = 0;
+  private long myFrequentBytes = 0;
+  private long myRecentGhostsBytes = 0;
+  private long myFrequentGhostsBytes = 0;
+  // target size of the list of pieces which were used once
+  private long myRecentTarget = 0;
+  private long myMaxBytes;
+
+  public PieceCache(long maxBytes) {
+    setMaxBytes(maxBytes);
+  }
+
+  public synchronized void setMaxBytes(long maxBytes) {
+    if (maxBytes < 0) throw new IllegalArgumentException("size of cache must not be negative");
+    myMaxBytes = maxBytes;
+    myRecentTarget = Math.min(myRecentTarget, maxBytes);
+    makeRoom(0, false);
+    trimGhosts();
+  }
+
+  public synchronized long getMaxBytes() {
+    return myMaxBytes;
+  }
+
+  /**
+   * @return data of the part of the piece or null if the piece isn't cached
+   */
+  @Nullable
+  public byte[] read(@NotNull Object owner, int pieceIndex, int offset, int length) {
+    final ByteBuffer data;
+    synchronized (this) {
+      data = get(new Key(owner, pieceIndex));
+    }
+    if (data == null || offset + length > data.capacity()) {
+      myMisses.incrementAndGet();
+      return null;
+    }
+    myHits.incrementAndGet();
+    // cached buffers are never modified, so they can be copied outside of the lock
+    final byte[] result = new byte[length];
+    final ByteBuffer duplicate = data.duplicate();
+    duplicate.position(offset);
+    duplicate.get(result);
+    return result;
+  }
+
+  public synchronized boolean contains(@NotNull Object owner, int pieceIndex) {
+    final Key key = new Key(owner, pieceIndex);
+    return myRecent.containsKey(key) || myFrequent.containsKey(key);
+  }
+
+  /**
+   * puts data of the whole piece into the cache. Data is copied, so the array can be reused by the caller
+   */
+  public void put(@NotNull Object owner, int pieceIndex, @NotNull byte[] pieceData) {
+    if (pieceData.length > getMaxBytes()) return;
+    final ByteBuffer data = ByteBuffer.allocateDirect(pieceData.length);
+    data.put(pieceData);
+    data.clear();
+    synchronized (this) {
+      insert(new Key(owner, pieceIndex), data);
+      trimGhosts();
+    }
+  }
+
+  public synchronized void invalidate(@NotNull Object owner, int pieceIndex) {
+    final Key key = new Key(owner, pieceIndex);
+    removeResident(key);
+    forgetGhost(key);
+  }
+
+  /**
+   * removes all pieces of the owner from the cache
+   */
+  public synchronized void invalidateAll(@NotNull Object owner) {
+    for (Iterator<Map.Entry<Key, ByteBuffer>> iterator = myRecent.entrySet().iterator(); iterator.hasNext(); ) {
+      final Map.Entry<Key, ByteBuffer> entry = iterator.next();
+      if (entry.getKey().owner != owner) continue;
+      myRecentBytes -= entry.getValue().capacity();
+      iterator.remove();
+    }
+    for (Iterator<Map.Entry<Key, ByteBuffer>> iterator = myFrequent.entrySet().iterator(); iterator.hasNext(); ) {
+      final Map.Entry<Key, ByteBuffer> entry = iterator.next();
+      if (entry.getKey().owner != owner) continue;
+      myFrequentBytes -= entry.getValue().capacity();
+      iterator.remove();
+    }
+    for (Iterator<Map.Entry<Key, Integer>> iterator = myRecentGhosts.entrySet().iterator(); iterator.hasNext(); ) {
+      final Map.Entry<Key, Integer> entry = iterator.next();
+      if (entry.getKey().owner != owner) continue;
+      myRecentGhostsBytes -= entry.getValue();
+      iterator.remove();
+    }
+    for (Iterator<Map.Entry<Key, Integer>> iterator = myFrequentGhosts.entrySet().iterator(); iterator.hasNext(); ) {
+      final Map.Entry<Key, Integer> entry = iterator.next();
+      if (entry.getKey().owner != owner) continue;
+      myFrequentGhostsBytes -= entry.getValue();
+      iterator.remove();
+    }
+  }
+
+  private ByteBuffer get(Key key) {
+    ByteBuffer data = myRecent.remove(key);
+    if (data != null) {
+      // second use moves the piece into the list of frequently used pieces
+      myRecentBytes -= data.capacity();
+      myFrequent.put(key, data);
+      myFrequentBytes += data.capacity();
+      return data;
+    }
+    data = myFrequent.remove(key);
+    if (data != null) {
+      myFrequent.put(key, data);
+    }
+    return data;
+  }
+
+  private void insert(Key key, ByteBuffer data) {
+    final int size = data.capacity();
+    if (removeResident(key)) {
+      // data is replaced, the piece keeps its history
+      makeRoom(size, false);
+      myFrequent.put(key, data);
+      myFrequentBytes += size;
+      return;
+    }
+    final Integer recentGhost = myRecentGhosts.remove(key);
+    if (recentGhost != null) {
+      myRecentGhostsBytes -= recentGhost;
+      // the piece was evicted from the recent list too early, the list must be longer
+      final long delta = Math.max(1, myFrequentGhostsBytes / Math.max(1, myRecentGhostsBytes)) * size;
+      myRecentTarget = Math.min(myMaxBytes, myRecentTarget + delta);
+      makeRoom(size, false);
+      myFrequent.put(key, data);
+      myFrequentBytes += size;
+      return;
+    }
+    final Integer frequentGhost = myFrequentGhosts.remove(key);
+    if (frequentGhost != null) {
+      myFrequentGhostsBytes -= frequentGhost;
+      // the piece was evicted from the frequent list too early, the recent list must be shorter
+      final long delta = Math.max(1, myRecentGhostsBytes / Math.max(1, myFrequentGhostsBytes)) * size;
+      myRecentTarget = Math.max(0, myRecentTarget - delta);
+      makeRoom(size, true);
+      myFrequent.put(key, data);
+      myFrequentBytes += size;
+      return;
+    }
+    while (myRecentBytes + myRecentGhostsBytes + size > myMaxBytes && !myRecentGhosts.isEmpty()) {
+      removeEldestGhost(myRecentGhosts, true);
+    }
+    makeRoom(size, false);
+    myRecent.put(key, data);
+    myRecentBytes += size;
+  }
+
+  /**
+   * evicts pieces until there is enough space for the new piece
+   *
+   * @param frequentGhostHit true if the new piece was found in the list of pieces evicted from the frequent list
+   */
+  private void makeRoom(int size, boolean frequentGhostHit) {
+    while (myRecentBytes + myFrequentBytes + size > myMaxBytes && !(myRecent.isEmpty() && myFrequent.isEmpty())) {
+      final boolean evictRecent = !myRecent.isEmpty() &&
+              (myFrequent.isEmpty() || myRecentBytes > myRecentTarget || (frequentGhostHit && myRecentBytes == myRecentTarget));
+      if (evictRecent) {
+        evictEldest(myRecent, myRecentGhosts, true);
+      } else {
+        evictEldest(myFrequent, myFrequentGhosts, false);
+      }
+    }
+  }
+
+  private void evictEldest(LinkedHashMap<Key, ByteBuffer> list, LinkedHashMap<Key, Integer> ghosts, boolean recent) {
+    final Iterator<Map.Entry<Key, ByteBuffer>> iterator = list.entrySet().iterator();
+    final Map.Entry<Key, ByteBuffer> eldest = iterator.next();
+    iterator.remove();
+    final int size = eldest.getValue().capacity();
+    ghosts.put(eldest.getKey(), size);
+    if (recent) {
+      myRecentBytes -= size;
+      myRecentGhostsBytes += size;
+    } else {
+      myFrequentBytes -= size;
+      myFrequentGhostsBytes += size;
+    }
+    myEvictions.incrementAndGet();
+  }
+
+  private void trimGhosts() {
+    while (myRecentBytes + myRecentGhostsBytes > myMaxBytes && !myRecentGhosts.isEmpty()) {
+      removeEldestGhost(myRecentGhosts, true);
+    }
+    while (myRecentBytes + myFrequentBytes + myRecentGhostsBytes + myFrequentGhostsBytes > 2 * myMaxBytes &&
+            !myFrequentGhosts.isEmpty()) {
+      removeEldestGhost(myFrequentGhosts, false);
+    }
+  }
+
+  private void removeEldestGhost(LinkedHashMap<Key, Integer> ghosts, boolean recent) {
+    final Iterator<Map.Entry<Key, Integer>> iterator = ghosts.entrySet().iterator();
+    final int size = iterator.next().getValue();
+    iterator.remove();
+    if (recent) {
+      myRecentGhostsBytes -= size;
+    } else {
+      myFrequentGhostsBytes -= size;
+    }
+  }
+
+  private boolean removeResident(Key key) {
+    ByteBuffer data = myRecent.remove(key);
+    if (data != null) {
+      myRecentBytes -= data.capacity();
+      return true;
+    }
+    data = myFrequent.remove(key);
+    if (data != null) {
+      myFrequentBytes -= data.capacity();
+      return true;
+    }
+    return false;
+  }
+
+  private void forgetGhost(Key key) {
+    final Integer recentGhost = myRecentGhosts.remove(key);
+    if (recentGhost != null) {
+      myRecentGhostsBytes -= recentGhost;
+    }
+    final Integer frequentGhost = myFrequentGhosts.remove(key);
+    if (frequentGhost != null) {
+      myFrequentGhostsBytes -= frequentGhost;
+    }
+  }
+
+  /**
+   * @return count of reads which were served from the cache
+   */
+  public long getHitsCount() {
+    return myHits.get();
+  }
+
+  /**
+   * @return count of reads of pieces which weren't cached
+   */
+  public long getMissesCount() {
+    return myMisses.get();
+  }
+
+  /**
+   * @return ratio of reads which were served from the cache or zero if there were no reads
+   */
+  public double getHitRatio() {
+    final long hits = myHits.get();
+    final long total = hits + myMisses.get();
+    return total == 0 ? 0 : (double) hits / total;
+  }
+
+  /**
+   * @return count of pieces which were evicted from the cache because it was full
+   */
+  public long getEvictionsCount() {
+    return myEvictions.get();
+  }
+
+  public synchronized long getUsedBytes() {
+    return myRecentBytes + myFrequentBytes;
+  }
+
+  public synchronized int getCachedPiecesCount() {
+    return myRecent.size() + myFrequent.size();
+  }
+
+  private static class Key {
+
+    private final Object owner;
+    private final int pieceIndex;
+
+    Key(Object owner, int pieceIndex) {
+      this.owner = owner;
+      this.pieceIndex = pieceIndex;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) return true;
+      if (!(o instanceof Key)) return false;
+      final Key key = (Key) o;
+      return owner == key.owner && pieceIndex == key.pieceIndex;
+    }
+
+    @Override
+    public int hashCode() {
+      return 31 * System.identityHashCode(owner) + pieceIndex;
+    }
+  }
+}
@@ -0,0 +1,233 @@
+package com.turn.ttorrent.client.storage;
+
+import com.turn.ttorrent.common.Digests;
+import com.turn.ttorrent.common.LoggerUtils;
+import com.turn.ttorrent.common.TorrentLoggerFactory;
+import com.turn.ttorrent.common.TorrentMetadata;
+import com.turn.ttorrent.common.TorrentStatistic;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.slf4j.Logger;
+
+import java.io.IOException;
+import java.security.MessageDigest;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Re-verifies available pieces of the storage in background, so data which is corrupted on disk
+ * or changed by other processes is found before remote peers receive it. Pieces are checked in rotation,
+ * reading is throttled to the configured count of bytes per second and the scrubber pauses while
+ * the torrent uploads more than the configured threshold.
+ * <p>
+ * Corrupted piece is marked as unavailable in the storage and {@link Listener} is notified,
+ * so the piece can be downloaded again.
+ */
+public class PieceScrubber implements Runnable {
+
+  private static final Logger logger =
+          TorrentLoggerFactory.getLogger(PieceScrubber.class);
+
+  private static final long IDLE_PAUSE_MILLIS = 10000;
+  private static final long BUSY_PAUSE_MILLIS = 1000;
+
+  private final TorrentMetadata myMetadata;
+  private final PieceStorage myPieceStorage;
+  private final TorrentStatistic myTorrentStatistic;
+  private final Listener myListener;
+  private final PieceValidator myValidator;
+  private final AtomicBoolean myStop = new AtomicBoolean(false);
+  private final AtomicLong myScrubbedPieces = new AtomicLong();
+  private final AtomicLong myScrubbedBytes = new AtomicLong();
+  private final AtomicLong myCorruptedPieces = new AtomicLong();
+  private final AtomicLong myCompletedRounds = new AtomicLong();
+  private volatile long myBytesPerSecond;
+  private volatile long myBusyUploadBytesPerSecond;
+  private volatile int myNextPiece = 0;
+  @Nullable
+  private volatile Thread myThread;
+
+  /**
+   * @param torrentStatistic statistic of the torrent which is used for detection of active seeding
+   * @param bytesPerSecond   max count of bytes which are read by the scrubber per second
+   */
+  public PieceScrubber(@NotNull TorrentMetadata metadata,
+                       @NotNull PieceStorage pieceStorage,
+                       @NotNull TorrentStatistic torrentStatistic,
+                       @NotNull Listener listener,
+                       long bytesPerSecond) {
+    myMetadata = metadata;
+    myPieceStorage = pieceStorage;
+    myTorrentStatistic = torrentStatistic;
+    myListener = listener;
+    myValidator = new PieceValidator(metadata);
+    setBytesPerSecond(bytesPerSecond);
+    myBusyUploadBytesPerSecond = bytesPerSecond;
+  }
+
+  public synchronized void start() {
+    if (myThread != null) return;
+    final Thread thread = new Thread(this, "ttorrent scrubber " + myMetadata.getHexInfoHash());
+    thread.setDaemon(true);
+    thread.setPriority(Thread.MIN_PRIORITY);
+    myThread = thread;
+    thread.start();
+  }
+
+  public void stop() {
+    myStop.set(true);
+    final Thread thread = myThread;
+    if (thread != null) {
+      thread.interrupt();
+    }
+  }
+
+  /**
+   * waits until scrubber's thread is finished
+   */
+  public void join(long millis) throws InterruptedException {
+    final Thread thread = myThread;
+    if (thread != null) {
+      thread.join(millis);
+    }
+  }
+
+  /**
+   * @param bytesPerSecond max count of bytes which are read by the scrubber per second
+   */
+  public void setBytesPerSecond(long bytesPerSecond) {
+    if (bytesPerSecond <= 0) throw new IllegalArgumentException("speed of scrubbing must be positive");
+    myBytesPerSecond = bytesPerSecond;
+  }
+
+  /**
+   * @param uploadBytesPerSecond upload speed of the torrent starting from which the scrubber pauses,
+   *                             non-positive value means that the scrubber never pauses
+   */
+  public void setBusyUploadBytesPerSecond(long uploadBytesPerSecond) {
+    myBusyUploadBytesPerSecond = uploadBytesPerSecond;
+  }
+
+  @Override
+  public void run() {
+    try {
+      final MessageDigest digest = Digests.createSha1();
+      long lastUploaded = myTorrentStatistic.getUploadedBytes();
+      long lastUploadCheck = System.currentTimeMillis();
+      long nextReadTime = lastUploadCheck;
+      while (!myStop.get()) {
+        final long now = System.currentTimeMillis();
+        if (now - lastUploadCheck >= BUSY_PAUSE_MILLIS) {
+          final long uploaded = myTorrentStatistic.getUploadedBytes();
+          final long busyUploadBytesPerSecond = myBusyUploadBytesPerSecond;
+          final boolean busy = busyUploadBytesPerSecond > 0 &&
+                  (uploaded - lastUploaded) * 1000 / (now - lastUploadCheck) >= busyUploadBytesPerSecond;
+          lastUploaded = uploaded;
+          lastUploadCheck = now;
+          if (busy) {
+            Thread.sleep(BUSY_PAUSE_MILLIS);
+            continue;
+          }
+        }
+        if (nextReadTime > now) {
+          Thread.sleep(nextReadTime - now);
+        }
+
+        final int pieceIndex = myPieceStorage.nextAvailablePiece(myNextPiece);
+        if (pieceIndex < 0) {
+          if (myNextPiece > 0) {
+            myCompletedRounds.incrementAndGet();
+            myNextPiece = 0;
+          } else {
+            // there are no available pieces yet
+            Thread.sleep(IDLE_PAUSE_MILLIS);
+          }
+          continue;
+        }
+        final int length = myValidator.getPieceLength(pieceIndex);
+        scrubPiece(pieceIndex, length, digest);
+        myNextPiece = pieceIndex + 1;
+        nextReadTime = Math.max(nextReadTime, now) + length * 1000L / myBytesPerSecond;
+      }
+    } catch (InterruptedException e) {
+      logger.debug("scrubber of torrent {} was interrupted", myMetadata.getHexInfoHash());
+    } catch (IOException e) {
+      if (!myStop.get()) {
+        LoggerUtils.warnAndDebugDetails(logger, "unable to read data of torrent {}, scrubbing is stopped", myMetadata.getHexInfoHash(), e);
+      }
+    } catch (Throwable e) {
+      LoggerUtils.warnAndDebugDetails(logger, "unhandled exception in scrubber of torrent {}", myMetadata.getHexInfoHash(), e);
+    } finally {
+      myStop.set(true);
+    }
+  }
+
+  private void scrubPiece(int pieceIndex, int length, MessageDigest digest) throws IOException {
+    final byte[] data;
+    try {
+      data = myPieceStorage.readPiecePart(pieceIndex, 0, length);
+    } catch (IllegalArgumentException e) {
+      // piece was marked as unavailable after the check of availability
+      return;
+    }
+    myScrubbedPieces.incrementAndGet();
+    myScrubbedBytes.addAndGet(length);
+    if (myValidator.isValid(pieceIndex, data, length, digest)) return;
+
+    myCorruptedPieces.incrementAndGet();
+    logger.warn("Piece {} of torrent {} is corrupted on disk, it will be downloaded again",
+            pieceIndex, myMetadata.getHexInfoHash());
+    myPieceStorage.markPieceUnavailable(pieceIndex);
+    myListener.pieceCorrupted(pieceIndex);
+  }
+
+  public boolean isStopped() {
+    return myStop.get();
+  }
+
+  /**
+   * @return count of pieces which were verified since start of the scrubber
+   */
+  public long getScrubbedPiecesCount() {
+    return myScrubbedPieces.get();
+  }
+
+  /**
+   * @return count of bytes which were verified since start of the scrubber
+   */
+  public long getScrubbedBytes() {
+    return myScrubbedBytes.get();
+  }
+
+  /**
+   * @return count of pieces which were found corrupted since start of the scrubber
+   */
+  public long getCorruptedPiecesCount() {
+    return myCorruptedPieces.get();
+  }
+
+  /**
+   * @return count of completed passes over all available pieces
+   */
+  public long getCompletedRoundsCount() {
+    return myCompletedRounds.get();
+  }
+
+  /**
+   * @return index of the piece which will be verified next
+   */
+  public int getNextPieceIndex() {
+    return myNextPiece;
+  }
+
+  public interface Listener {
+
+    /**
+     * invoked when the piece is found corrupted. The piece is already marked as unavailable in the storage
+     *
+     * @param pieceIndex index of the corrupted piece
+     */
+    void pieceCorrupted(int pieceIndex);
+
+  }
+}
@@ -12,8 +12,28 @@ public interface PieceStorage extends Closeable {
 
   BitSet getAvailablePieces();
 
+  /**
+   * @return true if the piece is downloaded. Unlike {@link #getAvailablePieces()} it doesn't copy
+   * the set of available pieces, so it can be used for frequent checks of single pieces
+   */
+  boolean isPieceAvailable(int pieceIndex);
+
+  /**
+   * @return index of the first downloaded piece which index is greater than or equal to specified index
+   * or -1 if there is no such piece
+   */
+  int nextAvailablePiece(int fromIndex);
+
   boolean isFinished();
 
   void closeFully() throws IOException;
 
+  /**
+   * marks the piece as not downloaded, e.g. when data of the piece on disk is found corrupted.
+   * The piece can be saved again after that
+   *
+   * @param pieceIndex index of the piece
+   */
+  void markPieceUnavailable(int pieceIndex) throws IOException;
+
 }
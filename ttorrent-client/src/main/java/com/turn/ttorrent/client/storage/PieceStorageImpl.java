@@ -8,7 +8,7 @@ import java.util.BitSet;
 import java.util.concurrent.locks.ReadWriteLock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 
-public class PieceStorageImpl implements PieceStorage {
+public class PieceStorageImpl implements PieceStorage, SelectiveFileStorage {
 
   private final TorrentByteStorage fileCollectionStorage;
   private final ReadWriteLock readWriteLock;
@@ -135,6 +135,52 @@ public class PieceStorageImpl implements PieceStorage {
     }
   }
 
+  @Override
+  public void setFileSkipped(int fileIndex, boolean skipped) throws IOException {
+    try {
+      readWriteLock.writeLock().lock();
+      final SelectiveFileStorage files = StorageUtils.find(fileCollectionStorage, SelectiveFileStorage.class);
+      if (files != null) {
+        files.setFileSkipped(fileIndex, skipped);
+      }
+    } finally {
+      readWriteLock.writeLock().unlock();
+    }
+  }
+
+  @Override
+  public void finishWantedFiles() throws IOException {
+    try {
+      readWriteLock.writeLock().lock();
+      final SelectiveFileStorage files = StorageUtils.find(fileCollectionStorage, SelectiveFileStorage.class);
+      if (files == null || closedFully || availablePieces == null) return;
+      openStorageIsNecessary(false);
+      files.finishWantedFiles();
+    } finally {
+      readWriteLock.writeLock().unlock();
+    }
+  }
+
+  @Override
+  public void markPieceUnavailable(int pieceIndex) throws IOException {
+    checkPieceIndex(pieceIndex);
+    try {
+      readWriteLock.writeLock().lock();
+      if (closedFully) throw new IOException("Storage is closed");
+      BitSet availablePieces = this.availablePieces;
+      if (availablePieces == null) {
+        // finished storage is opened only for reading, so it's reopened for writing on next save
+        availablePieces = new BitSet(piecesCount);
+        availablePieces.set(0, piecesCount);
+        this.availablePieces = availablePieces;
+        close0();
+      }
+      availablePieces.clear(pieceIndex);
+    } finally {
+      readWriteLock.writeLock().unlock();
+    }
+  }
+
   @Override
   public BitSet getAvailablePieces() {
     try {
@@ -155,6 +201,31 @@ public class PieceStorageImpl implements PieceStorage {
     }
   }
 
+  @Override
+  public boolean isPieceAvailable(int pieceIndex) {
+    try {
+      readWriteLock.readLock().lock();
+      BitSet availablePieces = this.availablePieces;
+      return availablePieces == null ? pieceIndex >= 0 && pieceIndex < piecesCount : availablePieces.get(pieceIndex);
+    } finally {
+      readWriteLock.readLock().unlock();
+    }
+  }
+
+  @Override
+  public int nextAvailablePiece(int fromIndex) {
+    try {
+      readWriteLock.readLock().lock();
+      BitSet availablePieces = this.availablePieces;
+      if (availablePieces == null) {
+        return fromIndex < piecesCount ? Math.max(fromIndex, 0) : -1;
+      }
+      return availablePieces.nextSetBit(Math.max(fromIndex, 0));
+    } finally {
+      readWriteLock.readLock().unlock();
+    }
+  }
+
   @Override
   public void close() throws IOException {
     try {
@@ -0,0 +1,51 @@
+package com.turn.ttorrent.client.storage;
+
+import com.turn.ttorrent.Constants;
+import com.turn.ttorrent.common.MerklePieceInfo;
+import com.turn.ttorrent.common.TorrentFile;
+import com.turn.ttorrent.common.TorrentMetadata;
+import com.turn.ttorrent.common.TorrentUtils;
+
+import java.security.MessageDigest;
+
+/**
+ * Compares hashes of pieces read from the storage with hashes from metadata of the torrent.
+ * Pieces of v2 torrents without v1 hashes are validated with merkle trees of files
+ */
+class PieceValidator {
+
+  private final TorrentMetadata myMetadata;
+  private final MerklePieceInfo[] myMerkleInfos;
+  private final boolean myHasPiecesHashes;
+  private final long myTotalSize;
+
+  PieceValidator(TorrentMetadata metadata) {
+    myMetadata = metadata;
+    myMerkleInfos = MerklePieceInfo.create(metadata);
+    myHasPiecesHashes = metadata.getPiecesHashes().length > 0;
+    long totalSize = 0;
+    for (TorrentFile file : metadata.getFiles()) {
+      totalSize += file.size;
+    }
+    myTotalSize = totalSize;
+  }
+
+  int getPieceLength(int index) {
+    final MerklePieceInfo merkleInfo = myMerkleInfos == null ? null : myMerkleInfos[index];
+    if (merkleInfo != null && !myHasPiecesHashes) {
+      return merkleInfo.getDataLength();
+    }
+    final int pieceLength = myMetadata.getPieceLength();
+    return (int) Math.min(pieceLength, myTotalSize - (long) index * pieceLength);
+  }
+
+  boolean isValid(int index, byte[] buffer, int length, MessageDigest digest) {
+    final MerklePieceInfo merkleInfo = myMerkleInfos == null ? null : myMerkleInfos[index];
+    if (merkleInfo != null) {
+      return merkleInfo.isValid(buffer, length);
+    }
+    digest.reset();
+    digest.update(buffer, 0, length);
+    return TorrentUtils.hashMatches(digest.digest(), myMetadata.getPiecesHashes(), index * Constants.PIECE_HASH_SIZE);
+  }
+}
@@ -0,0 +1,31 @@
+package com.turn.ttorrent.client.storage;
+
+/**
+ * Observer and controller of the check of torrent's data
+ */
+public interface PiecesCheckListener {
+
+  PiecesCheckListener NO_OP = new PiecesCheckListener() {
+    @Override
+    public void piecesChecked(int checkedPieces, int totalPieces) {
+    }
+
+    @Override
+    public boolean isCancelled() {
+      return false;
+    }
+  };
+
+  /**
+   * invoked periodically while the check is in progress
+   *
+   * @param checkedPieces count of already checked pieces
+   * @param totalPieces   count of pieces which must be checked
+   */
+  void piecesChecked(int checkedPieces, int totalPieces);
+
+  /**
+   * @return true if the check must be stopped
+   */
+  boolean isCancelled();
+}
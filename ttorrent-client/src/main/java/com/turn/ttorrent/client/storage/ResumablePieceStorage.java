@@ -0,0 +1,104 @@
+package com.turn.ttorrent.client.storage;
+
+import com.turn.ttorrent.common.LoggerUtils;
+import com.turn.ttorrent.common.TorrentLoggerFactory;
+import org.slf4j.Logger;
+
+import java.io.IOException;
+import java.util.BitSet;
+
+/**
+ * Piece storage which saves {@link ResumeData} after the storage is closed, so the torrent can be
+ * started without hashing of all pieces.
+ * <p>
+ * The data isn't saved while the storage is open: size and modification time of files don't reflect
+ * every write (modification time can have a granularity of seconds) and written data can be lost
+ * in a crash, so only the state collected after all files are flushed and closed is trusted.
+ * {@link FastResumePieceStorageFactory} removes saved data when the storage is created, so the torrent
+ * is checked fully if the process isn't shut down cleanly.
+ */
+public class ResumablePieceStorage implements PieceStorage, DecoratingStorage {
+
+  private static final Logger logger =
+          TorrentLoggerFactory.getLogger(ResumablePieceStorage.class);
+
+  private final PieceStorage myDelegate;
+  private final FileCollectionStorage myFileCollectionStorage;
+  private final ResumeDataStorage myResumeDataStorage;
+  private final String myHexInfoHash;
+
+  public ResumablePieceStorage(PieceStorage delegate,
+                               FileCollectionStorage fileCollectionStorage,
+                               ResumeDataStorage resumeDataStorage,
+                               String hexInfoHash) {
+    myDelegate = delegate;
+    myFileCollectionStorage = fileCollectionStorage;
+    myResumeDataStorage = resumeDataStorage;
+    myHexInfoHash = hexInfoHash;
+  }
+
+  @Override
+  public void savePiece(int pieceIndex, byte[] pieceData) throws IOException {
+    myDelegate.savePiece(pieceIndex, pieceData);
+  }
+
+  @Override
+  public byte[] readPiecePart(int pieceIndex, int offset, int length) throws IOException {
+    return myDelegate.readPiecePart(pieceIndex, offset, length);
+  }
+
+  @Override
+  public BitSet getAvailablePieces() {
+    return myDelegate.getAvailablePieces();
+  }
+
+  @Override
+  public boolean isPieceAvailable(int pieceIndex) {
+    return myDelegate.isPieceAvailable(pieceIndex);
+  }
+
+  @Override
+  public int nextAvailablePiece(int fromIndex) {
+    return myDelegate.nextAvailablePiece(fromIndex);
+  }
+
+  @Override
+  public boolean isFinished() {
+    return myDelegate.isFinished();
+  }
+
+  @Override
+  public void closeFully() throws IOException {
+    myDelegate.closeFully();
+    saveResumeData();
+  }
+
+  @Override
+  public Object getDecorated() {
+    return myDelegate;
+  }
+
+  @Override
+  public void markPieceUnavailable(int pieceIndex) throws IOException {
+    myDelegate.markPieceUnavailable(pieceIndex);
+  }
+
+  @Override
+  public void close() throws IOException {
+    myDelegate.close();
+    saveResumeData();
+  }
+
+  /**
+   * saves state of the closed storage marking it as written on clean shutdown
+   */
+  private void saveResumeData() {
+    final ResumeData resumeData = new ResumeData(myDelegate.getAvailablePieces(),
+            myFileCollectionStorage.getFileStates(), myFileCollectionStorage.getPartsFileState(), true);
+    try {
+      myResumeDataStorage.save(myHexInfoHash, resumeData);
+    } catch (IOException e) {
+      LoggerUtils.warnAndDebugDetails(logger, "unable to save resume data of torrent {}", myHexInfoHash, e);
+    }
+  }
+}
@@ -0,0 +1,120 @@
+package com.turn.ttorrent.client.storage;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * State of the torrent's data which allows to skip hashing of pieces on start: validated pieces
+ * and state of files on disk at the moment when the pieces were validated.
+ * <p>
+ * The state can be trusted only if it was collected after the storage was closed, because data written
+ * after the state is collected or lost in a crash doesn't always change size and modification time of files
+ */
+public class ResumeData {
+
+  @NotNull
+  private final BitSet myAvailablePieces;
+  @NotNull
+  private final List<FileState> myFileStates;
+  @NotNull
+  private final FileState myPartsFileState;
+  private final boolean myCleanShutdown;
+
+  public ResumeData(@NotNull BitSet availablePieces, @NotNull List<FileState> fileStates) {
+    this(availablePieces, fileStates, FileState.ABSENT, false);
+  }
+
+  /**
+   * @param partsFileState state of the file with data of skipped files
+   * @param cleanShutdown  true if the state was collected after the storage was closed
+   */
+  public ResumeData(@NotNull BitSet availablePieces,
+                    @NotNull List<FileState> fileStates,
+                    @NotNull FileState partsFileState,
+                    boolean cleanShutdown) {
+    myAvailablePieces = (BitSet) availablePieces.clone();
+    myFileStates = Collections.unmodifiableList(fileStates);
+    myPartsFileState = partsFileState;
+    myCleanShutdown = cleanShutdown;
+  }
+
+  /**
+   * @return new bit set with indexes of validated pieces
+   */
+  @NotNull
+  public BitSet getAvailablePieces() {
+    return (BitSet) myAvailablePieces.clone();
+  }
+
+  /**
+   * @return states of files in order from the torrent's metadata
+   */
+  @NotNull
+  public List<FileState> getFileStates() {
+    return myFileStates;
+  }
+
+  @NotNull
+  public FileState getPartsFileState() {
+    return myPartsFileState;
+  }
+
+  /**
+   * @return true if the state was collected after the storage was closed, otherwise it must not be trusted
+   */
+  public boolean isCleanShutdown() {
+    return myCleanShutdown;
+  }
+
+  /**
+   * Size and modification time of one file of the torrent on disk
+   */
+  public static class FileState {
+
+    public static final FileState ABSENT = new FileState(-1, 0);
+
+    private final long myLength;
+    private final long myLastModified;
+
+    public FileState(long length, long lastModified) {
+      myLength = length;
+      myLastModified = lastModified;
+    }
+
+    /**
+     * @return length of the file or -1 if the file doesn't exist
+     */
+    public long getLength() {
+      return myLength;
+    }
+
+    public long getLastModified() {
+      return myLastModified;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) return true;
+      if (o == null || getClass() != o.getClass()) return false;
+
+      FileState fileState = (FileState) o;
+
+      return myLength == fileState.myLength && myLastModified == fileState.myLastModified;
+    }
+
+    @Override
+    public int hashCode() {
+      int result = (int) (myLength ^ (myLength >>> 32));
+      result = 31 * result + (int) (myLastModified ^ (myLastModified >>> 32));
+      return result;
+    }
+
+    @Override
+    public String toString() {
+      return "FileState{length=" + myLength + ", lastModified=" + myLastModified + "}";
+    }
+  }
+}
@@ -0,0 +1,27 @@
+package com.turn.ttorrent.client.storage;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+
+/**
+ * Persistent storage of {@link ResumeData} of torrents
+ */
+public interface ResumeDataStorage {
+
+  /**
+   * @param hexInfoHash info hash of the torrent
+   * @return saved resume data or null if there is no data for the torrent
+   * @throws IOException if unable to read or parse saved data
+   */
+  @Nullable
+  ResumeData load(@NotNull String hexInfoHash) throws IOException;
+
+  /**
+   * saves resume data of the torrent replacing previously saved data
+   */
+  void save(@NotNull String hexInfoHash, @NotNull ResumeData resumeData) throws IOException;
+
+  void remove(@NotNull String hexInfoHash) throws IOException;
+}
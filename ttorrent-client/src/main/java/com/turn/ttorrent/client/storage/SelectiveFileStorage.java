@@ -0,0 +1,24 @@
+package com.turn.ttorrent.client.storage;
+
+import java.io.IOException;
+
+/**
+ * Optional interface of storages which can skip downloading of some files of the torrent.
+ * Storages can be wrapped by decorators, so the interface must be found with
+ * {@link StorageUtils#find(Object, Class)}
+ */
+public interface SelectiveFileStorage {
+
+  /**
+   * Marks the file as skipped, so the file isn't created on disk if it doesn't exist yet.
+   *
+   * @param fileIndex index of the file in list of files of the torrent's metadata
+   */
+  void setFileSkipped(int fileIndex, boolean skipped) throws IOException;
+
+  /**
+   * Moves files which aren't skipped to their final location. It's invoked when all pieces of wanted
+   * files are downloaded but the torrent isn't finished because some files are skipped
+   */
+  void finishWantedFiles() throws IOException;
+}
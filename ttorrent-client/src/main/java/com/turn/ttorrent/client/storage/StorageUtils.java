@@ -0,0 +1,73 @@
+package com.turn.ttorrent.client.storage;
+
+import org.jetbrains.annotations.Nullable;
+
+import java.io.File;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+
+public final class StorageUtils {
+
+  // java.io.File.toPath and java.nio.file.Files.getFileStore (JDK 7+), null if they aren't available
+  @Nullable
+  private static final Method ourToPath;
+  @Nullable
+  private static final Method ourGetFileStore;
+
+  static {
+    Method toPath = null;
+    Method getFileStore = null;
+    try {
+      toPath = File.class.getMethod("toPath");
+      getFileStore = Class.forName("java.nio.file.Files").getMethod("getFileStore", Class.forName("java.nio.file.Path"));
+    } catch (ClassNotFoundException ignored) {
+    } catch (NoSuchMethodException ignored) {
+    }
+    ourToPath = getFileStore == null ? null : toPath;
+    ourGetFileStore = getFileStore;
+  }
+
+  private StorageUtils() {
+  }
+
+  /**
+   * Finds the storage which implements specified optional interface in the chain of decorators
+   *
+   * @param storage piece storage, byte storage or their decorator
+   * @param type    optional interface
+   * @return the storage itself or the first decorated storage which implements the interface,
+   * null if there is no such storage
+   */
+  @Nullable
+  public static <T> T find(@Nullable Object storage, Class<T> type) {
+    Object current = storage;
+    while (current != null) {
+      if (type.isInstance(current)) return type.cast(current);
+      current = current instanceof DecoratingStorage ? ((DecoratingStorage) current).getDecorated() : null;
+    }
+    return null;
+  }
+
+  /**
+   * Returns file store (partition or device) of the file. If the file doesn't exist, store of
+   * the nearest existing parent directory is returned, because the file will be created there
+   *
+   * @return file store, stores of files on the same device are equal. Null if it can't be determined
+   */
+  @Nullable
+  static Object getFileStore(File file) {
+    if (ourToPath == null || ourGetFileStore == null) return null;
+    File existing = file.getAbsoluteFile();
+    while (existing != null && !existing.exists()) {
+      existing = existing.getParentFile();
+    }
+    if (existing == null) return null;
+    try {
+      return ourGetFileStore.invoke(null, ourToPath.invoke(existing));
+    } catch (IllegalAccessException e) {
+      return null;
+    } catch (InvocationTargetException e) {
+      return null;
+    }
+  }
+}
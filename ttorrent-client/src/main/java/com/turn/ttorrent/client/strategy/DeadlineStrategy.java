@@ -0,0 +1,35 @@
+package com.turn.ttorrent.client.strategy;
+
+import com.turn.ttorrent.client.peer.SharingPeer;
+
+import java.util.BitSet;
+import java.util.List;
+
+/**
+ * Strategy for downloading pieces which must be downloaded by specified time
+ */
+public interface DeadlineStrategy {
+
+  /**
+   * Chooses pieces with deadlines which should be requested from the peer
+   *
+   * @param peer        the peer which is ready to accept new requests
+   * @param interesting pieces which the peer has and which are neither completed nor requested
+   * @param requested   pieces which are already requested from some peers
+   * @param pieceLength length of pieces of the torrent, it's used to estimate time of downloading
+   * @param downloaders all peers which we download the torrent from
+   * @param deadlines   deadlines ordered by time, they are iterated until enough pieces are chosen
+   * @param maxCount    max count of chosen pieces
+   * @param now         current time in milliseconds
+   * @return indexes of chosen pieces. Chosen piece can be already requested from other peer
+   * if it's unlikely that other peer downloads the piece in time
+   */
+  List<Integer> choosePieces(SharingPeer peer,
+                             BitSet interesting,
+                             BitSet requested,
+                             int pieceLength,
+                             List<SharingPeer> downloaders,
+                             Iterable<PieceDeadline> deadlines,
+                             int maxCount,
+                             long now);
+}
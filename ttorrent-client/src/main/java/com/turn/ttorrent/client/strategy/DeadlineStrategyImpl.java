@@ -0,0 +1,97 @@
+package com.turn.ttorrent.client.strategy;
+
+import com.turn.ttorrent.client.Piece;
+import com.turn.ttorrent.client.peer.SharingPeer;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+
+/**
+ * Requests pieces with deadlines from the fastest peers. Not requested piece is assigned to the peer
+ * if the peer can download it in time at measured download rate, or if there is no faster peer which has the piece.
+ * When the deadline is at risk, i.e. peers which download the piece can't download it in time, the piece
+ * is requested from one more peer, so its blocks are downloaded from several peers at the same time.
+ */
+public class DeadlineStrategyImpl implements DeadlineStrategy {
+
+  private final int maxPeersPerPiece;
+
+  /**
+   * @param maxPeersPerPiece max count of peers which one piece can be requested from at the same time
+   */
+  public DeadlineStrategyImpl(int maxPeersPerPiece) {
+    this.maxPeersPerPiece = maxPeersPerPiece;
+  }
+
+  @Override
+  public List<Integer> choosePieces(SharingPeer peer,
+                                    BitSet interesting,
+                                    BitSet requested,
+                                    int pieceLength,
+                                    List<SharingPeer> downloaders,
+                                    Iterable<PieceDeadline> deadlines,
+                                    int maxCount,
+                                    long now) {
+    List<Integer> result = new ArrayList<Integer>();
+    if (maxCount <= 0) return result;
+    final BitSet available = peer.getAvailablePieces();
+    for (PieceDeadline deadline : deadlines) {
+      // deadlines of pieces which can't be requested from the peer don't count towards the limit
+      if (result.size() >= maxCount) break;
+      final int index = deadline.getPieceIndex();
+      if (index < 0 || !available.get(index)) continue;
+
+      final long timeLeft = deadline.getDeadline() - now;
+      if (interesting.get(index)) {
+        if (timeLeft <= 0 || canDownloadInTime(peer, pieceLength, timeLeft) || !hasFasterPeer(peer, index, downloaders)) {
+          result.add(index);
+        }
+      } else if (requested.get(index) && isAtRisk(peer, index, pieceLength, timeLeft, downloaders)) {
+        result.add(index);
+      }
+    }
+    return result;
+  }
+
+  private boolean canDownloadInTime(SharingPeer peer, int pieceLength, long timeLeftMillis) {
+    final float rate = peer.getDLRate().get();
+    return rate > 0 && pieceLength * 1000L / rate <= timeLeftMillis;
+  }
+
+  private boolean hasFasterPeer(SharingPeer peer, int pieceIndex, List<SharingPeer> downloaders) {
+    final float rate = peer.getDLRate().get();
+    for (SharingPeer other : downloaders) {
+      if (other == peer || other.isChoked() || !other.isConnected()) continue;
+      if (other.getDLRate().get() > rate && other.getAvailablePieces().get(pieceIndex)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * @return true if the piece isn't requested from the peer yet and peers which download the piece
+   * can't download it in time
+   */
+  private boolean isAtRisk(SharingPeer peer, int pieceIndex, int pieceLength, long timeLeftMillis,
+                           List<SharingPeer> downloaders) {
+    if (isRequested(peer, pieceIndex)) return false;
+    int peersCount = 0;
+    for (SharingPeer other : downloaders) {
+      if (other == peer || !isRequested(other, pieceIndex)) continue;
+      peersCount++;
+      if (peersCount >= maxPeersPerPiece || canDownloadInTime(other, pieceLength, timeLeftMillis)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static boolean isRequested(SharingPeer peer, int pieceIndex) {
+    for (Piece piece : peer.getRequestedPieces()) {
+      if (piece.getIndex() == pieceIndex) return true;
+    }
+    return false;
+  }
+}
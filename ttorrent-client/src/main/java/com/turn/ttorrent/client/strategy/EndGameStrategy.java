@@ -23,6 +23,10 @@ import java.util.List;
 
 public interface EndGameStrategy {
 
-  RequestsCollection collectRequests(Piece[] allPieces, List<SharingPeer> connectedPeers);
+  /**
+   * @param missingPieces  pieces which aren't downloaded yet and are available at connected peers
+   * @param connectedPeers peers which we download the torrent from
+   */
+  RequestsCollection collectRequests(Piece[] missingPieces, List<SharingPeer> connectedPeers);
 
 }
@@ -32,7 +32,7 @@ public class EndGameStrategyImpl implements EndGameStrategy {
   }
 
   @Override
-  public RequestsCollection collectRequests(Piece[] allPieces, List<SharingPeer> connectedPeers) {
+  public RequestsCollection collectRequests(Piece[] missingPieces, List<SharingPeer> connectedPeers) {
     List<SharingPeer> sorted = new ArrayList<SharingPeer>(connectedPeers);
     Map<Piece, List<SharingPeer>> selectedPieces = new HashMap<Piece, List<SharingPeer>>();
     Collections.sort(sorted, new Comparator<SharingPeer>() {
@@ -41,7 +41,7 @@ public class EndGameStrategyImpl implements EndGameStrategy {
         return Integer.valueOf(o1.getDownloadedPiecesCount()).compareTo(o2.getDownloadedPiecesCount());
       }
     });
-    for (Piece piece : allPieces) {
+    for (Piece piece : missingPieces) {
       if (piece.isValid()) continue;
 
       //if we don't have piece, then request this piece from two random peers
@@ -0,0 +1,19 @@
+package com.turn.ttorrent.client.strategy;
+
+/**
+ * Download priority of one file of the torrent
+ */
+public enum FilePriority {
+
+  /**
+   * the file isn't downloaded. Pieces which are shared with wanted files are still downloaded
+   */
+  SKIP,
+
+  NORMAL,
+
+  /**
+   * pieces of the file are requested before pieces of files with normal priority
+   */
+  HIGH
+}
@@ -0,0 +1,39 @@
+package com.turn.ttorrent.client.strategy;
+
+/**
+ * Time by which the piece must be downloaded
+ */
+public class PieceDeadline implements Comparable<PieceDeadline> {
+
+  private final int myPieceIndex;
+  private final long myDeadline;
+
+  public PieceDeadline(int pieceIndex, long deadline) {
+    myPieceIndex = pieceIndex;
+    myDeadline = deadline;
+  }
+
+  public int getPieceIndex() {
+    return myPieceIndex;
+  }
+
+  /**
+   * @return deadline in milliseconds since epoch
+   */
+  public long getDeadline() {
+    return myDeadline;
+  }
+
+  @Override
+  public int compareTo(PieceDeadline other) {
+    if (myDeadline != other.myDeadline) {
+      return myDeadline < other.myDeadline ? -1 : 1;
+    }
+    return new Integer(myPieceIndex).compareTo(other.myPieceIndex);
+  }
+
+  @Override
+  public String toString() {
+    return "PieceDeadline{piece=" + myPieceIndex + ", deadline=" + myDeadline + "}";
+  }
+}
@@ -0,0 +1,278 @@
+package com.turn.ttorrent.client.strategy;
+
+import com.turn.ttorrent.common.TorrentFile;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentSkipListSet;
+
+/**
+ * Priorities of pieces of one torrent which are set by users of the torrent's data.
+ * Urgent pieces are requested before all other pieces regardless of {@link RequestStrategy}.
+ * <p>
+ * Each owner (e.g. an opened stream of torrent's file) has own range of urgent pieces,
+ * the piece is urgent if it's contained in at least one range.
+ * <p>
+ * Files of the torrent can have {@link FilePriority priorities}. Piece is skipped if all files which
+ * the piece contains are skipped, piece has high priority if it contains at least one file with high priority.
+ * <p>
+ * Pieces can have deadlines, such pieces are requested in order of deadlines by {@link DeadlineStrategy}.
+ * Deadline is removed when the piece is downloaded, count of met and missed deadlines is collected.
+ * Deadlines of pieces which are already downloaded are ignored
+ * <p>
+ * The instance is shared between all components of one torrent and it's thread-safe
+ */
+public class PiecePriorities {
+
+  private final Map<Object, int[]> myUrgentRanges = new HashMap<Object, int[]>();
+  private final Map<Integer, PieceDeadline> myDeadlines = new HashMap<Integer, PieceDeadline>();
+  // sorted set is used instead of priority queue, so deadlines can be iterated in order without copying
+  private final NavigableSet<PieceDeadline> myDeadlinesQueue = new ConcurrentSkipListSet<PieceDeadline>();
+  private final Set<PieceDeadline> myDeadlinesView = Collections.unmodifiableSet(myDeadlinesQueue);
+  private final BitSet myDownloadedPieces = new BitSet();
+  private long myMetDeadlinesCount = 0;
+  private long myMissedDeadlinesCount = 0;
+  private final long[] myFileOffsets;
+  private final long[] myFileSizes;
+  private final boolean[] myPadFiles;
+  private final FilePriority[] myFilePriorities;
+  private final int myPieceLength;
+  private final int myPiecesCount;
+  private BitSet mySkippedPieces = new BitSet();
+  private BitSet myHighPriorityPieces = new BitSet();
+
+  /**
+   * creates priorities without information about files, priorities of files can't be set
+   */
+  public PiecePriorities() {
+    this(Collections.<TorrentFile>emptyList(), 1);
+  }
+
+  /**
+   * @param files       files of the torrent in order from metadata
+   * @param pieceLength length of the piece of the torrent
+   */
+  public PiecePriorities(@NotNull List<TorrentFile> files, int pieceLength) {
+    myFileOffsets = new long[files.size()];
+    myFileSizes = new long[files.size()];
+    myPadFiles = new boolean[files.size()];
+    myFilePriorities = new FilePriority[files.size()];
+    long offset = 0;
+    for (int i = 0; i < files.size(); i++) {
+      final TorrentFile file = files.get(i);
+      myFileOffsets[i] = offset;
+      myFileSizes[i] = file.size;
+      myPadFiles[i] = file.padFile;
+      myFilePriorities[i] = FilePriority.NORMAL;
+      offset += file.size;
+    }
+    myPieceLength = pieceLength;
+    myPiecesCount = (int) ((offset + pieceLength - 1) / pieceLength);
+  }
+
+  /**
+   * sets range of urgent pieces for specified owner. Previous range of the owner is replaced
+   *
+   * @param owner owner of the range
+   * @param from  index of the first urgent piece
+   * @param to    index after the last urgent piece
+   */
+  public synchronized void setUrgentRange(@NotNull Object owner, int from, int to) {
+    myUrgentRanges.put(owner, new int[]{from, to});
+  }
+
+  public synchronized void removeUrgentRange(@NotNull Object owner) {
+    myUrgentRanges.remove(owner);
+  }
+
+  /**
+   * @return new bit set which contains indexes of all urgent pieces
+   */
+  @NotNull
+  public synchronized BitSet getUrgentPieces() {
+    BitSet result = new BitSet();
+    for (int[] range : myUrgentRanges.values()) {
+      if (range[0] < range[1]) {
+        result.set(range[0], range[1]);
+      }
+    }
+    return result;
+  }
+
+  /**
+   * chooses the first urgent piece among interesting pieces
+   *
+   * @param interesting set of indexes of interesting pieces
+   * @return index of the chosen piece or -1 if there are no interesting urgent pieces
+   */
+  public int chooseUrgentPiece(@NotNull BitSet interesting) {
+    final BitSet urgent = getUrgentPieces();
+    urgent.and(interesting);
+    return urgent.nextSetBit(0);
+  }
+
+  /**
+   * chooses the first piece of files with high priority among interesting pieces
+   *
+   * @param interesting set of indexes of interesting pieces
+   * @return index of the chosen piece or -1 if there are no interesting pieces with high priority
+   */
+  public synchronized int chooseHighPriorityPiece(@NotNull BitSet interesting) {
+    if (myHighPriorityPieces.isEmpty()) return -1;
+    final BitSet high = (BitSet) myHighPriorityPieces.clone();
+    high.and(interesting);
+    return high.nextSetBit(0);
+  }
+
+  /**
+   * @param fileIndex index of the file in list of files of the torrent's metadata
+   * @throws IllegalArgumentException if the torrent doesn't contain file with specified index
+   */
+  public synchronized void setFilePriority(int fileIndex, @NotNull FilePriority priority) {
+    checkFileIndex(fileIndex);
+    if (myFilePriorities[fileIndex] == priority) return;
+    myFilePriorities[fileIndex] = priority;
+    updatePiecesPriorities();
+  }
+
+  /**
+   * @param fileIndex index of the file in list of files of the torrent's metadata
+   * @throws IllegalArgumentException if the torrent doesn't contain file with specified index
+   */
+  @NotNull
+  public synchronized FilePriority getFilePriority(int fileIndex) {
+    checkFileIndex(fileIndex);
+    return myFilePriorities[fileIndex];
+  }
+
+  /**
+   * @return new bit set which contains indexes of pieces which mustn't be downloaded
+   */
+  @NotNull
+  public synchronized BitSet getSkippedPieces() {
+    return (BitSet) mySkippedPieces.clone();
+  }
+
+  private void checkFileIndex(int fileIndex) {
+    if (fileIndex < 0 || fileIndex >= myFilePriorities.length) {
+      throw new IllegalArgumentException("Torrent doesn't contain file #" + fileIndex);
+    }
+  }
+
+  private void updatePiecesPriorities() {
+    BitSet wanted = new BitSet(myPiecesCount);
+    BitSet high = new BitSet(myPiecesCount);
+    for (int i = 0; i < myFilePriorities.length; i++) {
+      // pad files contain only zeros and they never make the piece wanted
+      if (myPadFiles[i] || myFileSizes[i] == 0 || myFilePriorities[i] == FilePriority.SKIP) continue;
+      final int from = (int) (myFileOffsets[i] / myPieceLength);
+      final int to = (int) ((myFileOffsets[i] + myFileSizes[i] - 1) / myPieceLength) + 1;
+      wanted.set(from, to);
+      if (myFilePriorities[i] == FilePriority.HIGH) {
+        high.set(from, to);
+      }
+    }
+    BitSet skipped = new BitSet(myPiecesCount);
+    skipped.set(0, myPiecesCount);
+    skipped.andNot(wanted);
+    mySkippedPieces = skipped;
+    myHighPriorityPieces = high;
+  }
+
+  /**
+   * sets time by which the piece must be downloaded. Previous deadline of the piece is replaced.
+   * The call is ignored if the piece is already downloaded
+   *
+   * @param pieceIndex index of the piece
+   * @param deadline   deadline in milliseconds since epoch
+   */
+  public synchronized void setDeadline(int pieceIndex, long deadline) {
+    removeDeadline(pieceIndex);
+    if (myDownloadedPieces.get(pieceIndex)) return;
+    final PieceDeadline pieceDeadline = new PieceDeadline(pieceIndex, deadline);
+    myDeadlines.put(pieceIndex, pieceDeadline);
+    myDeadlinesQueue.add(pieceDeadline);
+  }
+
+  public synchronized void removeDeadline(int pieceIndex) {
+    final PieceDeadline removed = myDeadlines.remove(pieceIndex);
+    if (removed != null) {
+      myDeadlinesQueue.remove(removed);
+    }
+  }
+
+  /**
+   * @param maxCount max count of returned deadlines
+   * @return earliest deadlines ordered by time
+   */
+  @NotNull
+  public List<PieceDeadline> getEarliestDeadlines(int maxCount) {
+    if (myDeadlinesQueue.isEmpty()) return Collections.emptyList();
+    List<PieceDeadline> result = new ArrayList<PieceDeadline>();
+    for (PieceDeadline deadline : myDeadlinesQueue) {
+      if (result.size() >= maxCount) break;
+      result.add(deadline);
+    }
+    return result;
+  }
+
+  /**
+   * @return unmodifiable live view of all deadlines ordered by time. The view can be iterated
+   * without synchronization, the iteration reflects deadlines which are changed concurrently or not
+   */
+  @NotNull
+  public Set<PieceDeadline> getDeadlines() {
+    return myDeadlinesView;
+  }
+
+  /**
+   * marks pieces as downloaded, e.g. when pieces are found valid in the storage. Their deadlines are
+   * removed and they don't affect statistic of met and missed deadlines
+   *
+   * @param pieces indexes of available pieces
+   */
+  public synchronized void piecesAvailable(@NotNull BitSet pieces) {
+    myDownloadedPieces.or(pieces);
+    final Iterator<Map.Entry<Integer, PieceDeadline>> iterator = myDeadlines.entrySet().iterator();
+    while (iterator.hasNext()) {
+      final Map.Entry<Integer, PieceDeadline> entry = iterator.next();
+      if (pieces.get(entry.getKey())) {
+        myDeadlinesQueue.remove(entry.getValue());
+        iterator.remove();
+      }
+    }
+  }
+
+  /**
+   * marks the piece as not downloaded, e.g. when data of the piece is found corrupted,
+   * so a deadline can be set for the piece again
+   */
+  public synchronized void pieceUnavailable(int pieceIndex) {
+    myDownloadedPieces.clear(pieceIndex);
+  }
+
+  /**
+   * removes deadline of the downloaded piece and updates statistic of met and missed deadlines
+   *
+   * @param pieceIndex index of downloaded and validated piece
+   */
+  public synchronized void pieceDownloaded(int pieceIndex) {
+    myDownloadedPieces.set(pieceIndex);
+    final PieceDeadline deadline = myDeadlines.remove(pieceIndex);
+    if (deadline == null) return;
+    myDeadlinesQueue.remove(deadline);
+    if (System.currentTimeMillis() <= deadline.getDeadline()) {
+      myMetDeadlinesCount++;
+    } else {
+      myMissedDeadlinesCount++;
+    }
+  }
+
+  public synchronized long getMetDeadlinesCount() {
+    return myMetDeadlinesCount;
+  }
+
+  public synchronized long getMissedDeadlinesCount() {
+    return myMissedDeadlinesCount;
+  }
+}
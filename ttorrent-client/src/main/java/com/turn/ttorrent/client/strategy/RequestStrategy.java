@@ -1,7 +1,5 @@
 package com.turn.ttorrent.client.strategy;
 
-import com.turn.ttorrent.client.Piece;
-
 import java.util.BitSet;
 
 /**
@@ -15,8 +13,8 @@ public interface RequestStrategy {
    * Choose a piece from the remaining pieces.
    *
    * @param interesting A set of the index of all interesting pieces
-   * @param pieces      The complete array of pieces
-   * @return The chosen piece, or <code>null</code> if no piece is interesting
+   * @param piecesCount The count of pieces in the torrent
+   * @return The index of the chosen piece, or -1 if no piece is interesting
    */
-  Piece choosePiece(BitSet interesting, Piece[] pieces);
+  int choosePiece(BitSet interesting, int piecesCount);
 }
@@ -1,10 +1,6 @@
 package com.turn.ttorrent.client.strategy;
 
-import com.turn.ttorrent.client.Piece;
-
-import java.util.ArrayList;
 import java.util.BitSet;
-import java.util.List;
 import java.util.Random;
 
 public class RequestStrategyImplAnyInteresting implements RequestStrategy {
@@ -12,12 +8,17 @@ public class RequestStrategyImplAnyInteresting implements RequestStrategy {
   private final Random myRandom = new Random();
 
   @Override
-  public Piece choosePiece(BitSet interesting, Piece[] pieces) {
-    List<Piece> onlyInterestingPieces = new ArrayList<Piece>();
-    for (Piece p : pieces) {
-      if (interesting.get(p.getIndex())) onlyInterestingPieces.add(p);
+  public int choosePiece(BitSet interesting, int piecesCount) {
+    int interestingCount = 0;
+    for (int i = interesting.nextSetBit(0); i >= 0 && i < piecesCount; i = interesting.nextSetBit(i + 1)) {
+      interestingCount++;
+    }
+    if (interestingCount == 0) return -1;
+    int chosen = myRandom.nextInt(interestingCount);
+    int result = interesting.nextSetBit(0);
+    for (; chosen > 0; chosen--) {
+      result = interesting.nextSetBit(result + 1);
     }
-    if (onlyInterestingPieces.isEmpty()) return null;
-    return onlyInterestingPieces.get(myRandom.nextInt(onlyInterestingPieces.size()));
+    return result;
   }
 }
@@ -1,7 +1,5 @@
 package com.turn.ttorrent.client.strategy;
 
-import com.turn.ttorrent.client.Piece;
-
 import java.util.BitSet;
 
 /**
@@ -12,11 +10,8 @@ import java.util.BitSet;
 public class RequestStrategyImplSequential implements RequestStrategy {
 
   @Override
-  public Piece choosePiece(BitSet interesting, Piece[] pieces) {
-
-    for (Piece p : pieces) {
-      if (interesting.get(p.getIndex())) return p;
-    }
-    return null;
+  public int choosePiece(BitSet interesting, int piecesCount) {
+    final int result = interesting.nextSetBit(0);
+    return result < piecesCount ? result : -1;
   }
 }
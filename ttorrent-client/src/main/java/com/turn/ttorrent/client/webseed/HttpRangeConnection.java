@@ -0,0 +1,202 @@
+package com.turn.ttorrent.client.webseed;
+
+import com.turn.ttorrent.Constants;
+
+import javax.net.ssl.SSLSocketFactory;
+import java.io.*;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Persistent HTTP/1.1 connection which is used for downloading byte ranges from web seed.
+ * <p>
+ * Requests can be pipelined: any count of requests can be sent via {@link #sendRangeRequest(String, long, long)}
+ * and responses must be read via {@link #readRangeResponse(long, long, byte[], int)} in the same order.
+ * Server is allowed to close connection after any response, in this case {@link #isReusable()} returns false
+ * and all requests which were sent after the response must be resent using new connection.
+ */
+class HttpRangeConnection implements Closeable {
+
+  private static final String CRLF = "\r\n";
+  private static final int MAX_LINE_LENGTH = 8 * 1024;
+
+  private final String myHostHeader;
+  private final Socket mySocket;
+  private final InputStream myInput;
+  private final OutputStream myOutput;
+  private volatile boolean myReusable = true;
+
+  private HttpRangeConnection(String hostHeader, Socket socket) throws IOException {
+    myHostHeader = hostHeader;
+    mySocket = socket;
+    myInput = new BufferedInputStream(socket.getInputStream(), 64 * 1024);
+    myOutput = new BufferedOutputStream(socket.getOutputStream());
+  }
+
+  static HttpRangeConnection open(String host,
+                                  int port,
+                                  boolean secure,
+                                  int connectTimeoutMillis,
+                                  int readTimeoutMillis) throws IOException {
+    Socket socket = secure ? SSLSocketFactory.getDefault().createSocket() : new Socket();
+    try {
+      socket.setTcpNoDelay(true);
+      socket.setKeepAlive(true);
+      socket.setSoTimeout(readTimeoutMillis);
+      socket.connect(new InetSocketAddress(host, port), connectTimeoutMillis);
+    } catch (IOException e) {
+      socket.close();
+      throw e;
+    }
+    return new HttpRangeConnection(host + ":" + port, socket);
+  }
+
+  /**
+   * writes GET request for specified range into the buffer of the connection. The request is flushed on
+   * {@link #flush()} invocation or when the buffer is full
+   */
+  void sendRangeRequest(String path, long offset, long length) throws IOException {
+    StringBuilder request = new StringBuilder();
+    request.append("GET ").append(path).append(" HTTP/1.1").append(CRLF);
+    request.append("Host: ").append(myHostHeader).append(CRLF);
+    request.append("Range: bytes=").append(offset).append("-").append(offset + length - 1).append(CRLF);
+    request.append("Connection: keep-alive").append(CRLF);
+    request.append("User-Agent: ttorrent").append(CRLF);
+    request.append(CRLF);
+    myOutput.write(request.toString().getBytes(Constants.BYTE_ENCODING));
+  }
+
+  void flush() throws IOException {
+    myOutput.flush();
+  }
+
+  /**
+   * reads response for the next pipelined request and stores body of the response into specified array
+   *
+   * @param offset       offset of the requested range in the file
+   * @param length       length of the requested range
+   * @param destination  destination array
+   * @param destOffset   offset in destination array
+   * @throws RangesNotSupportedException if server ignores range header
+   * @throws IOException                  if response can not be read or server returned unexpected response.
+   *                                      The connection is not reusable after exception
+   */
+  void readRangeResponse(long offset, long length, byte[] destination, int destOffset) throws IOException {
+    try {
+      doReadResponse(offset, length, destination, destOffset);
+    } catch (IOException e) {
+      myReusable = false;
+      throw e;
+    }
+  }
+
+  private void doReadResponse(long offset, long length, byte[] destination, int destOffset) throws IOException {
+    final String statusLine = readLine();
+    final String[] statusParts = statusLine.split(" ", 3);
+    if (statusParts.length < 2 || !statusParts[0].startsWith("HTTP/1.")) {
+      throw new IOException("Invalid status line of http response: " + statusLine);
+    }
+    final int statusCode;
+    try {
+      statusCode = Integer.parseInt(statusParts[1]);
+    } catch (NumberFormatException e) {
+      throw new IOException("Invalid status line of http response: " + statusLine);
+    }
+    final Map<String, String> headers = readHeaders();
+
+    final String connectionHeader = headers.get("connection");
+    if ("close".equalsIgnoreCase(connectionHeader) ||
+            (statusLine.startsWith("HTTP/1.0") && !"keep-alive".equalsIgnoreCase(connectionHeader))) {
+      myReusable = false;
+    }
+
+    if (headers.containsKey("transfer-encoding") && !"identity".equalsIgnoreCase(headers.get("transfer-encoding"))) {
+      throw new IOException("Unsupported transfer encoding " + headers.get("transfer-encoding"));
+    }
+
+    final String contentLengthHeader = headers.get("content-length");
+    if (contentLengthHeader == null) {
+      throw new IOException("Response doesn't contain content length, status " + statusCode);
+    }
+    final long contentLength;
+    try {
+      contentLength = Long.parseLong(contentLengthHeader.trim());
+    } catch (NumberFormatException e) {
+      throw new IOException("Invalid content length " + contentLengthHeader);
+    }
+
+    if (statusCode == 206) {
+      if (contentLength != length) {
+        throw new IOException("Unexpected length of partial content " + contentLength + ", expected " + length);
+      }
+      final String contentRange = headers.get("content-range");
+      if (contentRange != null && !contentRange.trim().startsWith("bytes " + offset + "-")) {
+        throw new IOException("Unexpected content range " + contentRange + ", expected start " + offset);
+      }
+      readFully(destination, destOffset, (int) length);
+      return;
+    }
+    if (statusCode == 200) {
+      if (offset == 0 && contentLength == length) {
+        // whole file was requested
+        readFully(destination, destOffset, (int) length);
+        return;
+      }
+      // rest of the file isn't read, so the connection can't be used anymore
+      myReusable = false;
+      throw new RangesNotSupportedException("Web seed ignores range header and sends whole file of " + contentLength + " bytes");
+    }
+    myReusable = false;
+    throw new IOException("Unexpected http response status " + statusLine);
+  }
+
+  private Map<String, String> readHeaders() throws IOException {
+    Map<String, String> result = new HashMap<String, String>();
+    String line;
+    while (!(line = readLine()).isEmpty()) {
+      final int separator = line.indexOf(':');
+      if (separator <= 0) continue;
+      result.put(line.substring(0, separator).trim().toLowerCase(), line.substring(separator + 1).trim());
+    }
+    return result;
+  }
+
+  private String readLine() throws IOException {
+    StringBuilder sb = new StringBuilder();
+    while (true) {
+      final int b = myInput.read();
+      if (b == -1) {
+        throw new EOFException("Connection was closed by web seed");
+      }
+      if (b == '\n') break;
+      if (b != '\r') sb.append((char) b);
+      if (sb.length() > MAX_LINE_LENGTH) {
+        throw new IOException("Too long line in http response");
+      }
+    }
+    return sb.toString();
+  }
+
+  private void readFully(byte[] destination, int offset, int length) throws IOException {
+    int read = 0;
+    while (read < length) {
+      final int count = myInput.read(destination, offset + read, length - read);
+      if (count == -1) {
+        throw new EOFException("Connection was closed by web seed, read " + read + " bytes from " + length);
+      }
+      read += count;
+    }
+  }
+
+  boolean isReusable() {
+    return myReusable && !mySocket.isClosed();
+  }
+
+  @Override
+  public void close() throws IOException {
+    myReusable = false;
+    mySocket.close();
+  }
+}
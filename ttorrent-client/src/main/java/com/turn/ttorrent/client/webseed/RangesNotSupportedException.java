@@ -0,0 +1,14 @@
+package com.turn.ttorrent.client.webseed;
+
+import java.io.IOException;
+
+/**
+ * Thrown when web seed ignores range header and sends whole file instead of requested range.
+ * Downloading from such web seed would transfer whole file for every piece, so it must not be used
+ */
+class RangesNotSupportedException extends IOException {
+
+  RangesNotSupportedException(String message) {
+    super(message);
+  }
+}
@@ -0,0 +1,202 @@
+package com.turn.ttorrent.client.webseed;
+
+import com.turn.ttorrent.client.PeerInformation;
+import com.turn.ttorrent.common.TorrentFile;
+import com.turn.ttorrent.common.TorrentMetadata;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.UnsupportedEncodingException;
+import java.net.InetSocketAddress;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.net.URLEncoder;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Http server which contains all files of the torrent. The web seed is represented as pseudo-peer which
+ * has all pieces of the torrent. Each piece is mapped to one or more byte ranges of files on the server.
+ *
+ * @see <a href="http://bittorrent.org/beps/bep_0019.html">http://bittorrent.org/beps/bep_0019.html</a>
+ */
+public class WebSeed implements PeerInformation {
+
+  private static final String CLIENT_IDENTIFIER = "WebSeed";
+
+  private final String myUrl;
+  private final String myHost;
+  private final int myPort;
+  private final boolean mySecure;
+  private final List<String> myFilePaths;
+  private final long[] myFileOffsets;
+  private final long[] myFileSizes;
+
+  private WebSeed(String url, String host, int port, boolean secure, List<String> filePaths, long[] fileOffsets, long[] fileSizes) {
+    myUrl = url;
+    myHost = host;
+    myPort = port;
+    mySecure = secure;
+    myFilePaths = filePaths;
+    myFileOffsets = fileOffsets;
+    myFileSizes = fileSizes;
+  }
+
+  /**
+   * @param url      web seed url from url-list of the torrent
+   * @param metadata metadata of the torrent
+   * @return new web seed instance
+   * @throws MalformedURLException if url is incorrect or url has unsupported protocol
+   */
+  public static WebSeed create(@NotNull String url, @NotNull TorrentMetadata metadata) throws MalformedURLException {
+    final URL parsed = new URL(url);
+    final String protocol = parsed.getProtocol();
+    final boolean secure;
+    if ("http".equalsIgnoreCase(protocol)) {
+      secure = false;
+    } else if ("https".equalsIgnoreCase(protocol)) {
+      secure = true;
+    } else {
+      throw new MalformedURLException("Unsupported protocol of web seed " + url);
+    }
+    final int port = parsed.getPort() == -1 ? parsed.getDefaultPort() : parsed.getPort();
+    final String basePath = parsed.getPath().isEmpty() ? "/" : parsed.getPath();
+    // query is preserved, it can contain e.g. access token
+    final String query = parsed.getQuery() == null ? "" : "?" + parsed.getQuery();
+
+    final List<TorrentFile> files = metadata.getFiles();
+    final String name = metadata.getDirectoryName();
+    final boolean singleFile = files.size() == 1 &&
+            files.get(0).relativePath.equals(Collections.singletonList(name));
+
+    List<String> filePaths = new ArrayList<String>(files.size());
+    long[] fileOffsets = new long[files.size()];
+    long[] fileSizes = new long[files.size()];
+    long offset = 0;
+    for (int i = 0; i < files.size(); i++) {
+      final TorrentFile file = files.get(i);
+      final String path;
+      if (file.padFile) {
+        // pad files contain only zeros and aren't present on the server
+        path = null;
+      } else if (singleFile) {
+        path = (basePath.endsWith("/") ? basePath + encode(name) : basePath) + query;
+      } else {
+        StringBuilder sb = new StringBuilder(basePath);
+        if (!basePath.endsWith("/")) sb.append("/");
+        sb.append(encode(name));
+        for (String pathElement : file.relativePath) {
+          sb.append("/").append(encode(pathElement));
+        }
+        path = sb.append(query).toString();
+      }
+      filePaths.add(path);
+      fileOffsets[i] = offset;
+      fileSizes[i] = file.size;
+      offset += file.size;
+    }
+    return new WebSeed(url, parsed.getHost(), port, secure, filePaths, fileOffsets, fileSizes);
+  }
+
+  private static String encode(String pathElement) {
+    try {
+      return URLEncoder.encode(pathElement, "UTF-8").replace("+", "%20");
+    } catch (UnsupportedEncodingException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  /**
+   * @param torrentOffset offset of the piece in the torrent
+   * @param length        length of the piece
+   * @return list of ranges of files on the server which must be downloaded for getting the piece.
+   * Ranges are sorted by offset in the piece
+   */
+  List<Range> getRanges(long torrentOffset, long length) {
+    List<Range> result = new ArrayList<Range>();
+    final long end = torrentOffset + length;
+    for (int i = firstFileIndex(torrentOffset); i < myFileOffsets.length; i++) {
+      final long fileStart = myFileOffsets[i];
+      final long fileEnd = fileStart + myFileSizes[i];
+      if (fileStart >= end) break;
+      if (myFileSizes[i] == 0 || myFilePaths.get(i) == null) continue;
+      final long rangeStart = Math.max(fileStart, torrentOffset);
+      final long rangeEnd = Math.min(fileEnd, end);
+      result.add(new Range(myFilePaths.get(i), rangeStart - fileStart, rangeEnd - rangeStart, (int) (rangeStart - torrentOffset)));
+    }
+    return result;
+  }
+
+  /**
+   * @return index of the first file which ends after specified offset of the torrent
+   */
+  private int firstFileIndex(long offset) {
+    int low = 0;
+    int high = myFileOffsets.length;
+    while (low < high) {
+      final int middle = (low + high) >>> 1;
+      if (myFileOffsets[middle] + myFileSizes[middle] <= offset) {
+        low = middle + 1;
+      } else {
+        high = middle;
+      }
+    }
+    return low;
+  }
+
+  String getHost() {
+    return myHost;
+  }
+
+  int getPort() {
+    return myPort;
+  }
+
+  boolean isSecure() {
+    return mySecure;
+  }
+
+  public String getUrl() {
+    return myUrl;
+  }
+
+  @Override
+  public InetSocketAddress getAddress() {
+    return InetSocketAddress.createUnresolved(myHost, myPort);
+  }
+
+  @Override
+  public byte[] getId() {
+    return new byte[0];
+  }
+
+  @Override
+  public String getClientIdentifier() {
+    return CLIENT_IDENTIFIER;
+  }
+
+  @Override
+  public int getClientVersion() {
+    return 0;
+  }
+
+  @Override
+  public String toString() {
+    return "WebSeed{" + myUrl + "}";
+  }
+
+  static class Range {
+
+    final String path;
+    final long fileOffset;
+    final long length;
+    final int pieceOffset;
+
+    Range(String path, long fileOffset, long length, int pieceOffset) {
+      this.path = path;
+      this.fileOffset = fileOffset;
+      this.length = length;
+      this.pieceOffset = pieceOffset;
+    }
+  }
+}
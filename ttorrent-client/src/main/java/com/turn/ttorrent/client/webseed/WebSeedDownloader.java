@@ -0,0 +1,294 @@
+package com.turn.ttorrent.client.webseed;
+
+import com.turn.ttorrent.client.Piece;
+import com.turn.ttorrent.client.SharedTorrent;
+import com.turn.ttorrent.common.LoggerUtils;
+import com.turn.ttorrent.common.TorrentLoggerFactory;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.slf4j.Logger;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Downloads pieces of the torrent from one web seed. Pieces are requested as pipelined http range requests
+ * over one keep-alive connection: up to {@link #getPipelineDepth()} pieces are requested before
+ * response for the first piece is read, so the connection is never idle while there is something to download.
+ * <p>
+ * Downloaded pieces aren't validated by the downloader, they are passed to {@link WebSeedListener}
+ * and must be validated in the same way as pieces received from peers.
+ */
+public class WebSeedDownloader implements Runnable {
+
+  private static final Logger logger = TorrentLoggerFactory.getLogger(WebSeedDownloader.class);
+
+  private static final int DEFAULT_PIPELINE_DEPTH = 4;
+  private static final int DEFAULT_CONNECT_TIMEOUT_MILLIS = 10000;
+  private static final int DEFAULT_READ_TIMEOUT_MILLIS = 30000;
+  private static final int MAX_CONNECTION_FAILURES = 5;
+  private static final int MAX_INVALID_PIECES = 3;
+  private static final long IDLE_PAUSE_MILLIS = 500;
+  private static final long FAILURE_PAUSE_MILLIS = 1000;
+
+  private final WebSeed myWebSeed;
+  private final SharedTorrent myTorrent;
+  private final WebSeedListener myListener;
+  private final AtomicBoolean myStop = new AtomicBoolean(false);
+  private final AtomicInteger myInvalidPieces = new AtomicInteger();
+  private final LinkedList<PendingPiece> myPending = new LinkedList<PendingPiece>();
+  private volatile int myPipelineDepth = DEFAULT_PIPELINE_DEPTH;
+  private volatile int myConnectTimeoutMillis = DEFAULT_CONNECT_TIMEOUT_MILLIS;
+  private volatile int myReadTimeoutMillis = DEFAULT_READ_TIMEOUT_MILLIS;
+  @Nullable
+  private volatile HttpRangeConnection myConnection;
+  @Nullable
+  private volatile Thread myThread;
+
+  public WebSeedDownloader(@NotNull WebSeed webSeed, @NotNull SharedTorrent torrent, @NotNull WebSeedListener listener) {
+    myWebSeed = webSeed;
+    myTorrent = torrent;
+    myListener = listener;
+  }
+
+  public synchronized void start() {
+    if (myThread != null) return;
+    final Thread thread = new Thread(this, "ttorrent web seed downloader " + myWebSeed.getUrl());
+    thread.setDaemon(true);
+    myThread = thread;
+    thread.start();
+  }
+
+  /**
+   * stops downloading. Pieces which are requested but not received yet will be released
+   * and can be downloaded from other peers
+   */
+  public void stop() {
+    myStop.set(true);
+    closeConnection();
+    final Thread thread = myThread;
+    if (thread != null) {
+      thread.interrupt();
+    }
+  }
+
+  public boolean isStopped() {
+    return myStop.get();
+  }
+
+  /**
+   * waits until downloader's thread is finished
+   */
+  public void join(long millis) throws InterruptedException {
+    final Thread thread = myThread;
+    if (thread != null) {
+      thread.join(millis);
+    }
+  }
+
+  @Override
+  public void run() {
+    int connectionFailures = 0;
+    try {
+      initTorrentIfNecessary();
+      while (!myStop.get() && !myTorrent.isComplete()) {
+        try {
+          if (downloadNextRange()) {
+            connectionFailures = 0;
+          } else {
+            Thread.sleep(IDLE_PAUSE_MILLIS);
+          }
+        } catch (RangesNotSupportedException e) {
+          logger.warn("Web seed {} doesn't support byte ranges, stop downloading from it", myWebSeed);
+          break;
+        } catch (IOException e) {
+          closeConnection();
+          if (myStop.get()) break;
+          connectionFailures++;
+          if (connectionFailures >= MAX_CONNECTION_FAILURES) {
+            LoggerUtils.warnAndDebugDetails(logger, "unable to download data from web seed {}", myWebSeed, e);
+            break;
+          }
+          logger.debug("I/O error in downloading data from web seed {}: {}", myWebSeed, e.toString());
+          Thread.sleep(FAILURE_PAUSE_MILLIS * connectionFailures);
+        }
+      }
+    } catch (InterruptedException e) {
+      logger.debug("web seed downloader {} was interrupted", myWebSeed);
+    } catch (IOException e) {
+      LoggerUtils.warnAndDebugDetails(logger, "unable to initialize torrent {}", myTorrent, e);
+    } catch (Throwable e) {
+      LoggerUtils.warnAndDebugDetails(logger, "unhandled exception in web seed downloader {}", myWebSeed, e);
+    } finally {
+      myStop.set(true);
+      closeConnection();
+      releasePendingPieces();
+    }
+  }
+
+  private void initTorrentIfNecessary() throws InterruptedException, IOException {
+    synchronized (myTorrent) {
+      if (!myTorrent.isInitialized()) {
+        myTorrent.init();
+      }
+    }
+  }
+
+  /**
+   * @return false if there is nothing to download at the moment
+   */
+  private boolean downloadNextRange() throws IOException {
+    HttpRangeConnection connection = myConnection;
+    if (connection == null || !connection.isReusable()) {
+      closeConnection();
+      if (myPending.isEmpty() && !requestNewPieces(null)) {
+        return false;
+      }
+      connection = HttpRangeConnection.open(myWebSeed.getHost(), myWebSeed.getPort(), myWebSeed.isSecure(),
+              myConnectTimeoutMillis, myReadTimeoutMillis);
+      myConnection = connection;
+      if (myStop.get()) {
+        closeConnection();
+        return false;
+      }
+      for (PendingPiece pending : myPending) {
+        pending.sendRequests(connection);
+      }
+    }
+    requestNewPieces(connection);
+    connection.flush();
+
+    final PendingPiece head = myPending.peek();
+    if (head == null) return false;
+
+    head.readNextResponse(connection);
+    if (head.isReceived()) {
+      myPending.poll();
+      pieceReceived(head);
+    }
+    return true;
+  }
+
+  /**
+   * requests new pieces from the torrent and sends requests for these pieces into the connection
+   *
+   * @return true if new pieces were selected
+   */
+  private boolean requestNewPieces(@Nullable HttpRangeConnection connection) throws IOException {
+    final List<Piece> pieces = myTorrent.requestPiecesForWebSeed(myPipelineDepth - myPending.size());
+    for (Piece piece : pieces) {
+      final long torrentOffset = (long) piece.getIndex() * myTorrent.getPieceLength();
+      final PendingPiece pending = new PendingPiece(piece, myWebSeed.getRanges(torrentOffset, piece.size()));
+      myPending.add(pending);
+      if (connection != null) {
+        pending.sendRequests(connection);
+      }
+    }
+    return !pieces.isEmpty();
+  }
+
+  private void pieceReceived(PendingPiece pending) {
+    final Piece piece = pending.piece;
+    synchronized (piece) {
+      if (piece.isValid()) {
+        myTorrent.cancelWebSeedRequest(piece);
+        return;
+      }
+      piece.record(ByteBuffer.wrap(pending.data), 0);
+    }
+    myTorrent.handleWebSeedPieceCompleted(piece);
+    myListener.handleWebSeedPieceCompleted(this, piece);
+  }
+
+  /**
+   * notifies the downloader that the piece from the web seed is not valid.
+   * Downloader will be stopped if web seed returns too many invalid pieces
+   */
+  public void pieceValidationFailed(Piece piece) {
+    final int invalidPieces = myInvalidPieces.incrementAndGet();
+    logger.info("Downloaded piece #{} from web seed {} was not valid", piece.getIndex(), myWebSeed);
+    if (invalidPieces >= MAX_INVALID_PIECES) {
+      logger.warn("Web seed {} returned {} invalid pieces, stop downloading from it", myWebSeed, invalidPieces);
+      stop();
+    }
+  }
+
+  private void releasePendingPieces() {
+    for (PendingPiece pending : myPending) {
+      myTorrent.cancelWebSeedRequest(pending.piece);
+    }
+    myPending.clear();
+  }
+
+  private void closeConnection() {
+    final HttpRangeConnection connection = myConnection;
+    myConnection = null;
+    if (connection == null) return;
+    try {
+      connection.close();
+    } catch (IOException e) {
+      logger.debug("unable to close connection to web seed " + myWebSeed, e);
+    }
+  }
+
+  public WebSeed getWebSeed() {
+    return myWebSeed;
+  }
+
+  public SharedTorrent getTorrent() {
+    return myTorrent;
+  }
+
+  public int getPipelineDepth() {
+    return myPipelineDepth;
+  }
+
+  /**
+   * @param pipelineDepth max count of pieces which are requested from web seed at the same time
+   */
+  public void setPipelineDepth(int pipelineDepth) {
+    if (pipelineDepth <= 0) throw new IllegalArgumentException("pipeline depth must be positive");
+    myPipelineDepth = pipelineDepth;
+  }
+
+  public void setTimeouts(int connectTimeoutMillis, int readTimeoutMillis) {
+    myConnectTimeoutMillis = connectTimeoutMillis;
+    myReadTimeoutMillis = readTimeoutMillis;
+  }
+
+  private static class PendingPiece {
+
+    private final Piece piece;
+    private final List<WebSeed.Range> ranges;
+    private final byte[] data;
+    private int nextRange;
+
+    PendingPiece(Piece piece, List<WebSeed.Range> ranges) {
+      this.piece = piece;
+      this.ranges = ranges;
+      this.data = new byte[(int) piece.size()];
+      this.nextRange = 0;
+    }
+
+    void sendRequests(HttpRangeConnection connection) throws IOException {
+      for (int i = nextRange; i < ranges.size(); i++) {
+        final WebSeed.Range range = ranges.get(i);
+        connection.sendRangeRequest(range.path, range.fileOffset, range.length);
+      }
+    }
+
+    void readNextResponse(HttpRangeConnection connection) throws IOException {
+      final WebSeed.Range range = ranges.get(nextRange);
+      connection.readRangeResponse(range.fileOffset, range.length, data, range.pieceOffset);
+      nextRange++;
+    }
+
+    boolean isReceived() {
+      return nextRange >= ranges.size();
+    }
+  }
+}
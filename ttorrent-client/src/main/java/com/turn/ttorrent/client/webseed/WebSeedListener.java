@@ -0,0 +1,19 @@
+package com.turn.ttorrent.client.webseed;
+
+import com.turn.ttorrent.client.Piece;
+
+import java.util.EventListener;
+
+public interface WebSeedListener extends EventListener {
+
+  /**
+   * Invoked when all bytes of the piece are received from web seed and recorded to the piece.
+   * The piece is not validated yet, implementation must validate it and store it like piece received from peer.
+   * If the piece is not valid implementation should invoke {@link WebSeedDownloader#pieceValidationFailed(Piece)}
+   *
+   * @param downloader downloader which received the piece
+   * @param piece      received piece
+   */
+  void handleWebSeedPieceCompleted(WebSeedDownloader downloader, Piece piece);
+
+}
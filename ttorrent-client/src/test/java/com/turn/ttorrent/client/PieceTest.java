@@ -0,0 +1,150 @@
+package com.turn.ttorrent.client;
+
+import com.turn.ttorrent.client.peer.PeerActivityListener;
+import com.turn.ttorrent.client.peer.SharingPeer;
+import com.turn.ttorrent.client.storage.PieceStorageImpl;
+import com.turn.ttorrent.client.strategy.RequestStrategyImplSequential;
+import com.turn.ttorrent.common.Digests;
+import com.turn.ttorrent.common.MerklePieceInfo;
+import com.turn.ttorrent.common.MerkleTree;
+import com.turn.ttorrent.common.TorrentMetadata;
+import com.turn.ttorrent.common.TorrentStatistic;
+import com.turn.ttorrent.common.creation.MetaVersion;
+import com.turn.ttorrent.common.creation.MetadataBuilder;
+import org.testng.annotations.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ByteChannel;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Random;
+
+import static org.mockito.Mockito.mock;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNotSame;
+import static org.testng.Assert.assertSame;
+import static org.testng.Assert.assertTrue;
+
+@Test
+public class PieceTest {
+
+  public void testValidationWithSharedHashes() throws IOException {
+    final byte[] first = new byte[]{1, 2, 3, 4};
+    final byte[] second = new byte[]{5, 6, 7};
+    final byte[] hashes = new byte[40];
+    System.arraycopy(Digests.sha1(first), 0, hashes, 0, 20);
+    System.arraycopy(Digests.sha1(second), 0, hashes, 20, 20);
+
+    final Piece piece = new Piece(null, 1, second.length, hashes, 20, null);
+    assertTrue(piece.removeInvalidBlocks().isEmpty());
+    piece.record(ByteBuffer.wrap(second), 0);
+    assertTrue(piece.validate(null, piece));
+
+    final Piece corrupted = new Piece(null, 0, first.length, hashes, 0, null);
+    corrupted.record(ByteBuffer.wrap(second), 0);
+    assertFalse(corrupted.validate(null, corrupted));
+  }
+
+  public void testPieceWithoutHashIsInvalid() throws IOException {
+    final byte[] data = new byte[]{1, 2, 3};
+    final Piece piece = new Piece(null, 2, data.length, new byte[40], 40, null);
+    piece.record(ByteBuffer.wrap(data), 0);
+    assertFalse(piece.validate(null, piece));
+    assertEquals(piece.getIndex(), 2);
+  }
+
+  public void testBlockHashesReceivedInParts() throws IOException {
+    final int pieceLength = 4 * MerkleTree.BLOCK_SIZE;
+    final byte[] data = new byte[2 * pieceLength];
+    new Random(1).nextBytes(data);
+    final TorrentMetadata metadata = new MetadataBuilder()
+            .setMetaVersion(MetaVersion.V2)
+            .setDirectoryName("dir")
+            .setPieceLength(pieceLength)
+            .addDataSource(new ByteArrayInputStream(data), "file.bin")
+            .build();
+    final MerklePieceInfo merkleInfo = MerklePieceInfo.create(metadata)[1];
+    final Piece piece = new Piece(null, 1, pieceLength, new byte[0], 0, merkleInfo);
+    final byte[] hashes = merkleInfo.calculateBlockHashes(Arrays.copyOfRange(data, pieceLength, data.length));
+    final int half = 2 * MerkleTree.HASH_SIZE;
+
+    // corrupted parts are rejected when all blocks are received
+    final byte[] corrupted = Arrays.copyOfRange(hashes, half, hashes.length);
+    corrupted[0]++;
+    assertFalse(piece.addBlockHashes(2, corrupted));
+    assertFalse(piece.addBlockHashes(0, Arrays.copyOf(hashes, half)));
+    assertFalse(piece.hasBlockHashes());
+
+    assertFalse(piece.addBlockHashes(2, Arrays.copyOfRange(hashes, half, hashes.length)));
+    assertFalse(piece.hasBlockHashes());
+    assertTrue(piece.addBlockHashes(0, Arrays.copyOf(hashes, half)));
+    assertTrue(piece.hasBlockHashes());
+  }
+
+  public void testFindCorruptingPeers() throws IOException {
+    final byte[] data = new byte[]{1, 2, 3, 4, 5, 6, 7, 8};
+    final byte[] corrupted = new byte[]{9, 9, 9, 9};
+    final Piece piece = new Piece(null, 0, data.length, Digests.sha1(data), 0, null);
+    final SharingPeer first = createPeer("1");
+    final SharingPeer second = createPeer("2");
+    final SharingPeer third = createPeer("3");
+
+    piece.record(ByteBuffer.wrap(corrupted), 0, first);
+    piece.record(ByteBuffer.wrap(data, 4, 4), 4, second);
+    assertFalse(piece.validate(null, piece));
+
+    // the block at the same offset is received again, the first peer must not be forgotten
+    piece.record(ByteBuffer.wrap(data, 0, 4), 0, second);
+    piece.record(ByteBuffer.wrap(corrupted), 4, third);
+    assertFalse(piece.validate(null, piece));
+
+    piece.record(ByteBuffer.wrap(data, 4, 4), 4, second);
+    assertTrue(piece.validate(null, piece));
+    assertEquals(piece.findCorruptingPeers(), new HashSet<SharingPeer>(Arrays.asList(first, third)));
+    assertEquals(piece.findCorruptingPeers(), Collections.emptySet());
+  }
+
+  public void testPieceObjectsAreCreatedOnlyForDownloadedPieces() throws Exception {
+    final int pieceLength = 512;
+    final byte[] data = new byte[3 * pieceLength - 10];
+    new Random(2).nextBytes(data);
+    final TorrentMetadata metadata = new MetadataBuilder()
+            .setPieceLength(pieceLength)
+            .addDataSource(new ByteArrayInputStream(data), "file.bin")
+            .build();
+    final BitSet available = new BitSet();
+    available.set(0);
+    final SharedTorrent torrent = new SharedTorrent(metadata,
+            new PieceStorageImpl(new ByteArrayStorage(data.length), available, 3, pieceLength),
+            new RequestStrategyImplSequential(), new TorrentStatistic(), new EventDispatcher());
+    torrent.init();
+
+    // pieces which aren't downloaded are views of the torrent's state
+    assertTrue(torrent.getPiece(0).isValid());
+    assertFalse(torrent.getPiece(1).isValid());
+    assertNotSame(torrent.getPiece(1), torrent.getPiece(1));
+    assertEquals(torrent.getPiece(1), torrent.getPiece(1));
+    assertEquals(torrent.getPiece(1).hashCode(), torrent.getPiece(1).hashCode());
+    assertEquals(torrent.getPiece(2).size(), pieceLength - 10);
+
+    // downloaded piece keeps received blocks until it's validated
+    final Piece piece = torrent.requestPiecesForWebSeed(1).get(0);
+    assertEquals(piece.getIndex(), 1);
+    assertSame(torrent.getPiece(1), piece);
+    piece.record(ByteBuffer.wrap(data, pieceLength, pieceLength), 0);
+    assertTrue(piece.validate(torrent, piece));
+    torrent.notifyPieceDownloaded(piece, null);
+    assertNotSame(torrent.getPiece(1), piece);
+    assertTrue(torrent.getPiece(1).isValid());
+  }
+
+  private SharingPeer createPeer(String ip) {
+    return new SharingPeer(ip, 1, null, mock(SharedTorrent.class), null,
+            mock(PeerActivityListener.class), mock(ByteChannel.class), "TO", 1234);
+  }
+}
@@ -0,0 +1,113 @@
+package com.turn.ttorrent.client;
+
+import com.turn.ttorrent.client.storage.PieceStorage;
+import com.turn.ttorrent.client.storage.PieceStorageImpl;
+import com.turn.ttorrent.client.strategy.PiecePriorities;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousCloseException;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.concurrent.*;
+
+import static org.testng.Assert.*;
+
+@Test
+public class TorrentFileChannelTest {
+
+  private static final int PIECE_SIZE = 10;
+  private static final int PIECES_COUNT = 10;
+
+  private byte[] myData;
+  private PieceStorage myPieceStorage;
+  private PiecePriorities myPiecePriorities;
+  private EventDispatcher myEventDispatcher;
+
+  @BeforeMethod
+  public void setUp() {
+    myData = new byte[PIECE_SIZE * PIECES_COUNT];
+    for (int i = 0; i < myData.length; i++) {
+      myData[i] = (byte) i;
+    }
+    myPieceStorage = new PieceStorageImpl(new ByteArrayStorage(myData.length), new BitSet(), PIECES_COUNT, PIECE_SIZE);
+    myPiecePriorities = new PiecePriorities();
+    myEventDispatcher = new EventDispatcher();
+  }
+
+  public void testReadBlocksUntilPieceIsAvailable() throws Exception {
+    // file occupies bytes [25, 75) of the torrent
+    final TorrentFileChannel channel = new TorrentFileChannel(myPieceStorage, myPiecePriorities, myEventDispatcher, 25, 50, PIECE_SIZE);
+    channel.setReadAheadPieces(3);
+    channel.position(10);
+
+    ExecutorService executor = Executors.newSingleThreadExecutor();
+    try {
+      Future<byte[]> future = executor.submit(new Callable<byte[]>() {
+        @Override
+        public byte[] call() throws Exception {
+          ByteBuffer buffer = ByteBuffer.allocate(20);
+          while (buffer.hasRemaining()) {
+            channel.read(buffer);
+          }
+          return buffer.array();
+        }
+      });
+
+      Thread.sleep(200);
+      assertFalse(future.isDone());
+      BitSet expectedUrgent = new BitSet();
+      expectedUrgent.set(3, 6);
+      assertEquals(myPiecePriorities.getUrgentPieces(), expectedUrgent);
+
+      savePiece(3);
+      savePiece(4);
+      savePiece(5);
+      assertEquals(future.get(5, TimeUnit.SECONDS), Arrays.copyOfRange(myData, 35, 55));
+      assertEquals(channel.position(), 30);
+    } finally {
+      executor.shutdownNow();
+    }
+
+    channel.close();
+    assertTrue(myPiecePriorities.getUrgentPieces().isEmpty());
+  }
+
+  public void testReadAfterEndOfFile() throws IOException {
+    TorrentFileChannel channel = new TorrentFileChannel(myPieceStorage, myPiecePriorities, myEventDispatcher, 0, 15, PIECE_SIZE);
+    channel.position(15);
+    assertEquals(channel.read(ByteBuffer.allocate(10)), -1);
+    assertEquals(channel.size(), 15);
+    channel.close();
+  }
+
+  public void testCloseInterruptsRead() throws Exception {
+    final TorrentFileChannel channel = new TorrentFileChannel(myPieceStorage, myPiecePriorities, myEventDispatcher, 0, 15, PIECE_SIZE);
+    ExecutorService executor = Executors.newSingleThreadExecutor();
+    try {
+      Future<Integer> future = executor.submit(new Callable<Integer>() {
+        @Override
+        public Integer call() throws Exception {
+          return channel.read(ByteBuffer.allocate(10));
+        }
+      });
+      Thread.sleep(100);
+      channel.close();
+      try {
+        future.get(5, TimeUnit.SECONDS);
+        fail("read must fail after closing the channel");
+      } catch (ExecutionException e) {
+        assertTrue(e.getCause() instanceof AsynchronousCloseException);
+      }
+    } finally {
+      executor.shutdownNow();
+    }
+    assertTrue(myPiecePriorities.getUrgentPieces().isEmpty());
+  }
+
+  private void savePiece(int index) throws IOException {
+    myPieceStorage.savePiece(index, Arrays.copyOfRange(myData, index * PIECE_SIZE, (index + 1) * PIECE_SIZE));
+  }
+}
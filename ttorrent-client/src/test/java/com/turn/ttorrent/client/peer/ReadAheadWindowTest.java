@@ -0,0 +1,31 @@
+package com.turn.ttorrent.client.peer;
+
+import org.testng.annotations.Test;
+
+import static org.testng.Assert.assertEquals;
+
+@Test
+public class ReadAheadWindowTest {
+
+  public void testWindowGrowsForSequentialRequests() {
+    final ReadAheadWindow window = new ReadAheadWindow();
+    assertEquals(window.pieceRequested(10), 0);
+    // requests of other blocks of the same piece
+    assertEquals(window.pieceRequested(10), 0);
+    assertEquals(window.pieceRequested(11), 1);
+    assertEquals(window.pieceRequested(12), 2);
+    assertEquals(window.pieceRequested(13), 4);
+    assertEquals(window.pieceRequested(14), ReadAheadWindow.MAX_PIECES);
+    assertEquals(window.pieceRequested(15), ReadAheadWindow.MAX_PIECES);
+  }
+
+  public void testWindowIsClosedForRandomRequests() {
+    final ReadAheadWindow window = new ReadAheadWindow();
+    window.pieceRequested(3);
+    assertEquals(window.pieceRequested(4), 1);
+    assertEquals(window.pieceRequested(5), 2);
+    assertEquals(window.pieceRequested(42), 0);
+    assertEquals(window.pieceRequested(7), 0);
+    assertEquals(window.pieceRequested(8), 1);
+  }
+}
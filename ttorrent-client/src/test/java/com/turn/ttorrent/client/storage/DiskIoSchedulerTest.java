@@ -0,0 +1,122 @@
+package com.turn.ttorrent.client.storage;
+
+import com.turn.ttorrent.client.ByteArrayStorage;
+import org.testng.annotations.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.*;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.testng.Assert.*;
+
+@Test
+public class DiskIoSchedulerTest {
+
+  private static final int PIECE_LENGTH = 16;
+  private static final int PIECES_COUNT = 4;
+
+  public void testAdjacentReadsAreMergedAndServedInOrder() throws Exception {
+    final byte[] data = new byte[PIECES_COUNT * PIECE_LENGTH];
+    for (int i = 0; i < data.length; i++) {
+      data[i] = (byte) i;
+    }
+    final CountDownLatch firstReadStarted = new CountDownLatch(1);
+    final CountDownLatch releaseFirstRead = new CountDownLatch(1);
+    final List<Long> readPositions = Collections.synchronizedList(new ArrayList<Long>());
+    final ByteArrayStorage byteStorage = new ByteArrayStorage(data.length) {
+      @Override
+      public int read(ByteBuffer buffer, long position) {
+        readPositions.add(position);
+        if (firstReadStarted.getCount() > 0) {
+          firstReadStarted.countDown();
+          try {
+            releaseFirstRead.await(10, TimeUnit.SECONDS);
+          } catch (InterruptedException e) {
+            throw new RuntimeException(e);
+          }
+        }
+        return super.read(buffer, position);
+      }
+    };
+    final BitSet available = new BitSet();
+    available.set(0, PIECES_COUNT);
+    byteStorage.write(ByteBuffer.wrap(data), 0);
+    final PieceStorage pieceStorage = new PieceStorageImpl(byteStorage, available, PIECES_COUNT, PIECE_LENGTH);
+
+    final DiskIoScheduler scheduler = new DiskIoScheduler(1, 100);
+    final Map<String, byte[]> results = Collections.synchronizedMap(new HashMap<String, byte[]>());
+    final CountDownLatch allRead = new CountDownLatch(6);
+    // the worker is blocked by the first read until all other reads are queued
+    scheduler.read(pieceStorage, 1, 0, 4, new Collector("1:0", results, allRead));
+    assertTrue(firstReadStarted.await(10, TimeUnit.SECONDS));
+    scheduler.read(pieceStorage, 3, 8, 4, new Collector("3:8", results, allRead));
+    scheduler.read(pieceStorage, 0, 0, 4, new Collector("0:0", results, allRead));
+    scheduler.read(pieceStorage, 3, 0, 4, new Collector("3:0", results, allRead));
+    scheduler.read(pieceStorage, 3, 4, 4, new Collector("3:4", results, allRead));
+    scheduler.read(pieceStorage, 2, 4, 8, new Collector("2:4", results, allRead));
+    assertEquals(scheduler.getQueueDepth(), 5);
+    releaseFirstRead.countDown();
+
+    assertTrue(allRead.await(10, TimeUnit.SECONDS));
+    assertEquals(results.size(), 6);
+    for (Map.Entry<String, byte[]> entry : results.entrySet()) {
+      final String[] parts = entry.getKey().split(":");
+      final int start = Integer.parseInt(parts[0]) * PIECE_LENGTH + Integer.parseInt(parts[1]);
+      assertEquals(entry.getValue(), Arrays.copyOfRange(data, start, start + entry.getValue().length), entry.getKey());
+    }
+    // elevator continues after the piece 1 and wraps around to the piece 0,
+    // three reads of the piece 3 are merged into one
+    assertEquals(readPositions, Arrays.asList(16L, 36L, 48L, 0L));
+    assertEquals(scheduler.getMergedOperationsCount(), 2);
+    assertEquals(scheduler.getCompletedOperationsCount(), 6);
+    assertEquals(scheduler.getQueueDepth(), 0);
+    scheduler.shutdown();
+  }
+
+  public void testWriteAndShutdown() throws Exception {
+    final ByteArrayStorage byteStorage = new ByteArrayStorage(PIECES_COUNT * PIECE_LENGTH);
+    final PieceStorage pieceStorage = new PieceStorageImpl(byteStorage, new BitSet(), PIECES_COUNT, PIECE_LENGTH);
+    final DiskIoScheduler scheduler = new DiskIoScheduler(2, 0);
+    assertFalse(scheduler.isCongested());
+
+    final byte[] piece = new byte[PIECE_LENGTH];
+    Arrays.fill(piece, (byte) 5);
+    scheduler.writeAndWait(pieceStorage, 2, piece);
+    assertTrue(pieceStorage.getAvailablePieces().get(2));
+    assertEquals(pieceStorage.readPiecePart(2, 0, PIECE_LENGTH), piece);
+
+    scheduler.shutdown();
+    try {
+      scheduler.writeAndWait(pieceStorage, 1, piece);
+      fail("write must fail after shutdown");
+    } catch (IOException expected) {
+    }
+    assertFalse(pieceStorage.getAvailablePieces().get(1));
+  }
+
+  private static class Collector implements DiskIoScheduler.ReadCallback {
+
+    private final String myKey;
+    private final Map<String, byte[]> myResults;
+    private final CountDownLatch myLatch;
+
+    Collector(String key, Map<String, byte[]> results, CountDownLatch latch) {
+      myKey = key;
+      myResults = results;
+      myLatch = latch;
+    }
+
+    @Override
+    public void onRead(byte[] data) {
+      myResults.put(myKey, data);
+      myLatch.countDown();
+    }
+
+    @Override
+    public void onFailure(Throwable e) {
+      myLatch.countDown();
+    }
+  }
+}
@@ -0,0 +1,131 @@
+package com.turn.ttorrent.client.storage;
+
+import com.turn.ttorrent.TempFiles;
+import com.turn.ttorrent.common.TorrentMetadata;
+import com.turn.ttorrent.common.creation.MetadataBuilder;
+import org.apache.commons.io.FileUtils;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.util.Arrays;
+import java.util.BitSet;
+
+import static org.testng.Assert.*;
+
+@Test
+public class FastResumePieceStorageFactoryTest {
+
+  private static final int PIECE_LENGTH = 10;
+
+  private TempFiles myTempFiles;
+  private File myDownloadDir;
+  private File myResumeDir;
+  private byte[] myData;
+  private TorrentMetadata myMetadata;
+
+  @BeforeMethod
+  public void setUp() throws Exception {
+    myTempFiles = new TempFiles();
+    myDownloadDir = myTempFiles.createTempDir();
+    myResumeDir = new File(myTempFiles.createTempDir(), "resume");
+    myData = new byte[40];
+    for (int i = 0; i < myData.length; i++) {
+      myData[i] = (byte) (i + 1);
+    }
+    // pieces: 0, 1 - [a], 2, 3 - [b]
+    myMetadata = new MetadataBuilder()
+            .setDirectoryName("dir")
+            .setPieceLength(PIECE_LENGTH)
+            .addDataSource(new ByteArrayInputStream(Arrays.copyOfRange(myData, 0, 20)), "a")
+            .addDataSource(new ByteArrayInputStream(Arrays.copyOfRange(myData, 20, 40)), "b")
+            .build();
+    FileUtils.writeByteArrayToFile(new File(myDownloadDir, "a"), Arrays.copyOfRange(myData, 0, 20));
+    FileUtils.writeByteArrayToFile(new File(myDownloadDir, "b"), Arrays.copyOfRange(myData, 20, 40));
+  }
+
+  @AfterMethod
+  public void tearDown() {
+    myTempFiles.cleanup();
+  }
+
+  public void testResumeDataIsTrustedForUnchangedFiles() throws Exception {
+    final FileResumeDataStorage resumeDataStorage = new FileResumeDataStorage(myResumeDir);
+    PieceStorage storage = createStorage(resumeDataStorage);
+    assertEquals(storage.getAvailablePieces().cardinality(), 4);
+    storage.close();
+    assertNotNull(resumeDataStorage.load(myMetadata.getHexInfoHash()));
+
+    // corrupted file with the same size and modification time isn't checked
+    final File a = new File(myDownloadDir, "a");
+    final long aLastModified = a.lastModified();
+    byte[] corrupted = Arrays.copyOfRange(myData, 0, 20);
+    corrupted[0]++;
+    FileUtils.writeByteArrayToFile(a, corrupted);
+    assertTrue(a.setLastModified(aLastModified));
+
+    // changed file is checked
+    final File b = new File(myDownloadDir, "b");
+    corrupted = Arrays.copyOfRange(myData, 20, 40);
+    corrupted[15]++;
+    FileUtils.writeByteArrayToFile(b, corrupted);
+    assertTrue(b.setLastModified(b.lastModified() - 10000));
+
+    storage = createStorage(resumeDataStorage);
+    BitSet expected = new BitSet();
+    expected.set(0, 3);
+    assertEquals(storage.getAvailablePieces(), expected);
+    storage.close();
+  }
+
+  public void testResumeDataIsTrustedOnlyAfterCleanShutdown() throws Exception {
+    final FileResumeDataStorage resumeDataStorage = new FileResumeDataStorage(myResumeDir);
+    PieceStorage storage = createStorage(resumeDataStorage);
+    storage.close();
+    final ResumeData saved = resumeDataStorage.load(myMetadata.getHexInfoHash());
+    assertNotNull(saved);
+    assertTrue(saved.isCleanShutdown());
+
+    // data of the running torrent is removed, so a crash doesn't leave trusted state
+    storage = createStorage(resumeDataStorage);
+    assertNull(resumeDataStorage.load(myMetadata.getHexInfoHash()));
+
+    storage.close();
+
+    // state which wasn't saved on clean shutdown is checked even if files look unchanged
+    final File a = new File(myDownloadDir, "a");
+    final long aLastModified = a.lastModified();
+    byte[] corrupted = Arrays.copyOfRange(myData, 0, 20);
+    corrupted[0]++;
+    FileUtils.writeByteArrayToFile(a, corrupted);
+    assertTrue(a.setLastModified(aLastModified));
+    resumeDataStorage.save(myMetadata.getHexInfoHash(), new ResumeData(saved.getAvailablePieces(),
+            saved.getFileStates(), saved.getPartsFileState(), false));
+
+    storage = createStorage(resumeDataStorage);
+    BitSet expected = new BitSet();
+    expected.set(1, 4);
+    assertEquals(storage.getAvailablePieces(), expected);
+    storage.close();
+  }
+
+  public void testAllPiecesAreCheckedWithoutResumeData() throws Exception {
+    final File a = new File(myDownloadDir, "a");
+    byte[] corrupted = Arrays.copyOfRange(myData, 0, 20);
+    corrupted[0]++;
+    FileUtils.writeByteArrayToFile(a, corrupted);
+
+    PieceStorage storage = createStorage(new FileResumeDataStorage(myResumeDir));
+    BitSet expected = new BitSet();
+    expected.set(1, 4);
+    assertEquals(storage.getAvailablePieces(), expected);
+    storage.close();
+  }
+
+  private PieceStorage createStorage(ResumeDataStorage resumeDataStorage) throws Exception {
+    return new FastResumePieceStorageFactory(resumeDataStorage)
+            .createStorage(myMetadata, FileCollectionStorage.create(myMetadata, myDownloadDir));
+  }
+}
@@ -0,0 +1,109 @@
+package com.turn.ttorrent.client.storage;
+
+import com.turn.ttorrent.TempFiles;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.testng.Assert.*;
+
+@Test
+public class FileChannelPoolTest {
+
+  private static final int FILES_COUNT = 10;
+  private static final int FILE_SIZE = 4;
+
+  private TempFiles myTempFiles;
+
+  @BeforeMethod
+  public void setUp() {
+    myTempFiles = new TempFiles();
+  }
+
+  @AfterMethod
+  public void tearDown() {
+    myTempFiles.cleanup();
+  }
+
+  public void testOpenFilesAreLimited() throws Exception {
+    final FileChannelPool pool = new FileChannelPool(3);
+    final File dir = myTempFiles.createTempDir();
+    List<FileStorage> files = new ArrayList<FileStorage>();
+    for (int i = 0; i < FILES_COUNT; i++) {
+      files.add(new FileStorage(new File(dir, "file" + i), i * FILE_SIZE, FILE_SIZE, pool));
+    }
+    final FileCollectionStorage storage = new FileCollectionStorage(files, FILES_COUNT * FILE_SIZE);
+    storage.open(false);
+    assertEquals(pool.getOpenFilesCount(), 0);
+
+    byte[] data = new byte[FILES_COUNT * FILE_SIZE];
+    for (int i = 0; i < data.length; i++) {
+      data[i] = (byte) i;
+    }
+    storage.write(ByteBuffer.wrap(data), 0);
+    assertEquals(pool.getOpenFilesCount(), 3);
+    assertEquals(pool.getMissesCount(), FILES_COUNT);
+    assertEquals(pool.getEvictionsCount(), FILES_COUNT - 3);
+
+    // the last file is still open
+    final long hits = pool.getHitsCount();
+    ByteBuffer buffer = ByteBuffer.allocate(FILE_SIZE - 1);
+    storage.read(buffer, (FILES_COUNT - 1) * FILE_SIZE + 1);
+    assertEquals(pool.getHitsCount(), hits + 1);
+    assertEquals(pool.getMissesCount(), FILES_COUNT);
+
+    buffer = ByteBuffer.allocate(data.length);
+    storage.read(buffer, 0);
+    assertEquals(buffer.array(), data);
+    assertTrue(pool.getOpenFilesCount() <= 3);
+
+    storage.close();
+    assertEquals(pool.getOpenFilesCount(), 0);
+  }
+
+  public void testChannelInUseIsNotEvicted() throws Exception {
+    final FileChannelPool pool = new FileChannelPool(1);
+    final File first = myTempFiles.createTempFile();
+    final File second = myTempFiles.createTempFile();
+    final Object firstOwner = new Object();
+    final Object secondOwner = new Object();
+
+    pool.acquire(firstOwner, first, "rw");
+    pool.acquire(secondOwner, second, "rw");
+    assertEquals(pool.getOpenFilesCount(), 2);
+    pool.release(secondOwner);
+    assertEquals(pool.getOpenFilesCount(), 1);
+    assertEquals(pool.getEvictionsCount(), 1);
+
+    assertTrue(pool.acquire(firstOwner, first, "rw").isOpen());
+    pool.release(firstOwner);
+    pool.release(firstOwner);
+    pool.close(firstOwner, false);
+    assertEquals(pool.getOpenFilesCount(), 0);
+  }
+
+  public void testFailedOpenReleasesSlot() throws Exception {
+    final FileChannelPool pool = new FileChannelPool(1);
+    final File missing = new File(myTempFiles.createTempDir(), "missing");
+    final Object owner = new Object();
+    try {
+      pool.acquire(owner, missing, "r");
+      fail("File doesn't exist");
+    } catch (IOException e) {
+      // expected
+    }
+    assertEquals(pool.getOpenFilesCount(), 0);
+
+    final File file = myTempFiles.createTempFile();
+    assertTrue(pool.acquire(owner, file, "rw").isOpen());
+    pool.release(owner);
+    pool.close(owner, false);
+    assertEquals(pool.getOpenFilesCount(), 0);
+  }
+}
@@ -1,19 +1,24 @@
 package com.turn.ttorrent.client.storage;
 
 import com.turn.ttorrent.TempFiles;
+import com.turn.ttorrent.common.TorrentMetadata;
+import com.turn.ttorrent.common.creation.MetadataBuilder;
+import org.testng.SkipException;
 import org.testng.annotations.AfterMethod;
 import org.testng.annotations.BeforeMethod;
 import org.testng.annotations.Test;
 
+import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
-import static org.testng.Assert.assertEquals;
-import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.*;
 
 /**
  * User: loyd
@@ -69,6 +74,197 @@ public class FileCollectionStorageTest {
     }
   }
 
+  @Test
+  public void testDirectReadsOfSeededFiles() throws Exception {
+    final byte[] data = new byte[300 * 1024 + 5];
+    for (int i = 0; i < data.length; i++) {
+      data[i] = (byte) (i * 31 + i / 4096);
+    }
+    final int firstSize = 5000;
+    final File file1 = tempFiles.createTempFile();
+    final File file2 = tempFiles.createTempFile();
+    writeFile(file1, Arrays.copyOfRange(data, 0, firstSize));
+    writeFile(file2, Arrays.copyOfRange(data, firstSize, data.length));
+    final DirectFileReader probe = DirectFileReader.open(file1);
+    if (probe == null) {
+      throw new SkipException("Direct I/O isn't supported by the file system of temporary files");
+    }
+    probe.close();
+
+    // direct readers are limited by the pool as channels
+    final FileChannelPool pool = new FileChannelPool(1);
+    final List<FileStorage> files = new ArrayList<FileStorage>();
+    files.add(new FileStorage(file1, 0, firstSize, pool, true));
+    files.add(new FileStorage(file2, firstSize, data.length - firstSize, pool, true));
+    final FileCollectionStorage storage = new FileCollectionStorage(files, data.length);
+    storage.open(true);
+    try {
+      // unaligned reads, reads across files, reads of the end of files and reads larger than direct buffers
+      final int[][] reads = {{0, 16}, {4000, 16384}, {4999, 2}, {100000, 16384}, {data.length - 3, 3}, {1, data.length - 1}};
+      for (int[] read : reads) {
+        final ByteBuffer buffer = ByteBuffer.allocate(read[1]);
+        assertEquals(storage.read(buffer, read[0]), read[1]);
+        assertEquals(buffer.array(), Arrays.copyOfRange(data, read[0], read[0] + read[1]));
+      }
+      for (FileStorage file : files) {
+        assertTrue(file.isReadingDirectly());
+      }
+      assertEquals(pool.getOpenFilesCount(), 1);
+      assertTrue(pool.getEvictionsCount() > 0);
+    } finally {
+      storage.close();
+    }
+    assertEquals(pool.getOpenFilesCount(), 0);
+  }
+
+  @Test
+  public void testSkippedFileIsNotCreated() throws Exception {
+    final File dir = tempFiles.createTempDir();
+    final byte[] data = new byte[40];
+    for (int i = 0; i < data.length; i++) {
+      data[i] = (byte) (i + 1);
+    }
+    // pieces: 0 - [a], 1 - [a, b], 2 - [b], 3 - [b, c]
+    final TorrentMetadata metadata = new MetadataBuilder()
+            .setDirectoryName("dir")
+            .setPieceLength(10)
+            .addDataSource(new ByteArrayInputStream(Arrays.copyOfRange(data, 0, 15)), "a")
+            .addDataSource(new ByteArrayInputStream(Arrays.copyOfRange(data, 15, 35)), "b")
+            .addDataSource(new ByteArrayInputStream(Arrays.copyOfRange(data, 35, 40)), "c")
+            .build();
+    final FileCollectionStorage storage = FileCollectionStorage.create(metadata, dir);
+    final File b = new File(dir, "b");
+    final File partsFile = new File(dir, "." + metadata.getHexInfoHash() + ".parts");
+
+    storage.setFileSkipped(1, true);
+    storage.open(false);
+    try {
+      writePiece(data, 1, storage);
+      writePiece(data, 3, storage);
+      assertFalse(b.exists());
+      assertFalse(new File(b.getAbsolutePath() + ".part").exists());
+      assertTrue(new File(dir, "a.part").exists());
+      assertTrue(partsFile.exists());
+      assertEquals(read(10, 10, storage), Arrays.copyOfRange(data, 10, 20));
+      assertEquals(read(30, 10, storage), Arrays.copyOfRange(data, 30, 40));
+      assertEquals(read(20, 10, storage), new byte[10]);
+
+      storage.setFileSkipped(1, false);
+      assertTrue(new File(b.getAbsolutePath() + ".part").exists());
+      writePiece(data, 0, storage);
+      writePiece(data, 2, storage);
+      storage.finish();
+    } finally {
+      storage.close();
+    }
+    check(Arrays.copyOfRange(data, 15, 35), b);
+    check(Arrays.copyOfRange(data, 35, 40), new File(dir, "c"));
+    assertFalse(partsFile.exists());
+  }
+
+  @Test
+  public void testReadAndWriteAcrossEmptyFiles() throws Exception {
+    final File dir = tempFiles.createTempDir();
+    // sizes of files, empty files are placed at the start, in the middle and at the end
+    final int[] sizes = {0, 3, 0, 0, 1, 5, 0, 2, 0};
+    final List<FileStorage> files = new ArrayList<FileStorage>();
+    long offset = 0;
+    for (int i = 0; i < sizes.length; i++) {
+      files.add(new FileStorage(new File(dir, "file" + i), offset, sizes[i]));
+      offset += sizes[i];
+    }
+    final FileCollectionStorage storage = new FileCollectionStorage(files, offset);
+    final byte[] data = new byte[(int) offset];
+    for (int i = 0; i < data.length; i++) {
+      data[i] = (byte) (i + 1);
+    }
+
+    storage.open(false);
+    try {
+      // buffer with non-zero position
+      final ByteBuffer buffer = ByteBuffer.allocate(data.length + 2);
+      buffer.position(2);
+      buffer.put(data, 0, 2);
+      buffer.position(2);
+      storage.write(buffer, 0);
+      storage.write(ByteBuffer.wrap(Arrays.copyOfRange(data, 2, data.length)), 2);
+
+      for (int from = 0; from < data.length; from++) {
+        for (int to = from + 1; to <= data.length; to++) {
+          assertEquals(read(from, to - from, storage), Arrays.copyOfRange(data, from, to));
+        }
+      }
+      storage.finish();
+    } finally {
+      storage.close();
+    }
+    check(Arrays.copyOfRange(data, 4, 9), new File(dir, "file5"));
+    check(Arrays.copyOfRange(data, 9, 11), new File(dir, "file7"));
+  }
+
+  @Test
+  public void testPadFilesAreNotCreated() throws Exception {
+    final File dir = tempFiles.createTempDir();
+    final File sources = tempFiles.createTempDir();
+    final byte[] data = new byte[30];
+    for (int i = 0; i < data.length; i++) {
+      data[i] = (byte) (i + 1);
+    }
+    // files: a - 15 bytes, pad - 5 bytes, b - 10 bytes
+    final File a = new File(sources, "a");
+    final File b = new File(sources, "b");
+    writeFile(a, Arrays.copyOfRange(data, 0, 15));
+    writeFile(b, Arrays.copyOfRange(data, 20, 30));
+    final TorrentMetadata metadata = new MetadataBuilder()
+            .setDirectoryName("dir")
+            .setPieceLength(10)
+            .setAlignFilesToPieces(true)
+            .addFile(a)
+            .addFile(b)
+            .build();
+    assertEquals(metadata.getFiles().size(), 3);
+    final FileCollectionStorage storage = FileCollectionStorage.create(metadata, dir);
+
+    storage.open(false);
+    try {
+      // data of pad file is dropped
+      final byte[] withGarbage = data.clone();
+      Arrays.fill(withGarbage, 15, 20, (byte) 7);
+      for (int i = 0; i < 3; i++) {
+        writePiece(withGarbage, i, storage);
+      }
+      final byte[] expected = data.clone();
+      Arrays.fill(expected, 15, 20, (byte) 0);
+      assertEquals(read(0, 30, storage), expected);
+      storage.finish();
+      assertTrue(storage.isFinished());
+    } finally {
+      storage.close();
+    }
+    assertFalse(new File(dir, ".pad").exists());
+    check(Arrays.copyOfRange(data, 0, 15), new File(dir, "a"));
+    check(Arrays.copyOfRange(data, 20, 30), new File(dir, "b"));
+  }
+
+  private void writeFile(File file, byte[] data) throws IOException {
+    final FileOutputStream out = new FileOutputStream(file);
+    try {
+      out.write(data);
+    } finally {
+      out.close();
+    }
+  }
+
+  private void writePiece(byte[] data, int pieceIndex, FileCollectionStorage storage) throws IOException {
+    storage.write(ByteBuffer.wrap(Arrays.copyOfRange(data, pieceIndex * 10, pieceIndex * 10 + 10)), pieceIndex * 10);
+  }
+
+  private byte[] read(long position, int length, FileCollectionStorage storage) throws IOException {
+    ByteBuffer buffer = ByteBuffer.allocate(length);
+    storage.read(buffer, position);
+    return buffer.array();
+  }
+
   private void write(byte[] bytes, int offset, FileCollectionStorage storage) throws IOException {
     storage.write(ByteBuffer.wrap(bytes), offset);
     storage.finish();
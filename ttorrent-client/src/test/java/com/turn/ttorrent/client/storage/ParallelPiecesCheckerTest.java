@@ -0,0 +1,144 @@
+package com.turn.ttorrent.client.storage;
+
+import com.turn.ttorrent.TempFiles;
+import com.turn.ttorrent.common.TorrentMetadata;
+import com.turn.ttorrent.common.creation.MetadataBuilder;
+import org.apache.commons.io.FileUtils;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.testng.Assert.*;
+
+@Test
+public class ParallelPiecesCheckerTest {
+
+  private static final int PIECE_LENGTH = 16;
+
+  private TempFiles myTempFiles;
+  private File myDownloadDir;
+  private byte[] myData;
+  private TorrentMetadata myMetadata;
+
+  @BeforeMethod
+  public void setUp() throws Exception {
+    myTempFiles = new TempFiles();
+    myDownloadDir = myTempFiles.createTempDir();
+    myData = new byte[10 * PIECE_LENGTH + 5];
+    new Random(1).nextBytes(myData);
+    // files: [0, 40) - a, [40, 40) - empty, [40, 165) - b
+    myMetadata = new MetadataBuilder()
+            .setDirectoryName("dir")
+            .setPieceLength(PIECE_LENGTH)
+            .addDataSource(new ByteArrayInputStream(Arrays.copyOfRange(myData, 0, 40)), "a")
+            .addDataSource(new ByteArrayInputStream(new byte[0]), "empty")
+            .addDataSource(new ByteArrayInputStream(Arrays.copyOfRange(myData, 40, myData.length)), "b")
+            .build();
+    FileUtils.writeByteArrayToFile(new File(myDownloadDir, "a"), Arrays.copyOfRange(myData, 0, 40));
+    FileUtils.writeByteArrayToFile(new File(myDownloadDir, "empty"), new byte[0]);
+  }
+
+  @AfterMethod
+  public void tearDown() {
+    myTempFiles.cleanup();
+  }
+
+  public void testCorruptedPiecesAreInvalid() throws Exception {
+    byte[] corrupted = Arrays.copyOfRange(myData, 40, myData.length);
+    // bytes of pieces 3 and 10 (the last one)
+    corrupted[50 - 40]++;
+    corrupted[corrupted.length - 1]++;
+    FileUtils.writeByteArrayToFile(new File(myDownloadDir, "b"), corrupted);
+
+    BitSet toCheck = new BitSet();
+    toCheck.set(0, myMetadata.getPiecesCount());
+    final AtomicInteger lastChecked = new AtomicInteger();
+    final BitSet valid = new ParallelPiecesChecker(2, 3).check(myMetadata,
+            FileCollectionStorage.create(myMetadata, myDownloadDir), toCheck, new PiecesCheckListener() {
+              @Override
+              public void piecesChecked(int checked, int total) {
+                assertEquals(total, 11);
+                lastChecked.set(checked);
+              }
+
+              @Override
+              public boolean isCancelled() {
+                return false;
+              }
+            });
+
+    BitSet expected = new BitSet();
+    expected.set(0, 11);
+    expected.clear(3);
+    expected.clear(10);
+    assertEquals(valid, expected);
+    assertEquals(lastChecked.get(), 11);
+  }
+
+  public void testOnlyRequestedPiecesAreChecked() throws Exception {
+    FileUtils.writeByteArrayToFile(new File(myDownloadDir, "b"), Arrays.copyOfRange(myData, 40, myData.length));
+
+    BitSet toCheck = new BitSet();
+    toCheck.set(1);
+    toCheck.set(5, 7);
+    final BitSet valid = new ParallelPiecesChecker(1, 1).check(myMetadata,
+            FileCollectionStorage.create(myMetadata, myDownloadDir), toCheck, PiecesCheckListener.NO_OP);
+    assertEquals(valid, toCheck);
+  }
+
+  public void testReaderPerDevice() throws Exception {
+    FileUtils.writeByteArrayToFile(new File(myDownloadDir, "b"), Arrays.copyOfRange(myData, 40, myData.length));
+    final FileCollectionStorage storage = FileCollectionStorage.create(myMetadata, myDownloadDir);
+    // all files are in one directory, so they are read by one reader
+    assertEquals(new HashSet<Object>(storage.getFileStores()).size(), 1);
+
+    BitSet toCheck = new BitSet();
+    toCheck.set(0, myMetadata.getPiecesCount());
+    final BitSet valid = new ParallelPiecesChecker(ParallelPiecesChecker.READER_PER_DEVICE, 2).check(myMetadata,
+            storage, toCheck, PiecesCheckListener.NO_OP);
+    assertEquals(valid, toCheck);
+  }
+
+  public void testCancel() throws Exception {
+    final TorrentByteStorage slowStorage = new FileCollectionStorage(
+            Arrays.asList(new FileStorage(new File(myDownloadDir, "a"), 0, 40)), 40) {
+      @Override
+      public int read(ByteBuffer buffer, long position) throws IOException {
+        try {
+          Thread.sleep(10000);
+        } catch (InterruptedException e) {
+          throw new InterruptedIOException();
+        }
+        return super.read(buffer, position);
+      }
+    };
+    BitSet toCheck = new BitSet();
+    toCheck.set(0, 3);
+    try {
+      new ParallelPiecesChecker(1, 1).check(myMetadata, slowStorage, toCheck, new PiecesCheckListener() {
+        @Override
+        public void piecesChecked(int checked, int total) {
+        }
+
+        @Override
+        public boolean isCancelled() {
+          return true;
+        }
+      });
+      fail("check must be cancelled");
+    } catch (InterruptedIOException e) {
+      // expected
+    }
+  }
+}
@@ -0,0 +1,184 @@
+package com.turn.ttorrent.client.storage;
+
+import com.turn.ttorrent.client.ByteArrayStorage;
+import com.turn.ttorrent.common.TorrentMetadata;
+import com.turn.ttorrent.common.TorrentParser;
+import com.turn.ttorrent.common.creation.MetadataBuilder;
+import org.testng.annotations.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.*;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.testng.Assert.*;
+
+@Test
+public class PieceCacheTest {
+
+  private static final int PIECE_LENGTH = 16;
+  private static final int PIECES_COUNT = 8;
+
+  public void testFrequentPiecesSurviveSequentialScan() {
+    final Object owner = new Object();
+    final PieceCache cache = new PieceCache(4 * PIECE_LENGTH);
+    final byte[] data = new byte[PIECE_LENGTH];
+
+    cache.put(owner, 0, data);
+    cache.put(owner, 1, data);
+    // the pieces are used twice and they are moved into the frequent list
+    assertNotNull(cache.read(owner, 0, 0, 4));
+    assertNotNull(cache.read(owner, 1, 0, 4));
+
+    for (int i = 2; i < 20; i++) {
+      cache.put(owner, i, data);
+    }
+    assertTrue(cache.contains(owner, 0));
+    assertTrue(cache.contains(owner, 1));
+    assertTrue(cache.getUsedBytes() <= cache.getMaxBytes());
+    assertTrue(cache.getEvictionsCount() > 0);
+    assertNull(cache.read(owner, 2, 0, 4));
+    assertEquals(cache.getHitsCount(), 2);
+    assertEquals(cache.getMissesCount(), 1);
+  }
+
+  public void testInvalidation() {
+    final Object first = new Object();
+    final Object second = new Object();
+    final PieceCache cache = new PieceCache(1024);
+    cache.put(first, 0, new byte[PIECE_LENGTH]);
+    cache.put(first, 1, new byte[PIECE_LENGTH]);
+    cache.put(second, 0, new byte[PIECE_LENGTH]);
+
+    cache.invalidate(first, 1);
+    assertTrue(cache.contains(first, 0));
+    assertFalse(cache.contains(first, 1));
+
+    cache.invalidateAll(first);
+    assertFalse(cache.contains(first, 0));
+    assertTrue(cache.contains(second, 0));
+    assertEquals(cache.getUsedBytes(), PIECE_LENGTH);
+
+    cache.setMaxBytes(0);
+    assertEquals(cache.getCachedPiecesCount(), 0);
+  }
+
+  public void testCachingPieceStorage() throws Exception {
+    final byte[] data = new byte[PIECES_COUNT * PIECE_LENGTH];
+    for (int i = 0; i < data.length; i++) {
+      data[i] = (byte) (i * 3);
+    }
+    final TorrentMetadata metadata = new TorrentParser().parse(new MetadataBuilder()
+            .setPieceLength(PIECE_LENGTH)
+            .addDataSource(new ByteArrayInputStream(data), "file.bin")
+            .buildBinary());
+    final AtomicInteger reads = new AtomicInteger();
+    final ByteArrayStorage byteStorage = new ByteArrayStorage(data.length) {
+      @Override
+      public int read(ByteBuffer buffer, long position) {
+        reads.incrementAndGet();
+        return super.read(buffer, position);
+      }
+    };
+    final PieceCache cache = new PieceCache(1024);
+    final CachingPieceStorage pieceStorage = new CachingPieceStorage(
+            new PieceStorageImpl(byteStorage, new BitSet(), PIECES_COUNT, PIECE_LENGTH), metadata, cache, true);
+    for (int i = 0; i < PIECES_COUNT; i++) {
+      pieceStorage.savePiece(i, Arrays.copyOfRange(data, i * PIECE_LENGTH, (i + 1) * PIECE_LENGTH));
+    }
+
+    // saved pieces are served from the cache
+    assertEquals(pieceStorage.readPiecePart(2, 4, 8), Arrays.copyOfRange(data, 2 * PIECE_LENGTH + 4, 2 * PIECE_LENGTH + 12));
+    assertEquals(reads.get(), 0);
+
+    // the view reads data on disk
+    final PieceStorage uncached = pieceStorage.getUncachedView();
+    assertEquals(uncached.readPiecePart(2, 0, 4), Arrays.copyOfRange(data, 2 * PIECE_LENGTH, 2 * PIECE_LENGTH + 4));
+    assertEquals(reads.get(), 1);
+    uncached.markPieceUnavailable(2);
+    assertFalse(cache.contains(pieceStorage, 2));
+    assertFalse(pieceStorage.getAvailablePieces().get(2));
+
+    // piece which isn't cached is read as a whole at first request
+    cache.invalidateAll(pieceStorage);
+    reads.set(0);
+    assertEquals(pieceStorage.readPiecePart(5, 0, 8), Arrays.copyOfRange(data, 5 * PIECE_LENGTH, 5 * PIECE_LENGTH + 8));
+    assertEquals(pieceStorage.readPiecePart(5, 8, 8), Arrays.copyOfRange(data, 5 * PIECE_LENGTH + 8, 6 * PIECE_LENGTH));
+    assertEquals(reads.get(), 1);
+    assertTrue(cache.getHitRatio() > 0);
+  }
+
+  public void testConcurrentMissesReadPieceOnce() throws Exception {
+    final byte[] data = new byte[PIECES_COUNT * PIECE_LENGTH];
+    for (int i = 0; i < data.length; i++) {
+      data[i] = (byte) (i * 7);
+    }
+    final TorrentMetadata metadata = new TorrentParser().parse(new MetadataBuilder()
+            .setPieceLength(PIECE_LENGTH)
+            .addDataSource(new ByteArrayInputStream(data), "file.bin")
+            .buildBinary());
+    final AtomicInteger reads = new AtomicInteger();
+    final CountDownLatch readStarted = new CountDownLatch(1);
+    final CountDownLatch readAllowed = new CountDownLatch(1);
+    final ByteArrayStorage byteStorage = new ByteArrayStorage(data.length) {
+      @Override
+      public int read(ByteBuffer buffer, long position) {
+        reads.incrementAndGet();
+        readStarted.countDown();
+        try {
+          readAllowed.await();
+        } catch (InterruptedException e) {
+          throw new RuntimeException(e);
+        }
+        return super.read(buffer, position);
+      }
+    };
+    byteStorage.write(ByteBuffer.wrap(data), 0);
+    final BitSet available = new BitSet();
+    available.set(0, PIECES_COUNT);
+    final CachingPieceStorage pieceStorage = new CachingPieceStorage(
+            new PieceStorageImpl(byteStorage, available, PIECES_COUNT, PIECE_LENGTH), metadata, new PieceCache(1024), false);
+
+    final int readersCount = 8;
+    final List<Thread> readers = new ArrayList<Thread>();
+    final List<byte[]> results = Collections.synchronizedList(new ArrayList<byte[]>());
+    for (int i = 0; i < readersCount; i++) {
+      final int offset = i % 2 * 8;
+      readers.add(new Thread() {
+        @Override
+        public void run() {
+          try {
+            results.add(pieceStorage.readPiecePart(3, offset, 8));
+          } catch (IOException e) {
+            throw new RuntimeException(e);
+          }
+        }
+      });
+    }
+    readers.get(0).start();
+    readStarted.await();
+    for (int i = 1; i < readersCount; i++) {
+      readers.get(i).start();
+    }
+    // other readers wait for the read of the first one
+    for (int i = 1; i < readersCount; i++) {
+      while (readers.get(i).getState() != Thread.State.WAITING) {
+        Thread.sleep(1);
+      }
+    }
+    readAllowed.countDown();
+    for (Thread reader : readers) {
+      reader.join();
+    }
+
+    assertEquals(reads.get(), 1);
+    assertEquals(results.size(), readersCount);
+    for (byte[] result : results) {
+      assertTrue(Arrays.equals(result, Arrays.copyOfRange(data, 3 * PIECE_LENGTH, 3 * PIECE_LENGTH + 8)) ||
+              Arrays.equals(result, Arrays.copyOfRange(data, 3 * PIECE_LENGTH + 8, 4 * PIECE_LENGTH)));
+    }
+    assertTrue(pieceStorage.isPieceCached(3));
+  }
+}
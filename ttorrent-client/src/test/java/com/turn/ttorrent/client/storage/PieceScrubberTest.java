@@ -0,0 +1,72 @@
+package com.turn.ttorrent.client.storage;
+
+import com.turn.ttorrent.client.ByteArrayStorage;
+import com.turn.ttorrent.common.TorrentMetadata;
+import com.turn.ttorrent.common.TorrentParser;
+import com.turn.ttorrent.common.TorrentStatistic;
+import com.turn.ttorrent.common.creation.MetadataBuilder;
+import org.testng.annotations.Test;
+
+import java.io.ByteArrayInputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.testng.Assert.*;
+
+@Test
+public class PieceScrubberTest {
+
+  private static final int PIECE_LENGTH = 16;
+  private static final int PIECES_COUNT = 6;
+
+  public void testCorruptedPieceIsMarkedUnavailable() throws Exception {
+    final byte[] data = new byte[PIECES_COUNT * PIECE_LENGTH];
+    for (int i = 0; i < data.length; i++) {
+      data[i] = (byte) (i * 7);
+    }
+    final TorrentMetadata metadata = new TorrentParser().parse(new MetadataBuilder()
+            .setPieceLength(PIECE_LENGTH)
+            .addDataSource(new ByteArrayInputStream(data), "file.bin")
+            .buildBinary());
+    final ByteArrayStorage byteStorage = new ByteArrayStorage(data.length);
+    final PieceStorage pieceStorage = new PieceStorageImpl(byteStorage, new BitSet(), PIECES_COUNT, PIECE_LENGTH);
+    for (int i = 0; i < PIECES_COUNT; i++) {
+      pieceStorage.savePiece(i, Arrays.copyOfRange(data, i * PIECE_LENGTH, (i + 1) * PIECE_LENGTH));
+    }
+    // bit rot in the piece 4
+    byteStorage.write(ByteBuffer.wrap(new byte[]{1}), 4 * PIECE_LENGTH + 3);
+
+    final BlockingQueue<Integer> corrupted = new LinkedBlockingQueue<Integer>();
+    final PieceScrubber scrubber = new PieceScrubber(metadata, pieceStorage, new TorrentStatistic(), new PieceScrubber.Listener() {
+      @Override
+      public void pieceCorrupted(int pieceIndex) {
+        corrupted.add(pieceIndex);
+      }
+    }, 1024 * 1024);
+    scrubber.start();
+    try {
+      assertEquals(corrupted.poll(10, TimeUnit.SECONDS), Integer.valueOf(4));
+      final long deadline = System.currentTimeMillis() + 10000;
+      while (scrubber.getCompletedRoundsCount() < 2 && System.currentTimeMillis() < deadline) {
+        Thread.sleep(10);
+      }
+    } finally {
+      scrubber.stop();
+      scrubber.join(5000);
+    }
+
+    assertTrue(scrubber.getCompletedRoundsCount() >= 2);
+    assertTrue(corrupted.isEmpty());
+    assertEquals(scrubber.getCorruptedPiecesCount(), 1);
+    assertTrue(scrubber.getScrubbedPiecesCount() >= PIECES_COUNT * 2 - 1);
+    BitSet expected = new BitSet();
+    expected.set(0, PIECES_COUNT);
+    expected.clear(4);
+    assertEquals(pieceStorage.getAvailablePieces(), expected);
+    assertFalse(pieceStorage.isFinished());
+  }
+}
@@ -11,6 +11,7 @@ import java.util.Arrays;
 import java.util.BitSet;
 
 import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
 import static org.testng.Assert.assertTrue;
 
 public class PieceStorageImplTest {
@@ -67,9 +68,33 @@ public class PieceStorageImplTest {
     assertEquals(pieceStorage.getAvailablePieces().cardinality(), 0);
     for (int i = 0; i < pieceCount; i++) {
       assertEquals(pieceStorage.getAvailablePieces().cardinality(), i);
+      assertFalse(pieceStorage.isPieceAvailable(i));
       pieceStorage.savePiece(i, Arrays.copyOfRange(allPieces, i * pieceSize, (i + 1) * pieceSize));
+      assertTrue(pieceStorage.isPieceAvailable(i));
     }
     assertEquals(pieceStorage.getAvailablePieces().cardinality(), pieceCount);
+    assertTrue(pieceStorage.isPieceAvailable(pieceCount - 1));
+    assertFalse(pieceStorage.isPieceAvailable(pieceCount));
+    assertEquals(pieceStorage.nextAvailablePiece(1), 1);
+    assertEquals(pieceStorage.nextAvailablePiece(pieceCount), -1);
+  }
+
+  @Test
+  public void testMarkPieceUnavailableInFinishedStorage() throws IOException {
+    for (int i = 0; i < pieceCount; i++) {
+      pieceStorage.savePiece(i, Arrays.copyOfRange(allPieces, i * pieceSize, (i + 1) * pieceSize));
+    }
+    assertTrue(pieceStorage.isFinished());
+
+    pieceStorage.markPieceUnavailable(2);
+    assertFalse(pieceStorage.isFinished());
+    assertEquals(pieceStorage.getAvailablePieces().cardinality(), pieceCount - 1);
+    assertFalse(pieceStorage.getAvailablePieces().get(2));
+    assertFalse(pieceStorage.isPieceAvailable(2));
+    assertEquals(pieceStorage.nextAvailablePiece(2), 3);
+
+    pieceStorage.savePiece(2, Arrays.copyOfRange(allPieces, 2 * pieceSize, 3 * pieceSize));
+    assertTrue(pieceStorage.isFinished());
   }
 
   @Test(expectedExceptions = IllegalArgumentException.class)
@@ -0,0 +1,66 @@
+package com.turn.ttorrent.client.strategy;
+
+import com.turn.ttorrent.client.Piece;
+import com.turn.ttorrent.client.peer.Rate;
+import com.turn.ttorrent.client.peer.SharingPeer;
+import org.testng.annotations.Test;
+
+import java.util.*;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+import static org.testng.Assert.assertEquals;
+
+@Test
+public class DeadlineStrategyImplTest {
+
+  private static final int PIECE_LENGTH = 16;
+
+  public void testUnavailableAndValidPiecesDontBlockLaterDeadlines() {
+    final PiecePriorities priorities = new PiecePriorities();
+    final long now = System.currentTimeMillis();
+    // the earliest deadlines belong to pieces which the peer doesn't have or which are valid
+    for (int i = 0; i < 20; i++) {
+      priorities.setDeadline(i, now + i);
+    }
+    priorities.setDeadline(25, now + 100);
+    priorities.setDeadline(22, now + 200);
+    priorities.setDeadline(27, now + 300);
+
+    final BitSet available = new BitSet();
+    for (int i = 0; i < 20; i += 2) {
+      available.set(i);
+    }
+    available.set(22);
+    available.set(25);
+    available.set(27);
+    final SharingPeer peer = createPeer(available);
+    final BitSet interesting = (BitSet) available.clone();
+    for (int i = 0; i < 20; i += 2) {
+      interesting.clear(i);
+    }
+
+    final List<Integer> chosen = new DeadlineStrategyImpl(2).choosePieces(peer, interesting, new BitSet(),
+            PIECE_LENGTH, Collections.singletonList(peer), priorities.getDeadlines(), 2, now);
+    assertEquals(chosen, Arrays.asList(25, 22));
+  }
+
+  public void testNothingIsChosenWithoutFreeSlots() {
+    final PiecePriorities priorities = new PiecePriorities();
+    priorities.setDeadline(3, System.currentTimeMillis());
+    final BitSet available = new BitSet();
+    available.set(3);
+    final List<Integer> chosen = new DeadlineStrategyImpl(2).choosePieces(createPeer(available), available,
+            new BitSet(), PIECE_LENGTH, Collections.<SharingPeer>emptyList(), priorities.getDeadlines(), 0,
+            System.currentTimeMillis());
+    assertEquals(chosen.size(), 0);
+  }
+
+  private static SharingPeer createPeer(BitSet available) {
+    final SharingPeer peer = mock(SharingPeer.class);
+    when(peer.getAvailablePieces()).thenReturn(available);
+    when(peer.getDLRate()).thenReturn(new Rate());
+    when(peer.getRequestedPieces()).thenReturn(Collections.<Piece>emptySet());
+    return peer;
+  }
+}
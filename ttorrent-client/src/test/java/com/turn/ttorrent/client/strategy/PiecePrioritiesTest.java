@@ -0,0 +1,96 @@
+package com.turn.ttorrent.client.strategy;
+
+import com.turn.ttorrent.common.TorrentFile;
+import org.testng.annotations.Test;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.List;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+@Test
+public class PiecePrioritiesTest {
+
+  public void testDeadlinesAreOrderedByTime() {
+    PiecePriorities priorities = new PiecePriorities();
+    final long now = System.currentTimeMillis();
+    priorities.setDeadline(5, now + 3000);
+    priorities.setDeadline(2, now + 1000);
+    priorities.setDeadline(7, now + 2000);
+    priorities.setDeadline(5, now + 500);
+
+    final List<PieceDeadline> deadlines = priorities.getEarliestDeadlines(2);
+    assertEquals(deadlines.size(), 2);
+    assertEquals(deadlines.get(0).getPieceIndex(), 5);
+    assertEquals(deadlines.get(1).getPieceIndex(), 2);
+
+    priorities.removeDeadline(5);
+    assertEquals(priorities.getEarliestDeadlines(10).size(), 2);
+    assertEquals(priorities.getEarliestDeadlines(10).get(0).getPieceIndex(), 2);
+  }
+
+  public void testMetAndMissedDeadlines() {
+    PiecePriorities priorities = new PiecePriorities();
+    final long now = System.currentTimeMillis();
+    priorities.setDeadline(1, now + 60000);
+    priorities.setDeadline(2, now - 1000);
+
+    priorities.pieceDownloaded(1);
+    priorities.pieceDownloaded(2);
+    priorities.pieceDownloaded(3);
+
+    assertEquals(priorities.getMetDeadlinesCount(), 1);
+    assertEquals(priorities.getMissedDeadlinesCount(), 1);
+    assertTrue(priorities.getEarliestDeadlines(10).isEmpty());
+  }
+
+  public void testDeadlinesOfDownloadedPiecesAreIgnored() {
+    PiecePriorities priorities = new PiecePriorities();
+    final long now = System.currentTimeMillis();
+    priorities.setDeadline(1, now + 1000);
+    priorities.setDeadline(4, now + 2000);
+    BitSet available = new BitSet();
+    available.set(1);
+    available.set(3);
+    priorities.piecesAvailable(available);
+    assertEquals(priorities.getDeadlines().size(), 1);
+    assertEquals(priorities.getDeadlines().iterator().next().getPieceIndex(), 4);
+
+    priorities.setDeadline(3, now + 500);
+    priorities.pieceDownloaded(4);
+    priorities.setDeadline(4, now + 500);
+    assertTrue(priorities.getDeadlines().isEmpty());
+    assertEquals(priorities.getMetDeadlinesCount(), 1);
+
+    priorities.pieceUnavailable(3);
+    priorities.setDeadline(3, now + 500);
+    assertEquals(priorities.getEarliestDeadlines(10).get(0).getPieceIndex(), 3);
+  }
+
+  public void testSkippedPiecesOfFiles() {
+    List<TorrentFile> files = new ArrayList<TorrentFile>();
+    files.add(new TorrentFile(Collections.singletonList("a"), 15, null));
+    files.add(new TorrentFile(Collections.singletonList("b"), 20, null));
+    files.add(new TorrentFile(Collections.singletonList("c"), 5, null));
+    PiecePriorities priorities = new PiecePriorities(files, 10);
+    assertTrue(priorities.getSkippedPieces().isEmpty());
+
+    priorities.setFilePriority(1, FilePriority.SKIP);
+    BitSet expected = new BitSet();
+    expected.set(2);
+    assertEquals(priorities.getSkippedPieces(), expected);
+
+    priorities.setFilePriority(0, FilePriority.SKIP);
+    expected.set(0, 2);
+    assertEquals(priorities.getSkippedPieces(), expected);
+
+    priorities.setFilePriority(2, FilePriority.HIGH);
+    BitSet interesting = new BitSet();
+    interesting.set(1, 4);
+    assertEquals(priorities.chooseHighPriorityPiece(interesting), 3);
+    assertEquals(priorities.getFilePriority(2), FilePriority.HIGH);
+  }
+}
@@ -0,0 +1,346 @@
+package com.turn.ttorrent.client.webseed;
+
+import com.turn.ttorrent.client.ByteArrayStorage;
+import com.turn.ttorrent.client.EventDispatcher;
+import com.turn.ttorrent.client.Piece;
+import com.turn.ttorrent.client.SharedTorrent;
+import com.turn.ttorrent.client.storage.PieceStorage;
+import com.turn.ttorrent.client.storage.PieceStorageImpl;
+import com.turn.ttorrent.client.strategy.RequestStrategyImplAnyInteresting;
+import com.turn.ttorrent.common.TorrentMetadata;
+import com.turn.ttorrent.common.TorrentStatistic;
+import com.turn.ttorrent.common.creation.MetadataBuilder;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.io.*;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.testng.Assert.*;
+
+@Test
+public class WebSeedDownloaderTest {
+
+  private static final int PIECE_LENGTH = 512;
+
+  private HttpServerStub myServer;
+  private byte[] myFirstFile;
+  private byte[] mySecondFile;
+  private byte[] myThirdFile;
+
+  @BeforeMethod
+  public void setUp() throws IOException {
+    Random random = new Random(42);
+    myFirstFile = new byte[1000];
+    mySecondFile = new byte[2500];
+    myThirdFile = new byte[700];
+    random.nextBytes(myFirstFile);
+    random.nextBytes(mySecondFile);
+    random.nextBytes(myThirdFile);
+    myServer = new HttpServerStub();
+    myServer.addFile("/seed/dir/first.bin", myFirstFile);
+    myServer.addFile("/seed/dir/sub%20dir/second.bin", mySecondFile);
+    myServer.addFile("/seed/dir/third.bin", myThirdFile);
+    myServer.start();
+  }
+
+  @AfterMethod
+  public void tearDown() throws IOException {
+    myServer.stop();
+  }
+
+  public void testDownloadFromWebSeed() throws Exception {
+    final TorrentMetadata metadata = createMetadata();
+    final PieceStorage pieceStorage = createStorage(metadata);
+    final SharedTorrent torrent = createTorrent(metadata, pieceStorage);
+
+    ValidatingListener listener = new ValidatingListener();
+    WebSeedDownloader downloader = new WebSeedDownloader(
+            WebSeed.create(metadata.getWebSeedUrlList().get(0), metadata), torrent, listener);
+    downloader.start();
+    downloader.join(30000);
+
+    assertTrue(downloader.isStopped());
+    assertTrue(torrent.isComplete());
+    assertEquals(listener.invalidPieces.get(), 0);
+    assertEquals(readAll(pieceStorage, metadata), concat(myFirstFile, mySecondFile, myThirdFile));
+    assertEquals(myServer.getConnectionsCount(), 1);
+    // piece which crosses file boundary is requested as two ranges
+    assertTrue(myServer.getRequestsCount() > metadata.getPiecesCount());
+  }
+
+  public void testReconnectWhenServerClosesConnection() throws Exception {
+    myServer.setResponsesPerConnection(3);
+    final TorrentMetadata metadata = createMetadata();
+    final PieceStorage pieceStorage = createStorage(metadata);
+    final SharedTorrent torrent = createTorrent(metadata, pieceStorage);
+
+    WebSeedDownloader downloader = new WebSeedDownloader(
+            WebSeed.create(metadata.getWebSeedUrlList().get(0), metadata), torrent, new ValidatingListener());
+    downloader.start();
+    downloader.join(30000);
+
+    assertTrue(torrent.isComplete());
+    assertEquals(readAll(pieceStorage, metadata), concat(myFirstFile, mySecondFile, myThirdFile));
+    assertTrue(myServer.getConnectionsCount() > 1);
+  }
+
+  public void testStopDownloadingFromCorruptedWebSeed() throws Exception {
+    myServer.addFile("/seed/dir/third.bin", new byte[myThirdFile.length]);
+    final TorrentMetadata metadata = createMetadata();
+    final PieceStorage pieceStorage = createStorage(metadata);
+    final SharedTorrent torrent = createTorrent(metadata, pieceStorage);
+
+    ValidatingListener listener = new ValidatingListener();
+    WebSeedDownloader downloader = new WebSeedDownloader(
+            WebSeed.create(metadata.getWebSeedUrlList().get(0), metadata), torrent, listener);
+    downloader.start();
+    downloader.join(30000);
+
+    assertTrue(downloader.isStopped());
+    assertFalse(torrent.isComplete());
+    assertTrue(listener.invalidPieces.get() >= 3);
+  }
+
+  public void testStopDownloadingFromWebSeedWithoutRanges() throws Exception {
+    myServer.setIgnoreRanges(true);
+    final TorrentMetadata metadata = createMetadata();
+    final PieceStorage pieceStorage = createStorage(metadata);
+    final SharedTorrent torrent = createTorrent(metadata, pieceStorage);
+
+    WebSeedDownloader downloader = new WebSeedDownloader(
+            WebSeed.create(metadata.getWebSeedUrlList().get(0), metadata), torrent, new ValidatingListener());
+    downloader.start();
+    downloader.join(30000);
+
+    assertTrue(downloader.isStopped());
+    assertFalse(torrent.isComplete());
+    // the downloader doesn't reconnect after the first response with whole file
+    assertEquals(myServer.getConnectionsCount(), 1);
+  }
+
+  public void testQueryOfUrlIsPreserved() throws Exception {
+    final TorrentMetadata metadata = createMetadata();
+    WebSeed webSeed = WebSeed.create("http://localhost/seed?token=abc", metadata);
+
+    final List<WebSeed.Range> ranges = webSeed.getRanges(PIECE_LENGTH, PIECE_LENGTH);
+    assertEquals(ranges.size(), 2);
+    assertEquals(ranges.get(0).path, "/seed/dir/first.bin?token=abc");
+    assertEquals(ranges.get(1).path, "/seed/dir/sub%20dir/second.bin?token=abc");
+    assertEquals(ranges.get(1).fileOffset, 0);
+    assertEquals(ranges.get(1).pieceOffset, myFirstFile.length - PIECE_LENGTH);
+  }
+
+  public void testSingleFileUrls() throws Exception {
+    final TorrentMetadata metadata = new MetadataBuilder()
+            .addDataSource(new ByteArrayInputStream(myFirstFile), "first.bin")
+            .setPieceLength(PIECE_LENGTH)
+            .build();
+
+    WebSeed directoryUrl = WebSeed.create("http://localhost:8080/seed/", metadata);
+    WebSeed fileUrl = WebSeed.create("http://localhost/files/data.bin", metadata);
+
+    final List<WebSeed.Range> directoryRanges = directoryUrl.getRanges(PIECE_LENGTH, myFirstFile.length - PIECE_LENGTH);
+    assertEquals(directoryRanges.size(), 1);
+    assertEquals(directoryRanges.get(0).path, "/seed/first.bin");
+    assertEquals(directoryRanges.get(0).fileOffset, PIECE_LENGTH);
+    assertEquals(directoryUrl.getPort(), 8080);
+
+    final List<WebSeed.Range> fileRanges = fileUrl.getRanges(0, PIECE_LENGTH);
+    assertEquals(fileRanges.get(0).path, "/files/data.bin");
+    assertEquals(fileUrl.getPort(), 80);
+  }
+
+  private TorrentMetadata createMetadata() throws IOException {
+    return new MetadataBuilder()
+            .setDirectoryName("dir")
+            .addDataSource(new ByteArrayInputStream(myFirstFile), "first.bin")
+            .addDataSource(new ByteArrayInputStream(mySecondFile), "sub dir/second.bin")
+            .addDataSource(new ByteArrayInputStream(myThirdFile), "third.bin")
+            .addWebSeedUrl("http://127.0.0.1:" + myServer.getPort() + "/seed")
+            .setPieceLength(PIECE_LENGTH)
+            .build();
+  }
+
+  private PieceStorage createStorage(TorrentMetadata metadata) {
+    final int totalSize = myFirstFile.length + mySecondFile.length + myThirdFile.length;
+    return new PieceStorageImpl(new ByteArrayStorage(totalSize), new BitSet(), metadata.getPiecesCount(), PIECE_LENGTH);
+  }
+
+  private SharedTorrent createTorrent(TorrentMetadata metadata, PieceStorage pieceStorage) {
+    return new SharedTorrent(metadata, pieceStorage, new RequestStrategyImplAnyInteresting(),
+            new TorrentStatistic(), new EventDispatcher());
+  }
+
+  private byte[] readAll(PieceStorage pieceStorage, TorrentMetadata metadata) throws IOException {
+    ByteArrayOutputStream result = new ByteArrayOutputStream();
+    final int totalSize = myFirstFile.length + mySecondFile.length + myThirdFile.length;
+    for (int i = 0; i < metadata.getPiecesCount(); i++) {
+      result.write(pieceStorage.readPiecePart(i, 0, Math.min(PIECE_LENGTH, totalSize - i * PIECE_LENGTH)));
+    }
+    return result.toByteArray();
+  }
+
+  private byte[] concat(byte[]... arrays) throws IOException {
+    ByteArrayOutputStream result = new ByteArrayOutputStream();
+    for (byte[] array : arrays) {
+      result.write(array);
+    }
+    return result.toByteArray();
+  }
+
+  private static class ValidatingListener implements WebSeedListener {
+
+    private final AtomicInteger invalidPieces = new AtomicInteger();
+
+    @Override
+    public void handleWebSeedPieceCompleted(WebSeedDownloader downloader, Piece piece) {
+      final SharedTorrent torrent = downloader.getTorrent();
+      try {
+        synchronized (piece) {
+          if (piece.validate(torrent, piece)) {
+            piece.finish();
+            torrent.markCompleted(piece);
+          } else {
+            invalidPieces.incrementAndGet();
+            downloader.pieceValidationFailed(piece);
+          }
+        }
+      } catch (IOException e) {
+        fail("", e);
+      }
+    }
+  }
+
+  /**
+   * Minimal http server which supports keep-alive connections, pipelined requests and range header
+   */
+  private static class HttpServerStub implements Runnable {
+
+    private final Map<String, byte[]> myFiles = new HashMap<String, byte[]>();
+    private final ServerSocket myServerSocket;
+    private final AtomicInteger myConnectionsCount = new AtomicInteger();
+    private final AtomicInteger myRequestsCount = new AtomicInteger();
+    private volatile int myResponsesPerConnection = Integer.MAX_VALUE;
+    private volatile boolean myIgnoreRanges = false;
+    private final List<Socket> mySockets = Collections.synchronizedList(new ArrayList<Socket>());
+
+    HttpServerStub() throws IOException {
+      myServerSocket = new ServerSocket(0);
+    }
+
+    synchronized void addFile(String path, byte[] content) {
+      myFiles.put(path, content);
+    }
+
+    void setResponsesPerConnection(int responsesPerConnection) {
+      myResponsesPerConnection = responsesPerConnection;
+    }
+
+    void setIgnoreRanges(boolean ignoreRanges) {
+      myIgnoreRanges = ignoreRanges;
+    }
+
+    int getPort() {
+      return myServerSocket.getLocalPort();
+    }
+
+    int getConnectionsCount() {
+      return myConnectionsCount.get();
+    }
+
+    int getRequestsCount() {
+      return myRequestsCount.get();
+    }
+
+    void start() {
+      Thread thread = new Thread(this, "http server stub");
+      thread.setDaemon(true);
+      thread.start();
+    }
+
+    void stop() throws IOException {
+      myServerSocket.close();
+      synchronized (mySockets) {
+        for (Socket socket : mySockets) {
+          socket.close();
+        }
+      }
+    }
+
+    @Override
+    public void run() {
+      while (!myServerSocket.isClosed()) {
+        try {
+          final Socket socket = myServerSocket.accept();
+          myConnectionsCount.incrementAndGet();
+          mySockets.add(socket);
+          Thread handler = new Thread(new Runnable() {
+            @Override
+            public void run() {
+              handleConnection(socket);
+            }
+          });
+          handler.setDaemon(true);
+          handler.start();
+        } catch (IOException e) {
+          return;
+        }
+      }
+    }
+
+    private void handleConnection(Socket socket) {
+      try {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(socket.getInputStream(), "ISO-8859-1"));
+        OutputStream output = socket.getOutputStream();
+        int responses = 0;
+        String requestLine;
+        while ((requestLine = reader.readLine()) != null) {
+          if (requestLine.isEmpty()) continue;
+          myRequestsCount.incrementAndGet();
+          String range = null;
+          String header;
+          while ((header = reader.readLine()) != null && !header.isEmpty()) {
+            if (header.toLowerCase().startsWith("range:")) {
+              range = header.substring("range:".length()).trim();
+            }
+          }
+          final byte[] content;
+          synchronized (this) {
+            content = myFiles.get(requestLine.split(" ")[1]);
+          }
+          responses++;
+          final boolean close = responses >= myResponsesPerConnection;
+          final String connectionHeader = "Connection: " + (close ? "close" : "keep-alive") + "\r\n";
+          if (content == null) {
+            output.write(("HTTP/1.1 404 Not Found\r\nContent-Length: 0\r\n" + connectionHeader + "\r\n").getBytes("ISO-8859-1"));
+          } else if (range == null || myIgnoreRanges) {
+            output.write(("HTTP/1.1 200 OK\r\nContent-Length: " + content.length + "\r\n" + connectionHeader + "\r\n").getBytes("ISO-8859-1"));
+            output.write(content);
+          } else {
+            final String[] bounds = range.substring("bytes=".length()).split("-");
+            final int start = Integer.parseInt(bounds[0]);
+            final int end = Integer.parseInt(bounds[1]);
+            output.write(("HTTP/1.1 206 Partial Content\r\n" +
+                    "Content-Length: " + (end - start + 1) + "\r\n" +
+                    "Content-Range: bytes " + start + "-" + end + "/" + content.length + "\r\n" +
+                    connectionHeader + "\r\n").getBytes("ISO-8859-1"));
+            output.write(content, start, end - start + 1);
+          }
+          output.flush();
+          if (close) break;
+        }
+      } catch (IOException ignored) {
+      } finally {
+        try {
+          socket.close();
+        } catch (IOException ignored) {
+        }
+      }
+    }
+  }
+}